@@ -22,8 +22,11 @@ import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.DdmUiPreferences;
 import com.android.ddmuilib.PortFieldEditor;
+import com.android.ddmuilib.logcat.LogCatArchive;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
+import com.android.prefs.AndroidLocation;
+import com.android.prefs.AndroidLocation.AndroidLocationException;
 import com.android.sdkstats.DdmsPreferenceStore;
 import com.android.sdkstats.SdkStatsPermissionDialog;
 
@@ -164,6 +167,12 @@ public final class PrefsDialog {
         DdmPreferences.setProfilerBufferSizeMb(prefStore.getInt(PREFS_PROFILER_BUFFER_SIZE_MB));
         DdmPreferences.setUseAdbHost(prefStore.getBoolean(PREFS_USE_ADBHOST));
         DdmPreferences.setAdbHostValue(prefStore.getString(PREFS_ADBHOST_VALUE));
+        try {
+            DdmPreferences.setEventTagCacheLocation(
+                    AndroidLocation.getFolder() + "event-log-tags"); //$NON-NLS-1$
+        } catch (AndroidLocationException e) {
+            // the event log tags are only cached in memory.
+        }
 
         // some static values
         String out = System.getenv("ANDROID_PRODUCT_OUT"); //$NON-NLS-1$
@@ -460,6 +469,13 @@ public final class PrefsDialog {
                         "Maximum number of logcat messages to buffer",
                         getFieldEditorParent());
                 addField(maxMessages);
+
+                DirectoryFieldEditor archiveFolder = new DirectoryFieldEditor(
+                        LogCatArchive.ARCHIVE_FOLDER_PREFKEY,
+                        "Folder to archive all logcat messages (optional):",
+                        getFieldEditorParent());
+                archiveFolder.setEmptyStringAllowed(true);
+                addField(archiveFolder);
             }
         }
     }
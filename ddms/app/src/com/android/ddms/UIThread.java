@@ -24,7 +24,7 @@ import com.android.ddmlib.Log;
 import com.android.ddmlib.SyncException;
 import com.android.ddmlib.SyncService;
 import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
-import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
 import com.android.ddmlib.ClientData.MethodProfilingStatus;
 import com.android.ddmlib.Log.ILogOutput;
 import com.android.ddmlib.Log.LogLevel;
@@ -316,7 +316,7 @@ public class UIThread implements IUiSelectionListener, IClientChangeListener {
      * Handler for HPROF dumps.
      * This will always prompt the user to save the HPROF file.
      */
-    private class HProfHandler extends BaseFileHandler implements IHprofDumpHandler {
+    private class HProfHandler extends BaseFileHandler implements IHprofDumpFileHandler {
 
         public HProfHandler(Shell parentShell) {
             super(parentShell);
@@ -384,6 +384,15 @@ public class UIThread implements IUiSelectionListener, IClientChangeListener {
             });
         }
 
+        public void onSuccess(final File hprofFile, final Client client) {
+            mDisplay.asyncExec(new Runnable() {
+                public void run() {
+                    promptAndSave(client.getClientData().getClientDescription() + ".hprof",
+                            hprofFile, "Save HPROF file");
+                }
+            });
+        }
+
         @Override
         protected String getDialogTitle() {
             return "HPROF Error";
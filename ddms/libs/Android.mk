@@ -3,3 +3,4 @@
 DDMSLIBS_LOCAL_DIR := $(call my-dir)
 include $(DDMSLIBS_LOCAL_DIR)/ddmlib/Android.mk
 include $(DDMSLIBS_LOCAL_DIR)/ddmuilib/Android.mk
+include $(DDMSLIBS_LOCAL_DIR)/hprofanalyzer/Android.mk
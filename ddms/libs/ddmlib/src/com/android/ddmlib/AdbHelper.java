@@ -23,21 +23,28 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 /**
  * Helper class to handle requests and connections to adb.
  * <p/>{@link DebugBridgeServer} is the public API to connection to adb, while {@link AdbHelper}
  * does the low level stuff.
- * <p/>This currently uses spin-wait non-blocking I/O. A Selector would be more efficient,
- * but seems like overkill for what we're doing here.
+ * <p/>This uses non-blocking I/O. When a channel is not ready, the calling thread waits
+ * for it on a {@link java.nio.channels.Selector} (see {@link ChannelSelector}) rather than
+ * sleeping, so data is processed as soon as it arrives.
  */
 final class AdbHelper {
 
     // public static final long kOkay = 0x59414b4fL;
     // public static final long kFail = 0x4c494146L;
 
-    static final int WAIT_TIME = 5; // spin-wait sleep, in ms
+    /**
+     * Maximum time to wait for data in the shell and log loops before checking again
+     * whether the receiver was cancelled, in ms.
+     */
+    static final int CANCEL_CHECK_TIME = 25;
 
     static final String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
@@ -269,15 +276,47 @@ final class AdbHelper {
             throws TimeoutException, AdbCommandRejectedException, IOException {
 
         RawImage imageParams = new RawImage();
+
+        SocketChannel adbChan = null;
+        try {
+            adbChan = openFrameBuffer(adbSockAddr, device, imageParams);
+            if (adbChan == null) {
+                return null;
+            }
+
+            Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
+                    + imageParams.size + ", width=" + imageParams.width
+                    + ", height=" + imageParams.height);
+
+            readFrameBuffer(adbChan, imageParams);
+        } finally {
+            if (adbChan != null) {
+                adbChan.close();
+            }
+        }
+
+        return imageParams;
+    }
+
+    /**
+     * Opens a connection to the frame buffer service of a device, and reads the header of the
+     * frame into <var>imageParams</var>.
+     * <p/>The device grabs the frame as soon as the service is opened, so the pixels must be
+     * read right away with {@link #readFrameBuffer(SocketChannel, RawImage)}.
+     * @return the opened connection, or null if the protocol is not supported.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static SocketChannel openFrameBuffer(InetSocketAddress adbSockAddr, IDevice device,
+            RawImage imageParams)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
         byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
-        byte[] nudge = {
-            0
-        };
         byte[] reply;
 
-        SocketChannel adbChan = null;
+        SocketChannel adbChan = SocketChannel.open(adbSockAddr);
+        boolean success = false;
         try {
-            adbChan = SocketChannel.open(adbSockAddr);
             adbChan.configureBlocking(false);
 
             // if the device is not -1, then we first tell adb we're looking to talk
@@ -316,23 +355,34 @@ final class AdbHelper {
                 return null;
             }
 
-            Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
-                    + imageParams.size + ", width=" + imageParams.width
-                    + ", height=" + imageParams.height);
-
-            write(adbChan, nudge);
-
-            reply = new byte[imageParams.size];
-            read(adbChan, reply);
-
-            imageParams.data = reply;
+            success = true;
+            return adbChan;
         } finally {
-            if (adbChan != null) {
+            if (success == false) {
                 adbChan.close();
             }
         }
+    }
 
-        return imageParams;
+    /**
+     * Requests the frame whose header was read by
+     * {@link #openFrameBuffer(InetSocketAddress, IDevice, RawImage)}, and reads it into the
+     * data of <var>imageParams</var>. The existing data array is reused if it has the size of
+     * the frame.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static void readFrameBuffer(SocketChannel adbChan, RawImage imageParams)
+            throws TimeoutException, IOException {
+        byte[] nudge = {
+            0
+        };
+        write(adbChan, nudge);
+
+        if (imageParams.data == null || imageParams.data.length != imageParams.size) {
+            imageParams.data = new byte[imageParams.size];
+        }
+        read(adbChan, imageParams.data);
     }
 
     /**
@@ -383,43 +433,48 @@ final class AdbHelper {
 
             byte[] data = new byte[16384];
             ByteBuffer buf = ByteBuffer.wrap(data);
-            int timeToResponseCount = 0;
-            while (true) {
-                int count;
-
-                if (rcvr != null && rcvr.isCancelled()) {
-                    Log.v("ddms", "execute: cancelled");
-                    break;
-                }
-
-                count = adbChan.read(buf);
-                if (count < 0) {
-                    // we're at the end, we flush the output
-                    rcvr.flush();
-                    Log.v("ddms", "execute '" + command + "' on '" + device + "' : EOF hit. Read: "
-                            + count);
-                    break;
-                } else if (count == 0) {
-                    try {
-                        int wait = WAIT_TIME * 5;
-                        timeToResponseCount += wait;
-                        if (maxTimeToOutputResponse > 0 &&
-                                timeToResponseCount > maxTimeToOutputResponse) {
-                            throw new ShellCommandUnresponsiveException();
-                        }
-                        Thread.sleep(wait);
-                    } catch (InterruptedException ie) {
+            ChannelSelector selector = new ChannelSelector(adbChan);
+            try {
+                long lastOutput = System.currentTimeMillis();
+                while (true) {
+                    int count;
+
+                    if (rcvr != null && rcvr.isCancelled()) {
+                        Log.v("ddms", "execute: cancelled");
+                        break;
                     }
-                } else {
-                    // reset timeout
-                    timeToResponseCount = 0;
 
-                    // send data to receiver if present
-                    if (rcvr != null) {
-                        rcvr.addOutput(buf.array(), buf.arrayOffset(), buf.position());
+                    count = adbChan.read(buf);
+                    if (count < 0) {
+                        // we're at the end, we flush the output
+                        rcvr.flush();
+                        Log.v("ddms", "execute '" + command + "' on '" + device
+                                + "' : EOF hit. Read: " + count);
+                        break;
+                    } else if (count == 0) {
+                        long wait = CANCEL_CHECK_TIME;
+                        if (maxTimeToOutputResponse > 0) {
+                            long remaining = lastOutput + maxTimeToOutputResponse
+                                    - System.currentTimeMillis();
+                            if (remaining <= 0) {
+                                throw new ShellCommandUnresponsiveException();
+                            }
+                            wait = Math.min(wait, remaining);
+                        }
+                        selector.waitFor(SelectionKey.OP_READ, wait);
+                    } else {
+                        // reset timeout
+                        lastOutput = System.currentTimeMillis();
+
+                        // send data to receiver if present
+                        if (rcvr != null) {
+                            rcvr.addOutput(buf.array(), buf.arrayOffset(), buf.position());
+                        }
+                        buf.rewind();
                     }
-                    buf.rewind();
                 }
+            } finally {
+                selector.close();
             }
         } finally {
             if (adbChan != null) {
@@ -478,27 +533,29 @@ final class AdbHelper {
 
             byte[] data = new byte[16384];
             ByteBuffer buf = ByteBuffer.wrap(data);
-            while (true) {
-                int count;
-
-                if (rcvr != null && rcvr.isCancelled()) {
-                    break;
-                }
+            ChannelSelector selector = new ChannelSelector(adbChan);
+            try {
+                while (true) {
+                    int count;
 
-                count = adbChan.read(buf);
-                if (count < 0) {
-                    break;
-                } else if (count == 0) {
-                    try {
-                        Thread.sleep(WAIT_TIME * 5);
-                    } catch (InterruptedException ie) {
+                    if (rcvr != null && rcvr.isCancelled()) {
+                        break;
                     }
-                } else {
-                    if (rcvr != null) {
-                        rcvr.parseNewData(buf.array(), buf.arrayOffset(), buf.position());
+
+                    count = adbChan.read(buf);
+                    if (count < 0) {
+                        break;
+                    } else if (count == 0) {
+                        selector.waitFor(SelectionKey.OP_READ, CANCEL_CHECK_TIME);
+                    } else {
+                        if (rcvr != null) {
+                            rcvr.parseNewData(buf.array(), buf.arrayOffset(), buf.position());
+                        }
+                        buf.rewind();
                     }
-                    buf.rewind();
                 }
+            } finally {
+                selector.close();
             }
         } finally {
             if (adbChan != null) {
@@ -632,33 +689,52 @@ final class AdbHelper {
     static void read(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
         ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
-
-        while (buf.position() != buf.limit()) {
-            int count;
-
-            count = chan.read(buf);
-            if (count < 0) {
-                Log.d("ddms", "read: channel EOF");
-                throw new IOException("EOF");
-            } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "read: timeout");
-                    throw new TimeoutException();
-                }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+        ChannelSelector selector = null;
+        long lastProgress = 0;
+
+        try {
+            while (buf.position() != buf.limit()) {
+                int count;
+
+                count = chan.read(buf);
+                if (count < 0) {
+                    Log.d("ddms", "read: channel EOF");
+                    throw new IOException("EOF");
+                } else if (count == 0) {
+                    if (selector == null) {
+                        selector = new ChannelSelector(chan);
+                        lastProgress = System.currentTimeMillis();
+                    }
+                    long remaining = getRemainingTime(lastProgress, timeout);
+                    if (remaining < 0) {
+                        Log.d("ddms", "read: timeout");
+                        throw new TimeoutException();
+                    }
+                    selector.waitFor(SelectionKey.OP_READ, remaining);
+                } else {
+                    lastProgress = System.currentTimeMillis();
                 }
-                numWaits++;
-            } else {
-                numWaits = 0;
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
             }
         }
     }
 
+    /**
+     * Returns how long to wait for a channel given the time of the last successful read or
+     * write. Returns 0 to wait forever if <var>timeout</var> is 0, and a negative value if
+     * the timeout has expired.
+     */
+    private static long getRemainingTime(long lastProgress, int timeout) {
+        if (timeout == 0) {
+            return 0;
+        }
+        long remaining = lastProgress + timeout - System.currentTimeMillis();
+        return remaining > 0 ? remaining : -1;
+    }
+
     /**
      * Write until all data in "data" is written or the connection fails or times out.
      * <p/>This uses the default time out value.
@@ -685,29 +761,148 @@ final class AdbHelper {
     static void write(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
         ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
-
-        while (buf.position() != buf.limit()) {
-            int count;
-
-            count = chan.write(buf);
-            if (count < 0) {
-                Log.d("ddms", "write: channel EOF");
-                throw new IOException("channel EOF");
-            } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
-                    Log.d("ddms", "write: timeout");
-                    throw new TimeoutException();
+        ChannelSelector selector = null;
+        long lastProgress = 0;
+
+        try {
+            while (buf.position() != buf.limit()) {
+                int count;
+
+                count = chan.write(buf);
+                if (count < 0) {
+                    Log.d("ddms", "write: channel EOF");
+                    throw new IOException("channel EOF");
+                } else if (count == 0) {
+                    if (selector == null) {
+                        selector = new ChannelSelector(chan);
+                        lastProgress = System.currentTimeMillis();
+                    }
+                    long remaining = getRemainingTime(lastProgress, timeout);
+                    if (remaining < 0) {
+                        Log.d("ddms", "write: timeout");
+                        throw new TimeoutException();
+                    }
+                    selector.waitFor(SelectionKey.OP_WRITE, remaining);
+                } else {
+                    lastProgress = System.currentTimeMillis();
                 }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /**
+     * Writes part of a file to the socket, until <var>length</var> bytes are written, the
+     * timeout expires, or the connection fails.
+     * <p/>The data goes from the file to the socket through
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which
+     * lets the system send it without copying it through a buffer.
+     * @param chan the opened socket to write to.
+     * @param file the file to read from.
+     * @param position the position in the file of the first byte to write.
+     * @param length the number of bytes to write.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection, or if the file is shorter than
+     * expected.
+     */
+    static void write(SocketChannel chan, FileChannel file, long position, long length,
+            int timeout) throws TimeoutException, IOException {
+        ChannelSelector selector = null;
+        long lastProgress = 0;
+
+        try {
+            while (length > 0) {
+                long count = file.transferTo(position, length, chan);
+                if (count > 0) {
+                    position += count;
+                    length -= count;
+                    lastProgress = System.currentTimeMillis();
+                } else if (position >= file.size()) {
+                    throw new IOException("file EOF");
+                } else {
+                    if (selector == null) {
+                        selector = new ChannelSelector(chan);
+                        lastProgress = System.currentTimeMillis();
+                    }
+                    long remaining = getRemainingTime(lastProgress, timeout);
+                    if (remaining < 0) {
+                        Log.d("ddms", "write: timeout");
+                        throw new TimeoutException();
+                    }
+                    selector.waitFor(SelectionKey.OP_WRITE, remaining);
                 }
-                numWaits++;
-            } else {
-                numWaits = 0;
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /**
+     * Reads <var>length</var> bytes from the socket into a file, at the given position. Fails if
+     * the socket closes or no data arrives for <var>timeout</var> milliseconds.
+     * <p/>The data goes from the socket to the file through
+     * {@link FileChannel#transferFrom(java.nio.channels.ReadableByteChannel, long, long)}, rather
+     * than through a byte array.
+     * @param chan the opened socket to read from. It must be in non-blocking mode.
+     * @param file the file to write to.
+     * @param position the position in the file to write the first byte at.
+     * @param length the number of bytes to read.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection or the file.
+     */
+    static void read(SocketChannel chan, FileChannel file, long position, long length,
+            int timeout) throws TimeoutException, IOException {
+        ChannelSelector selector = null;
+        ByteBuffer probe = null;
+        long lastProgress = 0;
+
+        try {
+            while (length > 0) {
+                long count = file.transferFrom(chan, position, length);
+                if (count == 0) {
+                    // transferFrom does not tell EOF from no data available: read a single byte
+                    // to find out.
+                    if (probe == null) {
+                        probe = ByteBuffer.allocate(1);
+                    }
+                    probe.clear();
+                    int read = chan.read(probe);
+                    if (read < 0) {
+                        Log.d("ddms", "read: channel EOF");
+                        throw new IOException("EOF");
+                    } else if (read > 0) {
+                        probe.flip();
+                        count = file.write(probe, position);
+                    }
+                }
+
+                if (count > 0) {
+                    position += count;
+                    length -= count;
+                    lastProgress = System.currentTimeMillis();
+                } else {
+                    if (selector == null) {
+                        selector = new ChannelSelector(chan);
+                        lastProgress = System.currentTimeMillis();
+                    }
+                    long remaining = getRemainingTime(lastProgress, timeout);
+                    if (remaining < 0) {
+                        Log.d("ddms", "read: timeout");
+                        throw new TimeoutException();
+                    }
+                    selector.waitFor(SelectionKey.OP_READ, remaining);
+                }
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
             }
         }
     }
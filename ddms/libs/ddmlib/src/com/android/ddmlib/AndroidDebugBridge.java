@@ -224,6 +224,18 @@ public final class AndroidDebugBridge {
         return sClientSupport;
     }
 
+    /**
+     * Returns a snapshot of the metrics of the handling of the DDM chunks sent by the clients,
+     * or null if the library was not initialized.
+     */
+    public static ChunkMetrics getChunkMetrics() {
+        MonitorThread monitorThread = MonitorThread.getInstance();
+        if (monitorThread != null) {
+            return monitorThread.getChunkMetrics();
+        }
+        return null;
+    }
+
     /**
      * Returns the socket address of the ADB server on the host.
      */
@@ -466,6 +478,22 @@ public final class AndroidDebugBridge {
         return new IDevice[0];
     }
 
+    /**
+     * Returns the time it took for the devices to become ready once they were seen online, in
+     * the order they became ready.
+     * <p/>A device is ready once its properties, mount points and AVD name were queried. The
+     * devices are queried in parallel.
+     */
+    public DeviceReadyMetrics[] getDeviceReadyMetrics() {
+        synchronized (sLock) {
+            if (mDeviceMonitor != null) {
+                return mDeviceMonitor.getDeviceReadyMetrics();
+            }
+        }
+
+        return new DeviceReadyMetrics[0];
+    }
+
     /**
      * Returns whether the bridge has acquired the initial list from adb after being created.
      * <p/>Calling {@link #getDevices()} right after {@link #createBridge(String, boolean)} will
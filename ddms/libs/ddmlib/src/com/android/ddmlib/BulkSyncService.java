@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.SyncService.ISyncProgressMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Sync service to push/pull many files to/from a device at once, over several sync connections.
+ * <p/>The files are spread over the connections, largest first, and each connection pipelines its
+ * requests: it sends the next file without waiting for the device to acknowledge the previous
+ * one, and requests the next files to pull while receiving the current one. File data goes
+ * between the files and the connections through {@link java.nio.channels.FileChannel}s.
+ * <p/>A transfer stops at the first error, which is then thrown once all the connections are
+ * idle. Since the connections may then have requests in flight, the service is closed.
+ * <p/>The progress of all the connections is reported to the single {@link ISyncProgressMonitor}
+ * given to each transfer, which does not need to be thread-safe. If it implements
+ * {@link IBulkSyncProgressMonitor}, it also receives the overall throughput of the transfer.
+ * <p/>To get a {@link BulkSyncService} object, use {@link IDevice#getBulkSyncService(int)}.
+ */
+public final class BulkSyncService {
+
+    /** Maximum number of files sent or requested on a connection before reading the replies. */
+    private final static int PIPELINE_DEPTH = 8;
+    /** Minimum time between two throughput reports, in ms. */
+    private final static int THROUGHPUT_INTERVAL = 500;
+
+    /**
+     * A {@link ISyncProgressMonitor} which also receives the overall throughput of bulk
+     * transfers.
+     */
+    public interface IBulkSyncProgressMonitor extends ISyncProgressMonitor {
+        /**
+         * Sent periodically during a transfer, and once when it ends.
+         * @param bytesTransferred the number of bytes transferred so far.
+         * @param totalBytes the total number of bytes to transfer.
+         * @param bytesPerSecond the average throughput since the start of the transfer.
+         */
+        public void throughput(long bytesTransferred, long totalBytes, long bytesPerSecond);
+    }
+
+    private final InetSocketAddress mAddress;
+    private final Device mDevice;
+    private final SyncService[] mServices;
+
+    /** A file to transfer. */
+    private final static class Transfer {
+        final File mLocal;
+        final String mRemote;
+        final long mSize;
+
+        Transfer(File local, String remote, long size) {
+            mLocal = local;
+            mRemote = remote;
+            mSize = size;
+        }
+    }
+
+    /** Gives the files to transfer to the connections, and collects the first error. */
+    private final static class TransferQueue {
+        private final LinkedList<Transfer> mTransfers;
+        private Exception mError;
+
+        TransferQueue(List<Transfer> transfers) {
+            mTransfers = new LinkedList<Transfer>(transfers);
+        }
+
+        /** Returns the next file to transfer, or null if there are none or a transfer failed. */
+        synchronized Transfer next() {
+            if (mError != null || mTransfers.isEmpty()) {
+                return null;
+            }
+            return mTransfers.removeFirst();
+        }
+
+        synchronized void setError(Exception e) {
+            if (mError == null) {
+                mError = e;
+            }
+        }
+
+        synchronized Exception getError() {
+            return mError;
+        }
+    }
+
+    /**
+     * Serializes the calls to the monitor of a transfer, scales the work to fit in an int, and
+     * reports the throughput.
+     */
+    private final static class AggregateMonitor implements ISyncProgressMonitor {
+        private final ISyncProgressMonitor mMonitor;
+        private final long mTotal;
+        private final int mShift;
+        private long mStartTime;
+        private long mLastReport;
+        private long mTransferred;
+        private long mReported;
+
+        AggregateMonitor(ISyncProgressMonitor monitor, long total) {
+            mMonitor = monitor;
+            mTotal = total;
+            int shift = 0;
+            while ((total >> shift) > Integer.MAX_VALUE) {
+                shift++;
+            }
+            mShift = shift;
+        }
+
+        public synchronized void start(int totalWork) {
+            mStartTime = mLastReport = System.currentTimeMillis();
+            mMonitor.start((int) (mTotal >> mShift));
+        }
+
+        public synchronized void stop() {
+            reportThroughput(System.currentTimeMillis());
+            mMonitor.stop();
+        }
+
+        public synchronized boolean isCanceled() {
+            return mMonitor.isCanceled();
+        }
+
+        public synchronized void startSubTask(String name) {
+            mMonitor.startSubTask(name);
+        }
+
+        public synchronized void advance(int work) {
+            mTransferred += work;
+            long units = (mTransferred >> mShift) - mReported;
+            if (units > 0) {
+                mReported += units;
+                mMonitor.advance((int) units);
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - mLastReport >= THROUGHPUT_INTERVAL) {
+                reportThroughput(now);
+            }
+        }
+
+        private void reportThroughput(long now) {
+            mLastReport = now;
+            if (mMonitor instanceof IBulkSyncProgressMonitor) {
+                long elapsed = Math.max(1, now - mStartTime);
+                ((IBulkSyncProgressMonitor) mMonitor).throughput(mTransferred, mTotal,
+                        mTransferred * 1000 / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Creates a bulk sync service.
+     * @param address The address to connect to
+     * @param device the {@link Device} that the service connects to.
+     * @param connectionCount the number of sync connections to open.
+     */
+    BulkSyncService(InetSocketAddress address, Device device, int connectionCount) {
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException("connectionCount must be at least 1");
+        }
+        mAddress = address;
+        mDevice = device;
+        mServices = new SyncService[connectionCount];
+    }
+
+    /**
+     * Opens the sync connections. This must be called before any calls to push / pull.
+     * @return true if the connections opened, false if adb refused one of them. This can happen
+     * if the {@link Device} is invalid.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException If the connection to adb failed.
+     */
+    boolean open() throws TimeoutException, AdbCommandRejectedException, IOException {
+        boolean success = false;
+        try {
+            for (int i = 0; i < mServices.length; i++) {
+                SyncService service = new SyncService(mAddress, mDevice);
+                if (service.openSync() == false) {
+                    return false;
+                }
+                mServices[i] = service;
+            }
+            success = true;
+        } finally {
+            if (success == false) {
+                close();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of sync connections.
+     */
+    public int getConnectionCount() {
+        return mServices.length;
+    }
+
+    /**
+     * Closes the connections.
+     */
+    public void close() {
+        for (int i = 0; i < mServices.length; i++) {
+            if (mServices[i] != null) {
+                mServices[i].close();
+                mServices[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Pushes files and folders, recursively, into a remote folder.
+     * @param local the local files and folders to push.
+     * @param remoteFolder the full path of the remote folder. It is created if needed.
+     * @param monitor The progress monitor. Cannot be null.
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     *
+     * @see SyncService#getNullProgressMonitor()
+     */
+    public void push(String[] local, String remoteFolder, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        List<Transfer> transfers = new ArrayList<Transfer>();
+        for (String path : local) {
+            File f = new File(path);
+            if (f.exists() == false) {
+                throw new SyncException(SyncError.NO_LOCAL_FILE);
+            }
+            addLocalFiles(f, remoteFolder, transfers);
+        }
+
+        run(transfers, true /* push */, monitor);
+    }
+
+    /**
+     * Pushes files.
+     * @param local the local files.
+     * @param remote the full paths of the remote files, in the same order as <var>local</var>.
+     * @param monitor The progress monitor. Cannot be null.
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     *
+     * @see SyncService#getNullProgressMonitor()
+     */
+    public void pushFiles(String[] local, String[] remote, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        if (local.length != remote.length) {
+            throw new IllegalArgumentException("local and remote must have the same length");
+        }
+
+        List<Transfer> transfers = new ArrayList<Transfer>(local.length);
+        for (int i = 0; i < local.length; i++) {
+            File f = new File(local[i]);
+            if (f.exists() == false) {
+                throw new SyncException(SyncError.NO_LOCAL_FILE);
+            }
+            if (f.isDirectory()) {
+                throw new SyncException(SyncError.LOCAL_IS_DIRECTORY);
+            }
+            transfers.add(new Transfer(f, remote[i], f.length()));
+        }
+
+        run(transfers, true /* push */, monitor);
+    }
+
+    /**
+     * Pulls files.
+     * <p/>The size of the remote files is queried first, with pipelined stat requests, to report
+     * the progress and spread the files evenly over the connections.
+     * @param remote the full paths of the remote files.
+     * @param local the local destinations, in the same order as <var>remote</var>.
+     * @param monitor The progress monitor. Cannot be null.
+     * @throws SyncException if a file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     *
+     * @see SyncService#getNullProgressMonitor()
+     */
+    public void pullFiles(String[] remote, String[] local, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        if (local.length != remote.length) {
+            throw new IllegalArgumentException("local and remote must have the same length");
+        }
+
+        SyncService sync = getService(0);
+        List<Transfer> transfers = new ArrayList<Transfer>(remote.length);
+        for (int start = 0; start < remote.length; start += PIPELINE_DEPTH) {
+            int end = Math.min(remote.length, start + PIPELINE_DEPTH);
+            for (int i = start; i < end; i++) {
+                sync.sendStatRequest(remote[i]);
+            }
+            for (int i = start; i < end; i++) {
+                int[] stat = sync.readStat();
+                if (stat == null) {
+                    throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR);
+                } else if (stat[0] == 0) {
+                    throw new SyncException(SyncError.NO_REMOTE_OBJECT,
+                            SyncError.NO_REMOTE_OBJECT.getMessage() + " " + remote[i]);
+                }
+                // sizes are unsigned on the device.
+                transfers.add(new Transfer(new File(local[i]), remote[i],
+                        stat[1] & 0xFFFFFFFFL));
+            }
+        }
+
+        run(transfers, false /* push */, monitor);
+    }
+
+    private SyncService getService(int index) throws IOException {
+        SyncService service = mServices[index];
+        if (service == null) {
+            throw new IOException("Bulk sync service is closed");
+        }
+        return service;
+    }
+
+    private static void addLocalFiles(File f, String remoteFolder, List<Transfer> transfers) {
+        String remote = remoteFolder + "/" + f.getName(); //$NON-NLS-1$
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    addLocalFiles(child, remote, transfers);
+                }
+            }
+        } else if (f.isFile()) {
+            transfers.add(new Transfer(f, remote, f.length()));
+        }
+    }
+
+    /**
+     * Runs the transfers over all the connections, and waits for them to complete.
+     */
+    private void run(List<Transfer> transfers, final boolean push, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        // largest files first, so that the connections end at about the same time.
+        Collections.sort(transfers, new Comparator<Transfer>() {
+            public int compare(Transfer t1, Transfer t2) {
+                return t1.mSize < t2.mSize ? 1 : (t1.mSize > t2.mSize ? -1 : 0);
+            }
+        });
+
+        long total = 0;
+        for (Transfer transfer : transfers) {
+            total += transfer.mSize;
+        }
+
+        final TransferQueue queue = new TransferQueue(transfers);
+        final AggregateMonitor aggregate = new AggregateMonitor(monitor, total);
+        aggregate.start(0);
+
+        int count = Math.min(mServices.length, Math.max(1, transfers.size()));
+        Thread[] threads = new Thread[count];
+        for (int i = 0; i < count; i++) {
+            final SyncService sync = getService(i);
+            threads[i] = new Thread("Bulk Sync " + mDevice.getSerialNumber()) { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    try {
+                        if (push) {
+                            runPush(sync, queue, aggregate);
+                        } else {
+                            runPull(sync, queue, aggregate);
+                        }
+                    } catch (Exception e) {
+                        queue.setError(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.setError(new SyncException(SyncError.CANCELED));
+        }
+
+        aggregate.stop();
+
+        Exception error = queue.getError();
+        if (error != null) {
+            close();
+        }
+
+        if (error instanceof SyncException) {
+            throw (SyncException) error;
+        } else if (error instanceof TimeoutException) {
+            throw (TimeoutException) error;
+        } else if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+    }
+
+    /**
+     * Pushes files from the queue over a single connection, reading the acknowledgements
+     * {@link #PIPELINE_DEPTH} files behind.
+     */
+    private static void runPush(SyncService sync, TransferQueue queue,
+            ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        int pending = 0;
+        Transfer transfer;
+        while ((transfer = queue.next()) != null) {
+            monitor.startSubTask(transfer.mRemote);
+            sync.sendFile(transfer.mLocal, transfer.mRemote, monitor);
+            pending++;
+
+            if (pending == PIPELINE_DEPTH) {
+                sync.readSendResult();
+                pending--;
+            }
+        }
+
+        while (pending > 0) {
+            sync.readSendResult();
+            pending--;
+        }
+    }
+
+    /**
+     * Pulls files from the queue over a single connection, keeping up to
+     * {@link #PIPELINE_DEPTH} requests ahead of the file being received.
+     */
+    private static void runPull(SyncService sync, TransferQueue queue,
+            ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        LinkedList<Transfer> requested = new LinkedList<Transfer>();
+        while (true) {
+            while (requested.size() < PIPELINE_DEPTH) {
+                Transfer transfer = queue.next();
+                if (transfer == null) {
+                    break;
+                }
+                sync.sendRecvRequest(transfer.mRemote);
+                requested.add(transfer);
+            }
+
+            if (requested.isEmpty()) {
+                return;
+            }
+
+            Transfer transfer = requested.removeFirst();
+            monitor.startSubTask(transfer.mRemote);
+            File parent = transfer.mLocal.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            sync.receiveFile(transfer.mLocal, monitor);
+        }
+    }
+}
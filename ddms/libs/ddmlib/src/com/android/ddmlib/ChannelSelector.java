@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Waits for a non-blocking {@link SocketChannel} to become readable or
+ * writable, instead of polling it with {@link Thread#sleep(long)}.
+ * <p/>The {@link Selector} is only opened the first time the channel actually has
+ * to be waited on, so reads and writes which complete right away do not pay for it.
+ * {@link #close()} must be called when done, which also deregisters the channel
+ * so that it can be put back in blocking mode.
+ * <p/>Interrupts do not abort the wait, as with the sleep based code this replaces;
+ * the interrupted status of the thread is restored by {@link #close()}.
+ */
+final class ChannelSelector {
+    private final SocketChannel mChannel;
+    private Selector mSelector;
+    private SelectionKey mKey;
+    private boolean mInterrupted;
+
+    ChannelSelector(SocketChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * Waits until the channel is ready for the given operations, or the timeout expires.
+     * <p/>This may return early (for instance if the thread is interrupted), so callers
+     * must retry their operation and keep track of their own deadline.
+     *
+     * @param ops the operations to wait for, such as {@link SelectionKey#OP_READ}.
+     * @param timeout the maximum time to wait in milliseconds. 0 means wait forever.
+     * @return true if the channel is ready.
+     * @throws IOException in case of I/O error on the channel.
+     */
+    boolean waitFor(int ops, long timeout) throws IOException {
+        if (mSelector == null) {
+            mSelector = Selector.open();
+            mKey = mChannel.register(mSelector, ops);
+        } else if (mKey.interestOps() != ops) {
+            mKey.interestOps(ops);
+        }
+
+        int count = timeout > 0 ? mSelector.select(timeout) : mSelector.select();
+        mSelector.selectedKeys().clear();
+
+        if (count == 0 && Thread.interrupted()) {
+            // the selector returns immediately as long as the thread is interrupted,
+            // so clear the flag for now to avoid spinning.
+            mInterrupted = true;
+        }
+
+        return count > 0;
+    }
+
+    /**
+     * Closes the selector, if one was opened, and restores the interrupted status of the
+     * thread if it was interrupted while waiting.
+     */
+    void close() {
+        if (mSelector != null) {
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                // ignore, the channel will be closed by the caller anyway.
+            }
+            mSelector = null;
+            mKey = null;
+        }
+
+        if (mInterrupted) {
+            mInterrupted = false;
+            Thread.currentThread().interrupt();
+        }
+    }
+}
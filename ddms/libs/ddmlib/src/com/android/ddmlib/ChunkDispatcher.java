@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the handling of the DDM chunks on a pool of threads, so that the {@link MonitorThread}
+ * only does I/O.
+ * <p/>The chunks of a client are handled one at a time, in the order they were received. The
+ * chunks of different clients are handled in parallel. A client with
+ * {@link #MAX_PENDING_CHUNKS} chunks waiting to be handled should not be read anymore, until
+ * the {@link IDrainListener} is notified that it can be read again.
+ */
+final class ChunkDispatcher {
+    /** Number of pending chunks of a client above which it should not be read anymore. */
+    static final int MAX_PENDING_CHUNKS = 64;
+
+    /** Number of pending chunks of a paused client under which it can be read again. */
+    static final int RESUME_PENDING_CHUNKS = MAX_PENDING_CHUNKS / 2;
+
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * Listener notified when a client, whose reading was paused because of its pending chunks,
+     * can be read again.
+     */
+    interface IDrainListener {
+        void clientDrained(Client client);
+    }
+
+    /** A chunk to handle. */
+    private static final class Task {
+        final int mType;
+        final Runnable mRunnable;
+        final long mQueueTime = System.nanoTime();
+
+        Task(int type, Runnable runnable) {
+            mType = type;
+            mRunnable = runnable;
+        }
+    }
+
+    /**
+     * The pending chunks of a client. The queue is in the executor when it has chunks, and
+     * handles one chunk each time it runs, so that the clients share the threads.
+     */
+    private final class ClientQueue implements Runnable {
+        final Client mClient;
+        final LinkedList<Task> mTasks = new LinkedList<Task>();
+        boolean mPaused;
+
+        ClientQueue(Client client) {
+            mClient = client;
+        }
+
+        public void run() {
+            Task task;
+            synchronized (mQueues) {
+                task = mTasks.getFirst();
+            }
+
+            long start = System.nanoTime();
+            try {
+                task.mRunnable.run();
+            } catch (Exception e) {
+                // the thread must keep handling the chunks of the other clients.
+                Log.e("ddms", "Exception while handling chunk " //$NON-NLS-1$
+                        + ChunkHandler.name(task.mType) + " from " + mClient); //$NON-NLS-1$
+                Log.e("ddms", e); //$NON-NLS-1$
+            }
+            long end = System.nanoTime();
+
+            boolean resume = false;
+            boolean reschedule;
+            synchronized (mQueues) {
+                mTasks.removeFirst();
+                mPendingCount--;
+                addMetrics(task.mType, start - task.mQueueTime, end - start);
+
+                if (mPaused && mTasks.size() <= RESUME_PENDING_CHUNKS) {
+                    mPaused = false;
+                    resume = true;
+                }
+                reschedule = mTasks.size() > 0;
+                if (!reschedule) {
+                    mQueues.remove(mClient);
+                }
+            }
+
+            if (resume) {
+                mListener.clientDrained(mClient);
+            }
+            if (reschedule) {
+                execute(this);
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final IDrainListener mListener;
+
+    /** Queues of the clients with pending chunks. Also the lock of the metrics. */
+    private final Map<Client, ClientQueue> mQueues = new HashMap<Client, ClientQueue>();
+    private int mPendingCount;
+    private int mMaxPendingCount;
+    /** Metrics of each chunk type: count, total queue time, total handling time, max. */
+    private final Map<Integer, long[]> mMetrics = new HashMap<Integer, long[]>();
+
+    ChunkDispatcher(IDrainListener listener) {
+        mListener = listener;
+
+        int threadCount = Math.max(2, Math.min(MAX_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        // each client is at most once in the queue of the executor.
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Chunk Handler " + mCount++); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the handling of a chunk of a client.
+     * @param client the client which sent the chunk.
+     * @param type the type of the chunk.
+     * @param runnable the handling of the chunk.
+     * @return false if the client has too many pending chunks, in which case it should not be
+     * read until the {@link IDrainListener} is notified.
+     */
+    boolean dispatch(Client client, int type, Runnable runnable) {
+        ClientQueue queue;
+        boolean schedule = false;
+        boolean canRead;
+        synchronized (mQueues) {
+            queue = mQueues.get(client);
+            if (queue == null) {
+                queue = new ClientQueue(client);
+                mQueues.put(client, queue);
+                schedule = true;
+            }
+            queue.mTasks.add(new Task(type, runnable));
+            mPendingCount++;
+            mMaxPendingCount = Math.max(mMaxPendingCount, mPendingCount);
+
+            if (queue.mTasks.size() >= MAX_PENDING_CHUNKS) {
+                queue.mPaused = true;
+            }
+            canRead = !queue.mPaused;
+        }
+
+        if (schedule) {
+            execute(queue);
+        }
+        return canRead;
+    }
+
+    private void execute(ClientQueue queue) {
+        try {
+            mExecutor.execute(queue);
+        } catch (RejectedExecutionException e) {
+            // the dispatcher was stopped, the chunk is dropped.
+            synchronized (mQueues) {
+                mPendingCount -= queue.mTasks.size();
+                mQueues.remove(queue.mClient);
+            }
+        }
+    }
+
+    /** Must be called with the lock on {@link #mQueues}. */
+    private void addMetrics(int type, long queueTime, long handlingTime) {
+        long[] metrics = mMetrics.get(type);
+        if (metrics == null) {
+            metrics = new long[ChunkMetrics.METRICS_COUNT];
+            mMetrics.put(type, metrics);
+        }
+        metrics[ChunkMetrics.COUNT]++;
+        metrics[ChunkMetrics.QUEUE_TIME] += queueTime;
+        metrics[ChunkMetrics.HANDLING_TIME] += handlingTime;
+        metrics[ChunkMetrics.MAX_HANDLING_TIME] =
+                Math.max(metrics[ChunkMetrics.MAX_HANDLING_TIME], handlingTime);
+    }
+
+    /** Returns a snapshot of the metrics of the dispatcher. */
+    ChunkMetrics getMetrics() {
+        synchronized (mQueues) {
+            return new ChunkMetrics(mPendingCount, mMaxPendingCount, mMetrics);
+        }
+    }
+
+    /**
+     * Stops the threads. The chunks which were not handled yet are dropped.
+     */
+    void stop() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A snapshot of the metrics of the handling of the DDM chunks sent by the clients, see
+ * {@link AndroidDebugBridge#getChunkMetrics()}.
+ * <p/>The times are in nanoseconds. The queue time of a chunk is the time between its reception
+ * and the start of its handling.
+ */
+public final class ChunkMetrics {
+    static final int COUNT = 0;
+    static final int QUEUE_TIME = 1;
+    static final int HANDLING_TIME = 2;
+    static final int MAX_HANDLING_TIME = 3;
+    static final int METRICS_COUNT = 4;
+
+    private final int mQueueDepth;
+    private final int mMaxQueueDepth;
+    private final Map<Integer, long[]> mMetrics = new HashMap<Integer, long[]>();
+
+    ChunkMetrics(int queueDepth, int maxQueueDepth, Map<Integer, long[]> metrics) {
+        mQueueDepth = queueDepth;
+        mMaxQueueDepth = maxQueueDepth;
+        for (Entry<Integer, long[]> entry : metrics.entrySet()) {
+            mMetrics.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    /** Returns the number of chunks waiting to be handled, or being handled. */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /** Returns the maximum number of chunks which were waiting to be handled at once. */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /** Returns the types of the chunks which were handled, sorted. */
+    public int[] getChunkTypes() {
+        int[] types = new int[mMetrics.size()];
+        int i = 0;
+        for (Integer type : mMetrics.keySet()) {
+            types[i++] = type;
+        }
+        Arrays.sort(types);
+        return types;
+    }
+
+    /** Returns the 4 letter name of a chunk type, for instance "HPIF". */
+    public static String getChunkName(int type) {
+        return ChunkHandler.name(type);
+    }
+
+    private long get(int type, int metric) {
+        long[] metrics = mMetrics.get(type);
+        return metrics != null ? metrics[metric] : 0;
+    }
+
+    /** Returns the number of chunks of a type which were handled. */
+    public long getChunkCount(int type) {
+        return get(type, COUNT);
+    }
+
+    /** Returns the total time the chunks of a type waited before being handled. */
+    public long getQueueTime(int type) {
+        return get(type, QUEUE_TIME);
+    }
+
+    /** Returns the total time the handling of the chunks of a type took. */
+    public long getHandlingTime(int type) {
+        return get(type, HANDLING_TIME);
+    }
+
+    /** Returns the longest time the handling of a chunk of a type took. */
+    public long getMaxHandlingTime(int type) {
+        return get(type, MAX_HANDLING_TIME);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("queue depth: ").append(mQueueDepth); //$NON-NLS-1$
+        sb.append(" (max ").append(mMaxQueueDepth).append(")"); //$NON-NLS-1$ //$NON-NLS-2$
+        for (int type : getChunkTypes()) {
+            long count = getChunkCount(type);
+            sb.append(String.format("\n%s: %d chunks, average %.3f ms queued and " //$NON-NLS-1$
+                    + "%.3f ms handling, max %.3f ms handling", //$NON-NLS-1$
+                    getChunkName(type), count,
+                    getQueueTime(type) / 1e6 / count,
+                    getHandlingTime(type) / 1e6 / count,
+                    getMaxHandlingTime(type) / 1e6));
+        }
+        return sb.toString();
+    }
+}
@@ -100,6 +100,12 @@ public class Client {
     private static final int MAX_BUF_SIZE = 200*1024*1024;
     private ByteBuffer mReadBuffer;
 
+    /*
+     * HPROF dump being streamed to a file.  While it is set, the data read
+     * from the client goes to the file instead of mReadBuffer.
+     */
+    private HprofStream mHprofStream;
+
     private static final int WRITE_BUF_SIZE = 256;
     private ByteBuffer mWriteBuffer;
 
@@ -605,12 +611,35 @@ public class Client {
      * This is called when data is known to be available, and we don't yet
      * have a full packet in the buffer.  If the buffer is at capacity,
      * expand it.
+     *
+     * Streamed HPROF dumps are written to a file instead, see HprofStream.
+     *
+     * Returns false if the client should not be read until its pending
+     * chunks are handled, see ChunkDispatcher.
      */
-    void read()
+    boolean read()
         throws IOException, BufferOverflowException {
 
         int count;
 
+        if (mHprofStream != null) {
+            if (mHprofStream.read(mChan)) {
+                final HprofStream stream = mHprofStream;
+                mHprofStream = null;
+                if (stream.isReply()) {
+                    removeRequestId(stream.getPacketId());
+                }
+                final Client client = this;
+                return MonitorThread.getInstance().dispatchChunk(this, HandleHeap.CHUNK_HPDS,
+                        new Runnable() {
+                    public void run() {
+                        HandleHeap.handleHPDS(client, stream);
+                    }
+                });
+            }
+            return true;
+        }
+
         if (mReadBuffer.position() == mReadBuffer.capacity()) {
             if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
                 Log.e("ddms", "Exceeded MAX_BUF_SIZE!");
@@ -635,6 +664,24 @@ public class Client {
         if (Log.Config.LOGV) Log.v("ddms", "Read " + count + " bytes from " + this);
         //Log.hexDump("ddms", Log.DEBUG, mReadBuffer.array(),
         //    mReadBuffer.arrayOffset(), mReadBuffer.position());
+
+        if (mConnState == ST_READY) {
+            mHprofStream = HprofStream.start(this, mReadBuffer);
+        }
+        return true;
+    }
+
+    /**
+     * Enables or disables the reading of the channel by the selector.
+     */
+    void setReadEnabled(Selector sel, boolean enabled) {
+        SocketChannel chan = mChan;
+        if (chan != null) {
+            SelectionKey key = chan.keyFor(sel);
+            if (key != null && key.isValid()) {
+                key.interestOps(enabled ? SelectionKey.OP_READ : 0);
+            }
+        }
     }
 
     /**
@@ -806,6 +853,11 @@ public class Client {
 
         mOutstandingReqs.clear();
 
+        if (mHprofStream != null) {
+            mHprofStream.abort();
+            mHprofStream = null;
+        }
+
         try {
             if (mChan != null) {
                 mChan.close();
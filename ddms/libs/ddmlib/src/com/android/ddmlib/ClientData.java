@@ -18,6 +18,7 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.HeapSegment.HeapSegmentElement;
 
+import java.io.File;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -317,6 +318,23 @@ public class ClientData {
         void onEndFailure(Client client, String message);
     }
 
+    /**
+     * Handlers able to act on HPROF dumps streamed by the VM, which receive them in a file
+     * instead of in memory.
+     * <p/>When the handler implements this interface, the streamed dumps are written to a
+     * file as they are received, and {@link #onSuccess(File, Client)} is called instead of
+     * {@link IHprofDumpHandler#onSuccess(byte[], Client)}.
+     */
+    public interface IHprofDumpFileHandler extends IHprofDumpHandler {
+        /**
+         * Called when a HPROF dump was successful.
+         * @param hprofFile a temporary file containing the HPROF data, streamed from the VM.
+         * The handler is responsible for moving or deleting it.
+         * @param client the client that was profiled.
+         */
+        void onSuccess(File hprofFile, Client client);
+    }
+
     /**
      * Handlers able to act on Method profiling info
      */
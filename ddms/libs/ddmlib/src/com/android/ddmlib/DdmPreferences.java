@@ -60,6 +60,8 @@ public final class DdmPreferences {
     private static boolean sUseAdbHost = DEFAULT_USE_ADBHOST;
     private static String sAdbHostValue = DEFAULT_ADBHOST_VALUE;
 
+    private static String sEventTagCacheLocation = null;
+
     /**
      * Returns the initial {@link Client} flag for thread updates.
      * @see #setInitialThreadUpdate(boolean)
@@ -211,6 +213,25 @@ public final class DdmPreferences {
         sAdbHostValue = adbHostValue;
     }
 
+    /**
+     * Returns the directory where the event log tags of the devices are cached, or
+     * <code>null</code> if they are only cached in memory.
+     * @see #setEventTagCacheLocation(String)
+     */
+    public static String getEventTagCacheLocation() {
+        return sEventTagCacheLocation;
+    }
+
+    /**
+     * Sets the directory where the event log tags read from the devices are cached, by build.
+     * <p/>This change takes effect right away, for the next
+     * {@link com.android.ddmlib.log.EventLogParser#init(IDevice)} calls.
+     * @param location the directory, or <code>null</code> to only cache the tags in memory.
+     */
+    public static void setEventTagCacheLocation(String location) {
+        sEventTagCacheLocation = location;
+    }
+
     /**
      * Non accessible constructor.
      */
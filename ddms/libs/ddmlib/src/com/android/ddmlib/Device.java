@@ -65,6 +65,8 @@ final class Device implements IDevice {
 
     private boolean mArePropertiesSet = false;
 
+    private FileListingService mFileListingService;
+
     /**
      * Output receiver for "pm install package.apk" command line.
      */
@@ -292,12 +294,27 @@ final class Device implements IDevice {
         return null;
     }
 
+    public BulkSyncService getBulkSyncService(int connectionCount)
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        BulkSyncService syncService = new BulkSyncService(AndroidDebugBridge.getSocketAddress(),
+                this, connectionCount);
+        if (syncService.open()) {
+            return syncService;
+        }
+
+        return null;
+    }
+
     /*
      * (non-Javadoc)
      * @see com.android.ddmlib.IDevice#getFileListingService()
      */
-    public FileListingService getFileListingService() {
-        return new FileListingService(this);
+    public synchronized FileListingService getFileListingService() {
+        // a single service, so that its cached listings are shared.
+        if (mFileListingService == null) {
+            mFileListingService = new FileListingService(this);
+        }
+        return mFileListingService;
     }
 
     public RawImage getScreenshot()
@@ -320,6 +337,13 @@ final class Device implements IDevice {
                 receiver, maxTimeToOutputResponse);
     }
 
+    public ShellSession openShellSession()
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        ShellSession session = new ShellSession(AndroidDebugBridge.getSocketAddress(), this);
+        session.open();
+        return session;
+    }
+
     public void runEventLogService(LogReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, IOException {
         AdbHelper.runEventLogService(AndroidDebugBridge.getSocketAddress(), this, receiver);
@@ -31,15 +31,26 @@ import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Device monitor. This connects to the Android Debug Bridge and get device and
  * debuggable process information from it.
  */
 final class DeviceMonitor {
+    /** Maximum number of devices queried for their info at the same time. */
+    private static final int MAX_DEVICE_QUERY_THREADS = 8;
+
     private byte[] mLengthBuffer = new byte[4];
     private byte[] mLengthBuffer2 = new byte[4];
 
@@ -61,6 +72,16 @@ final class DeviceMonitor {
 
     private final HashMap<Client, Integer> mClientsToReopen = new HashMap<Client, Integer>();
 
+    /** Queries the new devices for their info, in parallel. */
+    private final ThreadPoolExecutor mDeviceQueryExecutor;
+
+    /** Devices whose info is being queried, or waiting to be. */
+    private final Set<Device> mDevicesToQuery = new HashSet<Device>();
+
+    /** Time it took for the devices to be ready, by serial number. */
+    private final Map<String, DeviceReadyMetrics> mReadyMetrics =
+            new LinkedHashMap<String, DeviceReadyMetrics>();
+
     /**
      * Creates a new {@link DeviceMonitor} object and links it to the running
      * {@link AndroidDebugBridge} object.
@@ -70,6 +91,19 @@ final class DeviceMonitor {
         mServer = server;
 
         mDebuggerPorts.add(DdmPreferences.getDebugPortBase());
+
+        mDeviceQueryExecutor = new ThreadPoolExecutor(MAX_DEVICE_QUERY_THREADS,
+                MAX_DEVICE_QUERY_THREADS, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Device Info Query " + mCount++); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mDeviceQueryExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -102,6 +136,8 @@ final class DeviceMonitor {
         if (mSelector != null) {
             mSelector.wakeup();
         }
+
+        mDeviceQueryExecutor.shutdownNow();
     }
 
 
@@ -131,6 +167,16 @@ final class DeviceMonitor {
         }
     }
 
+    /**
+     * Returns the time it took for the devices to become ready, in the order they became ready.
+     * Only the last bring-up of each device is kept.
+     */
+    DeviceReadyMetrics[] getDeviceReadyMetrics() {
+        synchronized (mReadyMetrics) {
+            return mReadyMetrics.values().toArray(new DeviceReadyMetrics[mReadyMetrics.size()]);
+        }
+    }
+
     boolean hasInitialDeviceList() {
         return mInitialDeviceListDone;
     }
@@ -416,9 +462,9 @@ final class DeviceMonitor {
                 }
             }
 
-            // query the new devices for info.
+            // query the new devices for info, on other threads.
             for (Device d : devicesToQuery) {
-                queryNewDeviceForInfo(d);
+                queueNewDeviceForInfo(d);
             }
         }
         newList.clear();
@@ -438,20 +484,67 @@ final class DeviceMonitor {
         }
     }
 
+    /**
+     * Queues the query of a device for its build info. The devices are queried in parallel by
+     * the threads of {@link #mDeviceQueryExecutor}, so that a slow device does not delay the
+     * others, nor the monitoring of the device list.
+     * @param device the device to query.
+     */
+    private void queueNewDeviceForInfo(final Device device) {
+        synchronized (mDevicesToQuery) {
+            if (mDevicesToQuery.add(device) == false) {
+                // already queued, for a previous state change.
+                return;
+            }
+        }
+
+        final long queueTime = System.currentTimeMillis();
+        try {
+            mDeviceQueryExecutor.execute(new Runnable() {
+                public void run() {
+                    long startTime = System.currentTimeMillis();
+                    boolean success;
+                    try {
+                        success = queryNewDeviceForInfo(device);
+                    } finally {
+                        synchronized (mDevicesToQuery) {
+                            mDevicesToQuery.remove(device);
+                        }
+                    }
+
+                    DeviceReadyMetrics metrics = new DeviceReadyMetrics(
+                            device.getSerialNumber(), startTime - queueTime,
+                            System.currentTimeMillis() - startTime, success);
+                    Log.d("DeviceMonitor", metrics.toString());
+                    synchronized (mReadyMetrics) {
+                        // moves the device to the end of the list.
+                        mReadyMetrics.remove(device.getSerialNumber());
+                        mReadyMetrics.put(device.getSerialNumber(), metrics);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the monitor is stopped.
+            synchronized (mDevicesToQuery) {
+                mDevicesToQuery.remove(device);
+            }
+        }
+    }
+
     /**
      * Queries a device for its build info.
      * @param device the device to query.
+     * @return true if all the queries succeeded.
      */
-    private void queryNewDeviceForInfo(Device device) {
-        // TODO: do this in a separate thread.
+    private boolean queryNewDeviceForInfo(Device device) {
         try {
             // first get the list of properties.
             device.executeShellCommand(GetPropReceiver.GETPROP_COMMAND,
                     new GetPropReceiver(device));
 
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_EXTERNAL_STORAGE);
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_DATA);
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_ROOT);
+            // then all the mount points, with a single command.
+            device.executeShellCommand(MountPointReceiver.getCommand(),
+                    new MountPointReceiver(device));
 
             // now get the emulator Virtual Device name (if applicable).
             if (device.isEmulator()) {
@@ -460,6 +553,7 @@ final class DeviceMonitor {
                     device.setAvdName(console.getAvdName());
                 }
             }
+            return true;
         } catch (TimeoutException e) {
             Log.w("DeviceMonitor", String.format("Connection timeout getting info for device %s",
                     device.getSerialNumber()));
@@ -480,26 +574,7 @@ final class DeviceMonitor {
                     "IO Error getting info for device %s",
                     device.getSerialNumber()));
         }
-    }
-
-    private void queryNewDeviceForMountingPoint(final Device device, final String name)
-            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
-            IOException {
-        device.executeShellCommand("echo $" + name, new MultiLineReceiver() { //$NON-NLS-1$
-            public boolean isCancelled() {
-                return false;
-            }
-
-            @Override
-            public void processNewLines(String[] lines) {
-                for (String line : lines) {
-                    if (line.length() > 0) {
-                        // this should be the only one.
-                        device.setMountingPoint(name, line);
-                    }
-                }
-            }
-        });
+        return false;
     }
 
     /**
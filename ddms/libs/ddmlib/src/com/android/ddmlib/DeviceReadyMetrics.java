@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+/**
+ * The time it took for a device to become ready, once it was seen online: the time to query
+ * its properties, mount points and AVD name. See
+ * {@link AndroidDebugBridge#getDeviceReadyMetrics()}.
+ * <p/>The times are in milliseconds.
+ */
+public final class DeviceReadyMetrics {
+    private final String mSerialNumber;
+    private final long mQueueTime;
+    private final long mQueryTime;
+    private final boolean mSuccessful;
+
+    DeviceReadyMetrics(String serialNumber, long queueTime, long queryTime,
+            boolean successful) {
+        mSerialNumber = serialNumber;
+        mQueueTime = queueTime;
+        mQueryTime = queryTime;
+        mSuccessful = successful;
+    }
+
+    /** Returns the serial number of the device. */
+    public String getSerialNumber() {
+        return mSerialNumber;
+    }
+
+    /** Returns the time the queries waited for the queries of other devices. */
+    public long getQueueTime() {
+        return mQueueTime;
+    }
+
+    /** Returns the time the queries of the device took. */
+    public long getQueryTime() {
+        return mQueryTime;
+    }
+
+    /** Returns the time between the device being seen online and being ready. */
+    public long getReadyTime() {
+        return mQueueTime + mQueryTime;
+    }
+
+    /** Returns whether all the queries succeeded. */
+    public boolean isSuccessful() {
+        return mSuccessful;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%1$s: ready in %2$d ms (%3$d ms queued)%4$s", //$NON-NLS-1$
+                mSerialNumber, getReadyTime(), mQueueTime,
+                mSuccessful ? "" : ", failed"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
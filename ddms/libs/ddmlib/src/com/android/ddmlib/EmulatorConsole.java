@@ -22,6 +22,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.security.InvalidParameterException;
 import java.util.Formatter;
@@ -48,7 +49,6 @@ public final class EmulatorConsole {
 
     private final static String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
-    private final static int WAIT_TIME = 5; // spin-wait sleep, in ms
 
     private final static int STD_TIMEOUT = 5000; // standard delay, in ms
 
@@ -603,37 +603,38 @@ public final class EmulatorConsole {
     private String[] readLines() {
         try {
             ByteBuffer buf = ByteBuffer.wrap(mBuffer, 0, mBuffer.length);
-            int numWaits = 0;
+            ChannelSelector selector = new ChannelSelector(mSocketChannel);
+            long lastRead = System.currentTimeMillis();
             boolean stop = false;
 
-            while (buf.position() != buf.limit() && stop == false) {
-                int count;
+            try {
+                while (buf.position() != buf.limit() && stop == false) {
+                    int count;
 
-                count = mSocketChannel.read(buf);
-                if (count < 0) {
-                    return null;
-                } else if (count == 0) {
-                    if (numWaits * WAIT_TIME > STD_TIMEOUT) {
+                    count = mSocketChannel.read(buf);
+                    if (count < 0) {
                         return null;
+                    } else if (count == 0) {
+                        long remaining = lastRead + STD_TIMEOUT - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            return null;
+                        }
+                        selector.waitFor(SelectionKey.OP_READ, remaining);
+                    } else {
+                        lastRead = System.currentTimeMillis();
                     }
-                    // non-blocking spin
-                    try {
-                        Thread.sleep(WAIT_TIME);
-                    } catch (InterruptedException ie) {
-                    }
-                    numWaits++;
-                } else {
-                    numWaits = 0;
-                }
 
-                // check the last few char aren't OK. For a valid message to test
-                // we need at least 4 bytes (OK/KO + \r\n)
-                if (buf.position() >= 4) {
-                    int pos = buf.position();
-                    if (endsWithOK(pos) || lastLineIsKO(pos)) {
-                        stop = true;
+                    // check the last few char aren't OK. For a valid message to test
+                    // we need at least 4 bytes (OK/KO + \r\n)
+                    if (buf.position() >= 4) {
+                        int pos = buf.position();
+                        if (endsWithOK(pos) || lastLineIsKO(pos)) {
+                            stop = true;
+                        }
                     }
                 }
+            } finally {
+                selector.close();
             }
 
             String msg = new String(mBuffer, 0, buf.position(), DEFAULT_ENCODING);
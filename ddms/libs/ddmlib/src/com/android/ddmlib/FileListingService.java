@@ -21,12 +21,21 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Provides {@link Device} side file listing service.
  * <p/>To get an instance for a known {@link Device}, call {@link Device#getFileListingService()}.
+ * <p/>The listings are cached in the {@link FileEntry} objects for {@link #getCacheTtl()} ms.
+ * A whole tree can be listed at once with {@link #prefetch(FileEntry, IListingReceiver)}, and
+ * concurrent requests for the same directory share a single <code>ls</code> command.
  */
 public final class FileListingService {
 
@@ -62,11 +71,8 @@ public final class FileListingService {
         DIRECTORY_MNT,
     };
 
+    /** Default time in ms during which a listing is cached. */
     public static final long REFRESH_RATE = 5000L;
-    /**
-     * Refresh test has to be slightly lower for precision issue.
-     */
-    static final long REFRESH_TEST = (long)(REFRESH_RATE * .8);
 
     /** Entry type: File */
     public static final int TYPE_FILE = 0;
@@ -92,17 +98,31 @@ public final class FileListingService {
 
     private static final String FILE_ROOT = "/"; //$NON-NLS-1$
 
+    /** The characters allowed at each position of the permissions of an ls entry. */
+    private static final String[] sLsPermissionChars = new String[] {
+        "bcdlsp-", //$NON-NLS-1$
+        "-r", "-w", "-xsS", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "-r", "-w", "-xsS", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        "-r", "-w", "-xstST", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    };
 
-    /**
-     * Regexp pattern to parse the result from ls.
-     */
-    private static Pattern sLsPattern = Pattern.compile(
-        "^([bcdlsp-][-r][-w][-xsS][-r][-w][-xsS][-r][-w][-xstST])\\s+(\\S+)\\s+(\\S+)\\s+([\\d\\s,]*)\\s+(\\d{4}-\\d\\d-\\d\\d)\\s+(\\d\\d:\\d\\d)\\s+(.*)$"); //$NON-NLS-1$
-
-    private Device mDevice;
+    private final IDevice mDevice;
     private FileEntry mRoot;
 
-    private ArrayList<Thread> mThreadList = new ArrayList<Thread>();
+    private volatile long mCacheTtl = REFRESH_RATE;
+
+    /** Listings being run, by directory. */
+    private final Map<FileEntry, Listing> mListings = new HashMap<FileEntry, Listing>();
+
+    /** Receivers of the asynchronous listings waiting to be run, by directory. */
+    private final Map<FileEntry, List<IListingReceiver>> mPendingReceivers =
+            new HashMap<FileEntry, List<IListingReceiver>>();
+
+    /**
+     * Runs the asynchronous listings. There is one thread, so that they do not run multiple
+     * <code>ls</code> on the device at the same time.
+     */
+    private final ThreadPoolExecutor mExecutor;
 
     /**
      * Represents an entry in a directory. This can be a file or a directory.
@@ -277,7 +297,9 @@ public final class FileListingService {
          * <code>FileListingService.getChildren()</code>.
          */
         public FileEntry[] getCachedChildren() {
-            return mChildren.toArray(new FileEntry[mChildren.size()]);
+            synchronized (mChildren) {
+                return mChildren.toArray(new FileEntry[mChildren.size()]);
+            }
         }
 
         /**
@@ -287,9 +309,11 @@ public final class FileListingService {
          * @return the FileEntry matching the name or null.
          */
         public FileEntry findChild(String name) {
-            for (FileEntry entry : mChildren) {
-                if (entry.name.equals(name)) {
-                    return entry;
+            synchronized (mChildren) {
+                for (FileEntry entry : mChildren) {
+                    if (entry.name.equals(name)) {
+                        return entry;
+                    }
                 }
             }
             return null;
@@ -303,20 +327,29 @@ public final class FileListingService {
         }
 
         void addChild(FileEntry child) {
-            mChildren.add(child);
+            synchronized (mChildren) {
+                mChildren.add(child);
+            }
         }
 
         void setChildren(ArrayList<FileEntry> newChildren) {
-            mChildren.clear();
-            mChildren.addAll(newChildren);
+            synchronized (mChildren) {
+                mChildren.clear();
+                mChildren.addAll(newChildren);
+            }
         }
 
-        boolean needFetch() {
+        /**
+         * Returns whether the children must be listed again.
+         * @param cacheTtl the time in ms during which a listing is valid. The test is slightly
+         * lower for precision issue.
+         */
+        boolean needFetch(long cacheTtl) {
             if (fetchTime == 0) {
                 return true;
             }
             long current = System.currentTimeMillis();
-            if (current-fetchTime > REFRESH_TEST) {
+            if (current - fetchTime >= cacheTtl - cacheTtl / 5) {
                 return true;
             }
 
@@ -334,6 +367,11 @@ public final class FileListingService {
          * Returns if the file name is an application package name.
          */
         public boolean isAppFileName() {
+            // quick check before the pattern, as this is called for each new entry.
+            if (name.length() < 4
+                    || !name.regionMatches(true, name.length() - 4, ".apk", 0, 4)) { //$NON-NLS-1$
+                return false;
+            }
             Matcher m = sApkPattern.matcher(name);
             return m.matches();
         }
@@ -379,10 +417,13 @@ public final class FileListingService {
         private void checkAppPackageStatus() {
             isAppPackage = false;
 
-            String[] segments = getPathSegments();
-            if (type == TYPE_FILE && segments.length == 3 && isAppFileName()) {
-                isAppPackage = DIRECTORY_APP.equals(segments[1]) &&
-                    (DIRECTORY_SYSTEM.equals(segments[0]) || DIRECTORY_DATA.equals(segments[0]));
+            if (type == TYPE_FILE && isAppFileName()) {
+                String[] segments = getPathSegments();
+                if (segments.length == 3) {
+                    isAppPackage = DIRECTORY_APP.equals(segments[1]) &&
+                        (DIRECTORY_SYSTEM.equals(segments[0]) ||
+                                DIRECTORY_DATA.equals(segments[0]));
+                }
             }
         }
 
@@ -395,178 +436,309 @@ public final class FileListingService {
         }
     }
 
-    private class LsReceiver extends MultiLineReceiver {
+    /**
+     * Parses the output of <code>ls -l</code> into the children of a directory, or of
+     * <code>ls -lR</code> into the children of a directory and of all its sub-directories.
+     * <p/>The lines are parsed in place, and the values repeated from one entry to the next,
+     * like the owner or the date, are reused.
+     */
+    class LsReceiver extends LineReceiver {
+
+        /** The entries of a directory being listed. */
+        private final class DirectoryListing {
+            final FileEntry mEntry;
+            /**
+             * The current children, by name. To prevent collapse during update, reusing the
+             * same FileEntry objects for files that were already there is paramount.
+             */
+            final Map<String, FileEntry> mCurrentChildren = new HashMap<String, FileEntry>();
+            final ArrayList<FileEntry> mEntryList;
+
+            DirectoryListing(FileEntry entry, ArrayList<FileEntry> entryList) {
+                mEntry = entry;
+                mEntryList = entryList;
+                for (FileEntry child : entry.getCachedChildren()) {
+                    mCurrentChildren.put(child.name, child);
+                }
+            }
+        }
 
-        private ArrayList<FileEntry> mEntryList;
-        private ArrayList<String> mLinkList;
-        private FileEntry[] mCurrentChildren;
-        private FileEntry mParentEntry;
+        private final boolean mRecursive;
+        /** The number of segments of the path of the listed directory. */
+        private final int mRootSegmentCount;
+        /** The sub-directories found so far, by path relative to the listed directory. */
+        private final Map<String, FileEntry> mDirectories = new HashMap<String, FileEntry>();
+        /** The relative path of the directory being parsed, or null if it is the listed one. */
+        private String mCurrentPath;
+        /** The directory being parsed, or null to skip the lines until the next one. */
+        private DirectoryListing mCurrent;
+        /** The listed directory. */
+        private final DirectoryListing mListed;
+
+        /** Values of the last entry, which are reused while they do not change. */
+        private String mPermissions;
+        private String mOwner;
+        private String mGroup;
+        private String mSize;
+        private String mDate;
+        private String mTime;
 
         /**
          * Create an ls receiver/parser.
-         * @param currentChildren The list of current children. To prevent
-         *      collapse during update, reusing the same FileEntry objects for
-         *      files that were already there is paramount.
+         * @param parentEntry the directory being listed.
          * @param entryList the list of new children to be filled by the
          *      receiver.
-         * @param linkList the list of link path to compute post ls, to figure
-         *      out if the link pointed to a file or to a directory.
+         * @param recursive whether the output is the one of <code>ls -lR</code>. The
+         *      sub-directories get their new children once their listing is parsed.
          */
         public LsReceiver(FileEntry parentEntry, ArrayList<FileEntry> entryList,
-                ArrayList<String> linkList) {
-            mParentEntry = parentEntry;
-            mCurrentChildren = parentEntry.getCachedChildren();
-            mEntryList = entryList;
-            mLinkList = linkList;
+                boolean recursive) {
+            mRecursive = recursive;
+            mRootSegmentCount = parentEntry.getPathSegments().length;
+            mListed = new DirectoryListing(parentEntry, entryList);
+            mCurrent = mListed;
         }
 
         @Override
-        public void processNewLines(String[] lines) {
-            for (String line : lines) {
-                // no need to handle empty lines.
-                if (line.length() == 0) {
-                    continue;
-                }
+        protected void processLine(CharSequence line) {
+            // no need to handle empty lines.
+            if (line.length() == 0) {
+                return;
+            }
 
-                // run the line through the regexp
-                Matcher m = sLsPattern.matcher(line);
-                if (m.matches() == false) {
-                    continue;
+            // in a recursive listing, each sub-directory starts with a "/path/to/dir:" line.
+            if (mRecursive && line.charAt(0) == '/' && line.charAt(line.length() - 1) == ':') {
+                finishDirectory();
+                startDirectory(line);
+                return;
+            }
+
+            if (mCurrent != null) {
+                processEntry(line);
+            }
+        }
+
+        /**
+         * Parses an entry line, which looks like:
+         * <pre>
+         * drwxrwx--x system   system            2011-06-01 12:00 data
+         * -rw-r--r-- root     root         1234 2011-06-01 12:00 default.prop
+         * crw-rw-rw- root     root       1,   3 2011-06-01 12:00 null
+         * lrwxrwxrwx root     root              2011-06-01 12:00 sdcard -> /mnt/sdcard
+         * </pre>
+         */
+        private void processEntry(CharSequence line) {
+            int length = line.length();
+            if (length < sLsPermissionChars.length) {
+                return;
+            }
+            for (int i = 0; i < sLsPermissionChars.length; i++) {
+                if (sLsPermissionChars[i].indexOf(line.charAt(i)) == -1) {
+                    return;
                 }
+            }
 
-                // get the name
-                String name = m.group(7);
+            int ownerStart = skipSpaces(line, sLsPermissionChars.length);
+            if (ownerStart == sLsPermissionChars.length) {
+                return;
+            }
+            int ownerEnd = skipNonSpaces(line, ownerStart);
+            int groupStart = skipSpaces(line, ownerEnd);
+            if (groupStart == ownerEnd) {
+                return;
+            }
+            int groupEnd = skipNonSpaces(line, groupStart);
 
-                // if the parent is root, we only accept selected items
-                if (mParentEntry.isRoot()) {
-                    boolean found = false;
-                    for (String approved : sRootLevelApprovedItems) {
-                        if (approved.equals(name)) {
-                            found = true;
-                            break;
-                        }
-                    }
+            // the size is digits, spaces and commas, and is followed by the date.
+            int sizeStart = skipSpaces(line, groupEnd);
+            if (sizeStart == groupEnd) {
+                return;
+            }
+            int dateEnd = sizeStart;
+            while (dateEnd < length && isSizeChar(line.charAt(dateEnd))) {
+                dateEnd++;
+            }
+            // dateEnd is now after the year of the date.
+            int dateStart = dateEnd - 4;
+            if (dateStart < sizeStart || !matches(line, dateStart, "dddd-dd-dd")) { //$NON-NLS-1$
+                return;
+            }
+            int sizeEnd = dateStart;
+            while (sizeEnd > sizeStart && line.charAt(sizeEnd - 1) <= ' ') {
+                sizeEnd--;
+            }
+            if (sizeEnd > sizeStart && sizeEnd == dateStart) {
+                // the size must be separated from the date.
+                return;
+            }
+            dateEnd = dateStart + 10;
+            int timeStart = skipSpaces(line, dateEnd);
+            if (timeStart == dateEnd || !matches(line, timeStart, "dd:dd")) { //$NON-NLS-1$
+                return;
+            }
+            int timeEnd = timeStart + 5;
+            int nameStart = skipSpaces(line, timeEnd);
+            if (nameStart == timeEnd) {
+                return;
+            }
+
+            // get the name
+            String name = line.subSequence(nameStart, length).toString();
 
-                    // if it's not in the approved list we skip this entry.
-                    if (found == false) {
-                        continue;
+            // if the parent is root, we only accept selected items
+            if (mCurrent.mEntry.isRoot()) {
+                boolean found = false;
+                for (String approved : sRootLevelApprovedItems) {
+                    if (approved.equals(name)) {
+                        found = true;
+                        break;
                     }
                 }
 
-                // get the rest of the groups
-                String permissions = m.group(1);
-                String owner = m.group(2);
-                String group = m.group(3);
-                String size = m.group(4);
-                String date = m.group(5);
-                String time = m.group(6);
-                String info = null;
-
-                // and the type
-                int objectType = TYPE_OTHER;
-                switch (permissions.charAt(0)) {
-                    case '-' :
-                        objectType = TYPE_FILE;
-                        break;
-                    case 'b' :
-                        objectType = TYPE_BLOCK;
-                        break;
-                    case 'c' :
-                        objectType = TYPE_CHARACTER;
-                        break;
-                    case 'd' :
-                        objectType = TYPE_DIRECTORY;
-                        break;
-                    case 'l' :
-                        objectType = TYPE_LINK;
-                        break;
-                    case 's' :
-                        objectType = TYPE_SOCKET;
-                        break;
-                    case 'p' :
-                        objectType = TYPE_FIFO;
-                        break;
+                // if it's not in the approved list we skip this entry.
+                if (found == false) {
+                    return;
                 }
+            }
 
+            // get the rest of the fields
+            mPermissions = reuse(line, 0, sLsPermissionChars.length, mPermissions);
+            mOwner = reuse(line, ownerStart, ownerEnd, mOwner);
+            mGroup = reuse(line, groupStart, groupEnd, mGroup);
+            mSize = reuse(line, sizeStart, sizeEnd, mSize);
+            mDate = reuse(line, dateStart, dateEnd, mDate);
+            mTime = reuse(line, timeStart, timeEnd, mTime);
+            String info = null;
+
+            // and the type
+            int objectType = TYPE_OTHER;
+            switch (line.charAt(0)) {
+                case '-' :
+                    objectType = TYPE_FILE;
+                    break;
+                case 'b' :
+                    objectType = TYPE_BLOCK;
+                    break;
+                case 'c' :
+                    objectType = TYPE_CHARACTER;
+                    break;
+                case 'd' :
+                    objectType = TYPE_DIRECTORY;
+                    break;
+                case 'l' :
+                    objectType = TYPE_LINK;
+                    break;
+                case 's' :
+                    objectType = TYPE_SOCKET;
+                    break;
+                case 'p' :
+                    objectType = TYPE_FIFO;
+                    break;
+            }
 
-                // now check what we may be linking to
-                if (objectType == TYPE_LINK) {
-                    String[] segments = name.split("\\s->\\s"); //$NON-NLS-1$
-
-                    // we should have 2 segments
-                    if (segments.length == 2) {
-                        // update the entry name to not contain the link
-                        name = segments[0];
-
-                        // and the link name
-                        info = segments[1];
-
-                        // now get the path to the link
-                        String[] pathSegments = info.split(FILE_SEPARATOR);
-                        if (pathSegments.length == 1) {
-                            // the link is to something in the same directory,
-                            // unless the link is ..
-                            if ("..".equals(pathSegments[0])) { //$NON-NLS-1$
-                                // set the type and we're done.
-                                objectType = TYPE_DIRECTORY_LINK;
-                            } else {
-                                // either we found the object already
-                                // or we'll find it later.
-                            }
+            // now check what we may be linking to
+            if (objectType == TYPE_LINK) {
+                String[] segments = name.split("\\s->\\s"); //$NON-NLS-1$
+
+                // we should have 2 segments
+                if (segments.length == 2) {
+                    // update the entry name to not contain the link
+                    name = segments[0];
+
+                    // and the link name
+                    info = segments[1];
+
+                    // now get the path to the link
+                    String[] pathSegments = info.split(FILE_SEPARATOR);
+                    if (pathSegments.length == 1) {
+                        // the link is to something in the same directory,
+                        // unless the link is ..
+                        if ("..".equals(pathSegments[0])) { //$NON-NLS-1$
+                            // set the type and we're done.
+                            objectType = TYPE_DIRECTORY_LINK;
+                        } else {
+                            // either we found the object already
+                            // or we'll find it later.
                         }
                     }
-
-                    // add an arrow in front to specify it's a link.
-                    info = "-> " + info; //$NON-NLS-1$;
                 }
 
-                // get the entry, either from an existing one, or a new one
-                FileEntry entry = getExistingEntry(name);
-                if (entry == null) {
-                    entry = new FileEntry(mParentEntry, name, objectType, false /* isRoot */);
-                }
+                // add an arrow in front to specify it's a link.
+                info = "-> " + info; //$NON-NLS-1$;
+            }
 
-                // add some misc info
-                entry.permissions = permissions;
-                entry.size = size;
-                entry.date = date;
-                entry.time = time;
-                entry.owner = owner;
-                entry.group = group;
-                if (objectType == TYPE_LINK) {
-                    entry.info = info;
-                }
+            // get the entry, either from an existing one, or a new one
+            FileEntry entry = mCurrent.mCurrentChildren.remove(name);
+            if (entry == null) {
+                entry = new FileEntry(mCurrent.mEntry, name, objectType, false /* isRoot */);
+            }
+
+            // add some misc info
+            entry.permissions = mPermissions;
+            entry.size = mSize;
+            entry.date = mDate;
+            entry.time = mTime;
+            entry.owner = mOwner;
+            entry.group = mGroup;
+            if (objectType == TYPE_LINK) {
+                entry.info = info;
+            }
+
+            mCurrent.mEntryList.add(entry);
 
-                mEntryList.add(entry);
+            // remember the directories, to find the ones listed next.
+            if (mRecursive && objectType == TYPE_DIRECTORY) {
+                mDirectories.put(mCurrentPath == null ? name : mCurrentPath + '/' + name, entry);
             }
         }
 
         /**
-         * Queries for an already existing Entry per name
-         * @param name the name of the entry
-         * @return the existing FileEntry or null if no entry with a matching
-         * name exists.
+         * Starts parsing the listing of a sub-directory from its "/path/to/dir:" line.
          */
-        private FileEntry getExistingEntry(String name) {
-            for (int i = 0 ; i < mCurrentChildren.length; i++) {
-                FileEntry e = mCurrentChildren[i];
-
-                // since we're going to "erase" the one we use, we need to
-                // check that the item is not null.
-                if (e != null) {
-                    // compare per name, case-sensitive.
-                    if (name.equals(e.name)) {
-                        // erase from the list
-                        mCurrentChildren[i] = null;
-
-                        // and return the object
-                        return e;
+        private void startDirectory(CharSequence line) {
+            // the path may contain empty segments, for instance after a trailing separator
+            // in the ls command.
+            String[] segments = line.subSequence(0, line.length() - 1).toString().split(
+                    FILE_SEPARATOR);
+            StringBuilder path = new StringBuilder();
+            int count = 0;
+            for (String segment : segments) {
+                if (segment.length() > 0 && ++count > mRootSegmentCount) {
+                    if (path.length() > 0) {
+                        path.append('/');
                     }
+                    path.append(segment);
                 }
             }
+            if (path.length() == 0) {
+                // the header of the listed directory.
+                mCurrentPath = null;
+                mCurrent = mListed;
+                return;
+            }
+            mCurrentPath = path.toString();
+            FileEntry entry = mDirectories.remove(mCurrentPath);
+            mCurrent = entry != null ?
+                    new DirectoryListing(entry, new ArrayList<FileEntry>()) : null;
+        }
 
-            // couldn't find any matching object, return null
-            return null;
+        /**
+         * Sets the children of a sub-directory of a recursive listing, once they are all
+         * parsed. The children of the listed directory are set by the caller.
+         */
+        private void finishDirectory() {
+            if (mCurrent != null && mCurrentPath != null) {
+                setChildren(mCurrent.mEntry, mCurrent.mEntryList);
+            }
+        }
+
+        /**
+         * Finishes the listing: the children of the last sub-directory are set.
+         */
+        @Override
+        public void done() {
+            finishDirectory();
+            mCurrent = null;
         }
 
         public boolean isCancelled() {
@@ -578,6 +750,61 @@ public final class FileListingService {
         }
     }
 
+    private static int skipSpaces(CharSequence line, int index) {
+        int length = line.length();
+        while (index < length && line.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipNonSpaces(CharSequence line, int index) {
+        int length = line.length();
+        while (index < length && line.charAt(index) > ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isSizeChar(char c) {
+        return (c >= '0' && c <= '9') || c == ',' || c <= ' ';
+    }
+
+    /**
+     * Returns whether the characters of a line match a format, where 'd' is a digit and the
+     * other characters must be equal.
+     */
+    private static boolean matches(CharSequence line, int start, String format) {
+        if (start + format.length() > line.length()) {
+            return false;
+        }
+        for (int i = 0; i < format.length(); i++) {
+            char c = line.charAt(start + i);
+            char f = format.charAt(i);
+            if (f == 'd' ? (c < '0' || c > '9') : c != f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the characters of a line as a string, reusing the previous string if it is the
+     * same.
+     */
+    private static String reuse(CharSequence line, int start, int end, String previous) {
+        if (previous != null && previous.length() == end - start) {
+            int i = start;
+            while (i < end && line.charAt(i) == previous.charAt(i - start)) {
+                i++;
+            }
+            if (i == end) {
+                return previous;
+            }
+        }
+        return line.subSequence(start, end).toString();
+    }
+
     /**
      * Classes which implement this interface provide a method that deals with asynchronous
      * result from <code>ls</code> command on the device.
@@ -590,12 +817,59 @@ public final class FileListingService {
         public void refreshEntry(FileEntry entry);
     }
 
+    /**
+     * A listing being run. Concurrent requests for the same directory wait for it instead of
+     * running their own <code>ls</code>.
+     */
+    private static final class Listing {
+        final boolean mRecursive;
+        /** The time the listing started, to know which entries it updated. */
+        final long mStartTime = System.currentTimeMillis();
+        private boolean mDone;
+        private boolean mSuccess;
+
+        Listing(boolean recursive) {
+            mRecursive = recursive;
+        }
+
+        synchronized void done(boolean success) {
+            mDone = true;
+            mSuccess = success;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the listing to be done.
+         * @return true if the listing succeeded.
+         */
+        synchronized boolean waitFor() {
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return mSuccess;
+        }
+    }
+
     /**
      * Creates a File Listing Service for a specified {@link Device}.
      * @param device The Device the service is connected to.
      */
-    FileListingService(Device device) {
+    FileListingService(IDevice device) {
         mDevice = device;
+        mExecutor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "File Listing " + mDevice.getSerialNumber()); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -603,7 +877,7 @@ public final class FileListingService {
      * @return the {@link FileEntry} object representing the root element or
      * <code>null</code> if the device is invalid.
      */
-    public FileEntry getRoot() {
+    public synchronized FileEntry getRoot() {
         if (mDevice != null) {
             if (mRoot == null) {
                 mRoot = new FileEntry(null /* parent */, "" /* name */, TYPE_DIRECTORY,
@@ -616,6 +890,41 @@ public final class FileListingService {
         return null;
     }
 
+    /**
+     * Sets the time during which the listings are cached. This defaults to
+     * {@link #REFRESH_RATE}.
+     * @param cacheTtl the time in ms. 0 disables the cache.
+     */
+    public void setCacheTtl(long cacheTtl) {
+        mCacheTtl = cacheTtl;
+    }
+
+    /**
+     * Returns the time in ms during which the listings are cached.
+     */
+    public long getCacheTtl() {
+        return mCacheTtl;
+    }
+
+    /**
+     * Invalidates the cached listing of a directory, so that the next call to
+     * {@link #getChildren(FileEntry, boolean, IListingReceiver)} runs a new <code>ls</code>
+     * command. This should be called after modifying the directory.
+     * @param entry the directory.
+     * @param recursive whether to also invalidate the listings of the cached sub-directories.
+     */
+    public void invalidate(FileEntry entry, boolean recursive) {
+        ArrayList<FileEntry> entries = new ArrayList<FileEntry>();
+        entries.add(entry);
+        while (entries.size() > 0) {
+            FileEntry e = entries.remove(entries.size() - 1);
+            e.fetchTime = 0;
+            if (recursive) {
+                Collections.addAll(entries, e.getCachedChildren());
+            }
+        }
+    }
+
     /**
      * Returns the children of a {@link FileEntry}.
      * <p/>
@@ -628,11 +937,15 @@ public final class FileListingService {
      * <p/>
      * The result for each <code>ls</code> command is cached in the parent
      * <code>FileEntry</code>. <var>useCache</var> allows usage of this cache, but only if the
-     * cache is valid. The cache is valid only for {@link FileListingService#REFRESH_RATE} ms.
+     * cache is valid. The cache is valid only for {@link #getCacheTtl()} ms, or until
+     * {@link #invalidate(FileEntry, boolean)} is called.
      * After that a new <code>ls</code> command is always executed.
      * <p/>
      * If the cache is valid and <code>useCache == true</code>, the method will always simply
      * return the value of the cache, whether a {@link IListingReceiver} has been provided or not.
+     * <p/>
+     * If a listing of the entry, or a recursive listing of one of its parents, is already
+     * running, its result is used instead of running a new <code>ls</code> command.
      *
      * @param entry The parent entry.
      * @param useCache A flag to use the cache or to force a new ls command.
@@ -645,96 +958,126 @@ public final class FileListingService {
             final IListingReceiver receiver) {
         // first thing we do is check the cache, and if we already have a recent
         // enough children list, we just return that.
-        if (useCache && entry.needFetch() == false) {
+        if (useCache && entry.needFetch(mCacheTtl) == false) {
             return entry.getCachedChildren();
         }
 
         // if there's no receiver, then this is a synchronous call, and we
         // return the result of ls
         if (receiver == null) {
-            doLs(entry);
+            try {
+                list(entry, false /* recursive */);
+            } catch (Exception e) {
+                // do nothing
+            }
             return entry.getCachedChildren();
         }
 
         // this is a asynchronous call.
-        // we launch a thread that will do ls and give the listing
-        // to the receiver
-        Thread t = new Thread("ls " + entry.getFullPath()) { //$NON-NLS-1$
-            @Override
+        // we don't want to run multiple ls on the device at the same time, so the listing
+        // is queued on the listing thread, unless a listing of this entry is already queued,
+        // in which case the receiver is notified of its result.
+        synchronized (mPendingReceivers) {
+            List<IListingReceiver> receivers = mPendingReceivers.get(entry);
+            if (receivers != null) {
+                receivers.add(receiver);
+                return null;
+            }
+            receivers = new ArrayList<IListingReceiver>();
+            receivers.add(receiver);
+            mPendingReceivers.put(entry, receivers);
+        }
+
+        mExecutor.execute(new Runnable() {
             public void run() {
-                doLs(entry);
+                try {
+                    list(entry, false /* recursive */);
+                } catch (Exception e) {
+                    // the receivers get the cached children.
+                }
 
-                receiver.setChildren(entry, entry.getCachedChildren());
+                // the receivers added while listing get this result too.
+                List<IListingReceiver> receivers;
+                synchronized (mPendingReceivers) {
+                    receivers = mPendingReceivers.remove(entry);
+                }
 
                 final FileEntry[] children = entry.getCachedChildren();
+                for (IListingReceiver r : receivers) {
+                    r.setChildren(entry, children);
+                }
+
                 if (children.length > 0 && children[0].isApplicationPackage()) {
-                    final HashMap<String, FileEntry> map = new HashMap<String, FileEntry>();
+                    listPackages(children, receivers);
+                }
+            }
+        });
 
-                    for (FileEntry child : children) {
-                        String path = child.getFullPath();
-                        map.put(path, child);
-                    }
+        // and we return null.
+        return null;
+    }
+
+    /**
+     * Sets the package of the application packages with <code>pm</code>.
+     */
+    private void listPackages(FileEntry[] children, final List<IListingReceiver> receivers) {
+        final HashMap<String, FileEntry> map = new HashMap<String, FileEntry>();
+
+        for (FileEntry child : children) {
+            String path = child.getFullPath();
+            map.put(path, child);
+        }
 
-                    // call pm.
-                    String command = PM_FULL_LISTING;
-                    try {
-                        mDevice.executeShellCommand(command, new MultiLineReceiver() {
-                            @Override
-                            public void processNewLines(String[] lines) {
-                                for (String line : lines) {
-                                    if (line.length() > 0) {
-                                        // get the filepath and package from the line
-                                        Matcher m = sPmPattern.matcher(line);
-                                        if (m.matches()) {
-                                            // get the children with that path
-                                            FileEntry entry = map.get(m.group(1));
-                                            if (entry != null) {
-                                                entry.info = m.group(2);
-                                                receiver.refreshEntry(entry);
-                                            }
-                                        }
+        // call pm.
+        String command = PM_FULL_LISTING;
+        try {
+            mDevice.executeShellCommand(command, new MultiLineReceiver() {
+                @Override
+                public void processNewLines(String[] lines) {
+                    for (String line : lines) {
+                        if (line.length() > 0) {
+                            // get the filepath and package from the line
+                            Matcher m = sPmPattern.matcher(line);
+                            if (m.matches()) {
+                                // get the children with that path
+                                FileEntry entry = map.get(m.group(1));
+                                if (entry != null) {
+                                    entry.info = m.group(2);
+                                    for (IListingReceiver receiver : receivers) {
+                                        receiver.refreshEntry(entry);
                                     }
                                 }
                             }
-                            public boolean isCancelled() {
-                                return false;
-                            }
-                        });
-                    } catch (Exception e) {
-                        // adb failed somehow, we do nothing.
+                        }
                     }
                 }
-
-
-                // if another thread is pending, launch it
-                synchronized (mThreadList) {
-                    // first remove ourselves from the list
-                    mThreadList.remove(this);
-
-                    // then launch the next one if applicable.
-                    if (mThreadList.size() > 0) {
-                        Thread t = mThreadList.get(0);
-                        t.start();
-                    }
+                public boolean isCancelled() {
+                    return false;
                 }
-            }
-        };
-
-        // we don't want to run multiple ls on the device at the same time, so we
-        // store the thread in a list and launch it only if there's no other thread running.
-        // the thread will launch the next one once it's done.
-        synchronized (mThreadList) {
-            // add to the list
-            mThreadList.add(t);
+            });
+        } catch (Exception e) {
+            // adb failed somehow, we do nothing.
+        }
+    }
 
-            // if it's the only one, launch it.
-            if (mThreadList.size() == 1) {
-                t.start();
+    /**
+     * Returns the children of a {@link FileEntry}, synchronously. The cached listing is used if
+     * it is valid for the given time, instead of {@link #getCacheTtl()}, for callers which need
+     * the listings to last longer, or less, than the other users of this service.
+     *
+     * @param entry The parent entry.
+     * @param cacheTtl the time in ms during which the cached listing is valid.
+     * @return The list of children
+     */
+    public FileEntry[] getChildren(FileEntry entry, long cacheTtl) {
+        if (entry.needFetch(cacheTtl)) {
+            try {
+                list(entry, false /* recursive */);
+            } catch (Exception e) {
+                // the cached children are returned.
             }
         }
-
-        // and we return null.
-        return null;
+        return entry.getCachedChildren();
     }
 
     /**
@@ -755,32 +1098,124 @@ public final class FileListingService {
      */
     public FileEntry[] getChildrenSync(final FileEntry entry) throws TimeoutException,
             AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
-        doLsAndThrow(entry);
+        list(entry, false /* recursive */);
         return entry.getCachedChildren();
     }
 
-    private void doLs(FileEntry entry) {
-        try {
-            doLsAndThrow(entry);
-        } catch (Exception e) {
-            // do nothing
+    /**
+     * Lists a directory and all its sub-directories with a single <code>ls -lR</code>
+     * command, and caches the result in all the entries of the tree.
+     * <p/>The listing is done in a separate thread, after the pending asynchronous calls to
+     * {@link #getChildren(FileEntry, boolean, IListingReceiver)}. The calls made while it runs
+     * for entries of the tree wait for its result.
+     * <p/>For the root, which is filtered, the approved top level directories are listed one
+     * after the other.
+     *
+     * @param entry the directory to list.
+     * @param receiver notified with the children of the directory once the tree is listed, or
+     *            <code>null</code>.
+     */
+    public void prefetch(final FileEntry entry, final IListingReceiver receiver) {
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    prefetchSync(entry);
+                } catch (Exception e) {
+                    // the receiver gets what was listed.
+                }
+                if (receiver != null) {
+                    receiver.setChildren(entry, entry.getCachedChildren());
+                }
+            }
+        });
+    }
+
+    /**
+     * Lists a directory and all its sub-directories.
+     * <p/>This method is the synchronous version of
+     * {@link #prefetch(FileEntry, IListingReceiver)}.
+     *
+     * @param entry the directory to list.
+     * @throws TimeoutException in case of timeout on the connection when sending the command.
+     * @throws AdbCommandRejectedException if adb rejects the command.
+     * @throws ShellCommandUnresponsiveException in case the shell command doesn't send any output
+     *            for a period longer than <var>maxTimeToOutputResponse</var>.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public void prefetchSync(FileEntry entry) throws TimeoutException,
+            AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        if (entry.isRoot()) {
+            // "ls -lR /" would list the whole device, including /proc and /sys.
+            list(entry, false /* recursive */);
+            for (FileEntry child : entry.getCachedChildren()) {
+                if (child.getType() == TYPE_DIRECTORY) {
+                    list(child, true /* recursive */);
+                }
+            }
+        } else {
+            list(entry, true /* recursive */);
+        }
+    }
+
+    /**
+     * Lists a directory, or waits for the listing already running for it, or for one of its
+     * parents if it is recursive.
+     */
+    private void list(FileEntry entry, boolean recursive) throws TimeoutException,
+            AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        while (true) {
+            Listing listing = null;
+            boolean covered = false;
+            synchronized (mListings) {
+                listing = mListings.get(entry);
+                covered = listing != null && (listing.mRecursive || !recursive);
+                for (FileEntry parent = entry.parent; !covered && parent != null;
+                        parent = parent.parent) {
+                    listing = mListings.get(parent);
+                    covered = listing != null && listing.mRecursive;
+                }
+                if (!covered) {
+                    listing = new Listing(recursive);
+                    mListings.put(entry, listing);
+                }
+            }
+
+            if (!covered) {
+                boolean success = false;
+                try {
+                    doLsAndThrow(entry, recursive);
+                    success = true;
+                } finally {
+                    synchronized (mListings) {
+                        mListings.remove(entry);
+                    }
+                    listing.done(success);
+                }
+                return;
+            }
+
+            // a parent listing may not reach this entry, for instance if it is a link.
+            if (listing.waitFor() && entry.fetchTime >= listing.mStartTime) {
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IOException("Interrupted while waiting for a listing"); //$NON-NLS-1$
+            }
         }
     }
 
-    private void doLsAndThrow(FileEntry entry) throws TimeoutException,
+    private void doLsAndThrow(FileEntry entry, boolean recursive) throws TimeoutException,
             AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
         // create a list that will receive the list of the entries
         ArrayList<FileEntry> entryList = new ArrayList<FileEntry>();
 
-        // create a list that will receive the link to compute post ls;
-        ArrayList<String> linkList = new ArrayList<String>();
-
         try {
             // create the command
-            String command = "ls -l " + entry.getFullEscapedPath(); //$NON-NLS-1$
+            String command = (recursive ? "ls -lR " : "ls -l ") //$NON-NLS-1$ //$NON-NLS-2$
+                    + entry.getFullEscapedPath();
 
             // create the receiver object that will parse the result from ls
-            LsReceiver receiver = new LsReceiver(entry, entryList, linkList);
+            LsReceiver receiver = new LsReceiver(entry, entryList, recursive);
 
             // call ls.
             mDevice.executeShellCommand(command, receiver);
@@ -789,12 +1224,16 @@ public final class FileListingService {
             receiver.finishLinks();
         } finally {
             // at this point we need to refresh the viewer
-            entry.fetchTime = System.currentTimeMillis();
-
-            // sort the children and set them as the new children
-            Collections.sort(entryList, FileEntry.sEntryComparator);
-            entry.setChildren(entryList);
+            setChildren(entry, entryList);
         }
     }
 
+    /**
+     * Sorts the new children of a directory, and caches them.
+     */
+    private static void setChildren(FileEntry entry, ArrayList<FileEntry> entryList) {
+        Collections.sort(entryList, FileEntry.sEntryComparator);
+        entry.setChildren(entryList);
+        entry.fetchTime = System.currentTimeMillis();
+    }
 }
@@ -23,7 +23,7 @@ import java.util.regex.Pattern;
  * A receiver able to parse the result of the execution of 
  * {@link #GETPROP_COMMAND} on a device.
  */
-final class GetPropReceiver extends MultiLineReceiver {
+final class GetPropReceiver extends LineReceiver {
     final static String GETPROP_COMMAND = "getprop"; //$NON-NLS-1$
     
     private final static Pattern GETPROP_PATTERN = Pattern.compile("^\\[([^]]+)\\]\\:\\s*\\[(.*)\\]$"); //$NON-NLS-1$
@@ -31,6 +31,9 @@ final class GetPropReceiver extends MultiLineReceiver {
     /** indicates if we need to read the first */
     private Device mDevice = null;
 
+    /** matcher reused for all the lines */
+    private final Matcher mMatcher = GETPROP_PATTERN.matcher(""); //$NON-NLS-1$
+
     /**
      * Creates the receiver with the device the receiver will modify.
      * @param device The device to modify
@@ -40,25 +43,23 @@ final class GetPropReceiver extends MultiLineReceiver {
     }
 
     @Override
-    public void processNewLines(String[] lines) {
-        // We receive an array of lines. We're expecting
+    protected void processLine(CharSequence line) {
+        // We receive the lines one at a time. We're expecting
         // to have the build info in the first line, and the build
         // date in the 2nd line. There seems to be an empty line
         // after all that.
 
-        for (String line : lines) {
-            if (line.length() == 0 || line.startsWith("#")) {
-                continue;
-            }
-            
-            Matcher m = GETPROP_PATTERN.matcher(line);
-            if (m.matches()) {
-                String label = m.group(1);
-                String value = m.group(2);
-                
-                if (label.length() > 0) {
-                    mDevice.addProperty(label, value);
-                }
+        if (line.length() == 0 || line.charAt(0) == '#') {
+            return;
+        }
+
+        Matcher m = mMatcher.reset(line);
+        if (m.matches()) {
+            String label = m.group(1);
+            String value = m.group(2);
+
+            if (label.length() > 0) {
+                mDevice.addProperty(label, value);
             }
         }
     }
@@ -17,6 +17,7 @@
 package com.android.ddmlib;
 
 import com.android.ddmlib.ClientData.AllocationTrackingStatus;
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
 import com.android.ddmlib.ClientData.IHprofDumpHandler;
 
 import java.io.IOException;
@@ -316,6 +317,23 @@ final class HandleHeap extends ChunkHandler {
         }
     }
 
+    /*
+     * Handle HeaP Dump Streaming response, when it was written to a file
+     * as it was received instead of being buffered.  See HprofStream.
+     */
+    static void handleHPDS(Client client, HprofStream stream) {
+        Log.d("ddm-hprof", "got hprof file, size: " + stream.getLength() + " bytes, in "
+                + stream.getFile());
+
+        IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+        if (handler instanceof IHprofDumpFileHandler) {
+            ((IHprofDumpFileHandler) handler).onSuccess(stream.getFile(), client);
+        } else {
+            // the handler changed while the dump was streamed.
+            stream.getFile().delete();
+        }
+    }
+
     /**
      * Sends a REAE (REcent Allocation Enable) request to the client.
      */
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An HPROF dump streamed by a VM in an HPDS chunk, written to a file as it is read from the
+ * client connection.
+ * <p/>The HPDS chunk holds the whole dump, so buffering it in the read buffer of the
+ * {@link Client} would take several times the size of the application heap in the DDMS heap.
+ * Instead, once the header of an HPDS packet is read, the rest of the packet is read with a
+ * small buffer and written to a temporary file. This is only done when the HPROF handler is an
+ * {@link IHprofDumpFileHandler}, which receives the file.
+ */
+final class HprofStream {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_HEADER_LEN = 8;
+
+    private final int mPacketId;
+    private final boolean mIsReply;
+    private final File mFile;
+    private final FileChannel mFileChannel;
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long mLength;
+    private long mRemaining;
+
+    private HprofStream(JdwpPacket packet, File file) throws IOException {
+        mPacketId = packet.getId();
+        mIsReply = packet.isReply();
+        mFile = file;
+        mFileChannel = new FileOutputStream(file).getChannel();
+    }
+
+    /**
+     * Starts streaming the packet at the start of a read buffer to a file, if it is an HPDS
+     * packet which was not fully read yet.
+     * <p/>On success, the payload read so far is written to the file and removed from the
+     * buffer. The rest of the packet must then be read with {@link #read(ReadableByteChannel)}.
+     * @param client the client the buffer was read from.
+     * @param readBuffer the read buffer of the client. The data starts at offset 0 and ends
+     * at "position".
+     * @return the stream, or null if the packet must be read in the buffer.
+     * @throws IOException if the file could not be written.
+     */
+    static HprofStream start(Client client, ByteBuffer readBuffer) throws IOException {
+        int count = readBuffer.position();
+        int headerLength = JdwpPacket.JDWP_HEADER_LEN + CHUNK_HEADER_LEN;
+        if (count < headerLength
+                || !(ClientData.getHprofDumpHandler() instanceof IHprofDumpFileHandler)) {
+            return null;
+        }
+
+        JdwpPacket packet = JdwpPacket.findPacketHeader(readBuffer);
+        if (packet == null || packet.getLength() <= count) {
+            // a complete packet is handled as usual.
+            return null;
+        }
+        if (!packet.isDdmPacket() && (!packet.isReply() || packet.isError()
+                || client.isResponseToUs(packet.getId()) == null)) {
+            return null;
+        }
+
+        ByteBuffer header = readBuffer.duplicate();
+        header.order(ChunkHandler.CHUNK_ORDER);
+        int type = header.getInt(JdwpPacket.JDWP_HEADER_LEN);
+        int length = header.getInt(JdwpPacket.JDWP_HEADER_LEN + 4);
+        // only a packet holding just the HPDS chunk can be streamed.
+        if (type != HandleHeap.CHUNK_HPDS || length != packet.getLength() - headerLength) {
+            return null;
+        }
+
+        File file = File.createTempFile("ddms", ".hprof"); //$NON-NLS-1$ //$NON-NLS-2$
+        HprofStream stream = new HprofStream(packet, file);
+        stream.mLength = length;
+        stream.mRemaining = length;
+
+        header.position(headerLength);
+        header.limit(count);
+        try {
+            stream.write(header);
+        } catch (IOException e) {
+            stream.abort();
+            throw e;
+        }
+
+        // the whole buffer was part of the packet.
+        readBuffer.clear();
+
+        Log.d("ddm-hprof", "Streaming hprof file, size: " + length + " bytes, to " + file);
+        return stream;
+    }
+
+    /**
+     * Reads the available data of the packet from a channel, and writes it to the file.
+     * @return true if the packet is complete, in which case the file is closed.
+     * @throws IOException if the channel could not be read, or the file written.
+     */
+    boolean read(ReadableByteChannel chan) throws IOException {
+        while (mRemaining > 0) {
+            mBuffer.clear();
+            mBuffer.limit((int) Math.min(BUFFER_SIZE, mRemaining));
+            int count = chan.read(mBuffer);
+            if (count < 0) {
+                throw new IOException("read failed");
+            } else if (count == 0) {
+                return false;
+            }
+            mBuffer.flip();
+            write(mBuffer);
+        }
+
+        mFileChannel.close();
+        return true;
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        mRemaining -= data.remaining();
+        while (data.hasRemaining()) {
+            mFileChannel.write(data);
+        }
+    }
+
+    /**
+     * Stops the streaming before the end of the packet, and deletes the file.
+     */
+    void abort() {
+        try {
+            mFileChannel.close();
+        } catch (IOException e) {
+            // ignore, the file is deleted anyway.
+        }
+        mFile.delete();
+    }
+
+    /** Returns the file the HPROF dump is written to. */
+    File getFile() {
+        return mFile;
+    }
+
+    /** Returns the size of the HPROF dump. */
+    long getLength() {
+        return mLength;
+    }
+
+    /** Returns the id of the JDWP packet. */
+    int getPacketId() {
+        return mPacketId;
+    }
+
+    /** Returns whether the JDWP packet is a reply to a request. */
+    boolean isReply() {
+        return mIsReply;
+    }
+}
@@ -222,6 +222,21 @@ public interface IDevice {
     public SyncService getSyncService()
             throws TimeoutException, AdbCommandRejectedException, IOException;
 
+    /**
+     * Returns a {@link BulkSyncService} object to push / pull many files at once, over several
+     * sync connections.
+     * <p/>The service must be closed with {@link BulkSyncService#close()} when done.
+     *
+     * @param connectionCount the number of sync connections to open.
+     * @return <code>null</code> if the BulkSyncService couldn't be created. This can happen if adb
+     * refuse to open the connection because the {@link IDevice} is invalid (or got disconnected).
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException if the connection with adb failed.
+     */
+    public BulkSyncService getBulkSyncService(int connectionCount)
+            throws TimeoutException, AdbCommandRejectedException, IOException;
+
     /**
      * Returns a {@link FileListingService} for this device.
      */
@@ -229,6 +244,7 @@ public interface IDevice {
 
     /**
      * Takes a screen shot of the device and returns it as a {@link RawImage}.
+     * <p/>To capture frames continuously, use a {@link ScreenCaptureSession}.
      *
      * @return the screenshot as a <code>RawImage</code> or <code>null</code> if something
      *            went wrong.
@@ -292,6 +308,19 @@ public interface IDevice {
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException;
 
+    /**
+     * Opens a {@link ShellSession} on the device, to run many shell commands over a single
+     * persistent shell rather than opening a connection for each of them.
+     * <p/>The session must be closed with {@link ShellSession#close()} when done.
+     *
+     * @return the opened {@link ShellSession}.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public ShellSession openShellSession()
+            throws TimeoutException, AdbCommandRejectedException, IOException;
+
     /**
      * Runs the event log service and outputs the event log to the {@link LogReceiver}.
      * <p/>This call is blocking until {@link LogReceiver#isCancelled()} returns true.
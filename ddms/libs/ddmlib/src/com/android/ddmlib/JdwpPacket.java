@@ -283,6 +283,19 @@ final class JdwpPacket {
      * a valid JDWP packet.
      */
     static JdwpPacket findPacket(ByteBuffer buf) {
+        return findPacket(buf, false /* headerOnly */);
+    }
+
+    /**
+     * Like findPacket(), but only requires the JDWP header of the packet
+     * to be in the buffer.  This allows the payload of large packets to be
+     * handled as it is read, see {@link HprofStream}.
+     */
+    static JdwpPacket findPacketHeader(ByteBuffer buf) {
+        return findPacket(buf, true /* headerOnly */);
+    }
+
+    private static JdwpPacket findPacket(ByteBuffer buf, boolean headerOnly) {
         int count = buf.position();
         int length, id, flags, cmdSet, cmd;
 
@@ -302,7 +315,7 @@ final class JdwpPacket {
 
         if (length < JDWP_HEADER_LEN)
             throw new BadPacketException();
-        if (count < length)
+        if (count < length && !headerOnly)
             return null;
 
         JdwpPacket pkt = new JdwpPacket(buf);
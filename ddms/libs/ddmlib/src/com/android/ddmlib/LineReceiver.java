@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Base implementation of {@link IShellOutputReceiver}, that decodes the raw data coming from the
+ * socket as UTF-8 and splits it by lines, without allocating objects for each line.
+ * <p/>The data is decoded into a reusable char buffer, and each line is passed to
+ * {@link #processLine(CharSequence)} as a view of that buffer. The view is only valid during the
+ * call: classes extending this one must copy the parts of the line they keep, for instance with
+ * {@link CharSequence#toString()}.
+ * <p/>Lines are split on "\r\n", as output by adb shell commands. Once all the lines of a block
+ * of output have been processed, {@link #processLinesDone()} is called.
+ *
+ * @see MultiLineReceiver
+ */
+public abstract class LineReceiver implements IShellOutputReceiver {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private boolean mTrimLines = true;
+
+    private final CharsetDecoder mDecoder = UTF8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** raw data not decoded yet, such as the start of a multi-byte character. */
+    private ByteBuffer mBytes = ByteBuffer.allocate(16384);
+
+    /**
+     * decoded characters, starting with the unfinished line. The position is the number of
+     * characters.
+     */
+    private CharBuffer mChars = CharBuffer.allocate(16384);
+
+    /** index of the first character not yet checked for the end of a line. */
+    private int mScanStart;
+
+    /** whether output was received, in which case the last line is processed on flush. */
+    private boolean mHasOutput;
+
+    /** number of bytes received. */
+    private long mBytesReceived;
+
+    private final LineView mLine = new LineView();
+
+    /**
+     * A {@link CharSequence} view of a line in the char buffer.
+     */
+    private final static class LineView implements CharSequence {
+        private char[] mArray;
+        private int mOffset;
+        private int mLength;
+
+        void set(char[] array, int offset, int length) {
+            mArray = array;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            return mArray[mOffset + index];
+        }
+
+        public int length() {
+            return mLength;
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > mLength || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new String(mArray, mOffset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mArray, mOffset, mLength);
+        }
+    }
+
+    /**
+     * Set the trim lines flag.
+     * @param trim hether the lines are trimmed, or not.
+     */
+    public void setTrimLine(boolean trim) {
+        mTrimLines = trim;
+    }
+
+    /* (non-Javadoc)
+     * @see com.android.ddmlib.adb.IShellOutputReceiver#addOutput(
+     *      byte[], int, int)
+     */
+    public final void addOutput(byte[] data, int offset, int length) {
+        if (isCancelled() == false) {
+            mHasOutput = true;
+            mBytesReceived += length;
+
+            if (mBytes.remaining() < length) {
+                ByteBuffer bytes = ByteBuffer.allocate(
+                        Math.max(mBytes.capacity() * 2, mBytes.position() + length));
+                mBytes.flip();
+                bytes.put(mBytes);
+                mBytes = bytes;
+            }
+            mBytes.put(data, offset, length);
+            mBytes.flip();
+
+            decode(false);
+
+            mBytes.compact();
+
+            processLinesDone();
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see com.android.ddmlib.adb.IShellOutputReceiver#flush()
+     */
+    public final void flush() {
+        mBytes.flip();
+        decode(true);
+        mBytes.clear();
+        mDecoder.reset();
+
+        if (mHasOutput) {
+            // the last line is processed as is, without trimming.
+            mLine.set(mChars.array(), 0, mChars.position());
+            processLine(mLine);
+            processLinesDone();
+        }
+        mChars.clear();
+        mScanStart = 0;
+        mHasOutput = false;
+
+        done();
+    }
+
+    /**
+     * Returns the number of bytes of output received, not counting the output received once
+     * canceled.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * Terminates the process. This is called after the last lines have been through
+     * {@link #processLine(CharSequence)}.
+     */
+    public void done() {
+        // do nothing.
+    }
+
+    /**
+     * Called for each new line received from the remote process.
+     * <p/>It is guaranteed that the line is complete, except for the last one, which is passed
+     * on {@link #flush()} even if it does not end with a new line.
+     * @param line the line, without the end of line characters. This is only valid during the
+     * call.
+     */
+    protected abstract void processLine(CharSequence line);
+
+    /**
+     * Called after the lines of a block of output were passed to
+     * {@link #processLine(CharSequence)}. Lines are complete, so this can be used to process
+     * lines by batches.
+     */
+    protected void processLinesDone() {
+        // do nothing.
+    }
+
+    /**
+     * Decodes the pending bytes, and processes the complete lines.
+     * @param endOfInput whether this is the end of the output.
+     */
+    private void decode(boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = mDecoder.decode(mBytes, mChars, endOfInput);
+            processLines();
+        } while (result.isOverflow());
+
+        if (endOfInput) {
+            do {
+                result = mDecoder.flush(mChars);
+                processLines();
+            } while (result.isOverflow());
+        }
+    }
+
+    /**
+     * Processes the complete lines in the char buffer, and moves the unfinished line to the start
+     * of the buffer.
+     */
+    private void processLines() {
+        char[] chars = mChars.array();
+        int end = mChars.position();
+        int lineStart = 0;
+
+        for (int i = Math.max(1, mScanStart); i < end; i++) {
+            if (chars[i] == '\n' && chars[i - 1] == '\r') {
+                int start = lineStart;
+                int lineEnd = i - 1;
+                if (mTrimLines) {
+                    while (start < lineEnd && chars[start] <= ' ') {
+                        start++;
+                    }
+                    while (lineEnd > start && chars[lineEnd - 1] <= ' ') {
+                        lineEnd--;
+                    }
+                }
+                mLine.set(chars, start, lineEnd - start);
+                processLine(mLine);
+
+                lineStart = i + 1;
+            }
+        }
+
+        // move the unfinished line to the start of the buffer, growing it if the line fills it.
+        int remaining = end - lineStart;
+        if (remaining == mChars.capacity()) {
+            CharBuffer newChars = CharBuffer.allocate(mChars.capacity() * 2);
+            newChars.put(chars, 0, remaining);
+            mChars = newChars;
+        } else {
+            System.arraycopy(chars, lineStart, chars, 0, remaining);
+            mChars.clear();
+            mChars.position(remaining);
+        }
+        mScanStart = remaining;
+    }
+}
@@ -36,6 +36,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
 
 /**
@@ -61,6 +62,12 @@ final class MonitorThread extends Thread {
     // Map chunk types to handlers
     private HashMap<Integer, ChunkHandler> mHandlerMap;
 
+    // Handles the chunks off this thread
+    private final ChunkDispatcher mChunkDispatcher;
+
+    // Clients whose reading was paused until their pending chunks are handled
+    private final LinkedList<Client> mClientsToResume = new LinkedList<Client>();
+
     // port for "debug selected"
     private ServerSocketChannel mDebugSelectedChan;
 
@@ -83,6 +90,14 @@ final class MonitorThread extends Thread {
         super("Monitor");
         mClientList = new ArrayList<Client>();
         mHandlerMap = new HashMap<Integer, ChunkHandler>();
+        mChunkDispatcher = new ChunkDispatcher(new ChunkDispatcher.IDrainListener() {
+            public void clientDrained(Client client) {
+                synchronized (mClientsToResume) {
+                    mClientsToResume.add(client);
+                }
+                wakeup();
+            }
+        });
 
         mNewDebugSelectedPort = DdmPreferences.getSelectedDebugPort();
     }
@@ -174,6 +189,22 @@ final class MonitorThread extends Thread {
         }
     }
 
+    /**
+     * Returns a snapshot of the metrics of the handling of the DDM chunks.
+     */
+    ChunkMetrics getChunkMetrics() {
+        return mChunkDispatcher.getMetrics();
+    }
+
+    /**
+     * Queues the handling of a chunk of a client. The chunks of a client are handled in the
+     * order they are queued, on a thread of the {@link ChunkDispatcher}.
+     * @return false if the client has too many pending chunks and should not be read anymore.
+     */
+    boolean dispatchChunk(Client client, int type, Runnable runnable) {
+        return mChunkDispatcher.dispatch(client, type, runnable);
+    }
+
     /**
      * Register "handler" as the handler for type "type".
      */
@@ -216,6 +247,8 @@ final class MonitorThread extends Thread {
                 synchronized (mClientList) {
                 }
 
+                resumeClients();
+
                 // (re-)open the "debug selected" port, if it's not opened yet or
                 // if the port changed.
                 try {
@@ -308,7 +341,7 @@ final class MonitorThread extends Thread {
                 return;
             }
 
-            client.read();
+            boolean canRead = client.read();
 
             /*
              * See if we have a full packet in the buffer. It's possible we have
@@ -319,7 +352,7 @@ final class MonitorThread extends Thread {
                 if (packet.isDdmPacket()) {
                     // unsolicited DDM request - hand it off
                     assert !packet.isReply();
-                    callHandler(client, packet, null);
+                    canRead &= callHandler(client, packet, null);
                     packet.consume();
                 } else if (packet.isReply()
                         && client.isResponseToUs(packet.getId()) != null) {
@@ -333,7 +366,7 @@ final class MonitorThread extends Thread {
                                 + Integer.toHexString(packet.getId())
                                 + " from " + client);
                     else
-                        callHandler(client, packet, handler);
+                        canRead &= callHandler(client, packet, handler);
                     packet.consume();
                     client.removeRequestId(packet.getId());
                 } else {
@@ -347,6 +380,12 @@ final class MonitorThread extends Thread {
                 // find next
                 packet = client.getJdwpPacket();
             }
+
+            if (!canRead) {
+                // the client is read again once its pending chunks are handled.
+                Log.d("ddms", "Pausing reading of " + client);
+                client.setReadEnabled(mSelector, false);
+            }
         } catch (CancelledKeyException e) {
             // key was canceled probably due to a disconnected client before we could
             // read stuff coming from the client, so we drop it.
@@ -371,12 +410,29 @@ final class MonitorThread extends Thread {
         }
     }
 
+    /*
+     * Read again from the clients whose pending chunks were handled.
+     */
+    private void resumeClients() {
+        synchronized (mClientsToResume) {
+            for (Client client : mClientsToResume) {
+                Log.d("ddms", "Resuming reading of " + client);
+                client.setReadEnabled(mSelector, true);
+            }
+            mClientsToResume.clear();
+        }
+    }
+
     /*
      * Process an incoming DDM packet. If this is a reply to an earlier request,
      * "handler" will be set to the handler responsible for the original
      * request. The spec allows a JDWP message to include multiple DDM chunks.
+     *
+     * The chunk is copied out of the read buffer, and handled by the
+     * ChunkDispatcher. Returns false if the client should not be read until
+     * its pending chunks are handled.
      */
-    private void callHandler(Client client, JdwpPacket packet,
+    private boolean callHandler(final Client client, JdwpPacket packet,
             ChunkHandler handler) {
 
         // on first DDM packet received, broadcast a "ready" message
@@ -384,7 +440,8 @@ final class MonitorThread extends Thread {
             broadcast(CLIENT_READY, client);
 
         ByteBuffer buf = packet.getPayload();
-        int type, length;
+        final int type;
+        int length;
         boolean reply = true;
 
         type = buf.getInt();
@@ -401,19 +458,31 @@ final class MonitorThread extends Thread {
         if (handler == null) {
             Log.w("ddms", "Received unsupported chunk type "
                     + ChunkHandler.name(type) + " (len=" + length + ")");
-        } else {
-            Log.d("ddms", "Calling handler for " + ChunkHandler.name(type)
-                    + " [" + handler + "] (len=" + length + ")");
-            ByteBuffer ibuf = buf.slice();
-            ByteBuffer roBuf = ibuf.asReadOnlyBuffer(); // enforce R/O
-            roBuf.order(ChunkHandler.CHUNK_ORDER);
-            // do the handling of the chunk synchronized on the client list
-            // to be sure there's no concurrency issue when we look for HOME
-            // in hasApp()
-            synchronized (mClientList) {
-                handler.handleChunk(client, type, roBuf, reply, packet.getId());
-            }
+            return true;
         }
+
+        Log.d("ddms", "Queuing handler for " + ChunkHandler.name(type)
+                + " [" + handler + "] (len=" + length + ")");
+        // the read buffer is reused once the packet is consumed.
+        ByteBuffer ibuf = ByteBuffer.allocate(buf.remaining());
+        ibuf.put(buf);
+        ibuf.flip();
+        final ByteBuffer roBuf = ibuf.asReadOnlyBuffer(); // enforce R/O
+        roBuf.order(ChunkHandler.CHUNK_ORDER);
+
+        final ChunkHandler chunkHandler = handler;
+        final boolean isReply = reply;
+        final int id = packet.getId();
+        return mChunkDispatcher.dispatch(client, type, new Runnable() {
+            public void run() {
+                try {
+                    chunkHandler.handleChunk(client, type, roBuf, isReply, id);
+                } catch (RuntimeException e) {
+                    Log.e("ddms", e);
+                    dropClient(client, true /* notify */);
+                }
+            }
+        });
     }
 
     /**
@@ -579,6 +648,7 @@ final class MonitorThread extends Thread {
         Log.d("ddms", "Waiting for Monitor thread");
         try {
             this.join();
+            mChunkDispatcher.stop();
             // since we're quitting, lets drop all the client and disconnect
             // the DebugSelectedPort
             synchronized (mClientList) {
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+/**
+ * A receiver able to parse the result of the execution of {@link #getCommand()} on a device,
+ * which reads all the mount points in a single shell command.
+ */
+final class MountPointReceiver extends LineReceiver {
+    /** The mount points queried. */
+    static final String[] MOUNT_POINTS = {
+        IDevice.MNT_EXTERNAL_STORAGE, IDevice.MNT_DATA, IDevice.MNT_ROOT
+    };
+
+    private final Device mDevice;
+
+    /**
+     * Creates the receiver with the device the receiver will modify.
+     * @param device The device to modify
+     */
+    MountPointReceiver(Device device) {
+        mDevice = device;
+    }
+
+    /**
+     * Returns the shell command printing a "NAME=value" line for each mount point, so that
+     * empty values are not mistaken for the next ones.
+     */
+    static String getCommand() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : MOUNT_POINTS) {
+            if (sb.length() > 0) {
+                sb.append("; "); //$NON-NLS-1$
+            }
+            sb.append("echo ").append(name).append("=$").append(name); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return sb.toString();
+    }
+
+    @Override
+    protected void processLine(CharSequence line) {
+        String text = line.toString();
+        int index = text.indexOf('=');
+        if (index <= 0 || index == text.length() - 1) {
+            return;
+        }
+
+        String name = text.substring(0, index);
+        for (String mountPoint : MOUNT_POINTS) {
+            if (mountPoint.equals(name)) {
+                mDevice.setMountingPoint(name, text.substring(index + 1));
+                return;
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the same steps (file pushes, package installs, shell commands) on many devices at once.
+ * <p/>The steps of a device run one after the other, and stop at the first failure. The devices
+ * run in parallel, up to {@link #setMaxConcurrency(int)} devices at once, and up to
+ * {@link #setMaxPerHost(int)} devices at once on the same host: devices connected over TCP are
+ * grouped by the host in their serial number, and the others are on the local host.
+ * <p/>A local file is pushed once to each device, even if several steps use it, and the pushed
+ * files are removed from the device once its steps are done.
+ * <p/>The results and timings of each device and step are returned by {@link #run()}. The
+ * operation can be canceled from any thread with {@link #cancel()}: devices which did not start
+ * are skipped, and running devices stop after their current step, or during the output of a
+ * shell command.
+ */
+public final class MultiDeviceOperation {
+
+    /** Default value of {@link #setMaxConcurrency(int)}. */
+    public static final int DEFAULT_MAX_CONCURRENCY = 64;
+
+    private static final String LOCAL_HOST = "localhost"; //$NON-NLS-1$
+
+    /**
+     * Listener notified when a device is done. The listener is called from the threads of the
+     * operation.
+     */
+    public interface IDeviceDoneListener {
+        void deviceDone(DeviceResult result);
+    }
+
+    /** The result of a step on a device. */
+    public static final class StepResult {
+        private final String mName;
+        private final String mOutput;
+        private final Exception mError;
+        private final long mTime;
+
+        StepResult(String name, String output, Exception error, long time) {
+            mName = name;
+            mOutput = output;
+            mError = error;
+            mTime = time;
+        }
+
+        /** Returns a description of the step, for instance "install foo.apk". */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Returns the output of the step: the remote path of a pushed file, the error message of
+         * an install (null on success), or the output of a shell command.
+         */
+        public String getOutput() {
+            return mOutput;
+        }
+
+        /** Returns the reason of the failure of the step, or null if it succeeded. */
+        public Exception getError() {
+            return mError;
+        }
+
+        /** Returns whether the step succeeded. */
+        public boolean isSuccessful() {
+            return mError == null;
+        }
+
+        /** Returns how long the step took, in nanoseconds. */
+        public long getTime() {
+            return mTime;
+        }
+    }
+
+    /** The result of the steps on a device. */
+    public static final class DeviceResult {
+        private final IDevice mDevice;
+        private final List<StepResult> mSteps = new ArrayList<StepResult>();
+        private long mQueueTime;
+        private long mTime;
+        private boolean mCanceled;
+
+        DeviceResult(IDevice device) {
+            mDevice = device;
+        }
+
+        /** Returns the device. */
+        public IDevice getDevice() {
+            return mDevice;
+        }
+
+        /** Returns the results of the steps which ran, in order. */
+        public List<StepResult> getSteps() {
+            return Collections.unmodifiableList(mSteps);
+        }
+
+        /** Returns the first failure on the device, or null. */
+        public Exception getError() {
+            for (StepResult step : mSteps) {
+                if (step.mError != null) {
+                    return step.mError;
+                }
+            }
+            return null;
+        }
+
+        /** Returns whether all the steps ran and succeeded. */
+        public boolean isSuccessful() {
+            return !mCanceled && getError() == null;
+        }
+
+        /** Returns whether the operation was canceled before all the steps of the device ran. */
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+
+        /**
+         * Returns how long the device waited for the concurrency limits before its steps
+         * started, in nanoseconds.
+         */
+        public long getQueueTime() {
+            return mQueueTime;
+        }
+
+        /** Returns how long the steps of the device took, in nanoseconds. */
+        public long getTime() {
+            return mTime;
+        }
+
+        @Override
+        public String toString() {
+            String status = "ok"; //$NON-NLS-1$
+            if (mCanceled) {
+                status = "canceled"; //$NON-NLS-1$
+            } else if (getError() != null) {
+                status = "failed: " + getError().getMessage(); //$NON-NLS-1$
+            }
+            return String.format("%1$s: %2$s (%3$.1f ms, %4$.1f ms queued)", //$NON-NLS-1$
+                    mDevice.getSerialNumber(), status, mTime / 1e6, mQueueTime / 1e6);
+        }
+    }
+
+    /** A step to run on each device. */
+    private abstract static class Step {
+        final String mName;
+
+        Step(String name) {
+            mName = name;
+        }
+
+        /**
+         * Runs the step on a device.
+         * @return the output of the step.
+         * @throws Exception if the step failed.
+         */
+        abstract String run(DeviceRun run) throws Exception;
+    }
+
+    /** The steps running on a device, with the files pushed to it. */
+    private final class DeviceRun implements Runnable {
+        final IDevice mDevice;
+        final DeviceResult mResult;
+        final String mHost;
+        final long mQueueStart = System.nanoTime();
+        /** The remote paths of the local files pushed to the device. */
+        final Map<String, String> mPushedFiles = new LinkedHashMap<String, String>();
+
+        DeviceRun(IDevice device) {
+            mDevice = device;
+            mResult = new DeviceResult(device);
+            mHost = getHost(device);
+        }
+
+        /** Pushes a local file, if it was not pushed to the device yet. */
+        String push(String localFilePath) throws Exception {
+            String remoteFilePath = mPushedFiles.get(localFilePath);
+            if (remoteFilePath == null) {
+                remoteFilePath = mDevice.syncPackageToDevice(localFilePath);
+                mPushedFiles.put(localFilePath, remoteFilePath);
+            }
+            return remoteFilePath;
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            mResult.mQueueTime = start - mQueueStart;
+            try {
+                for (Step step : mSteps) {
+                    if (mCanceled) {
+                        mResult.mCanceled = true;
+                        break;
+                    }
+
+                    long stepStart = System.nanoTime();
+                    String output = null;
+                    Exception error = null;
+                    try {
+                        output = step.run(this);
+                    } catch (InstallException e) {
+                        output = e.getMessage();
+                        error = e;
+                    } catch (Exception e) {
+                        error = e;
+                    }
+                    mResult.mSteps.add(new StepResult(step.mName, output, error,
+                            System.nanoTime() - stepStart));
+                    if (error != null) {
+                        Log.w("ddms", String.format("%1$s failed on %2$s: %3$s", //$NON-NLS-1$
+                                step.mName, mDevice.getSerialNumber(), error.getMessage()));
+                        break;
+                    }
+                }
+            } finally {
+                // the device must be done whatever happens, or run() waits forever.
+                try {
+                    for (String remoteFilePath : mPushedFiles.values()) {
+                        try {
+                            mDevice.removeRemotePackage(remoteFilePath);
+                        } catch (Exception e) {
+                            Log.w("ddms", String.format( //$NON-NLS-1$
+                                    "Failed to remove %1$s from %2$s: %3$s", //$NON-NLS-1$
+                                    remoteFilePath, mDevice.getSerialNumber(), e.toString()));
+                        }
+                    }
+                } finally {
+                    mResult.mTime = System.nanoTime() - start;
+                    deviceDone(this);
+                }
+            }
+        }
+    }
+
+    /** Shell output receiver which stops when the operation is canceled. */
+    private final class CancelableReceiver extends CollectingOutputReceiver {
+        @Override
+        public boolean isCancelled() {
+            return mCanceled || super.isCancelled();
+        }
+    }
+
+    private final List<IDevice> mDevices;
+    private final List<Step> mSteps = new ArrayList<Step>();
+    private int mMaxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private int mMaxPerHost;
+    private IDeviceDoneListener mListener;
+
+    private volatile boolean mCanceled;
+    private boolean mStarted;
+    private long mElapsedTime;
+
+    /** Devices waiting for the concurrency limits. Also the lock of the scheduling. */
+    private final LinkedList<DeviceRun> mPending = new LinkedList<DeviceRun>();
+    private final Map<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+    private int mRunning;
+    private ExecutorService mExecutor;
+    private CountDownLatch mDone;
+
+    /**
+     * Creates an operation on a set of devices.
+     * @param devices the devices, for instance from {@link AndroidDebugBridge#getDevices()}.
+     */
+    public MultiDeviceOperation(Collection<? extends IDevice> devices) {
+        mDevices = new ArrayList<IDevice>(devices);
+    }
+
+    /**
+     * Sets the maximum number of devices running their steps at once. The default is
+     * {@link #DEFAULT_MAX_CONCURRENCY}.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency: " + maxConcurrency); //$NON-NLS-1$
+        }
+        mMaxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of devices of the same host running their steps at once, or 0 for
+     * no limit other than {@link #setMaxConcurrency(int)}, which is the default.
+     */
+    public void setMaxPerHost(int maxPerHost) {
+        if (maxPerHost < 0) {
+            throw new IllegalArgumentException("maxPerHost: " + maxPerHost); //$NON-NLS-1$
+        }
+        mMaxPerHost = maxPerHost;
+    }
+
+    /** Sets the listener notified as each device is done. */
+    public void setListener(IDeviceDoneListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Adds a step pushing a local file to the temporary folder of each device, with
+     * {@link IDevice#syncPackageToDevice(String)}, for instance for a later shell command. The
+     * output of the step is the remote path. The file is removed once the steps of the device
+     * are done.
+     */
+    public void addPush(final String localFilePath) {
+        mSteps.add(new Step("push " + localFilePath) { //$NON-NLS-1$
+            @Override
+            String run(DeviceRun run) throws Exception {
+                return run.push(localFilePath);
+            }
+        });
+    }
+
+    /**
+     * Adds a step installing a local package on each device. The package is pushed first if a
+     * previous step did not already push it, then installed with
+     * {@link IDevice#installRemotePackage(String, boolean, String...)}.
+     * @param localFilePath the path of the package.
+     * @param reinstall whether to reinstall the package if it is already installed.
+     * @param extraArgs optional extra arguments to pass to <code>pm install</code>.
+     */
+    public void addInstall(final String localFilePath, final boolean reinstall,
+            final String... extraArgs) {
+        mSteps.add(new Step("install " + localFilePath) { //$NON-NLS-1$
+            @Override
+            String run(DeviceRun run) throws Exception {
+                String remoteFilePath = run.push(localFilePath);
+                String error = run.mDevice.installRemotePackage(remoteFilePath, reinstall,
+                        extraArgs);
+                if (error != null) {
+                    throw new InstallException(error, null);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Adds a step running a shell command on each device. The output of the step is the output
+     * of the command.
+     * @param command the shell command.
+     * @param maxTimeToOutputResponse the maximum time in ms the command can go without output,
+     * or 0 to wait forever.
+     * @see IDevice#executeShellCommand(String, IShellOutputReceiver, int)
+     */
+    public void addShellCommand(final String command, final int maxTimeToOutputResponse) {
+        mSteps.add(new Step("shell " + command) { //$NON-NLS-1$
+            @Override
+            String run(DeviceRun run) throws Exception {
+                CancelableReceiver receiver = new CancelableReceiver();
+                run.mDevice.executeShellCommand(command, receiver, maxTimeToOutputResponse);
+                return receiver.getOutput();
+            }
+        });
+    }
+
+    /**
+     * Runs the steps on all the devices, and waits for them to be done. An operation can only
+     * run once.
+     * @return the results of the devices, in the order of the devices given to the constructor.
+     * @throws InterruptedException if the thread is interrupted while waiting, in which case the
+     * operation is canceled.
+     */
+    public List<DeviceResult> run() throws InterruptedException {
+        List<DeviceRun> runs = new ArrayList<DeviceRun>(mDevices.size());
+        long start = System.nanoTime();
+        synchronized (mPending) {
+            if (mStarted) {
+                throw new IllegalStateException("The operation already ran"); //$NON-NLS-1$
+            }
+            mStarted = true;
+
+            for (IDevice device : mDevices) {
+                DeviceRun run = new DeviceRun(device);
+                runs.add(run);
+                mPending.add(run);
+            }
+            mDone = new CountDownLatch(runs.size());
+            mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private int mCount;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Multi Device Operation " + mCount++); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            schedule();
+        }
+        if (mCanceled) {
+            cancelPending();
+        }
+
+        try {
+            mDone.await();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        } finally {
+            mExecutor.shutdown();
+        }
+        mElapsedTime = System.nanoTime() - start;
+
+        List<DeviceResult> results = new ArrayList<DeviceResult>(runs.size());
+        for (DeviceRun run : runs) {
+            results.add(run.mResult);
+        }
+        return results;
+    }
+
+    /**
+     * Cancels the operation. This can be called from any thread, and does not wait for the
+     * running steps to stop.
+     */
+    public void cancel() {
+        mCanceled = true;
+        cancelPending();
+    }
+
+    /** Returns the time {@link #run()} took, in nanoseconds. */
+    public long getElapsedTime() {
+        return mElapsedTime;
+    }
+
+    /** Returns the host of a device, used for the per-host concurrency limit. */
+    static String getHost(IDevice device) {
+        String serial = device.getSerialNumber();
+        int colon = serial.lastIndexOf(':');
+        if (colon > 0) {
+            // device connected with "adb connect host:port".
+            return serial.substring(0, colon);
+        }
+        return LOCAL_HOST;
+    }
+
+    /** Starts the pending devices allowed by the limits. Must be called with the lock. */
+    private void schedule() {
+        for (Iterator<DeviceRun> it = mPending.iterator();
+                it.hasNext() && mRunning < mMaxConcurrency; ) {
+            DeviceRun run = it.next();
+            Integer hostCount = mRunningPerHost.get(run.mHost);
+            int count = hostCount != null ? hostCount : 0;
+            if (mMaxPerHost > 0 && count >= mMaxPerHost) {
+                continue;
+            }
+
+            it.remove();
+            mRunning++;
+            mRunningPerHost.put(run.mHost, count + 1);
+            mExecutor.execute(run);
+        }
+    }
+
+    /** Marks the pending devices as canceled. */
+    private void cancelPending() {
+        List<DeviceRun> canceled;
+        synchronized (mPending) {
+            canceled = new ArrayList<DeviceRun>(mPending);
+            mPending.clear();
+        }
+        for (DeviceRun run : canceled) {
+            run.mResult.mCanceled = true;
+            run.mResult.mQueueTime = System.nanoTime() - run.mQueueStart;
+            notifyListener(run);
+            mDone.countDown();
+        }
+    }
+
+    private void deviceDone(DeviceRun run) {
+        // the listener is notified before the next device starts, so that it can cancel it.
+        notifyListener(run);
+        synchronized (mPending) {
+            mRunning--;
+            mRunningPerHost.put(run.mHost, mRunningPerHost.get(run.mHost) - 1);
+            schedule();
+        }
+        mDone.countDown();
+    }
+
+    private void notifyListener(DeviceRun run) {
+        IDeviceDoneListener listener = mListener;
+        if (listener != null) {
+            try {
+                listener.deviceDone(run.mResult);
+            } catch (Exception e) {
+                Log.e("ddms", e); //$NON-NLS-1$
+            }
+        }
+    }
+}
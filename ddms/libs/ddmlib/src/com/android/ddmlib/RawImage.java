@@ -132,6 +132,18 @@ public final class RawImage {
      * The image is rotated counter-clockwise.
      */
     public RawImage getRotated() {
+        return getRotated(1);
+    }
+
+    /**
+     * Returns a version of the image rotated counter-clockwise by <var>rotation</var> quarter
+     * turns, with a single copy of the data.
+     * <p/>To get the pixels of the rotated image, use
+     * {@link RawImageConverter#toARGB(RawImage, int, int[], int)} on the original image
+     * instead, which does not copy the data.
+     * @param rotation the number of quarter turns, from 0 to 3.
+     */
+    public RawImage getRotated(int rotation) {
         RawImage rotated = new RawImage();
         rotated.version = this.version;
         rotated.bpp = this.bpp;
@@ -145,21 +157,54 @@ public final class RawImage {
         rotated.alpha_offset = this.alpha_offset;
         rotated.alpha_length = this.alpha_length;
 
-        rotated.width = this.height;
-        rotated.height = this.width;
+        final int w = this.width;
+        final int h = this.height;
+        rotated.width = RawImageConverter.getRotatedWidth(this, rotation);
+        rotated.height = RawImageConverter.getRotatedHeight(this, rotation);
 
         int count = this.data.length;
         rotated.data = new byte[count];
 
         int byteCount = this.bpp >> 3; // bpp is in bits, we want bytes to match our array
-        final int w = this.width;
-        final int h = this.height;
+        if (rotation == 0) {
+            System.arraycopy(this.data, 0, rotated.data, 0, count);
+            return rotated;
+        }
+
+        // the pixel (x, y) goes at the index base + x * xStep + y * yStep of the rotated image.
+        int base;
+        int xStep;
+        int yStep;
+        switch (rotation) {
+            case 1:
+                base = (w - 1) * h;
+                xStep = -h;
+                yStep = 1;
+                break;
+            case 2:
+                base = w * h - 1;
+                xStep = -1;
+                yStep = -w;
+                break;
+            case 3:
+                base = h - 1;
+                xStep = h;
+                yStep = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("rotation: " + rotation); //$NON-NLS-1$
+        }
+
+        final byte[] from = this.data;
+        final byte[] to = rotated.data;
+        int index = 0;
         for (int y = 0 ; y < h ; y++) {
+            int dest = (base + y * yStep) * byteCount;
             for (int x = 0 ; x < w ; x++) {
-                System.arraycopy(
-                        this.data, (y * w + x) * byteCount,
-                        rotated.data, ((w-x-1) * h + y) * byteCount,
-                        byteCount);
+                for (int i = 0 ; i < byteCount ; i++) {
+                    to[dest + i] = from[index++];
+                }
+                dest += xStep * byteCount;
             }
         }
 
@@ -168,6 +213,7 @@ public final class RawImage {
 
     /**
      * Returns an ARGB integer value for the pixel at <var>index</var> in {@link #data}.
+     * <p/>To convert a whole image, use {@link RawImageConverter}.
      */
     public int getARGB(int index) {
         int value;
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts the frame buffer data of a {@link RawImage} into ARGB pixels, as used by
+ * <code>java.awt.image.BufferedImage.TYPE_INT_ARGB</code>.
+ * <p/>The pixels are converted with bulk loops over the whole image, with fast paths for the
+ * 565, RGBA and BGRA layouts. The image can be rotated during the conversion, and the
+ * conversion can be split across several threads by bands of rows.
+ * <p/>The result is the same as calling {@link RawImage#getARGB(int)} for every pixel.
+ */
+public final class RawImageConverter {
+
+    /** Number of pixels under which the conversion is not split across threads. */
+    private static final int MIN_PARALLEL_PIXELS = 256 * 1024;
+
+    private static ExecutorService sExecutor;
+
+    private RawImageConverter() {
+    }
+
+    /**
+     * Returns the width of the image once rotated.
+     * @param image the image.
+     * @param rotation the number of counter-clockwise quarter turns.
+     */
+    public static int getRotatedWidth(RawImage image, int rotation) {
+        return (rotation & 1) == 0 ? image.width : image.height;
+    }
+
+    /**
+     * Returns the height of the image once rotated.
+     * @param image the image.
+     * @param rotation the number of counter-clockwise quarter turns.
+     */
+    public static int getRotatedHeight(RawImage image, int rotation) {
+        return (rotation & 1) == 0 ? image.height : image.width;
+    }
+
+    /**
+     * Converts an image into ARGB pixels.
+     * @param image the image to convert.
+     * @param pixels the array to reuse for the pixels, or null.
+     * @return <var>pixels</var> if it can contain the image, or a new array.
+     * @throws UnsupportedOperationException if the image is not in 16 or 32 bit mode.
+     */
+    public static int[] toARGB(RawImage image, int[] pixels) {
+        return toARGB(image, 0, pixels, 1);
+    }
+
+    /**
+     * Converts an image into ARGB pixels, rotating it at the same time.
+     * <p/>The rotated image is laid out in rows of {@link #getRotatedWidth(RawImage, int)}
+     * pixels. A rotation of 1 gives the same result as {@link RawImage#getRotated()}.
+     * @param image the image to convert.
+     * @param rotation the number of counter-clockwise quarter turns, from 0 to 3.
+     * @param pixels the array to reuse for the pixels, or null.
+     * @param threadCount the maximum number of threads to use. Small images are always
+     * converted on the calling thread.
+     * @return <var>pixels</var> if it can contain the image, or a new array.
+     * @throws UnsupportedOperationException if the image is not in 16 or 32 bit mode.
+     */
+    public static int[] toARGB(final RawImage image, final int rotation, int[] pixels,
+            int threadCount) {
+        if (image.bpp != 16 && image.bpp != 32) {
+            throw new UnsupportedOperationException(
+                    "RawImageConverter only works in 16 and 32 bit mode."); //$NON-NLS-1$
+        }
+        if (rotation < 0 || rotation > 3) {
+            throw new IllegalArgumentException("rotation: " + rotation); //$NON-NLS-1$
+        }
+
+        int pixelCount = image.width * image.height;
+        if (pixels == null || pixels.length < pixelCount) {
+            pixels = new int[pixelCount];
+        }
+
+        int bands = Math.min(threadCount, image.height);
+        if (bands <= 1 || pixelCount < MIN_PARALLEL_PIXELS) {
+            convert(image, rotation, pixels, 0, image.height);
+            return pixels;
+        }
+
+        final int[] dest = pixels;
+        final CountDownLatch done = new CountDownLatch(bands - 1);
+        final RuntimeException[] error = new RuntimeException[1];
+        ExecutorService executor = getExecutor();
+        int rowsPerBand = (image.height + bands - 1) / bands;
+        for (int band = 1; band < bands; band++) {
+            final int start = band * rowsPerBand;
+            final int end = Math.min(image.height, start + rowsPerBand);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        if (start < end) {
+                            convert(image, rotation, dest, start, end);
+                        }
+                    } catch (RuntimeException e) {
+                        error[0] = e;
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        // the calling thread converts the first band.
+        convert(image, rotation, dest, 0, Math.min(image.height, rowsPerBand));
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while converting image"); //$NON-NLS-1$
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return pixels;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            int threadCount = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                    10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                private int mCount;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "RawImage Converter " + mCount++); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            sExecutor = executor;
+        }
+        return sExecutor;
+    }
+
+    /**
+     * Converts the source rows <var>startRow</var> to <var>endRow</var> (exclusive). For each
+     * rotation, a source pixel (x, y) goes at <code>base + x * xStep + y * yStep</code>.
+     */
+    private static void convert(RawImage image, int rotation, int[] pixels, int startRow,
+            int endRow) {
+        int w = image.width;
+        int h = image.height;
+        int base;
+        int xStep;
+        int yStep;
+        switch (rotation) {
+            case 1: // same as RawImage.getRotated(): (x, y) -> (y, w - 1 - x)
+                base = (w - 1) * h;
+                xStep = -h;
+                yStep = 1;
+                break;
+            case 2: // (x, y) -> (w - 1 - x, h - 1 - y)
+                base = w * h - 1;
+                xStep = -1;
+                yStep = -w;
+                break;
+            case 3: // (x, y) -> (h - 1 - y, x)
+                base = h - 1;
+                xStep = h;
+                yStep = -1;
+                break;
+            default:
+                base = 0;
+                xStep = 1;
+                yStep = w;
+                break;
+        }
+
+        if (image.bpp == 16) {
+            if (image.red_offset == 11 && image.red_length == 5
+                    && image.green_offset == 5 && image.green_length == 6
+                    && image.blue_offset == 0 && image.blue_length == 5
+                    && image.alpha_length == 0) {
+                convert565(image, pixels, startRow, endRow, base, xStep, yStep);
+            } else {
+                convert16(image, pixels, startRow, endRow, base, xStep, yStep);
+            }
+        } else if (image.red_length == 8 && image.green_length == 8 && image.blue_length == 8
+                && image.green_offset == 8
+                && (image.alpha_length == 0 || (image.alpha_length == 8
+                        && image.alpha_offset == 24))) {
+            if (image.red_offset == 16 && image.blue_offset == 0) {
+                convertBGRA(image, pixels, startRow, endRow, base, xStep, yStep);
+            } else if (image.red_offset == 0 && image.blue_offset == 16) {
+                convertRGBA(image, pixels, startRow, endRow, base, xStep, yStep);
+            } else {
+                convert32(image, pixels, startRow, endRow, base, xStep, yStep);
+            }
+        } else {
+            convert32(image, pixels, startRow, endRow, base, xStep, yStep);
+        }
+    }
+
+    private static void convert565(RawImage image, int[] pixels, int startRow, int endRow,
+            int base, int xStep, int yStep) {
+        final byte[] data = image.data;
+        final int w = image.width;
+
+        for (int y = startRow; y < endRow; y++) {
+            int index = y * w * 2;
+            int dest = base + y * yStep;
+            for (int x = 0; x < w; x++) {
+                int value = (data[index] & 0xFF) | (data[index + 1] & 0xFF) << 8;
+                index += 2;
+
+                pixels[dest] = 0xFF000000
+                        | (value & 0xF800) << 8
+                        | (value & 0x07E0) << 5
+                        | (value & 0x001F) << 3;
+                dest += xStep;
+            }
+        }
+    }
+
+    private static void convert16(RawImage image, int[] pixels, int startRow, int endRow,
+            int base, int xStep, int yStep) {
+        final byte[] data = image.data;
+        final int w = image.width;
+        final int redOffset = image.red_offset;
+        final int redMask = getMask(image.red_length);
+        final int redShift = 8 - image.red_length;
+        final int greenOffset = image.green_offset;
+        final int greenMask = getMask(image.green_length);
+        final int greenShift = 8 - image.green_length;
+        final int blueOffset = image.blue_offset;
+        final int blueMask = getMask(image.blue_length);
+        final int blueShift = 8 - image.blue_length;
+        final boolean opaque = image.alpha_length == 0;
+        final int alphaOffset = image.alpha_offset;
+        final int alphaMask = getMask(image.alpha_length);
+        final int alphaShift = 8 - image.alpha_length;
+
+        for (int y = startRow; y < endRow; y++) {
+            int index = y * w * 2;
+            int dest = base + y * yStep;
+            for (int x = 0; x < w; x++) {
+                int value = (data[index] & 0xFF) | (data[index + 1] & 0xFF) << 8;
+                index += 2;
+
+                int a = opaque ? 0xFF : ((value >>> alphaOffset) & alphaMask) << alphaShift;
+                pixels[dest] = a << 24
+                        | (((value >>> redOffset) & redMask) << redShift) << 16
+                        | (((value >>> greenOffset) & greenMask) << greenShift) << 8
+                        | (((value >>> blueOffset) & blueMask) << blueShift);
+                dest += xStep;
+            }
+        }
+    }
+
+    /** Bytes in B, G, R, A order: the little endian value is already ARGB. */
+    private static void convertBGRA(RawImage image, int[] pixels, int startRow, int endRow,
+            int base, int xStep, int yStep) {
+        final byte[] data = image.data;
+        final int w = image.width;
+        final int alpha = image.alpha_length == 0 ? 0xFF000000 : 0;
+
+        for (int y = startRow; y < endRow; y++) {
+            int index = y * w * 4;
+            int dest = base + y * yStep;
+            for (int x = 0; x < w; x++) {
+                pixels[dest] = alpha
+                        | (data[index + 3] & 0xFF) << 24
+                        | (data[index + 2] & 0xFF) << 16
+                        | (data[index + 1] & 0xFF) << 8
+                        | (data[index] & 0xFF);
+                index += 4;
+                dest += xStep;
+            }
+        }
+    }
+
+    /** Bytes in R, G, B, A order. */
+    private static void convertRGBA(RawImage image, int[] pixels, int startRow, int endRow,
+            int base, int xStep, int yStep) {
+        final byte[] data = image.data;
+        final int w = image.width;
+        final int alpha = image.alpha_length == 0 ? 0xFF000000 : 0;
+
+        for (int y = startRow; y < endRow; y++) {
+            int index = y * w * 4;
+            int dest = base + y * yStep;
+            for (int x = 0; x < w; x++) {
+                pixels[dest] = alpha
+                        | (data[index + 3] & 0xFF) << 24
+                        | (data[index] & 0xFF) << 16
+                        | (data[index + 1] & 0xFF) << 8
+                        | (data[index + 2] & 0xFF);
+                index += 4;
+                dest += xStep;
+            }
+        }
+    }
+
+    private static void convert32(RawImage image, int[] pixels, int startRow, int endRow,
+            int base, int xStep, int yStep) {
+        final byte[] data = image.data;
+        final int w = image.width;
+        final int redOffset = image.red_offset;
+        final int redMask = getMask(image.red_length);
+        final int redShift = 8 - image.red_length;
+        final int greenOffset = image.green_offset;
+        final int greenMask = getMask(image.green_length);
+        final int greenShift = 8 - image.green_length;
+        final int blueOffset = image.blue_offset;
+        final int blueMask = getMask(image.blue_length);
+        final int blueShift = 8 - image.blue_length;
+        final boolean opaque = image.alpha_length == 0;
+        final int alphaOffset = image.alpha_offset;
+        final int alphaMask = getMask(image.alpha_length);
+        final int alphaShift = 8 - image.alpha_length;
+
+        for (int y = startRow; y < endRow; y++) {
+            int index = y * w * 4;
+            int dest = base + y * yStep;
+            for (int x = 0; x < w; x++) {
+                int value = (data[index] & 0xFF)
+                        | (data[index + 1] & 0xFF) << 8
+                        | (data[index + 2] & 0xFF) << 16
+                        | (data[index + 3] & 0xFF) << 24;
+                index += 4;
+
+                int a = opaque ? 0xFF : ((value >>> alphaOffset) & alphaMask) << alphaShift;
+                pixels[dest] = a << 24
+                        | (((value >>> redOffset) & redMask) << redShift) << 16
+                        | (((value >>> greenOffset) & greenMask) << greenShift) << 8
+                        | (((value >>> blueOffset) & blueMask) << blueShift);
+                dest += xStep;
+            }
+        }
+    }
+
+    private static int getMask(int length) {
+        return (1 << length) - 1;
+    }
+}
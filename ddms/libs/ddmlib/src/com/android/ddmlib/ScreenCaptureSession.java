@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Captures the frames of the screen of a device continuously.
+ * <p/>Unlike {@link IDevice#getScreenshot()}, a session reads the frames into two pixel buffers
+ * which are reused from one frame to the next, along with the frame header. adb sends a single
+ * frame per connection, and the device grabs the frame as soon as the connection is opened, so
+ * each connection is opened by {@link #captureFrame()} itself: a connection opened ahead of
+ * time would return a frame of the time it was opened.
+ * <p/>Each frame is compared to the previous one, and {@link Frame#isChanged()} tells whether
+ * the screen changed, and which rows did.
+ * <p/>A session is not thread safe, and must be closed with {@link #close()}.
+ */
+public final class ScreenCaptureSession {
+
+    /**
+     * A frame captured by a {@link ScreenCaptureSession}.
+     * <p/>A session alternates between two frames, so a frame and its image are only valid until
+     * {@link ScreenCaptureSession#captureFrame()} is called twice more.
+     */
+    public static final class Frame {
+        private final RawImage mImage = new RawImage();
+        private int mIndex;
+        private long mTimestamp;
+        private boolean mChanged;
+        private int mFirstChangedRow;
+        private int mLastChangedRow;
+
+        /** Returns the image of the frame. Its data must not be modified. */
+        public RawImage getImage() {
+            return mImage;
+        }
+
+        /** Returns the index of the frame in the session, starting at 0. */
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /** Returns the time, in {@link System#nanoTime()} units, when the frame was received. */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /** Returns whether the frame is different from the previous one. */
+        public boolean isChanged() {
+            return mChanged;
+        }
+
+        /** Returns the first row which changed since the previous frame, or -1. */
+        public int getFirstChangedRow() {
+            return mFirstChangedRow;
+        }
+
+        /** Returns the last row which changed since the previous frame, or -1. */
+        public int getLastChangedRow() {
+            return mLastChangedRow;
+        }
+    }
+
+    private static final int CONNECT = 0;
+    private static final int TRANSFER = 1;
+    private static final int COMPARE = 2;
+    private static final int STAGE_COUNT = 3;
+
+    private final IDevice mDevice;
+    private final InetSocketAddress mAdbSockAddr;
+    /** The header of the frame being received. */
+    private final RawImage mHeader = new RawImage();
+
+    private final Frame[] mFrames = new Frame[] { new Frame(), new Frame() };
+    private Frame mLastFrame;
+    private int mFrameCount;
+    private int mUnchangedFrameCount;
+    private long mFirstFrameTime;
+    /** The total time of each stage, in nanoseconds. */
+    private final long[] mStageTimes = new long[STAGE_COUNT];
+    private long mCaptureTime;
+    private boolean mClosed;
+
+    /**
+     * Creates a capture session for a device.
+     * @param device the device to capture.
+     */
+    public ScreenCaptureSession(IDevice device) {
+        mDevice = device;
+        mAdbSockAddr = AndroidDebugBridge.getSocketAddress();
+    }
+
+    /**
+     * Captures the next frame.
+     * <p/>The returned frame is valid until this method is called twice more, after which its
+     * pixel buffer is reused.
+     * @return the frame, or null if the frame buffer protocol of the device is not supported.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public Frame captureFrame()
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        if (mClosed) {
+            throw new IOException("Capture session is closed"); //$NON-NLS-1$
+        }
+
+        long start = System.nanoTime();
+        SocketChannel channel = AdbHelper.openFrameBuffer(mAdbSockAddr, mDevice, mHeader);
+        if (channel == null) {
+            return null;
+        }
+        long connected = System.nanoTime();
+
+        Frame frame = mFrames[mFrameCount % 2];
+        RawImage image = frame.mImage;
+        boolean sameHeader = mLastFrame != null && sameHeader(mLastFrame.mImage, mHeader);
+        copyHeader(mHeader, image);
+
+        try {
+            AdbHelper.readFrameBuffer(channel, image);
+        } finally {
+            channel.close();
+        }
+        long received = System.nanoTime();
+
+        if (sameHeader) {
+            byte[] previous = mLastFrame.mImage.data;
+            int rowSize = image.width * (image.bpp >> 3);
+            if (rowSize > 0 && (long) rowSize * image.height <= image.size) {
+                frame.mFirstChangedRow = getFirstChangedRow(previous, image.data, rowSize,
+                        image.height);
+                frame.mLastChangedRow = frame.mFirstChangedRow == -1 ? -1 :
+                        getLastChangedRow(previous, image.data, rowSize, image.height);
+            } else if (getFirstChangedRow(previous, image.data, image.size, 1) == -1) {
+                // unexpected layout, only compare the whole frames.
+                frame.mFirstChangedRow = frame.mLastChangedRow = -1;
+            } else {
+                frame.mFirstChangedRow = 0;
+                frame.mLastChangedRow = image.height - 1;
+            }
+        } else {
+            frame.mFirstChangedRow = 0;
+            frame.mLastChangedRow = image.height - 1;
+        }
+        frame.mChanged = frame.mFirstChangedRow != -1;
+        frame.mIndex = mFrameCount;
+        frame.mTimestamp = received;
+        long end = System.nanoTime();
+
+        if (mFrameCount == 0) {
+            mFirstFrameTime = received;
+        }
+        mFrameCount++;
+        if (frame.mChanged == false) {
+            mUnchangedFrameCount++;
+        }
+        mStageTimes[CONNECT] += connected - start;
+        mStageTimes[TRANSFER] += received - connected;
+        mStageTimes[COMPARE] += end - received;
+        mCaptureTime += end - start;
+
+        mLastFrame = frame;
+        return frame;
+    }
+
+    /**
+     * Closes the session. Frames can't be captured anymore.
+     */
+    public void close() {
+        mClosed = true;
+    }
+
+    /** Returns the number of frames captured. */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Returns the number of frames which were identical to the previous one. */
+    public int getUnchangedFrameCount() {
+        return mUnchangedFrameCount;
+    }
+
+    /**
+     * Returns the number of frames per second captured since the first frame, or 0 if there was
+     * only one frame.
+     */
+    public double getFramesPerSecond() {
+        if (mFrameCount < 2) {
+            return 0;
+        }
+        long elapsed = mLastFrame.mTimestamp - mFirstFrameTime;
+        return elapsed > 0 ? (mFrameCount - 1) * 1e9 / elapsed : 0;
+    }
+
+    private long getAverage(long total) {
+        return mFrameCount > 0 ? total / mFrameCount : 0;
+    }
+
+    /**
+     * Returns the average time in nanoseconds to open a connection and read the frame header,
+     * which includes the time the device takes to grab the frame.
+     */
+    public long getAverageConnectTime() {
+        return getAverage(mStageTimes[CONNECT]);
+    }
+
+    /** Returns the average time in nanoseconds to receive the pixels of a frame. */
+    public long getAverageTransferTime() {
+        return getAverage(mStageTimes[TRANSFER]);
+    }
+
+    /** Returns the average time in nanoseconds to compare a frame to the previous one. */
+    public long getAverageCompareTime() {
+        return getAverage(mStageTimes[COMPARE]);
+    }
+
+    /** Returns the average time in nanoseconds {@link #captureFrame()} took. */
+    public long getAverageCaptureTime() {
+        return getAverage(mCaptureTime);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d frames (%d unchanged), %.1f fps, " //$NON-NLS-1$
+                + "average %.3f ms capture: " //$NON-NLS-1$
+                + "%.3f ms connecting, " //$NON-NLS-1$
+                + "%.3f ms transfer, %.3f ms compare", //$NON-NLS-1$
+                mFrameCount, mUnchangedFrameCount, getFramesPerSecond(),
+                getAverageCaptureTime() / 1e6, getAverageConnectTime() / 1e6,
+                getAverageTransferTime() / 1e6, getAverageCompareTime() / 1e6);
+    }
+
+    private static boolean sameHeader(RawImage a, RawImage b) {
+        return a.version == b.version && a.bpp == b.bpp && a.size == b.size
+                && a.width == b.width && a.height == b.height
+                && a.red_offset == b.red_offset && a.red_length == b.red_length
+                && a.green_offset == b.green_offset && a.green_length == b.green_length
+                && a.blue_offset == b.blue_offset && a.blue_length == b.blue_length
+                && a.alpha_offset == b.alpha_offset && a.alpha_length == b.alpha_length;
+    }
+
+    private static void copyHeader(RawImage from, RawImage to) {
+        to.version = from.version;
+        to.bpp = from.bpp;
+        to.size = from.size;
+        to.width = from.width;
+        to.height = from.height;
+        to.red_offset = from.red_offset;
+        to.red_length = from.red_length;
+        to.green_offset = from.green_offset;
+        to.green_length = from.green_length;
+        to.blue_offset = from.blue_offset;
+        to.blue_length = from.blue_length;
+        to.alpha_offset = from.alpha_offset;
+        to.alpha_length = from.alpha_length;
+    }
+
+    /**
+     * Returns the first row which differs between two frames, or -1 if they are identical. The
+     * frames are scanned from the top, so the comparison stops at the first change.
+     */
+    static int getFirstChangedRow(byte[] previous, byte[] current, int rowSize, int height) {
+        for (int row = 0; row < height; row++) {
+            if (rowDiffers(previous, current, row * rowSize, rowSize)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the last row which differs between two frames, or -1 if they are identical. The
+     * frames are scanned from the bottom.
+     */
+    static int getLastChangedRow(byte[] previous, byte[] current, int rowSize, int height) {
+        for (int row = height - 1; row >= 0; row--) {
+            if (rowDiffers(previous, current, row * rowSize, rowSize)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean rowDiffers(byte[] previous, byte[] current, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (previous[i] != current[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
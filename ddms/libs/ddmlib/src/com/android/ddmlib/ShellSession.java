@@ -0,0 +1,840 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.AdbHelper.AdbResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A persistent interactive shell on a device, used to run many shell commands without opening a
+ * new adb connection for each of them.
+ * <p/>Each command is written to the shell on a single line, between commands printing a begin and
+ * an end marker. This lets the session pass the output of each command to its own
+ * {@link IShellOutputReceiver}, and retrieve its exit code. Commands are pipelined: they are sent
+ * as soon as they are submitted, without waiting for the previous ones to complete. The exception
+ * is a shell which echoes its input (when adb runs it on a terminal and the device has no
+ * <code>stty</code>); commands are then sent one at a time.
+ * <p/>The commands are written to the shell by a writer thread, and their output is read by a
+ * reader thread, so that neither submitting commands nor checking their state waits on the
+ * connection.
+ * <p/>Each command runs in a subshell with its standard input redirected from /dev/null, so a
+ * command cannot change the state of the session (such as its current directory), nor read the
+ * commands that follow it.
+ * <p/>If a command does not output anything for longer than its time out, it fails with a
+ * {@link ShellCommandUnresponsiveException}, and the session is reopened since the shell is still
+ * busy running it. The session is also reopened if the connection to the device is lost, and the
+ * commands which had not started running are sent again to the new shell.
+ * <p/>Cancelling the receiver of a command only stops the output from being passed to it; the
+ * command keeps running until it completes or times out.
+ * <p/>To get a {@link ShellSession}, use {@link IDevice#openShellSession()}.
+ */
+public final class ShellSession {
+
+    private static final String LOG_TAG = "ShellSession"; //$NON-NLS-1$
+
+    /** Prefix of the markers printed by the shell around the output of each command. */
+    private static final String MARKER = "@@DDMS_"; //$NON-NLS-1$
+    /**
+     * {@link #MARKER} as written in the commands sent to the shell. The shell prints it as
+     * {@link #MARKER}, but an echo of the command line itself does not contain {@link #MARKER}.
+     */
+    private static final String QUOTED_MARKER = "\"@@\"DDMS_"; //$NON-NLS-1$
+    private static final String BEGIN = "BEGIN_"; //$NON-NLS-1$
+    private static final String END = "END_"; //$NON-NLS-1$
+    private static final String READY = "READY_"; //$NON-NLS-1$
+    private static final String PROBE = "PROBE_"; //$NON-NLS-1$
+
+    /**
+     * Maximum time the reader and writer threads wait on the connection before checking if the
+     * session was closed or reopened, in ms.
+     */
+    private static final int POLL_TIME = 250;
+    /** Number of times in a row the session tries to reopen the shell before giving up. */
+    private static final int MAX_RECOVERY_ATTEMPTS = 3;
+    /** Size of the batches of command lines written by the writer thread, in bytes. */
+    private static final int WRITE_BATCH_SIZE = 16384;
+
+    private final InetSocketAddress mAddress;
+    private final Device mDevice;
+
+    /**
+     * Lock for all the fields below, and the state of the commands. It is never held while
+     * reading from or writing to the connection.
+     */
+    private final Object mLock = new Object();
+    /** Commands submitted and not yet completed, in the order they run in. */
+    private final LinkedList<Command> mQueue = new LinkedList<Command>();
+    private SocketChannel mChannel;
+    private boolean mEchoing;
+    private boolean mNeedsRecovery;
+    private boolean mClosed;
+    private int mNextId = 1;
+    private int mRecoveryCount;
+    private boolean mWriterWaiting;
+
+    /** Output read from the shell and not yet processed. Only used by the reader thread. */
+    private byte[] mPending = new byte[16384];
+    private int mPendingLength;
+
+    /** Lines of the commands being written. Only used by the writer thread. */
+    private ByteBuffer mWriteBuffer = ByteBuffer.allocate(WRITE_BATCH_SIZE);
+
+    /**
+     * A command submitted to a {@link ShellSession}.
+     */
+    public final class Command {
+        private final String mCommand;
+        private final IShellOutputReceiver mReceiver;
+        private final int mMaxTimeToOutputResponse;
+        private final byte[] mLine;
+        private final byte[] mBeginMarker;
+        private final byte[] mEndMarker;
+
+        private boolean mWritten;
+        private boolean mStarted;
+        private boolean mDone;
+        private int mExitCode = -1;
+        private Exception mError;
+        /** Time of the last output of the command, or of when it became the running command. */
+        private volatile long mLastOutput;
+
+        private Command(int id, String command, IShellOutputReceiver receiver,
+                int maxTimeToOutputResponse) {
+            mCommand = command;
+            mReceiver = receiver;
+            mMaxTimeToOutputResponse = maxTimeToOutputResponse;
+            mLine = toBytes(String.format(
+                    "echo %1$s%2$s%3$d_; ( %4$s ) </dev/null; echo %1$s%5$s%3$d_$?\n", //$NON-NLS-1$
+                    QUOTED_MARKER, BEGIN, id, command, END));
+            mBeginMarker = toBytes(MARKER + BEGIN + id + '_');
+            mEndMarker = toBytes(MARKER + END + id + '_');
+        }
+
+        /** Returns the shell command. */
+        public String getCommand() {
+            return mCommand;
+        }
+
+        /** Returns true if the command completed, failed, or was dropped by {@link #close()}. */
+        public boolean isDone() {
+            synchronized (mLock) {
+                return mDone;
+            }
+        }
+
+        /**
+         * Returns the exit code of the command, or -1 if the command has not completed or
+         * failed.
+         */
+        public int getExitCode() {
+            synchronized (mLock) {
+                return mExitCode;
+            }
+        }
+
+        /**
+         * Waits for the command to complete.
+         * @throws ShellCommandUnresponsiveException if the command did not output anything for
+         * longer than its time out.
+         * @throws IOException if the connection was lost while the command was running, the
+         * session could not be reopened or was closed, or the thread was interrupted.
+         */
+        public void waitFor() throws ShellCommandUnresponsiveException, IOException {
+            Exception error;
+            synchronized (mLock) {
+                while (!mDone) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                error = mError;
+            }
+
+            if (error instanceof ShellCommandUnresponsiveException) {
+                throw (ShellCommandUnresponsiveException) error;
+            } else if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error != null) {
+                IOException e = new IOException(error.getMessage());
+                e.initCause(error);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Creates a shell session. {@link #open()} must be called before submitting commands.
+     * @param address The address of adb
+     * @param device the {@link Device} to run the shell on.
+     */
+    ShellSession(InetSocketAddress address, Device device) {
+        mAddress = address;
+        mDevice = device;
+    }
+
+    /**
+     * Opens the shell and starts the threads writing the commands and reading their output.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    void open() throws TimeoutException, AdbCommandRejectedException, IOException {
+        SocketChannel channel = connect();
+        synchronized (mLock) {
+            mChannel = channel;
+        }
+
+        Thread reader = new Thread("Shell Session " + mDevice.getSerialNumber()) { //$NON-NLS-1$
+            @Override
+            public void run() {
+                readOutput();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+
+        Thread writer = new Thread("Shell Session Writer " //$NON-NLS-1$
+                + mDevice.getSerialNumber()) {
+            @Override
+            public void run() {
+                writeCommands();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submits a command to run in the shell, and returns without waiting for it to complete.
+     * @param command the shell command to execute. It must fit on a single line.
+     * @param receiver the {@link IShellOutputReceiver} that will receive the output of the
+     * command. Can be null.
+     * @param maxTimeToOutputResponse max time between command output, in ms. If more time passes
+     * between command output, the command fails with a {@link ShellCommandUnresponsiveException}.
+     * A value of 0 means the command never times out.
+     * @return the submitted {@link Command}.
+     * @throws IOException if the session is closed.
+     */
+    public Command submit(String command, IShellOutputReceiver receiver,
+            int maxTimeToOutputResponse) throws IOException {
+        if (command.indexOf('\n') != -1 || command.indexOf('\r') != -1) {
+            throw new IllegalArgumentException("Command must fit on a single line: " + command);
+        }
+
+        synchronized (mLock) {
+            if (mClosed) {
+                throw new IOException("Shell session is closed");
+            }
+
+            Command cmd = new Command(mNextId++, command, receiver, maxTimeToOutputResponse);
+            if (mQueue.isEmpty()) {
+                cmd.mLastOutput = System.currentTimeMillis();
+            }
+            mQueue.add(cmd);
+
+            // while the session is being reopened, the command is written once it is open.
+            if (mChannel != null && (mEchoing == false || mQueue.size() == 1)
+                    && mWriterWaiting) {
+                mLock.notifyAll();
+            }
+
+            return cmd;
+        }
+    }
+
+    /**
+     * Runs a command in the shell and waits for it to complete.
+     * @param command the shell command to execute. It must fit on a single line.
+     * @param receiver the {@link IShellOutputReceiver} that will receive the output of the
+     * command. Can be null.
+     * @param maxTimeToOutputResponse max time between command output, in ms. A value of 0 means
+     * the command never times out.
+     * @return the exit code of the command.
+     * @throws ShellCommandUnresponsiveException if the command did not output anything for
+     * longer than <var>maxTimeToOutputResponse</var>.
+     * @throws IOException if the session is closed, or the connection was lost while the command
+     * was running and the session could not be reopened.
+     *
+     * @see #submit(String, IShellOutputReceiver, int)
+     */
+    public int execute(String command, IShellOutputReceiver receiver, int maxTimeToOutputResponse)
+            throws ShellCommandUnresponsiveException, IOException {
+        Command cmd = submit(command, receiver, maxTimeToOutputResponse);
+        cmd.waitFor();
+        return cmd.getExitCode();
+    }
+
+    /**
+     * Returns the number of times the shell was reopened after a command timed out or the
+     * connection was lost.
+     */
+    public int getRecoveryCount() {
+        synchronized (mLock) {
+            return mRecoveryCount;
+        }
+    }
+
+    /** Returns true if the session is closed. */
+    public boolean isClosed() {
+        synchronized (mLock) {
+            return mClosed;
+        }
+    }
+
+    /**
+     * Closes the session. Commands which have not completed fail with an {@link IOException}.
+     */
+    public void close() {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            closeChannel();
+            failAll(new IOException("Shell session closed"));
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Opens a connection to adb, starts an interactive shell, and checks whether it echoes its
+     * input.
+     */
+    private SocketChannel connect()
+            throws TimeoutException, AdbCommandRejectedException, IOException {
+        SocketChannel channel = SocketChannel.open(mAddress);
+        boolean success = false;
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+
+            AdbHelper.setDevice(channel, mDevice);
+
+            byte[] request = AdbHelper.formAdbRequest("shell:"); //$NON-NLS-1$
+            AdbHelper.write(channel, request);
+
+            AdbResponse resp = AdbHelper.readAdbResponse(channel, false /* readDiagString */);
+            if (resp.okay == false) {
+                Log.e(LOG_TAG, "ADB rejected shell session: " + resp.message);
+                throw new AdbCommandRejectedException(resp.message);
+            }
+
+            // turn off the terminal echo if possible, then check whether it is still on.
+            AdbHelper.write(channel, toBytes("stty -echo 2>/dev/null; echo " //$NON-NLS-1$
+                    + QUOTED_MARKER + READY + '\n'));
+            readUntil(channel, MARKER + READY);
+            AdbHelper.write(channel, toBytes("echo " + QUOTED_MARKER + PROBE + '\n')); //$NON-NLS-1$
+            String probe = readUntil(channel, MARKER + PROBE);
+            boolean echoing = probe.contains(QUOTED_MARKER + PROBE);
+            synchronized (mLock) {
+                mEchoing = echoing;
+            }
+
+            success = true;
+            return channel;
+        } finally {
+            if (success == false) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads from the shell until a line containing the given marker has been read, and returns
+     * the output read before the marker. Any output after the line is discarded.
+     */
+    private static String readUntil(SocketChannel channel, String marker)
+            throws TimeoutException, IOException {
+        StringBuilder sb = new StringBuilder();
+        ByteBuffer buf = ByteBuffer.wrap(new byte[1024]);
+        ChannelSelector selector = new ChannelSelector(channel);
+        int timeout = DdmPreferences.getTimeOut();
+        long lastRead = System.currentTimeMillis();
+        try {
+            while (true) {
+                int index = sb.indexOf(marker);
+                if (index != -1 && sb.indexOf("\n", index) != -1) { //$NON-NLS-1$
+                    return sb.substring(0, index);
+                }
+
+                buf.clear();
+                int count = channel.read(buf);
+                if (count < 0) {
+                    throw new IOException("EOF");
+                } else if (count == 0) {
+                    long remaining = lastRead + timeout - System.currentTimeMillis();
+                    if (timeout > 0 && remaining <= 0) {
+                        throw new TimeoutException();
+                    }
+                    selector.waitFor(SelectionKey.OP_READ, timeout > 0 ? remaining : 0);
+                } else {
+                    lastRead = System.currentTimeMillis();
+                    sb.append(new String(buf.array(), 0, count, AdbHelper.DEFAULT_ENCODING));
+                }
+            }
+        } finally {
+            selector.close();
+        }
+    }
+
+    /** Body of the writer thread. */
+    private void writeCommands() {
+        List<Command> batch = new ArrayList<Command>();
+        ChannelSelector selector = null;
+        SocketChannel selectorChannel = null;
+
+        try {
+            while (true) {
+                SocketChannel channel;
+                batch.clear();
+                synchronized (mLock) {
+                    while (true) {
+                        if (mClosed) {
+                            return;
+                        }
+                        if (mChannel != null && mNeedsRecovery == false) {
+                            collectUnwritten(batch);
+                            if (batch.isEmpty() == false) {
+                                break;
+                            }
+                        }
+
+                        mWriterWaiting = true;
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        } finally {
+                            mWriterWaiting = false;
+                        }
+                    }
+                    channel = mChannel;
+                }
+
+                mWriteBuffer.clear();
+                for (Command cmd : batch) {
+                    if (mWriteBuffer.remaining() < cmd.mLine.length) {
+                        ByteBuffer buffer = ByteBuffer.allocate(
+                                mWriteBuffer.position() + cmd.mLine.length);
+                        mWriteBuffer.flip();
+                        buffer.put(mWriteBuffer);
+                        mWriteBuffer = buffer;
+                    }
+                    mWriteBuffer.put(cmd.mLine);
+                }
+                mWriteBuffer.flip();
+
+                if (channel != selectorChannel) {
+                    if (selector != null) {
+                        selector.close();
+                    }
+                    selector = new ChannelSelector(channel);
+                    selectorChannel = channel;
+                }
+
+                IOException error = null;
+                try {
+                    write(channel, selector);
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                synchronized (mLock) {
+                    // if the session was reopened in the meantime, the commands are written
+                    // again to the new shell.
+                    if (channel == mChannel) {
+                        if (error == null) {
+                            for (Command cmd : batch) {
+                                cmd.mWritten = true;
+                            }
+                        } else {
+                            Log.w(LOG_TAG, "Failed to send command to shell session: "
+                                    + error.getMessage());
+                            mNeedsRecovery = true;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /**
+     * Adds to the batch the queued commands which can be written, up to
+     * {@link #WRITE_BATCH_SIZE} bytes. A shell which echoes its input is only sent the running
+     * command. Must be called with the lock held.
+     */
+    private void collectUnwritten(List<Command> batch) {
+        int size = 0;
+        for (Command cmd : mQueue) {
+            if (cmd.mWritten == false) {
+                if (size > 0 && size + cmd.mLine.length > WRITE_BATCH_SIZE) {
+                    break;
+                }
+                batch.add(cmd);
+                size += cmd.mLine.length;
+            }
+            if (mEchoing) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes {@link #mWriteBuffer} to the shell. There is no time out, as the shell only reads
+     * its input once the previous commands have run: a stuck command is detected by the reader
+     * thread, which then reopens the session.
+     * @throws IOException if the connection failed, or was closed.
+     */
+    private void write(SocketChannel channel, ChannelSelector selector) throws IOException {
+        while (mWriteBuffer.hasRemaining()) {
+            if (channel.write(mWriteBuffer) == 0) {
+                synchronized (mLock) {
+                    if (mClosed || channel != mChannel) {
+                        return;
+                    }
+                }
+                selector.waitFor(SelectionKey.OP_WRITE, POLL_TIME);
+            }
+        }
+    }
+
+    /** Body of the reader thread. */
+    private void readOutput() {
+        ByteBuffer buf = ByteBuffer.wrap(new byte[16384]);
+        ChannelSelector selector = null;
+        SocketChannel selectorChannel = null;
+
+        try {
+            while (true) {
+                SocketChannel channel;
+                Command current;
+                boolean needsRecovery;
+                synchronized (mLock) {
+                    if (mClosed) {
+                        return;
+                    }
+                    channel = mChannel;
+                    current = mQueue.isEmpty() ? null : mQueue.getFirst();
+                    needsRecovery = mNeedsRecovery;
+                    mNeedsRecovery = false;
+                }
+
+                if (needsRecovery) {
+                    recover(null, new IOException("Shell session connection lost"));
+                    continue;
+                }
+
+                long wait = POLL_TIME;
+                if (current != null && current.mMaxTimeToOutputResponse > 0) {
+                    long remaining = current.mLastOutput + current.mMaxTimeToOutputResponse
+                            - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        Log.d(LOG_TAG, "Command unresponsive: " + current.mCommand);
+                        recover(current, new ShellCommandUnresponsiveException());
+                        continue;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+
+                try {
+                    if (channel != selectorChannel) {
+                        if (selector != null) {
+                            selector.close();
+                        }
+                        selector = new ChannelSelector(channel);
+                        selectorChannel = channel;
+                    }
+
+                    buf.clear();
+                    int count = channel.read(buf);
+                    if (count < 0) {
+                        recover(null, new IOException("Shell session connection lost"));
+                    } else if (count == 0) {
+                        selector.waitFor(SelectionKey.OP_READ, wait);
+                    } else {
+                        if (current != null) {
+                            current.mLastOutput = System.currentTimeMillis();
+                        }
+                        append(buf.array(), count);
+                        processOutput();
+                    }
+                } catch (IOException e) {
+                    recover(null, e);
+                }
+            }
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+
+    /** Passes the pending output to the receivers, and completes the commands which ended. */
+    private void processOutput() {
+        while (true) {
+            Command current;
+            synchronized (mLock) {
+                current = mQueue.isEmpty() ? null : mQueue.getFirst();
+            }
+
+            if (current == null) {
+                // prompts and other output not belonging to any command.
+                mPendingLength = 0;
+                return;
+            }
+
+            if (current.mStarted == false) {
+                byte[] begin = current.mBeginMarker;
+                int index = indexOf(begin, 0);
+                if (index == -1) {
+                    discard(Math.max(0, mPendingLength - (begin.length - 1)));
+                    return;
+                }
+                int eol = indexOf((byte) '\n', index + begin.length);
+                if (eol == -1) {
+                    discard(index);
+                    return;
+                }
+                discard(eol + 1);
+                current.mStarted = true;
+                continue;
+            }
+
+            byte[] end = current.mEndMarker;
+            int index = indexOf(end, 0);
+            if (index == -1) {
+                // keep what could be the start of the end marker.
+                int length = mPendingLength - (end.length - 1);
+                if (length > 0) {
+                    deliver(current, length);
+                    discard(length);
+                }
+                return;
+            }
+
+            if (index > 0) {
+                deliver(current, index);
+                discard(index);
+            }
+            int eol = indexOf((byte) '\n', end.length);
+            if (eol == -1) {
+                return;
+            }
+            int exitCode = parseExitCode(end.length, eol);
+            discard(eol + 1);
+            complete(current, exitCode);
+        }
+    }
+
+    private void deliver(Command cmd, int length) {
+        IShellOutputReceiver receiver = cmd.mReceiver;
+        if (receiver != null && receiver.isCancelled() == false) {
+            receiver.addOutput(mPending, 0, length);
+        }
+    }
+
+    private void complete(Command cmd, int exitCode) {
+        if (cmd.mReceiver != null) {
+            cmd.mReceiver.flush();
+        }
+
+        synchronized (mLock) {
+            if (mQueue.isEmpty() || mQueue.getFirst() != cmd) {
+                // the session was closed in the meantime.
+                return;
+            }
+            mQueue.removeFirst();
+            cmd.mExitCode = exitCode;
+            cmd.mDone = true;
+
+            if (mQueue.isEmpty() == false) {
+                mQueue.getFirst().mLastOutput = System.currentTimeMillis();
+            }
+            // wakes up the writer too, if the shell echoes its input and waits for the next
+            // command.
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Closes the current shell and opens a new one, after a command timed out or the connection
+     * was lost.
+     * @param timedOut the command which timed out, or null.
+     * @param reason the reason the command which was running fails with.
+     */
+    private void recover(Command timedOut, Exception reason) {
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            closeChannel();
+
+            // the running command is lost; the others can run in the new shell.
+            if (mQueue.isEmpty() == false) {
+                Command head = mQueue.getFirst();
+                if (head == timedOut || head.mStarted) {
+                    mQueue.removeFirst();
+                    fail(head, reason);
+                }
+            }
+            long now = System.currentTimeMillis();
+            for (Command cmd : mQueue) {
+                cmd.mWritten = false;
+                cmd.mStarted = false;
+                cmd.mLastOutput = now;
+            }
+            mRecoveryCount++;
+        }
+        mPendingLength = 0;
+
+        Exception error = null;
+        for (int attempt = 0; attempt < MAX_RECOVERY_ATTEMPTS; attempt++) {
+            try {
+                SocketChannel channel = connect();
+                synchronized (mLock) {
+                    if (mClosed) {
+                        channel.close();
+                        return;
+                    }
+                    Log.d(LOG_TAG, "Reopened shell session on " + mDevice.getSerialNumber());
+                    mChannel = channel;
+                    mLock.notifyAll();
+                }
+                return;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        Log.w(LOG_TAG, "Unable to reopen shell session on " + mDevice.getSerialNumber());
+        IOException e = new IOException("Unable to reopen shell session");
+        e.initCause(error);
+        synchronized (mLock) {
+            mClosed = true;
+            failAll(e);
+            mLock.notifyAll();
+        }
+    }
+
+    /** Must be called with the lock held. */
+    private void fail(Command cmd, Exception reason) {
+        cmd.mError = reason;
+        cmd.mDone = true;
+        mLock.notifyAll();
+    }
+
+    /** Must be called with the lock held. */
+    private void failAll(Exception reason) {
+        List<Command> commands = new ArrayList<Command>(mQueue);
+        mQueue.clear();
+        for (Command cmd : commands) {
+            fail(cmd, reason);
+        }
+    }
+
+    /** Must be called with the lock held. */
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            mChannel = null;
+        }
+    }
+
+    private void append(byte[] data, int length) {
+        if (mPendingLength + length > mPending.length) {
+            byte[] pending = new byte[Math.max(mPending.length * 2, mPendingLength + length)];
+            System.arraycopy(mPending, 0, pending, 0, mPendingLength);
+            mPending = pending;
+        }
+        System.arraycopy(data, 0, mPending, mPendingLength, length);
+        mPendingLength += length;
+    }
+
+    /** Removes the first <var>count</var> bytes of pending output. */
+    private void discard(int count) {
+        System.arraycopy(mPending, count, mPending, 0, mPendingLength - count);
+        mPendingLength -= count;
+    }
+
+    private int indexOf(byte[] marker, int from) {
+        int last = mPendingLength - marker.length;
+        outer: for (int i = from; i <= last; i++) {
+            for (int j = 0; j < marker.length; j++) {
+                if (mPending[i + j] != marker[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < mPendingLength; i++) {
+            if (mPending[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Parses the exit code between the given offsets, ignoring a trailing carriage return. */
+    private int parseExitCode(int start, int end) {
+        int exitCode = 0;
+        boolean digits = false;
+        for (int i = start; i < end; i++) {
+            byte b = mPending[i];
+            if (b >= '0' && b <= '9') {
+                exitCode = exitCode * 10 + (b - '0');
+                digits = true;
+            } else if (b != '\r') {
+                return -1;
+            }
+        }
+        return digits ? exitCode : -1;
+    }
+
+    private static byte[] toBytes(String s) {
+        try {
+            return s.getBytes(AdbHelper.DEFAULT_ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            // not expected
+            return s.getBytes();
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 
@@ -131,11 +132,6 @@ public final class SyncService {
     private Device mDevice;
     private SocketChannel mChannel;
 
-    /**
-     * Buffer used to send data. Allocated when needed and reused afterward.
-     */
-    private byte[] mBuffer;
-
     /**
      * Creates a Sync service object.
      * @param address The address to connect to
@@ -248,8 +244,24 @@ public final class SyncService {
             throw new SyncException(SyncError.TARGET_IS_FILE);
         }
 
-        // get a FileListingService object
-        FileListingService fls = new FileListingService(mDevice);
+        // list the directories to pull with a single command each, with the listing service of
+        // the device so that the listings running for its other users are waited for rather
+        // than run again. The listings are then used for the rest of the pull: the listings
+        // cached in the entries before the pull are dropped, and so are the partial ones if
+        // a listing fails, so that those directories are listed again one by one.
+        FileListingService fls = mDevice.getFileListingService();
+        for (FileEntry e : entries) {
+            if (e.getType() == FileListingService.TYPE_DIRECTORY) {
+                fls.invalidate(e, true /* recursive */);
+                try {
+                    fls.prefetchSync(e);
+                } catch (AdbCommandRejectedException ex) {
+                    fls.invalidate(e, true /* recursive */);
+                } catch (ShellCommandUnresponsiveException ex) {
+                    fls.invalidate(e, true /* recursive */);
+                }
+            }
+        }
 
         // compute the number of file to move
         int total = getTotalRemoteFileSize(entries, fls);
@@ -390,7 +402,7 @@ public final class SyncService {
             int type = e.getType();
             if (type == FileListingService.TYPE_DIRECTORY) {
                 // get the children
-                FileEntry[] children = fls.getChildren(e, false, null);
+                FileEntry[] children = fls.getChildren(e, Long.MAX_VALUE);
                 count += getTotalRemoteFileSize(children, fls) + 1;
             } else if (type == FileListingService.TYPE_FILE) {
                 count += e.getSizeValue();
@@ -456,7 +468,7 @@ public final class SyncService {
 
                 // then recursively call the content. Since we did a ls command
                 // to get the number of files, we can use the cache
-                FileEntry[] children = fileListingService.getChildren(e, true, null);
+                FileEntry[] children = fileListingService.getChildren(e, Long.MAX_VALUE);
                 doPull(children, dest, fileListingService, monitor);
                 monitor.advance(1);
             } else if (type == FileListingService.TYPE_FILE) {
@@ -478,11 +490,21 @@ public final class SyncService {
      */
     private void doPullFile(String remotePath, String localPath,
             ISyncProgressMonitor monitor) throws IOException, SyncException, TimeoutException {
-        byte[] msg = null;
-        byte[] pullResult = new byte[8];
-
-        final int timeOut = DdmPreferences.getTimeOut();
+        sendRecvRequest(remotePath);
+        receiveFile(new File(localPath), monitor);
+    }
 
+    /**
+     * Sends the request to receive a remote file. The content of the file must then be read with
+     * {@link #receiveFile(File, ISyncProgressMonitor)}.
+     * <p/>Several requests can be sent before reading the content of the first file, as the
+     * device answers them in order.
+     * @param remotePath the remote file (length max is 1024)
+     * @throws SyncException if the remote path is invalid.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the request.
+     */
+    void sendRecvRequest(String remotePath) throws SyncException, IOException, TimeoutException {
         try {
             byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
 
@@ -490,79 +512,94 @@ public final class SyncService {
                 throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
             }
 
-            // create the full request message
-            msg = createFileReq(ID_RECV, remotePathContent);
-
-            // and send it.
-            AdbHelper.write(mChannel, msg, -1, timeOut);
-
-            // read the result, in a byte array containing 2 ints
-            // (id, size)
-            AdbHelper.read(mChannel, pullResult, -1, timeOut);
-
-            // check we have the proper data back
-            if (checkResult(pullResult, ID_DATA) == false &&
-                    checkResult(pullResult, ID_DONE) == false) {
-                throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
-                        readErrorMessage(pullResult, timeOut));
-            }
+            // create the full request message, and send it.
+            byte[] msg = createFileReq(ID_RECV, remotePathContent);
+            AdbHelper.write(mChannel, msg, -1, DdmPreferences.getTimeOut());
         } catch (UnsupportedEncodingException e) {
             throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
         }
+    }
 
-        // access the destination file
-        File f = new File(localPath);
+    /**
+     * Receives the content of a remote file requested with {@link #sendRecvRequest(String)}.
+     * <p/>The data goes straight from the connection to the file through a {@link FileChannel}.
+     * @param local the local destination
+     * @param monitor the monitor. The monitor must be started already.
+     * @throws SyncException if the device failed to send the file, or the local file could not
+     * be written.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    void receiveFile(File local, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        final int timeOut = DdmPreferences.getTimeOut();
+
+        // read the result, in a byte array containing 2 ints
+        // (id, size)
+        byte[] pullResult = new byte[8];
+        AdbHelper.read(mChannel, pullResult, -1, timeOut);
+
+        // check we have the proper data back
+        if (checkResult(pullResult, ID_DATA) == false &&
+                checkResult(pullResult, ID_DONE) == false) {
+            throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
+                    readErrorMessage(pullResult, timeOut));
+        }
 
         // create the stream to write in the file. We use a new try/catch block to differentiate
         // between file and network io exceptions.
         FileOutputStream fos = null;
         try {
-            fos = new FileOutputStream(f);
+            fos = new FileOutputStream(local);
         } catch (IOException e) {
             Log.e("ddms", String.format("Failed to open local file %s for writing, Reason: %s",
-                    f.getAbsolutePath(), e.toString()));
+                    local.getAbsolutePath(), e.toString()));
             throw new SyncException(SyncError.FILE_WRITE_ERROR);
         }
 
-        // the buffer to read the data
-        byte[] data = new byte[SYNC_DATA_MAX];
-
-        // loop to get data until we're done.
-        while (true) {
-            // check if we're cancelled
-            if (monitor.isCanceled() == true) {
-                throw new SyncException(SyncError.CANCELED);
-            }
-
-            // if we're done, we stop the loop
-            if (checkResult(pullResult, ID_DONE)) {
-                break;
-            }
-            if (checkResult(pullResult, ID_DATA) == false) {
-                // hmm there's an error
-                throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
-                        readErrorMessage(pullResult, timeOut));
-            }
-            int length = ArrayHelper.swap32bitFromArray(pullResult, 4);
-            if (length > SYNC_DATA_MAX) {
-                // buffer overrun!
-                // error and exit
-                throw new SyncException(SyncError.BUFFER_OVERRUN);
-            }
+        try {
+            FileChannel file = fos.getChannel();
+            long position = 0;
+
+            // loop to get data until we're done.
+            while (true) {
+                // check if we're cancelled
+                if (monitor.isCanceled() == true) {
+                    throw new SyncException(SyncError.CANCELED);
+                }
 
-            // now read the length we received
-            AdbHelper.read(mChannel, data, length, timeOut);
+                // if we're done, we stop the loop
+                if (checkResult(pullResult, ID_DONE)) {
+                    break;
+                }
+                if (checkResult(pullResult, ID_DATA) == false) {
+                    // hmm there's an error
+                    throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
+                            readErrorMessage(pullResult, timeOut));
+                }
+                int length = ArrayHelper.swap32bitFromArray(pullResult, 4);
+                if (length > SYNC_DATA_MAX) {
+                    // buffer overrun!
+                    // error and exit
+                    throw new SyncException(SyncError.BUFFER_OVERRUN);
+                }
 
-            // get the header for the next packet.
-            AdbHelper.read(mChannel, pullResult, -1, timeOut);
+                // now read the length we received, straight into the file
+                AdbHelper.read(mChannel, file, position, length, timeOut);
+                position += length;
 
-            // write the content in the file
-            fos.write(data, 0, length);
+                // get the header for the next packet.
+                AdbHelper.read(mChannel, pullResult, -1, timeOut);
 
-            monitor.advance(length);
+                monitor.advance(length);
+            }
+        } finally {
+            try {
+                fos.close();
+            } catch (IOException e) {
+                // ignore, the data was written already.
+            }
         }
-
-        fos.flush();
     }
 
 
@@ -613,6 +650,25 @@ public final class SyncService {
      */
     private void doPushFile(String localPath, String remotePath,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
+        sendFile(new File(localPath), remotePath, monitor);
+        readSendResult();
+    }
+
+    /**
+     * Sends a file to the device, without waiting for the device to acknowledge it.
+     * <p/>The acknowledgement must then be read with {@link #readSendResult()}. Several files can
+     * be sent before reading their acknowledgements, as the device sends them in order.
+     * <p/>The data goes straight from the file to the connection through a {@link FileChannel}.
+     * @param local the local file to push
+     * @param remotePath the remote file (length max is 1024)
+     * @param monitor the monitor. The monitor must be started already.
+     *
+     * @throws SyncException if file could not be read or the remote path is invalid.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the file.
+     */
+    void sendFile(File local, String remotePath, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
         FileInputStream fis = null;
         byte[] msg;
 
@@ -625,10 +681,8 @@ public final class SyncService {
                 throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
             }
 
-            File f = new File(localPath);
-
             // create the stream to read the file
-            fis = new FileInputStream(f);
+            fis = new FileInputStream(local);
 
             // create the header for the action
             msg = createSendFileReq(ID_SEND, remotePathContent, 0644);
@@ -636,44 +690,46 @@ public final class SyncService {
             throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
         }
 
-        // and send it. We use a custom try/catch block to make the difference between
-        // file and network IO exceptions.
-        AdbHelper.write(mChannel, msg, -1, timeOut);
-
-        // create the buffer used to read.
-        // we read max SYNC_DATA_MAX, but we need 2 4 bytes at the beginning.
-        if (mBuffer == null) {
-            mBuffer = new byte[SYNC_DATA_MAX + 8];
-        }
-        System.arraycopy(ID_DATA, 0, mBuffer, 0, ID_DATA.length);
+        try {
+            // and send it. We use a custom try/catch block to make the difference between
+            // file and network IO exceptions.
+            AdbHelper.write(mChannel, msg, -1, timeOut);
 
-        // look while there is something to read
-        while (true) {
-            // check if we're canceled
-            if (monitor.isCanceled() == true) {
-                throw new SyncException(SyncError.CANCELED);
+            FileChannel file = fis.getChannel();
+            long size;
+            try {
+                size = file.size();
+            } catch (IOException e) {
+                throw new SyncException(SyncError.FILE_READ_ERROR);
             }
 
-            // read up to SYNC_DATA_MAX
-            int readCount = fis.read(mBuffer, 8, SYNC_DATA_MAX);
+            // the header of each data packet, followed by up to SYNC_DATA_MAX bytes
+            // of the file.
+            byte[] header = new byte[8];
+            System.arraycopy(ID_DATA, 0, header, 0, ID_DATA.length);
 
-            if (readCount == -1) {
-                // we reached the end of the file
-                break;
-            }
+            long position = 0;
+            while (position < size) {
+                // check if we're canceled
+                if (monitor.isCanceled() == true) {
+                    throw new SyncException(SyncError.CANCELED);
+                }
 
-            // now send the data to the device
-            // first write the amount read
-            ArrayHelper.swap32bitsToArray(readCount, mBuffer, 4);
+                int length = (int) Math.min(SYNC_DATA_MAX, size - position);
 
-            // now write it
-            AdbHelper.write(mChannel, mBuffer, readCount+8, timeOut);
+                // first write the amount to send, then the data itself.
+                ArrayHelper.swap32bitsToArray(length, header, 4);
+                AdbHelper.write(mChannel, header, -1, timeOut);
+                AdbHelper.write(mChannel, file, position, length, timeOut);
+                position += length;
 
-            // and advance the monitor
-            monitor.advance(readCount);
+                // and advance the monitor
+                monitor.advance(length);
+            }
+        } finally {
+            // close the local file
+            fis.close();
         }
-        // close the local file
-        fis.close();
 
         // create the DONE message
         long time = System.currentTimeMillis() / 1000;
@@ -681,6 +737,17 @@ public final class SyncService {
 
         // and send it.
         AdbHelper.write(mChannel, msg, -1, timeOut);
+    }
+
+    /**
+     * Reads the acknowledgement of a file sent with
+     * {@link #sendFile(File, String, ISyncProgressMonitor)}.
+     * @throws SyncException if the device failed to write the file.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    void readSendResult() throws SyncException, IOException, TimeoutException {
+        final int timeOut = DdmPreferences.getTimeOut();
 
         // read the result, in a byte array containing 2 ints
         // (id, size)
@@ -707,9 +774,10 @@ public final class SyncService {
             int len = ArrayHelper.swap32bitFromArray(result, 4);
 
             if (len > 0) {
-                AdbHelper.read(mChannel, mBuffer, len, timeOut);
+                byte[] buffer = new byte[len];
+                AdbHelper.read(mChannel, buffer, len, timeOut);
 
-                String message = new String(mBuffer, 0, len);
+                String message = new String(buffer, 0, len);
                 Log.e("ddms", "transfer error: " + message);
 
                 return message;
@@ -728,11 +796,41 @@ public final class SyncService {
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
     private Integer readMode(String path) throws TimeoutException, IOException {
+        sendStatRequest(path);
+
+        int[] stat = readStat();
+        if (stat == null) {
+            return null;
+        }
+
+        // we return the mode
+        return stat[0];
+    }
+
+    /**
+     * Sends a stat request for a remote file. The result must then be read with
+     * {@link #readStat()}.
+     * <p/>Several requests can be sent before reading the first result, as the device answers
+     * them in order.
+     * @param path the remote file
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout sending the request.
+     */
+    void sendStatRequest(String path) throws TimeoutException, IOException {
         // create the stat request message.
         byte[] msg = createFileReq(ID_STAT, path);
 
         AdbHelper.write(mChannel, msg, -1 /* full length */, DdmPreferences.getTimeOut());
+    }
 
+    /**
+     * Reads the result of a stat request sent with {@link #sendStatRequest(String)}.
+     * @return an array containing the mode, size and modification time of the file, or null if
+     * the result is invalid. The mode is 0 if the file does not exist.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    int[] readStat() throws TimeoutException, IOException {
         // read the result, in a byte array containing 4 ints
         // (id, mode, size, time)
         byte[] statResult = new byte[16];
@@ -743,8 +841,10 @@ public final class SyncService {
             return null;
         }
 
-        // we return the mode (2nd int in the array)
-        return ArrayHelper.swap32bitFromArray(statResult, 4);
+        return new int[] {
+                ArrayHelper.swap32bitFromArray(statResult, 4),
+                ArrayHelper.swap32bitFromArray(statResult, 8),
+                ArrayHelper.swap32bitFromArray(statResult, 12) };
     }
 
     /**
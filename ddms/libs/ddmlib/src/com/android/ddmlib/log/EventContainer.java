@@ -174,6 +174,19 @@ public class EventContainer {
 
     private Object mData; 
 
+    /*
+     * Values decoded without boxing. mData is then only created if the boxed values are
+     * requested.
+     */
+    /** The types of the values, which are INT, LONG or STRING, or null. */
+    private EventValueType[] mValueTypes;
+    /** The INT and LONG values, by index. */
+    private long[] mLongValues;
+    /** The STRING values, by index, or null if there are none. */
+    private String[] mStringValues;
+    /** Whether the values are a list, rather than a single value. */
+    private boolean mIsList;
+
     /**
      * Creates an {@link EventContainer} from a {@link LogEntry}.
      * @param entry  the LogEntry from which pid, tid, and time info is copied.
@@ -191,6 +204,31 @@ public class EventContainer {
         nsec = entry.nsec;
     }
     
+    /**
+     * Creates an {@link EventContainer} from a {@link LogEntry}, with values which are not
+     * boxed.
+     * @param entry  the LogEntry from which pid, tid, and time info is copied.
+     * @param tag the event tag value
+     * @param valueTypes the types of the values. They must be {@link EventValueType#INT},
+     * {@link EventValueType#LONG} or {@link EventValueType#STRING}.
+     * @param longValues the INT and LONG values.
+     * @param stringValues the STRING values, or null if there are none.
+     * @param isList whether the values are a list. If not, there is a single value.
+     */
+    EventContainer(LogEntry entry, int tag, EventValueType[] valueTypes, long[] longValues,
+            String[] stringValues, boolean isList) {
+        mTag = tag;
+        mValueTypes = valueTypes;
+        mLongValues = longValues;
+        mStringValues = stringValues;
+        mIsList = isList;
+
+        pid = entry.pid;
+        tid = entry.tid;
+        sec = entry.sec;
+        nsec = entry.nsec;
+    }
+
     /**
      * Creates an {@link EventContainer} with raw data
      */
@@ -211,8 +249,8 @@ public class EventContainer {
      * @see #getType()
      */
     public final Integer getInt() throws InvalidTypeException {
-        if (getType(mData) == EventValueType.INT) {
-            return (Integer)mData;
+        if (getType(getData()) == EventValueType.INT) {
+            return (Integer)getData();
         }
 
         throw new InvalidTypeException();
@@ -224,8 +262,8 @@ public class EventContainer {
      * @see #getType()
      */
     public final Long getLong() throws InvalidTypeException {
-        if (getType(mData) == EventValueType.LONG) {
-            return (Long)mData;
+        if (getType(getData()) == EventValueType.LONG) {
+            return (Long)getData();
         }
 
         throw new InvalidTypeException();
@@ -237,8 +275,8 @@ public class EventContainer {
      * @see #getType()
      */
     public final String getString() throws InvalidTypeException {
-        if (getType(mData) == EventValueType.STRING) {
-            return (String)mData;
+        if (getType(getData()) == EventValueType.STRING) {
+            return (String)getData();
         }
 
         throw new InvalidTypeException();
@@ -249,7 +287,7 @@ public class EventContainer {
      * @param valueIndex the index of the value. If the data is not a list, this is ignored.
      */
     public Object getValue(int valueIndex) {
-        return getValue(mData, valueIndex, true);
+        return getValue(getData(), valueIndex, true);
     }
 
     /**
@@ -262,7 +300,11 @@ public class EventContainer {
      * @see #getType()
      */
     public double getValueAsDouble(int valueIndex) throws InvalidTypeException {
-        return getValueAsDouble(mData, valueIndex, true);
+        int index = getValueIndex(valueIndex);
+        if (index != -1 && mValueTypes[index] != EventValueType.STRING) {
+            return mLongValues[index];
+        }
+        return getValueAsDouble(getData(), valueIndex, true);
     }
 
     /**
@@ -275,14 +317,21 @@ public class EventContainer {
      * @see #getType()
      */
     public String getValueAsString(int valueIndex) throws InvalidTypeException {
-        return getValueAsString(mData, valueIndex, true);
+        int index = getValueIndex(valueIndex);
+        if (index != -1) {
+            if (mValueTypes[index] == EventValueType.STRING) {
+                return mStringValues[index];
+            }
+            return Long.toString(mLongValues[index]);
+        }
+        return getValueAsString(getData(), valueIndex, true);
     }
     
     /**
      * Returns the type of the data.
      */
     public EventValueType getType() {
-        return getType(mData);
+        return getType(getData());
     }
 
     /**
@@ -322,14 +371,14 @@ public class EventContainer {
      */
     public boolean testValue(int index, Object value,
             CompareMethod compareMethod) throws InvalidTypeException {
-        EventValueType type = getType(mData);
+        EventValueType type = getType(getData());
         if (index > 0 && type != EventValueType.LIST) {
             throw new InvalidTypeException();
         }
         
-        Object data = mData;
+        Object data = getData();
         if (type == EventValueType.LIST) {
-            data = ((Object[])mData)[index];
+            data = ((Object[])data)[index];
         }
 
         if (data.getClass().equals(data.getClass()) == false) {
@@ -389,6 +438,44 @@ public class EventContainer {
         }
     }
     
+    /**
+     * Returns the index of a value decoded without boxing, or -1 if the values are boxed or
+     * the index is out of range.
+     */
+    private int getValueIndex(int valueIndex) {
+        if (mValueTypes == null) {
+            return -1;
+        }
+        if (mIsList == false) {
+            return 0;
+        }
+        return valueIndex >= 0 && valueIndex < mValueTypes.length ? valueIndex : -1;
+    }
+
+    /**
+     * Returns the data, boxing the values decoded without boxing on the first call.
+     */
+    private Object getData() {
+        if (mData == null && mValueTypes != null) {
+            Object[] values = new Object[mValueTypes.length];
+            for (int i = 0; i < values.length; i++) {
+                switch (mValueTypes[i]) {
+                    case INT:
+                        values[i] = Integer.valueOf((int) mLongValues[i]);
+                        break;
+                    case LONG:
+                        values[i] = Long.valueOf(mLongValues[i]);
+                        break;
+                    default:
+                        values[i] = mStringValues[i];
+                        break;
+                }
+            }
+            mData = mIsList ? values : values[0];
+        }
+        return mData;
+    }
+
     private final Object getValue(Object data, int valueIndex, boolean recursive) {
         EventValueType type = getType(data);
         
@@ -16,6 +16,7 @@
 
 package com.android.ddmlib.log;
 
+import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.MultiLineReceiver;
@@ -31,7 +32,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -47,6 +50,12 @@ public final class EventLogParser {
     /** Location of the tag map file on the device */
     private final static String EVENT_TAG_MAP_FILE = "/system/etc/event-log-tags"; //$NON-NLS-1$
 
+    /** Property identifying the build of a device, and so its tag map file. */
+    private final static String PROP_BUILD_FINGERPRINT = "ro.build.fingerprint"; //$NON-NLS-1$
+
+    /** Extension of the tag map files in the cache directory. */
+    private final static String TAG_CACHE_EXT = ".tags"; //$NON-NLS-1$
+
     /**
      * Event log entry types.  These must match up with the declarations in
      * java/android/android/util/EventLog.java.
@@ -60,8 +69,9 @@ public final class EventLogParser {
     "^(\\d+)\\s+([A-Za-z0-9_]+)\\s*$"); //$NON-NLS-1$
     private final static Pattern PATTERN_TAG_WITH_DESC = Pattern.compile(
             "^(\\d+)\\s+([A-Za-z0-9_]+)\\s*(.*)\\s*$"); //$NON-NLS-1$
+    // the trailing '|' is written by saveTags.
     private final static Pattern PATTERN_DESCRIPTION = Pattern.compile(
-            "\\(([A-Za-z0-9_\\s]+)\\|(\\d+)(\\|\\d+){0,1}\\)"); //$NON-NLS-1$
+            "\\(([A-Za-z0-9_\\s]+)\\|(\\d+)(\\|\\d+){0,1}\\|?\\)"); //$NON-NLS-1$
 
     private final static Pattern TEXT_LOG_LINE = Pattern.compile(
             "(\\d\\d)-(\\d\\d)\\s(\\d\\d):(\\d\\d):(\\d\\d).(\\d{3})\\s+I/([a-zA-Z0-9_]+)\\s*\\(\\s*(\\d+)\\):\\s+(.*)"); //$NON-NLS-1$
@@ -71,6 +81,20 @@ public final class EventLogParser {
     private final TreeMap<Integer, EventValueDescription[]> mValueDescriptionMap =
         new TreeMap<Integer, EventValueDescription[]>();
 
+    /** The parsers initialized from a device, by build fingerprint. */
+    private final static Map<String, EventLogParser> sTagMapCache =
+        new HashMap<String, EventLogParser>();
+
+    /** The keys of {@link #mTagMap}, to check the tags without boxing them. */
+    private int[] mKnownTags;
+
+    /** The value types of the events being decoded. */
+    private final EventValueType[] mDecodedTypes = new EventValueType[Byte.MAX_VALUE];
+    /** The distinct arrays of value types of the decoded events, shared by the events. */
+    private final ArrayList<EventValueType[]> mValueTypeArrays = new ArrayList<EventValueType[]>();
+    /** Whether {@link #decodeEvent(LogEntry, int, int)} failed because of malformed data. */
+    private boolean mDecodeFailed;
+
     public EventLogParser() {
     }
 
@@ -83,6 +107,12 @@ public final class EventLogParser {
      * @return <code>true</code> if success, <code>false</code> if failure or cancellation.
      */
     public boolean init(IDevice device) {
+        // the tag map file is part of the build, so it is read once per build.
+        String fingerprint = device.getProperty(PROP_BUILD_FINGERPRINT);
+        if (fingerprint != null && initFromCache(fingerprint)) {
+            return true;
+        }
+
         // read the event tag map file on the device.
         try {
             device.executeShellCommand("cat " + EVENT_TAG_MAP_FILE, //$NON-NLS-1$
@@ -102,9 +132,100 @@ public final class EventLogParser {
             return false;
         }
 
+        if (fingerprint != null && mTagMap.size() > 0) {
+            saveToCache(fingerprint);
+        }
+
+        return true;
+    }
+
+    /**
+     * Inits the parser with the tags cached for a build, in memory or in the directory set
+     * with {@link DdmPreferences#setEventTagCacheLocation(String)}.
+     * @return <code>true</code> if the tags were cached.
+     */
+    private boolean initFromCache(String fingerprint) {
+        EventLogParser cached;
+        synchronized (sTagMapCache) {
+            cached = sTagMapCache.get(fingerprint);
+        }
+        if (cached == null) {
+            File cacheFile = getCacheFile(fingerprint);
+            if (cacheFile == null || cacheFile.isFile() == false) {
+                return false;
+            }
+            cached = new EventLogParser();
+            if (cached.init(cacheFile.getAbsolutePath()) == false
+                    || cached.mTagMap.size() == 0) {
+                return false;
+            }
+            synchronized (sTagMapCache) {
+                sTagMapCache.put(fingerprint, cached);
+            }
+        }
+
+        // the value descriptions are immutable, and can be shared.
+        mTagMap.putAll(cached.mTagMap);
+        mValueDescriptionMap.putAll(cached.mValueDescriptionMap);
+        mKnownTags = null;
         return true;
     }
 
+    /**
+     * Caches the tags read from a device, in memory and in the cache directory if there is one.
+     */
+    private void saveToCache(String fingerprint) {
+        EventLogParser cached = new EventLogParser();
+        cached.mTagMap.putAll(mTagMap);
+        cached.mValueDescriptionMap.putAll(mValueDescriptionMap);
+        synchronized (sTagMapCache) {
+            sTagMapCache.put(fingerprint, cached);
+        }
+
+        File cacheFile = getCacheFile(fingerprint);
+        if (cacheFile != null) {
+            // write to a temporary file, so that the cache file is never read half written.
+            File tempFile = new File(cacheFile.getPath() + ".tmp"); //$NON-NLS-1$
+            try {
+                cacheFile.getParentFile().mkdirs();
+                cached.saveTags(tempFile.getPath());
+                cacheFile.delete();
+                if (tempFile.renameTo(cacheFile) == false) {
+                    tempFile.delete();
+                }
+            } catch (Exception e) {
+                // the tags are still cached in memory.
+                tempFile.delete();
+                Log.w("EventLogParser", //$NON-NLS-1$
+                        String.format("Failed to cache the event tags: %1$s", e)); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Returns the file caching the tags of a build, or null if there is no cache directory.
+     */
+    private static File getCacheFile(String fingerprint) {
+        String location = DdmPreferences.getEventTagCacheLocation();
+        if (location == null) {
+            return null;
+        }
+
+        // the fingerprint contains '/' and ':'.
+        StringBuilder name = new StringBuilder(fingerprint.length() + TAG_CACHE_EXT.length());
+        for (int i = 0; i < fingerprint.length(); i++) {
+            char c = fingerprint.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '.' || c == '-') {
+                name.append(c);
+            } else {
+                name.append('_');
+            }
+        }
+        name.append(TAG_CACHE_EXT);
+        return new File(location, name.toString());
+    }
+
     /**
      * Inits the parser with the content of a tag file.
      * @param tagFileContent the lines of a tag file.
@@ -145,6 +266,8 @@ public final class EventLogParser {
      * @param line the line to process
      */
     private void processTagLine(String line) {
+        mKnownTags = null;
+
         // ignore empty lines and comment lines
         if (line.length() > 0 && line.charAt(0) != '#') {
             Matcher m = PATTERN_TAG_WITH_DESC.matcher(line);
@@ -243,7 +366,14 @@ public final class EventLogParser {
 
     }
 
-    public EventContainer parse(LogEntry entry) {
+    /**
+     * Parses a binary event.
+     * <p/>The values are decoded from the data of the entry without being boxed, unless the
+     * event contains a list of lists, or is a GC event.
+     * @param entry the entry of the event log.
+     * @return the event, or <code>null</code> if the entry is malformed.
+     */
+    public synchronized EventContainer parse(LogEntry entry) {
         if (entry.len < 4) {
             return null;
         }
@@ -253,11 +383,18 @@ public final class EventLogParser {
         int tagValue = ArrayHelper.swap32bitFromArray(entry.data, inOffset);
         inOffset += 4;
 
-        String tag = mTagMap.get(tagValue);
-        if (tag == null) {
+        if (isKnownTag(tagValue) == false) {
             Log.e("EventLogParser", String.format("unknown tag number: %1$d", tagValue));
         }
 
+        if (tagValue != GcEventContainer.GC_EVENT_TAG) {
+            EventContainer event = decodeEvent(entry, tagValue, inOffset);
+            if (event != null || mDecodeFailed) {
+                return event;
+            }
+            // else the event contains a list of lists.
+        }
+
         ArrayList<Object> list = new ArrayList<Object>();
         if (parseBinaryEvent(entry.data, inOffset, list) == -1) {
             return null;
@@ -280,6 +417,23 @@ public final class EventLogParser {
         return event;
     }
 
+    /**
+     * Returns whether a tag is in the tag map, without boxing it.
+     */
+    private boolean isKnownTag(int tagValue) {
+        int[] knownTags = mKnownTags;
+        if (knownTags == null) {
+            // the keys of the TreeMap are sorted.
+            knownTags = new int[mTagMap.size()];
+            int i = 0;
+            for (Integer tag : mTagMap.keySet()) {
+                knownTags[i++] = tag;
+            }
+            mKnownTags = knownTags;
+        }
+        return Arrays.binarySearch(knownTags, tagValue) >= 0;
+    }
+
     public EventContainer parse(String textLogLine) {
         // line will look like
         // 04-29 23:16:16.691 I/dvm_gc_info(  427): <data>
@@ -356,6 +510,131 @@ public final class EventLogParser {
         return mValueDescriptionMap;
     }
 
+    /**
+     * Decodes the value, or the list of values, of a binary event into an
+     * {@link EventContainer}, without boxing them.
+     * <p/>The data is read twice: once to check it and get the types of the values, then to
+     * get the values.
+     * @return the event, or null if the data is malformed, in which case
+     * {@link #mDecodeFailed} is set, or if the event contains a list of lists.
+     */
+    private EventContainer decodeEvent(LogEntry entry, int tagValue, int dataOffset) {
+        mDecodeFailed = true;
+        byte[] eventData = entry.data;
+        if (eventData.length - dataOffset < 1) {
+            return null;
+        }
+
+        int offset = dataOffset;
+        boolean isList = eventData[offset] == EVENT_TYPE_LIST;
+        int count = 1;
+        if (isList) {
+            offset++;
+            if (eventData.length - offset < 1) {
+                return null;
+            }
+            count = Math.max(eventData[offset++], 0);
+        }
+
+        // check the values, and get their types.
+        int valuesOffset = offset;
+        boolean hasStrings = false;
+        for (int i = 0; i < count; i++) {
+            if (eventData.length - offset < 1) {
+                return null;
+            }
+            int type = eventData[offset++];
+            int length;
+            switch (type) {
+                case EVENT_TYPE_INT:
+                    mDecodedTypes[i] = EventValueType.INT;
+                    length = 4;
+                    break;
+                case EVENT_TYPE_LONG:
+                    mDecodedTypes[i] = EventValueType.LONG;
+                    length = 8;
+                    break;
+                case EVENT_TYPE_STRING:
+                    if (eventData.length - offset < 4) {
+                        return null;
+                    }
+                    mDecodedTypes[i] = EventValueType.STRING;
+                    hasStrings = true;
+                    length = 4 + ArrayHelper.swap32bitFromArray(eventData, offset);
+                    break;
+                case EVENT_TYPE_LIST:
+                    // lists of lists are left to parseBinaryEvent.
+                    mDecodeFailed = false;
+                    return null;
+                default:
+                    Log.e("EventLogParser",  //$NON-NLS-1$
+                            String.format("Unknown binary event type %1$d", type));  //$NON-NLS-1$
+                    return null;
+            }
+            if (length < 0 || eventData.length - offset < length) {
+                return null;
+            }
+            offset += length;
+        }
+
+        // get the values.
+        long[] longValues = new long[count];
+        String[] stringValues = hasStrings ? new String[count] : null;
+        offset = valuesOffset;
+        for (int i = 0; i < count; i++) {
+            offset++;
+            switch (mDecodedTypes[i]) {
+                case INT:
+                    longValues[i] = ArrayHelper.swap32bitFromArray(eventData, offset);
+                    offset += 4;
+                    break;
+                case LONG:
+                    longValues[i] = ArrayHelper.swap64bitFromArray(eventData, offset);
+                    offset += 8;
+                    break;
+                default:
+                    int strLen = ArrayHelper.swap32bitFromArray(eventData, offset);
+                    offset += 4;
+                    try {
+                        stringValues[i] = new String(eventData, offset, strLen,
+                                "UTF-8"); //$NON-NLS-1$
+                    } catch (UnsupportedEncodingException e) {
+                    }
+                    offset += strLen;
+                    break;
+            }
+        }
+
+        mDecodeFailed = false;
+        return new EventContainer(entry, tagValue, getValueTypes(count), longValues,
+                stringValues, isList);
+    }
+
+    /**
+     * Returns an array with the types decoded in {@link #mDecodedTypes}, shared with the
+     * previous events with the same types.
+     */
+    private EventValueType[] getValueTypes(int count) {
+        // the events of a tag have the same types, so there are few arrays.
+        for (int i = mValueTypeArrays.size() - 1; i >= 0; i--) {
+            EventValueType[] types = mValueTypeArrays.get(i);
+            if (types.length == count) {
+                int j = 0;
+                while (j < count && types[j] == mDecodedTypes[j]) {
+                    j++;
+                }
+                if (j == count) {
+                    return types;
+                }
+            }
+        }
+
+        EventValueType[] types = new EventValueType[count];
+        System.arraycopy(mDecodedTypes, 0, types, 0, count);
+        mValueTypeArrays.add(types);
+        return types;
+    }
+
     /**
      * Recursively convert binary log data to printable form.
      *
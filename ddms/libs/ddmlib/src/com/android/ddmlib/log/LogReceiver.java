@@ -76,6 +76,19 @@ public final class LogReceiver {
         public void newData(byte[] data, int offset, int length);
     }
 
+    /**
+     * Classes which implement this interface are also notified when all the {@link LogEntry}
+     * objects parsed from a block of raw data have been sent to
+     * {@link ILogListener#newEntry(LogEntry)}. This lets them process entries by batches.
+     */
+    public interface ILogBlockListener extends ILogListener {
+        /**
+         * Sent after the complete entries of a block of raw data have been sent to
+         * {@link #newEntry(LogEntry)}.
+         */
+        public void newEntriesDone();
+    }
+
     /** Current {@link LogEntry} being read, before sending it to the listener. */
     private LogEntry mCurrentEntry;
 
@@ -115,6 +128,20 @@ public final class LogReceiver {
             mListener.newData(data, offset, length);
         }
 
+        parseEntries(data, offset, length);
+
+        if (mListener instanceof ILogBlockListener) {
+            ((ILogBlockListener)mListener).newEntriesDone();
+        }
+    }
+
+    /**
+     * Extracts the {@link LogEntry} objects from new data, and sends them to the listener.
+     * @param data the data buffer
+     * @param offset the offset into the buffer signaling the beginning of the new data.
+     * @param length the length of the new data.
+     */
+    private void parseEntries(byte[] data, int offset, int length) {
         // loop while there is still data to be read and the receiver has not be cancelled.
         while (length > 0 && mIsCancelled == false) {
             // first check if we have no current entry.
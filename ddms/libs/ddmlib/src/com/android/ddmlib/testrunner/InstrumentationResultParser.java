@@ -16,16 +16,16 @@
 
 package com.android.ddmlib.testrunner;
 
+import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
-import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.LineReceiver;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,7 +64,7 @@ import java.util.regex.Pattern;
  * </pre>
  * <p>Note that the "value" portion of the key-value pair may wrap over several text lines
  */
-public class InstrumentationResultParser extends MultiLineReceiver {
+public class InstrumentationResultParser extends LineReceiver {
 
     /** Relevant test status keys. */
     private static class StatusKeys {
@@ -76,20 +76,35 @@ public class InstrumentationResultParser extends MultiLineReceiver {
         private static final String SHORTMSG = "shortMsg";
     }
 
-    /** The set of expected status keys. Used to filter which keys should be stored as metrics */
-    private static final Set<String> KNOWN_KEYS = new HashSet<String>();
-    static {
-        KNOWN_KEYS.add(StatusKeys.TEST);
-        KNOWN_KEYS.add(StatusKeys.CLASS);
-        KNOWN_KEYS.add(StatusKeys.STACK);
-        KNOWN_KEYS.add(StatusKeys.NUMTESTS);
-        KNOWN_KEYS.add(StatusKeys.ERROR);
-        KNOWN_KEYS.add(StatusKeys.SHORTMSG);
+    /**
+     * The expected status keys, indexed by the KEY_* constants. Values of other keys are stored
+     * as metrics.
+     */
+    private static final String[] KNOWN_KEYS = new String[] {
+        StatusKeys.TEST,
+        StatusKeys.CLASS,
+        StatusKeys.STACK,
+        StatusKeys.NUMTESTS,
+        StatusKeys.ERROR,
+        StatusKeys.SHORTMSG,
         // unused, but regularly occurring status keys.
-        KNOWN_KEYS.add("stream");
-        KNOWN_KEYS.add("id");
-        KNOWN_KEYS.add("current");
-    }
+        "stream",
+        "id",
+        "current",
+    };
+    private static final int KEY_TEST = 0;
+    private static final int KEY_CLASS = 1;
+    private static final int KEY_STACK = 2;
+    private static final int KEY_NUMTESTS = 3;
+    private static final int KEY_ERROR = 4;
+    private static final int KEY_SHORTMSG = 5;
+    /** Key index of the metrics, which are not in {@link #KNOWN_KEYS}. */
+    private static final int KEY_METRIC = -1;
+    /** Key index when no key-value is being parsed. */
+    private static final int KEY_NONE = -2;
+
+    /** Size of the cache of metric keys. Must be a power of 2. */
+    private static final int KEY_CACHE_SIZE = 64;
 
     /** Test result status codes. */
     private static class StatusCodes {
@@ -102,6 +117,8 @@ public class InstrumentationResultParser extends MultiLineReceiver {
 
     /** Prefixes used to identify output. */
     private static class Prefixes {
+        /** The common start of the prefixes below, which are matched after it. */
+        private static final String INSTRUMENTATION = "INSTRUMENTATION_";
         private static final String STATUS = "INSTRUMENTATION_STATUS: ";
         private static final String STATUS_CODE = "INSTRUMENTATION_STATUS_CODE: ";
         private static final String STATUS_FAILED = "INSTRUMENTATION_FAILED: ";
@@ -110,10 +127,13 @@ public class InstrumentationResultParser extends MultiLineReceiver {
         private static final String TIME_REPORT = "Time: ";
     }
 
+    private static final Pattern TIME_PATTERN = Pattern.compile(
+            String.format("%s\\s*([\\d\\.]+)", Prefixes.TIME_REPORT));
+
     private final Collection<ITestRunListener> mTestListeners;
 
     /**
-     * Test result data
+     * Test result data. Instances are reused for the next tests once reported.
      */
     private static class TestResult {
         private Integer mCode = null;
@@ -127,6 +147,16 @@ public class InstrumentationResultParser extends MultiLineReceiver {
             return mCode != null && mTestName != null && mTestClass != null;
         }
 
+        /** Clears the values, to parse a new result. */
+        TestResult reset() {
+            mCode = null;
+            mTestName = null;
+            mTestClass = null;
+            mStackTrace = null;
+            mNumTests = null;
+            return this;
+        }
+
         /** Provides a more user readable string for TestResult, if possible */
         @Override
         public String toString() {
@@ -154,11 +184,32 @@ public class InstrumentationResultParser extends MultiLineReceiver {
     /** Stores the status values for the test result last parsed */
     private TestResult mLastTestResult = null;
 
-    /** Stores the current "key" portion of the status key-value being parsed. */
+    /** The test result to reuse for the next test. */
+    private TestResult mSpareTestResult = null;
+
+    /** The class of the last test, reused while the next tests are in the same class. */
+    private String mLastTestClass = null;
+
+    /**
+     * The index of the key of the status key-value being parsed, in {@link #KNOWN_KEYS}, or
+     * {@link #KEY_METRIC} or {@link #KEY_NONE}.
+     */
+    private int mCurrentKeyIndex = KEY_NONE;
+
+    /** The "key" portion of the status key-value being parsed, if it is a metric. */
     private String mCurrentKey = null;
 
-    /** Stores the current "value" portion of the status key-value being parsed. */
-    private StringBuilder mCurrentValue = null;
+    /**
+     * Whether the "value" portion of the status key-value being parsed is used. If not, it is
+     * not accumulated in {@link #mCurrentValue}.
+     */
+    private boolean mCurrentValueUsed = false;
+
+    /** Accumulates the "value" portion of the status key-value being parsed. */
+    private final StringBuilder mCurrentValue = new StringBuilder();
+
+    /** Metric keys already seen, by hash code, so that they are not allocated for each test. */
+    private final String[] mKeyCache = new String[KEY_CACHE_SIZE];
 
     /** True if start of test has already been reported to listener. */
     private boolean mTestStartReported = false;
@@ -193,8 +244,19 @@ public class InstrumentationResultParser extends MultiLineReceiver {
     /**
      * Stores key-value pairs of metrics emitted during the execution of each test case.  Note that
      * standard keys that are stored in the TestResults class are filtered out of this Map.
+     * This is null until the test emits a metric.
      */
-    private Map<String, String> mTestMetrics = new HashMap<String, String>();
+    private Map<String, String> mTestMetrics = null;
+
+    /** Time in nanoseconds spent parsing lines. */
+    private long mParseTime = 0;
+
+    /** Start time in nanoseconds of the block of lines being parsed, or 0. */
+    private long mBlockStartTime = 0;
+
+    /** Times in nanoseconds of the first and last output received. */
+    private long mFirstOutputTime = 0;
+    private long mLastOutputTime = 0;
 
     private static final String LOG_TAG = "InstrumentationResultParser";
 
@@ -236,17 +298,76 @@ public class InstrumentationResultParser extends MultiLineReceiver {
     /**
      * Processes the instrumentation test output from shell.
      *
-     * @see MultiLineReceiver#processNewLines
+     * @param lines the new lines of output.
      */
-    @Override
     public void processNewLines(String[] lines) {
         for (String line : lines) {
-            parse(line);
-            // in verbose mode, dump all adb output to log
-            Log.v(LOG_TAG, line);
+            processLine(line);
+        }
+        processLinesDone();
+    }
+
+    /**
+     * Processes a line of instrumentation test output from shell.
+     * <p/>The line is parsed in place: only the values kept for the results are copied.
+     *
+     * @see LineReceiver#processLine(CharSequence)
+     */
+    @Override
+    protected void processLine(CharSequence line) {
+        if (mBlockStartTime == 0) {
+            mBlockStartTime = System.nanoTime();
+            if (mFirstOutputTime == 0) {
+                mFirstOutputTime = mBlockStartTime;
+            }
+        }
+        parse(line);
+        // in verbose mode, dump all adb output to log
+        if (DdmPreferences.getLogLevel() == LogLevel.VERBOSE) {
+            Log.v(LOG_TAG, line.toString());
+        }
+    }
+
+    @Override
+    protected void processLinesDone() {
+        if (mBlockStartTime != 0) {
+            mLastOutputTime = System.nanoTime();
+            mParseTime += mLastOutputTime - mBlockStartTime;
+            mBlockStartTime = 0;
         }
     }
 
+    /**
+     * Returns the number of tests which ended so far.
+     */
+    public int getNumTestsRun() {
+        return mNumTestsRun;
+    }
+
+    /**
+     * Returns the number of bytes of output received so far.
+     */
+    public long getBytesParsed() {
+        return getBytesReceived();
+    }
+
+    /**
+     * Returns the time in nanoseconds spent parsing the output, from the first line to the last
+     * one, not counting the time waiting for the output.
+     */
+    public long getParseTime() {
+        return mParseTime;
+    }
+
+    /**
+     * Returns the number of tests which ended per second, from the first output received to the
+     * last one, or 0 if that time is not known yet.
+     */
+    public double getTestsPerSecond() {
+        long elapsed = mLastOutputTime - mFirstOutputTime;
+        return elapsed > 0 ? mNumTestsRun * 1e9 / elapsed : 0;
+    }
+
     /**
      * Parse an individual output line. Expects a line that is one of:
      * <ul>
@@ -265,105 +386,222 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      *
      * @param line  Text output line
      */
-    private void parse(String line) {
-        if (line.startsWith(Prefixes.STATUS_CODE)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            parseStatusCode(line);
-        } else if (line.startsWith(Prefixes.STATUS)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            parseKey(line, Prefixes.STATUS.length());
-        } else if (line.startsWith(Prefixes.RESULT)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = true;
-            parseKey(line, Prefixes.RESULT.length());
-        } else if (line.startsWith(Prefixes.STATUS_FAILED) ||
-                   line.startsWith(Prefixes.CODE)) {
-            // Previous status key-value has been collected. Store it.
-            submitCurrentKeyValue();
-            mInInstrumentationResultKey = false;
-            // these codes signal the end of the instrumentation run
-            mTestRunFinished = true;
-            // just ignore the remaining data on this line
-        } else if (line.startsWith(Prefixes.TIME_REPORT)) {
-            parseTime(line);
-        } else {
-            if (mCurrentValue != null) {
-                // this is a value that has wrapped to next line.
+    private void parse(CharSequence line) {
+        if (startsWith(line, Prefixes.INSTRUMENTATION, 0)) {
+            if (startsWith(line, Prefixes.STATUS_CODE, Prefixes.INSTRUMENTATION.length())) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                parseStatusCode(line);
+                return;
+            } else if (startsWith(line, Prefixes.STATUS, Prefixes.INSTRUMENTATION.length())) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                parseKey(line, Prefixes.STATUS.length());
+                return;
+            } else if (startsWith(line, Prefixes.RESULT, Prefixes.INSTRUMENTATION.length())) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = true;
+                parseKey(line, Prefixes.RESULT.length());
+                return;
+            } else if (startsWith(line, Prefixes.STATUS_FAILED,
+                            Prefixes.INSTRUMENTATION.length()) ||
+                       startsWith(line, Prefixes.CODE, Prefixes.INSTRUMENTATION.length())) {
+                // Previous status key-value has been collected. Store it.
+                submitCurrentKeyValue();
+                mInInstrumentationResultKey = false;
+                // these codes signal the end of the instrumentation run
+                mTestRunFinished = true;
+                // just ignore the remaining data on this line
+                return;
+            }
+        } else if (startsWith(line, Prefixes.TIME_REPORT, 0)) {
+            parseTime(line.toString());
+            return;
+        }
+
+        if (mCurrentKeyIndex != KEY_NONE) {
+            // this is a value that has wrapped to next line.
+            if (mCurrentValueUsed) {
                 mCurrentValue.append("\r\n");
                 mCurrentValue.append(line);
-            } else if (line.trim().length() > 0){
-                Log.d(LOG_TAG, "unrecognized line " + line);
             }
+        } else if (!isBlank(line)) {
+            Log.d(LOG_TAG, "unrecognized line " + line);
         }
     }
 
+    /**
+     * Returns whether a line starts with a prefix, ignoring the first characters of both which
+     * were already matched.
+     */
+    private static boolean startsWith(CharSequence line, String prefix, int from) {
+        int length = prefix.length();
+        if (line.length() < length) {
+            return false;
+        }
+        for (int i = from; i < length; i++) {
+            if (line.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBlank(CharSequence line) {
+        for (int i = 0, length = line.length(); i < length; i++) {
+            if (line.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Stores the currently parsed key-value pair in the appropriate place.
      */
     private void submitCurrentKeyValue() {
-        if (mCurrentKey != null && mCurrentValue != null) {
-            String statusValue = mCurrentValue.toString();
-            if (mInInstrumentationResultKey) {
-                if (!KNOWN_KEYS.contains(mCurrentKey)) {
-                    mInstrumentationResultBundle.put(mCurrentKey, statusValue);
-                } else if (mCurrentKey.equals(StatusKeys.SHORTMSG)) {
-                    // test run must have failed
-                    handleTestRunFailed(String.format("Instrumentation run failed due to '%1$s'",
-                            statusValue));
-                }
-            } else {
-                TestResult testInfo = getCurrentTestInfo();
-
-                if (mCurrentKey.equals(StatusKeys.CLASS)) {
-                    testInfo.mTestClass = statusValue.trim();
-                } else if (mCurrentKey.equals(StatusKeys.TEST)) {
-                    testInfo.mTestName = statusValue.trim();
-                } else if (mCurrentKey.equals(StatusKeys.NUMTESTS)) {
-                    try {
-                        testInfo.mNumTests = Integer.parseInt(statusValue);
-                    } catch (NumberFormatException e) {
+        if (mCurrentKeyIndex == KEY_NONE) {
+            return;
+        }
+        int keyIndex = mCurrentKeyIndex;
+        mCurrentKeyIndex = KEY_NONE;
+        if (!mCurrentValueUsed) {
+            return;
+        }
+
+        if (mInInstrumentationResultKey) {
+            if (keyIndex == KEY_METRIC) {
+                mInstrumentationResultBundle.put(mCurrentKey, mCurrentValue.toString());
+            } else if (keyIndex == KEY_SHORTMSG) {
+                // test run must have failed
+                handleTestRunFailed(String.format("Instrumentation run failed due to '%1$s'",
+                        mCurrentValue.toString()));
+            }
+        } else {
+            TestResult testInfo = getCurrentTestInfo();
+
+            switch (keyIndex) {
+                case KEY_CLASS:
+                    testInfo.mTestClass = getTestClass();
+                    break;
+                case KEY_TEST:
+                    testInfo.mTestName = mCurrentValue.toString().trim();
+                    break;
+                case KEY_NUMTESTS:
+                    int numTests = parseInt(mCurrentValue, 0, mCurrentValue.length());
+                    if (numTests != Integer.MIN_VALUE) {
+                        testInfo.mNumTests = numTests;
+                    } else {
                         Log.w(LOG_TAG, "Unexpected integer number of tests, received "
-                                + statusValue);
+                                + mCurrentValue);
                     }
-                } else if (mCurrentKey.equals(StatusKeys.ERROR)) {
+                    break;
+                case KEY_ERROR:
                     // test run must have failed
-                    handleTestRunFailed(statusValue);
-                } else if (mCurrentKey.equals(StatusKeys.STACK)) {
-                    testInfo.mStackTrace = statusValue;
-                } else if (!KNOWN_KEYS.contains(mCurrentKey)) {
+                    handleTestRunFailed(mCurrentValue.toString());
+                    break;
+                case KEY_STACK:
+                    testInfo.mStackTrace = mCurrentValue.toString();
+                    break;
+                case KEY_METRIC:
                     // Not one of the recognized key/value pairs, so dump it in mTestMetrics
-                    mTestMetrics.put(mCurrentKey, statusValue);
-                }
+                    if (mTestMetrics == null) {
+                        mTestMetrics = new HashMap<String, String>();
+                    }
+                    mTestMetrics.put(mCurrentKey, mCurrentValue.toString());
+                    break;
             }
+        }
+    }
 
-            mCurrentKey = null;
-            mCurrentValue = null;
+    /**
+     * Returns the trimmed test class in the current value, reusing the previous class if it is
+     * the same.
+     */
+    private String getTestClass() {
+        int start = 0;
+        int end = mCurrentValue.length();
+        while (start < end && mCurrentValue.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && mCurrentValue.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (!regionEquals(mCurrentValue, start, end, mLastTestClass)) {
+            mLastTestClass = mCurrentValue.substring(start, end);
         }
+        return mLastTestClass;
+    }
+
+    private static boolean regionEquals(CharSequence chars, int start, int end, String string) {
+        if (string == null || string.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (chars.charAt(i) != string.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal integer, like {@link Integer#parseInt(String)}.
+     *
+     * @return the value, or {@link Integer#MIN_VALUE} if the characters are not an integer.
+     */
+    private static int parseInt(CharSequence chars, int start, int end) {
+        boolean negative = false;
+        if (start < end && (chars.charAt(start) == '-' || chars.charAt(start) == '+')) {
+            negative = chars.charAt(start) == '-';
+            start++;
+        }
+        // longer numbers may not fit in an int.
+        if (start == end || end - start > 9) {
+            return Integer.MIN_VALUE;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c < '0' || c > '9') {
+                return Integer.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
     }
 
     /**
      * A utility method to return the test metrics from the current test case execution and get
      * ready for the next one.
+     * <p/>The map is mutable, as listeners may add to it.
      */
     private Map<String, String> getAndResetTestMetrics() {
+        if (mTestMetrics == null) {
+            return new HashMap<String, String>();
+        }
         Map<String, String> retVal = mTestMetrics;
-        mTestMetrics = new HashMap<String, String>();
+        mTestMetrics = null;
         return retVal;
     }
 
     private TestResult getCurrentTestInfo() {
         if (mCurrentTestResult == null) {
-            mCurrentTestResult = new TestResult();
+            if (mSpareTestResult != null) {
+                mCurrentTestResult = mSpareTestResult.reset();
+                mSpareTestResult = null;
+            } else {
+                mCurrentTestResult = new TestResult();
+            }
         }
         return mCurrentTestResult;
     }
 
     private void clearCurrentTestInfo() {
+        mSpareTestResult = mLastTestResult;
         mLastTestResult = mCurrentTestResult;
         mCurrentTestResult = null;
     }
@@ -375,12 +613,65 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * @param line full line of text to parse
      * @param keyStartPos the starting position of the key in the given line
      */
-    private void parseKey(String line, int keyStartPos) {
-        int endKeyPos = line.indexOf('=', keyStartPos);
-        if (endKeyPos != -1) {
-            mCurrentKey = line.substring(keyStartPos, endKeyPos).trim();
-            parseValue(line, endKeyPos + 1);
+    private void parseKey(CharSequence line, int keyStartPos) {
+        int length = line.length();
+        int endKeyPos = keyStartPos;
+        while (endKeyPos < length && line.charAt(endKeyPos) != '=') {
+            endKeyPos++;
+        }
+        if (endKeyPos == length) {
+            return;
+        }
+
+        int start = keyStartPos;
+        int end = endKeyPos;
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        mCurrentKeyIndex = findKnownKey(line, start, end);
+        if (mCurrentKeyIndex == KEY_METRIC) {
+            mCurrentKey = getMetricKey(line, start, end);
+            mCurrentValueUsed = true;
+        } else if (mInInstrumentationResultKey) {
+            mCurrentValueUsed = mCurrentKeyIndex == KEY_SHORTMSG;
+        } else {
+            // the values of the other keys are ignored.
+            mCurrentValueUsed = mCurrentKeyIndex <= KEY_SHORTMSG;
+        }
+
+        parseValue(line, endKeyPos + 1);
+    }
+
+    /**
+     * Returns the index in {@link #KNOWN_KEYS} of the key in a line, or {@link #KEY_METRIC}.
+     */
+    private static int findKnownKey(CharSequence line, int start, int end) {
+        for (int i = 0; i < KNOWN_KEYS.length; i++) {
+            if (regionEquals(line, start, end, KNOWN_KEYS[i])) {
+                return i;
+            }
         }
+        return KEY_METRIC;
+    }
+
+    /**
+     * Returns the metric key in a line, from the cache if it was seen before.
+     */
+    private String getMetricKey(CharSequence line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (KEY_CACHE_SIZE - 1);
+        String key = mKeyCache[index];
+        if (!regionEquals(line, start, end, key)) {
+            key = line.subSequence(start, end).toString();
+            mKeyCache[index] = key;
+        }
+        return key;
     }
 
     /**
@@ -389,22 +680,32 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * @param line - full line of text to parse
      * @param valueStartPos - the starting position of the value in the given line
      */
-    private void parseValue(String line, int valueStartPos) {
-        mCurrentValue = new StringBuilder();
-        mCurrentValue.append(line.substring(valueStartPos));
+    private void parseValue(CharSequence line, int valueStartPos) {
+        mCurrentValue.setLength(0);
+        if (mCurrentValueUsed) {
+            mCurrentValue.append(line, valueStartPos, line.length());
+        }
     }
 
     /**
      * Parses out a status code result.
      */
-    private void parseStatusCode(String line) {
-        String value = line.substring(Prefixes.STATUS_CODE.length()).trim();
+    private void parseStatusCode(CharSequence line) {
+        int start = Prefixes.STATUS_CODE.length();
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
         TestResult testInfo = getCurrentTestInfo();
-        testInfo.mCode = StatusCodes.ERROR;
-        try {
-            testInfo.mCode = Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            Log.w(LOG_TAG, "Expected integer status code, received: " + value);
+        int code = parseInt(line, start, end);
+        if (code != Integer.MIN_VALUE) {
+            testInfo.mCode = code;
+        } else {
+            Log.w(LOG_TAG, "Expected integer status code, received: "
+                    + line.subSequence(start, end));
             testInfo.mCode = StatusCodes.ERROR;
         }
         if (testInfo.mCode != StatusCodes.IN_PROGRESS) {
@@ -522,9 +823,7 @@ public class InstrumentationResultParser extends MultiLineReceiver {
      * Parses out and store the elapsed time.
      */
     private void parseTime(String line) {
-        final Pattern timePattern = Pattern.compile(String.format("%s\\s*([\\d\\.]+)",
-                Prefixes.TIME_REPORT));
-        Matcher timeMatcher = timePattern.matcher(line);
+        Matcher timeMatcher = TIME_PATTERN.matcher(line);
         if (timeMatcher.find()) {
             String timeString = timeMatcher.group(1);
             try {
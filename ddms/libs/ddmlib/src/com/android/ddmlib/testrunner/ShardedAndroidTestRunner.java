@@ -0,0 +1,736 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.IRemoteAndroidTestRunner.TestSize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Runs the tests of an instrumentation across several devices, and reports them as a single
+ * run.
+ * <p/>The tests are split in shards, according to the {@link ShardingMode}. Each device runs one
+ * shard at a time with a {@link RemoteAndroidTestRunner}, and takes the next pending shard when
+ * it is done, so that faster devices run more shards.
+ * <p/>The test results of all the shards are merged into a single stream for the listeners:
+ * {@link ITestRunListener#testRunStarted(String, int)} is called once at the start with a test
+ * count of 0 since the total is not known, and {@link ITestRunListener#testRunEnded(long, Map)}
+ * once at the end, with the metrics of all the shards. The listeners are called from the threads
+ * of the devices, but never concurrently.
+ * <p/>When a shard fails to complete, because the instrumentation crashed or the device went
+ * away, the tests it did not run are queued again, preferably for another device. The tests
+ * already reported are not reported again. A device which failed with an adb error is not used
+ * anymore.
+ * <p/>The time of each shard run, and of the tests of each class, are available after the run,
+ * and the class times can be given to a later run to balance its shards.
+ */
+public class ShardedAndroidTestRunner {
+
+    private static final String LOG_TAG = "ShardedAndroidTest"; //$NON-NLS-1$
+
+    /** Instrumentation argument of the number of shards. */
+    static final String NUM_SHARDS_ARG_NAME = "numShards"; //$NON-NLS-1$
+    /** Instrumentation argument of the index of the shard to run. */
+    static final String SHARD_INDEX_ARG_NAME = "shardIndex"; //$NON-NLS-1$
+
+    /** How the tests are split in shards. */
+    public static enum ShardingMode {
+        /**
+         * The instrumentation splits the tests itself, with the <code>numShards</code> and
+         * <code>shardIndex</code> arguments. The test runner must support them.
+         */
+        INSTRUMENTATION,
+        /**
+         * The classes given to {@link ShardedAndroidTestRunner#setClassNames(String[])} are
+         * split in {@link ShardedAndroidTestRunner#setNumShards(int)} lists of about the same
+         * duration, according to {@link ShardedAndroidTestRunner#setClassTimes(Map)}.
+         */
+        CLASSES,
+        /**
+         * Each class given to {@link ShardedAndroidTestRunner#setClassNames(String[])}, or each
+         * test given to {@link ShardedAndroidTestRunner#setTests(Collection)}, is a shard, and
+         * the devices take them from a shared queue, longest first.
+         */
+        DYNAMIC
+    }
+
+    /** The timing of a run of a shard on a device. */
+    public static final class ShardTiming {
+        private final String mShardName;
+        private final String mSerialNumber;
+        private final int mAttempt;
+        private final int mTestCount;
+        private final long mElapsedTime;
+        private final boolean mCompleted;
+
+        ShardTiming(String shardName, String serialNumber, int attempt, int testCount,
+                long elapsedTime, boolean completed) {
+            mShardName = shardName;
+            mSerialNumber = serialNumber;
+            mAttempt = attempt;
+            mTestCount = testCount;
+            mElapsedTime = elapsedTime;
+            mCompleted = completed;
+        }
+
+        /** Returns a description of the shard. */
+        public String getShardName() {
+            return mShardName;
+        }
+
+        /** Returns the serial number of the device which ran the shard. */
+        public String getSerialNumber() {
+            return mSerialNumber;
+        }
+
+        /** Returns 0 for the first run of the shard, and 1 or more for its retries. */
+        public int getAttempt() {
+            return mAttempt;
+        }
+
+        /** Returns the number of tests which ended during this run. */
+        public int getTestCount() {
+            return mTestCount;
+        }
+
+        /** Returns how long the run took, in milliseconds. */
+        public long getElapsedTime() {
+            return mElapsedTime;
+        }
+
+        /** Returns whether the run completed, or was retried or reported as failed. */
+        public boolean isCompleted() {
+            return mCompleted;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$s on %2$s: %3$d tests in %4$d ms%5$s", //$NON-NLS-1$
+                    mShardName, mSerialNumber, mTestCount, mElapsedTime,
+                    mCompleted ? "" : " (failed)"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /** A set of tests run with one instrumentation command. */
+    static final class Shard {
+        final String mName;
+        /** The classes, with an optional "#method", or null for an instrumentation shard. */
+        final List<String> mClassNames;
+        final int mShardIndex;
+        int mAttempt;
+        /** Devices on which the shard failed. */
+        final Set<IDevice> mFailedDevices = new HashSet<IDevice>();
+
+        Shard(String name, List<String> classNames, int shardIndex) {
+            mName = name;
+            mClassNames = classNames;
+            mShardIndex = shardIndex;
+        }
+    }
+
+    private final String mPackageName;
+    private final String mRunnerName;
+    private final List<IDevice> mDevices;
+    private final Map<String, String> mArgMap = new Hashtable<String, String>();
+    private ShardingMode mMode = ShardingMode.INSTRUMENTATION;
+    private String[] mClassNames;
+    private Collection<TestIdentifier> mTests;
+    private int mNumShards;
+    private Map<String, Long> mPreviousClassTimes = new HashMap<String, Long>();
+    private int mMaxRetries = 1;
+    private int mMaxTimeToOutputResponse = 0;
+    private String mRunName;
+
+    /** Shards waiting for a device. Also the lock of the state of the run. */
+    private final LinkedList<Shard> mPendingShards = new LinkedList<Shard>();
+    private int mRunningShards;
+    /** Devices still taking shards. */
+    private final Set<IDevice> mActiveDevices = new HashSet<IDevice>();
+    private final List<RemoteAndroidTestRunner> mRunners =
+            new ArrayList<RemoteAndroidTestRunner>();
+    private volatile boolean mCanceled;
+    private final List<ShardTiming> mShardTimings = new ArrayList<ShardTiming>();
+    private final Map<String, Long> mClassTimes = new HashMap<String, Long>();
+
+    /** The listeners of the run. Also the lock to call them. */
+    private final List<ITestRunListener> mListeners = new ArrayList<ITestRunListener>();
+    private final Set<TestIdentifier> mReportedTests = new HashSet<TestIdentifier>();
+    private final Map<String, String> mRunMetrics = new HashMap<String, String>();
+
+    /**
+     * Creates a sharded test runner.
+     * @param packageName the Android application package that contains the tests to run
+     * @param runnerName the instrumentation test runner to execute. If null, will use default
+     *   runner
+     * @param devices the devices to execute the tests on
+     */
+    public ShardedAndroidTestRunner(String packageName, String runnerName,
+            Collection<? extends IDevice> devices) {
+        if (devices.isEmpty()) {
+            throw new IllegalArgumentException("no devices"); //$NON-NLS-1$
+        }
+        mPackageName = packageName;
+        mRunnerName = runnerName;
+        mDevices = new ArrayList<IDevice>(devices);
+    }
+
+    /** Sets how the tests are split in shards. The default is by the instrumentation. */
+    public void setShardingMode(ShardingMode mode) {
+        mMode = mode;
+    }
+
+    /**
+     * Sets the classes to run, for the {@link ShardingMode#CLASSES} and
+     * {@link ShardingMode#DYNAMIC} modes.
+     */
+    public void setClassNames(String[] classNames) {
+        mClassNames = classNames;
+    }
+
+    /**
+     * Sets the tests to run one at a time, for the {@link ShardingMode#DYNAMIC} mode. This
+     * replaces the classes.
+     */
+    public void setTests(Collection<TestIdentifier> tests) {
+        mTests = tests;
+    }
+
+    /**
+     * Sets the number of shards of the {@link ShardingMode#INSTRUMENTATION} and
+     * {@link ShardingMode#CLASSES} modes. The default is the number of devices.
+     */
+    public void setNumShards(int numShards) {
+        mNumShards = numShards;
+    }
+
+    /**
+     * Sets the time the tests of each class took in a previous run, in milliseconds, for
+     * instance from {@link #getClassTimes()}. It is used to balance the shards.
+     */
+    public void setClassTimes(Map<String, Long> classTimes) {
+        mPreviousClassTimes = new HashMap<String, Long>(classTimes);
+    }
+
+    /** Sets how many times the tests of a shard which failed to complete are run again. */
+    public void setMaxRetries(int maxRetries) {
+        mMaxRetries = maxRetries;
+    }
+
+    /** @see IRemoteAndroidTestRunner#addInstrumentationArg(String, String) */
+    public void addInstrumentationArg(String name, String value) {
+        if (name == null || value == null) {
+            throw new IllegalArgumentException("name or value arguments cannot be null");
+        }
+        mArgMap.put(name, value);
+    }
+
+    /** @see IRemoteAndroidTestRunner#setTestSize(TestSize) */
+    public void setTestSize(TestSize size) {
+        addInstrumentationArg("size", size.getRunnerValue()); //$NON-NLS-1$
+    }
+
+    /** @see IRemoteAndroidTestRunner#setMaxtimeToOutputResponse(int) */
+    public void setMaxtimeToOutputResponse(int maxTimeToOutputResponse) {
+        mMaxTimeToOutputResponse = maxTimeToOutputResponse;
+    }
+
+    /** @see IRemoteAndroidTestRunner#setRunName(String) */
+    public void setRunName(String runName) {
+        mRunName = runName;
+    }
+
+    /**
+     * Returns the timing of each shard run, in the order they ended. This can be called during
+     * the run.
+     */
+    public List<ShardTiming> getShardTimings() {
+        synchronized (mPendingShards) {
+            return new ArrayList<ShardTiming>(mShardTimings);
+        }
+    }
+
+    /**
+     * Returns the time the tests of each class took, in milliseconds, as measured by the host.
+     * This can be given to {@link #setClassTimes(Map)} for a later run.
+     */
+    public Map<String, Long> getClassTimes() {
+        synchronized (mPendingShards) {
+            return new HashMap<String, Long>(mClassTimes);
+        }
+    }
+
+    /**
+     * Runs the tests on all the devices, and waits for them to be done.
+     * @param listeners listens for test results
+     */
+    public void run(ITestRunListener... listeners) {
+        run(Arrays.asList(listeners));
+    }
+
+    /**
+     * Runs the tests on all the devices, and waits for them to be done.
+     * @param listeners listens for test results
+     */
+    public void run(Collection<ITestRunListener> listeners) {
+        long start = System.currentTimeMillis();
+        List<Shard> shards = createShards();
+        synchronized (mPendingShards) {
+            mPendingShards.addAll(shards);
+            mActiveDevices.addAll(mDevices);
+        }
+
+        mListeners.addAll(listeners);
+        String runName = mRunName == null ? mPackageName : mRunName;
+        synchronized (mListeners) {
+            for (ITestRunListener listener : mListeners) {
+                listener.testRunStarted(runName, 0);
+            }
+        }
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final IDevice device : mDevices) {
+            Thread thread = new Thread("Test Shard Runner " //$NON-NLS-1$
+                    + device.getSerialNumber()) {
+                @Override
+                public void run() {
+                    runShards(device);
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    cancel();
+                }
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        synchronized (mListeners) {
+            for (ITestRunListener listener : mListeners) {
+                if (mCanceled) {
+                    listener.testRunStopped(elapsed);
+                }
+                listener.testRunEnded(elapsed, mRunMetrics);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancels the run: the shards which did not start are skipped, and the running ones are
+     * stopped.
+     */
+    public void cancel() {
+        mCanceled = true;
+        synchronized (mPendingShards) {
+            mPendingShards.clear();
+            for (RemoteAndroidTestRunner runner : mRunners) {
+                runner.cancel();
+            }
+            mPendingShards.notifyAll();
+        }
+    }
+
+    /** Creates the shards to run, according to the mode. */
+    List<Shard> createShards() {
+        int numShards = mNumShards > 0 ? mNumShards : mDevices.size();
+        List<Shard> shards = new ArrayList<Shard>();
+
+        switch (mMode) {
+            case INSTRUMENTATION:
+                for (int i = 0; i < numShards; i++) {
+                    String name = String.format("shard %1$d/%2$d", i, numShards); //$NON-NLS-1$
+                    shards.add(new Shard(name, null, i));
+                }
+                break;
+
+            case CLASSES: {
+                List<String> classes = getSortedClasses();
+                numShards = Math.min(numShards, classes.size());
+                // longest class first, in the shard with the least time so far.
+                List<List<String>> lists = newLists(numShards);
+                long[] times = new long[numShards];
+                for (String className : classes) {
+                    int shortest = 0;
+                    for (int i = 1; i < numShards; i++) {
+                        if (times[i] < times[shortest]) {
+                            shortest = i;
+                        }
+                    }
+                    lists.get(shortest).add(className);
+                    times[shortest] += getExpectedTime(className);
+                }
+                for (int i = 0; i < numShards; i++) {
+                    String name = String.format("classes %1$d/%2$d", i, numShards); //$NON-NLS-1$
+                    shards.add(new Shard(name, lists.get(i), -1));
+                }
+                break;
+            }
+
+            case DYNAMIC:
+                if (mTests != null) {
+                    for (TestIdentifier test : mTests) {
+                        String name = test.getClassName() + '#' + test.getTestName();
+                        shards.add(new Shard(name, Collections.singletonList(name), -1));
+                    }
+                } else {
+                    for (String className : getSortedClasses()) {
+                        shards.add(new Shard(className, Collections.singletonList(className),
+                                -1));
+                    }
+                }
+                break;
+        }
+        return shards;
+    }
+
+    private static List<List<String>> newLists(int count) {
+        List<List<String>> lists = new ArrayList<List<String>>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<String>());
+        }
+        return lists;
+    }
+
+    /** Returns the classes to run, the longest first. */
+    private List<String> getSortedClasses() {
+        if (mClassNames == null) {
+            throw new IllegalStateException("No classes to shard"); //$NON-NLS-1$
+        }
+        List<String> classes = new ArrayList<String>(Arrays.asList(mClassNames));
+        Collections.sort(classes, new Comparator<String>() {
+            public int compare(String class1, String class2) {
+                long time1 = getExpectedTime(class1);
+                long time2 = getExpectedTime(class2);
+                return time1 > time2 ? -1 : (time1 < time2 ? 1 : 0);
+            }
+        });
+        return classes;
+    }
+
+    /**
+     * Returns the expected time of a class, from the previous run. Unknown classes are assumed
+     * to take the average time of the known ones.
+     */
+    private long getExpectedTime(String className) {
+        Long time = mPreviousClassTimes.get(className);
+        if (time != null) {
+            return time;
+        }
+        if (mPreviousClassTimes.isEmpty()) {
+            return 1;
+        }
+        long total = 0;
+        for (Long t : mPreviousClassTimes.values()) {
+            total += t;
+        }
+        return Math.max(1, total / mPreviousClassTimes.size());
+    }
+
+    /** Runs shards on a device until there are none left. */
+    private void runShards(IDevice device) {
+        Shard shard = null;
+        try {
+            while ((shard = takeShard(device)) != null) {
+                boolean deviceFailed = runShard(device, shard);
+                shard = null;
+                if (deviceFailed) {
+                    Log.w(LOG_TAG, String.format("Not using %1$s anymore", //$NON-NLS-1$
+                            device.getSerialNumber()));
+                    break;
+                }
+            }
+        } finally {
+            boolean lastDevice;
+            synchronized (mPendingShards) {
+                if (shard != null) {
+                    // runShard threw: the shard is lost, but must not keep the others waiting.
+                    mRunningShards--;
+                }
+                mActiveDevices.remove(device);
+                lastDevice = mActiveDevices.isEmpty();
+                // the shards only left for this device can now run on the others.
+                mPendingShards.notifyAll();
+            }
+            if (lastDevice) {
+                reportLostShards();
+            }
+        }
+    }
+
+    /**
+     * Returns the next shard a device should run, waiting if the only pending shards failed on
+     * it but may run on another device. Returns null once all are done.
+     */
+    private Shard takeShard(IDevice device) {
+        synchronized (mPendingShards) {
+            while (!mCanceled) {
+                for (Iterator<Shard> it = mPendingShards.iterator(); it.hasNext(); ) {
+                    Shard shard = it.next();
+                    // a failed shard runs on the same device only if no other device will take
+                    // it: it failed on all the devices left.
+                    if (!shard.mFailedDevices.contains(device)
+                            || shard.mFailedDevices.containsAll(mActiveDevices)) {
+                        it.remove();
+                        mRunningShards++;
+                        return shard;
+                    }
+                }
+                if (mPendingShards.isEmpty() && mRunningShards == 0) {
+                    return null;
+                }
+                try {
+                    mPendingShards.wait();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs a shard on a device, and queues its remaining tests again if it did not complete.
+     * @return true if the device failed with an adb error. An unresponsive shard is retried,
+     * but the device is kept.
+     */
+    private boolean runShard(IDevice device, Shard shard) {
+        RemoteAndroidTestRunner runner = new RemoteAndroidTestRunner(mPackageName, mRunnerName,
+                device);
+        for (Entry<String, String> arg : mArgMap.entrySet()) {
+            runner.addInstrumentationArg(arg.getKey(), arg.getValue());
+        }
+        if (shard.mClassNames != null) {
+            runner.setClassNames(shard.mClassNames.toArray(new String[shard.mClassNames.size()]));
+        } else {
+            int numShards = mNumShards > 0 ? mNumShards : mDevices.size();
+            runner.addInstrumentationArg(NUM_SHARDS_ARG_NAME, Integer.toString(numShards));
+            runner.addInstrumentationArg(SHARD_INDEX_ARG_NAME,
+                    Integer.toString(shard.mShardIndex));
+        }
+        runner.setMaxtimeToOutputResponse(mMaxTimeToOutputResponse);
+        runner.setRunName(shard.mName);
+
+        synchronized (mPendingShards) {
+            if (mCanceled) {
+                mRunningShards--;
+                return false;
+            }
+            mRunners.add(runner);
+        }
+
+        ShardListener listener = new ShardListener();
+        long start = System.currentTimeMillis();
+        boolean shardFailed = false;
+        boolean deviceFailed = false;
+        try {
+            runner.run(listener);
+        } catch (ShellCommandUnresponsiveException e) {
+            // the instrumentation hung, but the device still works.
+            Log.w(LOG_TAG, String.format("%1$s failed on %2$s: %3$s", //$NON-NLS-1$
+                    shard.mName, device.getSerialNumber(), e.toString()));
+            shardFailed = true;
+        } catch (Exception e) {
+            // the listener was told about the failure by the runner.
+            Log.w(LOG_TAG, String.format("%1$s failed on %2$s: %3$s", //$NON-NLS-1$
+                    shard.mName, device.getSerialNumber(), e.toString()));
+            shardFailed = true;
+            deviceFailed = true;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        boolean completed = listener.mRunFailure == null && !shardFailed;
+        Shard retry = null;
+        if (!completed && !mCanceled) {
+            if (shard.mAttempt < mMaxRetries) {
+                retry = createRetry(shard, listener);
+                if (retry != null) {
+                    retry.mFailedDevices.add(device);
+                }
+            } else {
+                reportRunFailed(String.format("%1$s failed on %2$s: %3$s", //$NON-NLS-1$
+                        shard.mName, device.getSerialNumber(), listener.mRunFailure));
+            }
+        }
+
+        synchronized (mPendingShards) {
+            mRunners.remove(runner);
+            mRunningShards--;
+            mShardTimings.add(new ShardTiming(shard.mName, device.getSerialNumber(),
+                    shard.mAttempt, listener.mTestCount, elapsed, completed));
+            for (Entry<String, Long> entry : listener.mClassTimes.entrySet()) {
+                Long time = mClassTimes.get(entry.getKey());
+                mClassTimes.put(entry.getKey(),
+                        entry.getValue() + (time != null ? time : 0));
+            }
+            if (retry != null && !mCanceled) {
+                Log.i(LOG_TAG, String.format("Running %1$s again", retry.mName)); //$NON-NLS-1$
+                mPendingShards.addFirst(retry);
+            }
+            mPendingShards.notifyAll();
+        }
+        return deviceFailed;
+    }
+
+    /**
+     * Creates the shard running the tests which a shard did not run. The classes which ended
+     * before the last class which started are not run again.
+     */
+    private Shard createRetry(Shard shard, ShardListener listener) {
+        List<String> classNames = null;
+        if (shard.mClassNames != null) {
+            classNames = new ArrayList<String>();
+            for (String className : shard.mClassNames) {
+                int method = className.indexOf('#');
+                String name = method != -1 ? className.substring(0, method) : className;
+                if (!listener.mStartedClasses.contains(name)
+                        || name.equals(listener.mLastClass)) {
+                    classNames.add(className);
+                }
+            }
+            if (classNames.isEmpty()) {
+                return null;
+            }
+        }
+        Shard retry = new Shard(shard.mName, classNames, shard.mShardIndex);
+        retry.mAttempt = shard.mAttempt + 1;
+        retry.mFailedDevices.addAll(shard.mFailedDevices);
+        return retry;
+    }
+
+    /** Reports the shards which could not run because all the devices failed. */
+    private void reportLostShards() {
+        List<Shard> lost;
+        synchronized (mPendingShards) {
+            lost = new ArrayList<Shard>(mPendingShards);
+            mPendingShards.clear();
+        }
+        for (Shard shard : lost) {
+            reportRunFailed(String.format("%1$s was not run: no device left", //$NON-NLS-1$
+                    shard.mName));
+        }
+    }
+
+    private void reportRunFailed(String message) {
+        synchronized (mListeners) {
+            for (ITestRunListener listener : mListeners) {
+                listener.testRunFailed(message);
+            }
+        }
+    }
+
+    /**
+     * Forwards the results of a shard run to the listeners of the run, once per test, and
+     * tracks the progress of the shard.
+     */
+    private final class ShardListener implements ITestRunListener {
+        String mRunFailure;
+        int mTestCount;
+        final Set<String> mStartedClasses = new LinkedHashSet<String>();
+        String mLastClass;
+        final Map<String, Long> mClassTimes = new HashMap<String, Long>();
+        private long mTestStart;
+        /** Whether the current test was reported by a previous run of the shard. */
+        private boolean mSkipCurrent;
+
+        public void testRunStarted(String runName, int testCount) {
+            // the run was reported as started once.
+        }
+
+        public void testStarted(TestIdentifier test) {
+            mTestStart = System.currentTimeMillis();
+            mStartedClasses.add(test.getClassName());
+            mLastClass = test.getClassName();
+            synchronized (mListeners) {
+                mSkipCurrent = mReportedTests.contains(test);
+                if (!mSkipCurrent) {
+                    for (ITestRunListener listener : mListeners) {
+                        listener.testStarted(test);
+                    }
+                }
+            }
+        }
+
+        public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            synchronized (mListeners) {
+                if (!mSkipCurrent) {
+                    for (ITestRunListener listener : mListeners) {
+                        listener.testFailed(status, test, trace);
+                    }
+                }
+            }
+        }
+
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mTestCount++;
+            Long time = mClassTimes.get(test.getClassName());
+            mClassTimes.put(test.getClassName(), System.currentTimeMillis() - mTestStart
+                    + (time != null ? time : 0));
+            synchronized (mListeners) {
+                if (!mSkipCurrent) {
+                    mReportedTests.add(test);
+                    for (ITestRunListener listener : mListeners) {
+                        listener.testEnded(test, testMetrics);
+                    }
+                }
+            }
+            mSkipCurrent = false;
+        }
+
+        public void testRunFailed(String errorMessage) {
+            mRunFailure = errorMessage;
+        }
+
+        public void testRunStopped(long elapsedTime) {
+            // reported once for the whole run.
+        }
+
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            synchronized (mListeners) {
+                mRunMetrics.putAll(runMetrics);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.channels.SocketChannel;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link AdbHelper} transport, run against a {@link FakeAdbServer}.
+ */
+public class AdbHelperTest extends TestCase {
+
+    private FakeAdbServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeAdbServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop();
+        super.tearDown();
+    }
+
+    /**
+     * Test that the output of a shell command is passed to the receiver.
+     */
+    public void testExecuteRemoteCommand() throws Exception {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.executeRemoteCommand(mServer.getSocketAddress(), "echo hello", null,
+                receiver, 1000);
+        assertEquals("hello\n", receiver.getOutput());
+    }
+
+    /**
+     * Test that output larger than the transfer buffer arrives complete.
+     */
+    public void testExecuteRemoteCommand_largeOutput() throws Exception {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.executeRemoteCommand(mServer.getSocketAddress(), "cat 100000", null,
+                receiver, 1000);
+        assertEquals(100000, receiver.getOutput().length());
+    }
+
+    /**
+     * Test that a rejected request throws {@link AdbCommandRejectedException} with the
+     * message sent by adb.
+     */
+    public void testRejected() throws Exception {
+        SocketChannel chan = SocketChannel.open(mServer.getSocketAddress());
+        try {
+            chan.configureBlocking(false);
+            AdbHelper.write(chan, AdbHelper.formAdbRequest("bogus:"));
+            AdbHelper.AdbResponse resp = AdbHelper.readAdbResponse(chan, false);
+            assertFalse(resp.okay);
+            assertEquals("unknown service bogus:", resp.message);
+        } finally {
+            chan.close();
+        }
+    }
+
+    /**
+     * Test that a shell command which stops producing output throws
+     * {@link ShellCommandUnresponsiveException} once the time to output response expires,
+     * and not much later.
+     */
+    public void testExecuteRemoteCommand_unresponsive() throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            AdbHelper.executeRemoteCommand(mServer.getSocketAddress(), "silent", null,
+                    new CollectingOutputReceiver(), 200);
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed >= 200 && elapsed < 2000);
+    }
+
+    /**
+     * Test that a slow command which completes within the time to output response succeeds.
+     */
+    public void testExecuteRemoteCommand_slow() throws Exception {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AdbHelper.executeRemoteCommand(mServer.getSocketAddress(), "sleep 100", null,
+                receiver, 1000);
+        assertEquals("done\n", receiver.getOutput());
+    }
+
+    /**
+     * Test that cancelling the receiver stops a command which produces no output.
+     */
+    public void testExecuteRemoteCommand_cancelled() throws Exception {
+        final CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        Thread canceler = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                receiver.cancel();
+            }
+        };
+        canceler.start();
+        long start = System.currentTimeMillis();
+        AdbHelper.executeRemoteCommand(mServer.getSocketAddress(), "silent", null,
+                receiver, 0);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 2000);
+    }
+
+    /**
+     * Test that {@link AdbHelper#read(SocketChannel, byte[], int, int)} throws
+     * {@link TimeoutException} when no data arrives.
+     */
+    public void testReadTimeout() throws Exception {
+        SocketChannel chan = SocketChannel.open(mServer.getSocketAddress());
+        try {
+            chan.configureBlocking(false);
+            long start = System.currentTimeMillis();
+            try {
+                AdbHelper.read(chan, new byte[4], -1, 200);
+                fail("TimeoutException not thrown");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Took " + elapsed + " ms", elapsed >= 200 && elapsed < 2000);
+
+            // the channel must be usable in blocking mode afterwards
+            chan.configureBlocking(true);
+        } finally {
+            chan.close();
+        }
+    }
+}
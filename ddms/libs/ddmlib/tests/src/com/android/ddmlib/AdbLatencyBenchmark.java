@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Measures the round trip latency of the {@link AdbHelper} transport against a
+ * {@link FakeAdbServer}, so that regressions such as sleeping while waiting for data
+ * show up without a device.
+ * <p/>Two scenarios are measured:
+ * <ul>
+ * <li>shell: a full {@link AdbHelper#executeRemoteCommand} of a short command, including
+ * connecting, sending the request and reading the output until EOF.</li>
+ * <li>ping: a 4 byte request and 4 byte reply with {@link AdbHelper#write} and
+ * {@link AdbHelper#read} over an already open connection.</li>
+ * </ul>
+ * Usage: {@code AdbLatencyBenchmark [iterations]}
+ */
+public class AdbLatencyBenchmark {
+
+    private static final int WARMUP = 200;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        FakeAdbServer server = new FakeAdbServer();
+        server.setServiceHandler("ping:", new FakeAdbServer.ServiceHandler() { //$NON-NLS-1$
+            public void handle(String request, DataInputStream in, OutputStream out)
+                    throws IOException {
+                byte[] message = new byte[4];
+                while (true) {
+                    in.readFully(message);
+                    out.write(message);
+                    out.flush();
+                }
+            }
+        });
+
+        try {
+            benchmarkShell(server, WARMUP);
+            report("shell", benchmarkShell(server, iterations));
+
+            benchmarkPing(server, WARMUP);
+            report("ping", benchmarkPing(server, iterations));
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static long[] benchmarkShell(FakeAdbServer server, int iterations) throws Exception {
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+            long start = System.nanoTime();
+            AdbHelper.executeRemoteCommand(server.getSocketAddress(), "echo ping", null,
+                    receiver, 5000);
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static long[] benchmarkPing(FakeAdbServer server, int iterations) throws Exception {
+        long[] times = new long[iterations];
+        SocketChannel chan = SocketChannel.open(server.getSocketAddress());
+        try {
+            chan.socket().setTcpNoDelay(true);
+            chan.configureBlocking(false);
+            AdbHelper.write(chan, AdbHelper.formAdbRequest("ping:")); //$NON-NLS-1$
+            if (!AdbHelper.readAdbResponse(chan, false).okay) {
+                throw new IOException("ping rejected");
+            }
+
+            byte[] message = new byte[] { 'p', 'i', 'n', 'g' };
+            byte[] reply = new byte[4];
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                AdbHelper.write(chan, message);
+                AdbHelper.read(chan, reply);
+                times[i] = System.nanoTime() - start;
+            }
+        } finally {
+            chan.close();
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        Arrays.sort(times);
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        System.out.println(String.format(
+                "%1$-6s n=%2$d mean=%3$.1fus p50=%4$.1fus p99=%5$.1fus max=%6$.1fus", //$NON-NLS-1$
+                name, times.length,
+                total / 1e3 / times.length,
+                times[times.length / 2] / 1e3,
+                times[(int) (times.length * 0.99)] / 1e3,
+                times[times.length - 1] / 1e3));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ChunkDispatcher}.
+ */
+public class ChunkDispatcherTest extends TestCase {
+    private static final int TYPE_A = ChunkHandler.type("AAAA");
+    private static final int TYPE_B = ChunkHandler.type("BBBB");
+
+    private final List<Client> mDrainedClients =
+            Collections.synchronizedList(new ArrayList<Client>());
+    private ChunkDispatcher mDispatcher;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDispatcher = new ChunkDispatcher(new ChunkDispatcher.IDrainListener() {
+            public void clientDrained(Client client) {
+                mDrainedClients.add(client);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDispatcher.stop();
+    }
+
+    /** Check that the chunks of a client are handled in order, one at a time. */
+    public void testOrder() throws InterruptedException {
+        Client client = new Client(null, null, 1);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        final int[] running = new int[1];
+        final boolean[] overlap = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) {
+            final int index = i;
+            assertTrue(mDispatcher.dispatch(client, TYPE_A, new Runnable() {
+                public void run() {
+                    synchronized (running) {
+                        overlap[0] |= running[0]++ > 0;
+                    }
+                    handled.add(index);
+                    synchronized (running) {
+                        running[0]--;
+                    }
+                    done.countDown();
+                }
+            }));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(overlap[0]);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, handled.get(i).intValue());
+        }
+    }
+
+    /**
+     * Check that a slow chunk does not block other clients, and that a client with too many
+     * pending chunks is paused until they are handled.
+     */
+    public void testPause() throws InterruptedException {
+        Client slowClient = new Client(null, null, 1);
+        Client otherClient = new Client(null, null, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherDone = new CountDownLatch(1);
+
+        assertTrue(mDispatcher.dispatch(slowClient, TYPE_A, new Runnable() {
+            public void run() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    fail();
+                }
+            }
+        }));
+        Runnable nothing = new Runnable() {
+            public void run() {
+            }
+        };
+        for (int i = 1; i < ChunkDispatcher.MAX_PENDING_CHUNKS - 1; i++) {
+            assertTrue(mDispatcher.dispatch(slowClient, TYPE_B, nothing));
+        }
+        assertFalse(mDispatcher.dispatch(slowClient, TYPE_B, nothing));
+
+        assertTrue(mDispatcher.dispatch(otherClient, TYPE_A, new Runnable() {
+            public void run() {
+                otherDone.countDown();
+            }
+        }));
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+        assertTrue(mDrainedClients.isEmpty());
+
+        release.countDown();
+        long end = System.currentTimeMillis() + 10000;
+        while (mDispatcher.getMetrics().getQueueDepth() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, mDrainedClients.size());
+        assertSame(slowClient, mDrainedClients.get(0));
+
+        ChunkMetrics metrics = mDispatcher.getMetrics();
+        assertEquals(0, metrics.getQueueDepth());
+        assertTrue(metrics.getMaxQueueDepth() >= ChunkDispatcher.MAX_PENDING_CHUNKS);
+        assertEquals(2, metrics.getChunkCount(TYPE_A));
+        assertEquals(ChunkDispatcher.MAX_PENDING_CHUNKS - 1, metrics.getChunkCount(TYPE_B));
+        assertEquals(2, metrics.getChunkTypes().length);
+        assertEquals("AAAA", ChunkMetrics.getChunkName(TYPE_A));
+        assertTrue(metrics.getMaxHandlingTime(TYPE_A) > 0);
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A minimal in-process adb server, speaking enough of the adb wire protocol
+ * ("####request", "OKAY"/"FAIL####message") for testing and benchmarking the
+ * ddmlib transport without a real adb or device.
+ * <p/>
+ * The server accepts {@code host:transport:<serial>} requests for any serial, and
+ * handles {@code shell:} requests with a few built-in commands:
+ * <ul>
+ * <li>{@code echo <text>}: prints the text followed by a newline</li>
+ * <li>{@code sleep <ms>}: waits for the given time, then prints "done"</li>
+ * <li>{@code silent}: never prints anything, and keeps the connection open</li>
+ * <li>{@code cat <count>}: prints the given number of bytes</li>
+ * </ul>
+ * A {@code shell:} request without a command starts an interactive shell, backed by the
+ * local {@code sh}. {@link #setShellEcho(boolean)} makes it echo its input back, as a shell
+ * running on a terminal does.
+ * <p/>
+ * {@link #setSyncRoot(File)} enables the {@code sync:} service, with the remote file system
+ * mapped to a local folder.
+ * Other services can be added with {@link #setServiceHandler(String, ServiceHandler)}.
+ * Any other request is rejected with a FAIL response.
+ */
+public class FakeAdbServer {
+
+    /** Handles a service request once it has been acknowledged with OKAY. */
+    public interface ServiceHandler {
+        /**
+         * Handles the service. The connection is closed when this returns.
+         * @param request the full request, including the service prefix.
+         * @param in the stream to read from the client.
+         * @param out the stream to write to the client.
+         * @throws IOException in case of I/O error on the connection.
+         */
+        void handle(String request, DataInputStream in, OutputStream out) throws IOException;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Map<String, ServiceHandler> mHandlers =
+            new ConcurrentHashMap<String, ServiceHandler>();
+    private final List<Socket> mSockets = new ArrayList<Socket>();
+    private final Thread mAcceptThread;
+    private volatile boolean mStopped;
+    private volatile boolean mShellEcho;
+
+    /**
+     * Starts a new server on an ephemeral port of the loopback interface.
+     * @throws IOException if the server socket cannot be created.
+     */
+    public FakeAdbServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+        setServiceHandler("shell:", new ShellHandler()); //$NON-NLS-1$
+
+        mAcceptThread = new Thread("FakeAdbServer") { //$NON-NLS-1$
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        mAcceptThread.setDaemon(true);
+        mAcceptThread.start();
+    }
+
+    /** Returns the address clients should connect to. */
+    public InetSocketAddress getSocketAddress() {
+        return new InetSocketAddress(mServerSocket.getInetAddress(), mServerSocket.getLocalPort());
+    }
+
+    /**
+     * Sets the handler for requests starting with the given prefix, replacing any
+     * existing handler for that prefix.
+     */
+    public void setServiceHandler(String prefix, ServiceHandler handler) {
+        mHandlers.put(prefix, handler);
+    }
+
+    /** Sets whether interactive shells echo their input back to the client. */
+    public void setShellEcho(boolean echo) {
+        mShellEcho = echo;
+    }
+
+    /**
+     * Enables the {@code sync:} service, with the remote paths mapped to the given local folder.
+     */
+    public void setSyncRoot(File root) {
+        setServiceHandler("sync:", new SyncHandler(root)); //$NON-NLS-1$
+    }
+
+    /** Stops the server and closes all the open connections. */
+    public void stop() {
+        mStopped = true;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            mSockets.clear();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mStopped) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+            synchronized (mSockets) {
+                mSockets.add(socket);
+            }
+
+            Thread thread = new Thread("FakeAdbServer connection") { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    try {
+                        handleConnection(socket);
+                    } catch (IOException e) {
+                        // client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // ignore
+                        }
+                        synchronized (mSockets) {
+                            mSockets.remove(socket);
+                        }
+                    }
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void handleConnection(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+
+        while (true) {
+            String request = readRequest(in);
+
+            if (request.startsWith("host:transport:")) { //$NON-NLS-1$
+                // the rest of the conversation is with the selected device
+                writeOkay(out);
+                continue;
+            }
+
+            for (Map.Entry<String, ServiceHandler> entry : mHandlers.entrySet()) {
+                if (request.startsWith(entry.getKey())) {
+                    writeOkay(out);
+                    entry.getValue().handle(request, in, out);
+                    return;
+                }
+            }
+
+            writeFail(out, "unknown service " + request); //$NON-NLS-1$
+            return;
+        }
+    }
+
+    private static String readRequest(DataInputStream in) throws IOException {
+        byte[] lengthBytes = new byte[4];
+        in.readFully(lengthBytes);
+        int length = Integer.parseInt(new String(lengthBytes, AdbHelper.DEFAULT_ENCODING), 16);
+        byte[] request = new byte[length];
+        in.readFully(request);
+        return new String(request, AdbHelper.DEFAULT_ENCODING);
+    }
+
+    private static void writeOkay(OutputStream out) throws IOException {
+        out.write("OKAY".getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+        out.flush();
+    }
+
+    private static void writeFail(OutputStream out, String message) throws IOException {
+        out.write("FAIL".getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+        out.write(AdbHelper.formAdbRequest(message));
+        out.flush();
+    }
+
+    /** Handles the built-in shell commands. */
+    private class ShellHandler implements ServiceHandler {
+        public void handle(String request, DataInputStream in, OutputStream out)
+                throws IOException {
+            String command = request.substring("shell:".length()); //$NON-NLS-1$
+            if (command.length() == 0) {
+                runInteractiveShell(in, out);
+                return;
+            }
+
+            String arg = ""; //$NON-NLS-1$
+            int space = command.indexOf(' ');
+            if (space != -1) {
+                arg = command.substring(space + 1);
+                command = command.substring(0, space);
+            }
+
+            if (command.equals("echo")) { //$NON-NLS-1$
+                out.write((arg + "\n").getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+            } else if (command.equals("sleep")) { //$NON-NLS-1$
+                try {
+                    Thread.sleep(Long.parseLong(arg));
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                out.write("done\n".getBytes(AdbHelper.DEFAULT_ENCODING)); //$NON-NLS-1$
+            } else if (command.equals("silent")) { //$NON-NLS-1$
+                // wait for the client to give up and close the connection
+                while (!mStopped && in.read() != -1) {
+                }
+            } else if (command.equals("cat")) { //$NON-NLS-1$
+                byte[] data = new byte[Integer.parseInt(arg)];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) ('a' + i % 26);
+                }
+                out.write(data);
+            } else {
+                out.write((command + ": not found\n").getBytes( //$NON-NLS-1$
+                        AdbHelper.DEFAULT_ENCODING));
+            }
+            out.flush();
+        }
+
+        private void runInteractiveShell(final DataInputStream in, OutputStream out)
+                throws IOException {
+            ProcessBuilder builder = new ProcessBuilder("sh"); //$NON-NLS-1$
+            builder.redirectErrorStream(true);
+            final Process process = builder.start();
+            final OutputStream clientOut = out;
+            final boolean echo = mShellEcho;
+
+            // copies the client input to the shell, echoing it if needed.
+            Thread inputThread = new Thread("FakeAdbServer shell input") { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    OutputStream shellIn = process.getOutputStream();
+                    byte[] buffer = new byte[4096];
+                    try {
+                        int count;
+                        while ((count = in.read(buffer)) != -1) {
+                            if (echo) {
+                                synchronized (clientOut) {
+                                    clientOut.write(buffer, 0, count);
+                                    clientOut.flush();
+                                }
+                            }
+                            shellIn.write(buffer, 0, count);
+                            shellIn.flush();
+                        }
+                    } catch (IOException e) {
+                        // client or shell went away
+                    } finally {
+                        process.destroy();
+                    }
+                }
+            };
+            inputThread.setDaemon(true);
+            inputThread.start();
+
+            try {
+                InputStream shellOut = process.getInputStream();
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = shellOut.read(buffer)) != -1) {
+                    synchronized (clientOut) {
+                        clientOut.write(buffer, 0, count);
+                        clientOut.flush();
+                    }
+                }
+            } finally {
+                process.destroy();
+            }
+        }
+    }
+
+    /** Handles the sync protocol, on files under a local folder. */
+    private static class SyncHandler implements ServiceHandler {
+        private final File mRoot;
+
+        SyncHandler(File root) {
+            mRoot = root;
+        }
+
+        public void handle(String request, DataInputStream in, OutputStream out)
+                throws IOException {
+            byte[] header = new byte[8];
+            while (true) {
+                in.readFully(header);
+                String id = new String(header, 0, 4, AdbHelper.DEFAULT_ENCODING);
+                byte[] arg = new byte[readInt(header, 4)];
+                in.readFully(arg);
+                String path = new String(arg, AdbHelper.DEFAULT_ENCODING);
+
+                if (id.equals("STAT")) { //$NON-NLS-1$
+                    File f = new File(mRoot, path);
+                    byte[] reply = new byte[16];
+                    writeId(reply, "STAT"); //$NON-NLS-1$
+                    if (f.exists()) {
+                        writeInt(reply, 4, (f.isDirectory() ? 0x4000 : 0x8000) | 0644);
+                        writeInt(reply, 8, (int) f.length());
+                        writeInt(reply, 12, (int) (f.lastModified() / 1000));
+                    }
+                    out.write(reply);
+                } else if (id.equals("SEND")) { //$NON-NLS-1$
+                    // the path is followed by ",<mode>"
+                    File f = new File(mRoot, path.substring(0, path.lastIndexOf(',')));
+                    f.getParentFile().mkdirs();
+                    FileOutputStream fos = new FileOutputStream(f);
+                    try {
+                        while (true) {
+                            in.readFully(header);
+                            if (new String(header, 0, 4, AdbHelper.DEFAULT_ENCODING).equals(
+                                    "DONE")) { //$NON-NLS-1$
+                                break;
+                            }
+                            byte[] data = new byte[readInt(header, 4)];
+                            in.readFully(data);
+                            fos.write(data);
+                        }
+                    } finally {
+                        fos.close();
+                    }
+                    byte[] reply = new byte[8];
+                    writeId(reply, "OKAY"); //$NON-NLS-1$
+                    out.write(reply);
+                } else if (id.equals("RECV")) { //$NON-NLS-1$
+                    File f = new File(mRoot, path);
+                    if (f.isFile() == false) {
+                        writeSyncFail(out, "No such file or directory"); //$NON-NLS-1$
+                    } else {
+                        FileInputStream fis = new FileInputStream(f);
+                        try {
+                            byte[] data = new byte[8 + 64 * 1024];
+                            writeId(data, "DATA"); //$NON-NLS-1$
+                            int count;
+                            while ((count = fis.read(data, 8, data.length - 8)) != -1) {
+                                writeInt(data, 4, count);
+                                out.write(data, 0, count + 8);
+                            }
+                        } finally {
+                            fis.close();
+                        }
+                        byte[] reply = new byte[8];
+                        writeId(reply, "DONE"); //$NON-NLS-1$
+                        out.write(reply);
+                    }
+                } else {
+                    writeSyncFail(out, "unknown sync request " + id); //$NON-NLS-1$
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        }
+
+        private static void writeSyncFail(OutputStream out, String message) throws IOException {
+            byte[] content = message.getBytes(AdbHelper.DEFAULT_ENCODING);
+            byte[] reply = new byte[8];
+            writeId(reply, "FAIL"); //$NON-NLS-1$
+            writeInt(reply, 4, content.length);
+            out.write(reply);
+            out.write(content);
+        }
+
+        private static void writeId(byte[] data, String id) throws IOException {
+            System.arraycopy(id.getBytes(AdbHelper.DEFAULT_ENCODING), 0, data, 0, 4);
+        }
+
+        private static int readInt(byte[] data, int offset) {
+            return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                    | (data[offset + 2] & 0xFF) << 16 | (data[offset + 3] & 0xFF) << 24;
+        }
+
+        private static void writeInt(byte[] data, int offset, int value) {
+            data[offset] = (byte) value;
+            data[offset + 1] = (byte) (value >> 8);
+            data[offset + 2] = (byte) (value >> 16);
+            data[offset + 3] = (byte) (value >> 24);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.FileListingService.FileEntry;
+import com.android.ddmlib.FileListingService.IListingReceiver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FileListingService}, with a fake device which prints canned
+ * <code>ls</code> outputs.
+ */
+public class FileListingServiceTest extends TestCase {
+
+    private static final String ROOT_LISTING =
+            "drwxrwx--x system   system            2011-06-01 12:00 data\r\n"
+            + "drwxr-xr-x root     root              2011-06-01 12:00 proc\r\n"
+            + "drwxr-xr-x root     root              2011-06-01 12:00 system\r\n";
+    private static final String DATA_LISTING =
+            "drwxrwx--x system   system            2011-06-01 12:00 app\r\n"
+            + "-rw-r--r-- root     root         1234 2011-06-01 12:00 file.txt\r\n"
+            + "crw-rw-rw- root     root       1,   3 2011-06-01 12:00 null\r\n"
+            + "lrwxrwxrwx root     root              2011-06-01 12:00 link -> /mnt/sdcard\r\n"
+            + "opendir failed, Permission denied\r\n";
+    private static final String DATA_RECURSIVE_LISTING = DATA_LISTING
+            + "\r\n/data/app:\r\n"
+            + "-rw-r--r-- system   system       5678 2011-06-01 12:00 Foo.apk\r\n"
+            + "drwxr-xr-x system   system            2011-06-01 12:00 lib\r\n"
+            + "\r\n/data/app/lib:\r\n"
+            + "-rw-r--r-- system   system         42 2011-06-01 12:00 libfoo.so\r\n";
+    private static final String SYSTEM_RECURSIVE_LISTING =
+            "/system:\r\n"
+            + "-rw-r--r-- root     root           10 2011-06-01 12:00 build.prop\r\n";
+
+    /** The outputs of the commands. */
+    private final Map<String, String> mOutputs = new HashMap<String, String>();
+    /** The commands run by the device. */
+    private final List<String> mCommands =
+            Collections.synchronizedList(new ArrayList<String>());
+    /** If not null, the commands wait for it before printing their output. */
+    private CountDownLatch mCommandLatch;
+    private FileListingService mService;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // the root has an empty path, and is listed from the default directory of the shell.
+        mOutputs.put("ls -l ", ROOT_LISTING);
+        mOutputs.put("ls -l /data", DATA_LISTING);
+        mOutputs.put("ls -lR /data", DATA_RECURSIVE_LISTING);
+        mOutputs.put("ls -lR /system", SYSTEM_RECURSIVE_LISTING);
+        mService = new FileListingService(createDevice());
+    }
+
+    private IDevice createDevice() {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                new Class<?>[] { IDevice.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getSerialNumber")
+                        || method.getName().equals("toString")) {
+                    return "device";
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("executeShellCommand")) {
+                    runCommand((String) args[0], (IShellOutputReceiver) args[1]);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void runCommand(String command, IShellOutputReceiver receiver) throws Exception {
+        mCommands.add(command);
+        if (mCommandLatch != null) {
+            mCommandLatch.await();
+        }
+        String output = mOutputs.get(command);
+        if (output != null) {
+            byte[] data = output.getBytes("UTF-8");
+            receiver.addOutput(data, 0, data.length);
+        }
+        receiver.flush();
+    }
+
+    private FileEntry getData() {
+        FileEntry data = mService.getRoot().findChild("data");
+        if (data == null) {
+            mService.getChildren(mService.getRoot(), true, null);
+            data = mService.getRoot().findChild("data");
+        }
+        return data;
+    }
+
+    public void testRootListing() {
+        FileEntry[] children = mService.getChildren(mService.getRoot(), true, null);
+        // proc is not in the approved root items.
+        assertEquals(2, children.length);
+        assertEquals("data", children[0].getName());
+        assertEquals("system", children[1].getName());
+    }
+
+    public void testParseEntries() {
+        FileEntry data = getData();
+        FileEntry[] children = mService.getChildren(data, true, null);
+        assertEquals(4, children.length);
+
+        FileEntry app = data.findChild("app");
+        assertEquals(FileListingService.TYPE_DIRECTORY, app.getType());
+        assertEquals("", app.getSize());
+        assertEquals("2011-06-01", app.getDate());
+        assertEquals("12:00", app.getTime());
+        assertEquals("drwxrwx--x", app.getPermissions());
+
+        FileEntry file = data.findChild("file.txt");
+        assertEquals(FileListingService.TYPE_FILE, file.getType());
+        assertEquals(1234, file.getSizeValue());
+        assertEquals("/data/file.txt", file.getFullPath());
+
+        FileEntry device = data.findChild("null");
+        assertEquals(FileListingService.TYPE_CHARACTER, device.getType());
+        assertEquals("1,   3", device.getSize());
+
+        FileEntry link = data.findChild("link");
+        assertEquals(FileListingService.TYPE_LINK, link.getType());
+        assertEquals("-> /mnt/sdcard", link.getInfo());
+    }
+
+    public void testCache() {
+        FileEntry data = getData();
+        mCommands.clear();
+        FileEntry[] children = mService.getChildren(data, true, null);
+        FileEntry file = data.findChild("file.txt");
+        assertEquals(1, mCommands.size());
+
+        // cached.
+        assertSame(children[0], mService.getChildren(data, true, null)[0]);
+        assertEquals(1, mCommands.size());
+
+        // invalidated: listed again, and the entries are reused.
+        mService.invalidate(data, false);
+        mService.getChildren(data, true, null);
+        assertEquals(2, mCommands.size());
+        assertSame(file, data.findChild("file.txt"));
+
+        // cache disabled, except for the calls which give their own time.
+        mService.setCacheTtl(0);
+        mService.getChildren(data, true, null);
+        assertEquals(3, mCommands.size());
+        mService.getChildren(data, Long.MAX_VALUE);
+        assertEquals(3, mCommands.size());
+        mService.invalidate(data, false);
+        mService.getChildren(data, Long.MAX_VALUE);
+        assertEquals(4, mCommands.size());
+    }
+
+    public void testPrefetch() throws Exception {
+        FileEntry data = getData();
+        mService.getChildren(data, true, null);
+        FileEntry app = data.findChild("app");
+        mCommands.clear();
+
+        mService.prefetchSync(data);
+        assertEquals(Collections.singletonList("ls -lR /data"), mCommands);
+        assertSame(app, data.findChild("app"));
+
+        // the whole tree is cached.
+        FileEntry[] appChildren = mService.getChildren(app, true, null);
+        assertEquals(2, appChildren.length);
+        FileEntry lib = app.findChild("lib");
+        FileEntry[] libChildren = mService.getChildren(lib, true, null);
+        assertEquals(1, libChildren.length);
+        assertEquals("/data/app/lib/libfoo.so", libChildren[0].getFullPath());
+        assertEquals(42, libChildren[0].getSizeValue());
+        assertEquals(1, mCommands.size());
+    }
+
+    public void testPrefetchRoot() throws Exception {
+        FileEntry root = mService.getRoot();
+        mService.prefetchSync(root);
+        assertEquals(3, mCommands.size());
+        assertTrue(mCommands.contains("ls -lR /data"));
+        assertTrue(mCommands.contains("ls -lR /system"));
+
+        // the header of the listed directory is ignored.
+        FileEntry[] systemChildren = mService.getChildren(root.findChild("system"), true, null);
+        assertEquals(1, systemChildren.length);
+        assertEquals("build.prop", systemChildren[0].getName());
+        assertEquals(3, mCommands.size());
+    }
+
+    /** Checks that concurrent listings of the same directory run a single command. */
+    public void testSharedListing() throws Exception {
+        final FileEntry data = getData();
+        mService.setCacheTtl(0);
+        mCommands.clear();
+        mCommandLatch = new CountDownLatch(1);
+
+        final int threadCount = 4;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final FileEntry[][] results = new FileEntry[threadCount][];
+        Thread prefetch = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mService.prefetchSync(data);
+                } catch (Exception e) {
+                    // checked by the results.
+                }
+            }
+        };
+        prefetch.start();
+        while (mCommands.isEmpty()) {
+            Thread.sleep(1);
+        }
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    results[index] = mService.getChildren(data, false, null);
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // let the threads reach the wait for the listing.
+        Thread.sleep(100);
+        mCommandLatch.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        prefetch.join();
+
+        assertEquals(Collections.singletonList("ls -lR /data"), mCommands);
+        for (FileEntry[] result : results) {
+            assertEquals(4, result.length);
+        }
+    }
+
+    /** Checks that the receivers of an asynchronous listing already queued are all notified. */
+    public void testAsyncReceivers() throws Exception {
+        final FileEntry data = getData();
+        mCommands.clear();
+        mCommandLatch = new CountDownLatch(1);
+
+        final CountDownLatch done = new CountDownLatch(2);
+        IListingReceiver receiver = new IListingReceiver() {
+            public void setChildren(FileEntry entry, FileEntry[] children) {
+                assertSame(data, entry);
+                assertEquals(4, children.length);
+                done.countDown();
+            }
+
+            public void refreshEntry(FileEntry entry) {
+            }
+        };
+        assertNull(mService.getChildren(data, false, receiver));
+        assertNull(mService.getChildren(data, false, receiver));
+        mCommandLatch.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("ls -l /data"), mCommands);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
+import com.android.ddmlib.ClientData.IHprofDumpHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HprofStream}.
+ */
+public class HprofStreamTest extends TestCase {
+    private static final int DATA_LENGTH = 1000 * 1000;
+
+    private File mFile;
+
+    /** A handler which records the streamed file. */
+    private class FileHandler implements IHprofDumpFileHandler {
+        public void onSuccess(File hprofFile, Client client) {
+            mFile = hprofFile;
+        }
+
+        public void onSuccess(String remoteFilePath, Client client) {
+            fail();
+        }
+
+        public void onSuccess(byte[] data, Client client) {
+            fail();
+        }
+
+        public void onEndFailure(Client client, String message) {
+            fail();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ClientData.setHprofDumpHandler(null);
+        if (mFile != null) {
+            mFile.delete();
+        }
+    }
+
+    /** Returns an HPDS packet, as sent by the VM. */
+    private static byte[] createPacket(byte[] data) {
+        ByteBuffer packet = ByteBuffer.allocate(JdwpPacket.JDWP_HEADER_LEN + 8 + data.length);
+        packet.order(ChunkHandler.CHUNK_ORDER);
+        packet.putInt(packet.capacity());
+        packet.putInt(0x1234);
+        packet.put((byte) 0);           // flags
+        packet.put((byte) 0xc7);        // DDM command set
+        packet.put((byte) 0x01);        // DDM command
+        packet.putInt(HandleHeap.CHUNK_HPDS);
+        packet.putInt(data.length);
+        packet.put(data);
+        return packet.array();
+    }
+
+    private static byte[] createData() {
+        byte[] data = new byte[DATA_LENGTH];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    /** Returns a read buffer holding the start of the packet. */
+    private static ByteBuffer createReadBuffer(byte[] packet, int count) {
+        ByteBuffer readBuffer = ByteBuffer.allocate(2 * 1024);
+        readBuffer.put(packet, 0, count);
+        return readBuffer;
+    }
+
+    /** Check that the packet is streamed to a file, with a bounded read buffer. */
+    public void testStream() throws IOException {
+        ClientData.setHprofDumpHandler(new FileHandler());
+        byte[] data = createData();
+        byte[] packet = createPacket(data);
+
+        ByteBuffer readBuffer = createReadBuffer(packet, 1500);
+        HprofStream stream = HprofStream.start(null, readBuffer);
+        assertNotNull(stream);
+        assertEquals(0, readBuffer.position());
+        assertEquals(DATA_LENGTH, stream.getLength());
+        assertEquals(0x1234, stream.getPacketId());
+        assertFalse(stream.isReply());
+
+        // the rest of the packet, followed by another packet.
+        byte[] rest = Arrays.copyOf(Arrays.copyOfRange(packet, 1500, packet.length),
+                packet.length - 1500 + 100);
+        ReadableByteChannel chan = Channels.newChannel(new ByteArrayInputStream(rest));
+        assertTrue(stream.read(chan));
+        HandleHeap.handleHPDS(null, stream);
+
+        assertNotNull(mFile);
+        assertEquals(DATA_LENGTH, mFile.length());
+        byte[] written = new byte[DATA_LENGTH];
+        FileInputStream in = new FileInputStream(mFile);
+        int count = 0;
+        while (count < written.length) {
+            count += in.read(written, count, written.length - count);
+        }
+        in.close();
+        assertTrue(Arrays.equals(data, written));
+
+        // the next packet was not read.
+        assertEquals(100, chan.read(ByteBuffer.allocate(200)));
+    }
+
+    /** Check that packets are left in the read buffer when they cannot be streamed. */
+    public void testNotStreamed() throws IOException {
+        byte[] packet = createPacket(createData());
+
+        // no file handler.
+        ClientData.setHprofDumpHandler(null);
+        assertNull(HprofStream.start(null, createReadBuffer(packet, 1500)));
+        ClientData.setHprofDumpHandler(new IHprofDumpHandler() {
+            public void onSuccess(String remoteFilePath, Client client) {
+            }
+
+            public void onSuccess(byte[] data, Client client) {
+            }
+
+            public void onEndFailure(Client client, String message) {
+            }
+        });
+        assertNull(HprofStream.start(null, createReadBuffer(packet, 1500)));
+
+        // header not fully read, complete packet, other chunk.
+        ClientData.setHprofDumpHandler(new FileHandler());
+        assertNull(HprofStream.start(null, createReadBuffer(packet, 15)));
+        assertNull(HprofStream.start(null, createReadBuffer(createPacket(new byte[10]), 29)));
+        byte[] other = createPacket(createData());
+        other[JdwpPacket.JDWP_HEADER_LEN] = 'X';
+        ByteBuffer readBuffer = createReadBuffer(other, 1500);
+        assertNull(HprofStream.start(null, readBuffer));
+        assertEquals(1500, readBuffer.position());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LineReceiver} and {@link MultiLineReceiver}.
+ */
+public class LineReceiverTest extends TestCase {
+
+    /** Collects the lines passed to {@link LineReceiver#processLine(CharSequence)}. */
+    private static class CollectingLineReceiver extends LineReceiver {
+        final List<String> mLines = new ArrayList<String>();
+        int mBatches;
+
+        @Override
+        protected void processLine(CharSequence line) {
+            mLines.add(line.toString());
+        }
+
+        @Override
+        protected void processLinesDone() {
+            mBatches++;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * Test that lines are split on "\r\n" and trimmed, and that the last line is passed on
+     * flush as is.
+     */
+    public void testLines() throws Exception {
+        CollectingLineReceiver receiver = new CollectingLineReceiver();
+        addOutput(receiver, "  one \r\ntwo\nstill two\r\n\r\nlast ", 1000);
+        assertEquals(Arrays.asList("one", "two\nstill two", ""), receiver.mLines);
+
+        receiver.flush();
+        assertEquals(Arrays.asList("one", "two\nstill two", "", "last "), receiver.mLines);
+    }
+
+    /**
+     * Test that lines are not trimmed when trimming is disabled.
+     */
+    public void testNoTrim() throws Exception {
+        CollectingLineReceiver receiver = new CollectingLineReceiver();
+        receiver.setTrimLine(false);
+        addOutput(receiver, "  one \r\n", 1000);
+        assertEquals(Arrays.asList("  one "), receiver.mLines);
+    }
+
+    /**
+     * Test that the output is split the same way whatever the size of the blocks it arrives
+     * in, including "\r\n" and multi-byte characters split between two blocks, and lines
+     * longer than the internal buffer.
+     */
+    public void testBlockBoundaries() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder line = new StringBuilder();
+            line.append("line ").append(i).append(" \u00e9\u20ac\u4e2d");
+            for (int j = 0; j < i * i; j++) {
+                line.append((char) ('a' + j % 26));
+            }
+            expected.add(line.toString());
+            sb.append(line).append("\r\n");
+        }
+        expected.add("");
+        String output = sb.toString();
+
+        for (int blockSize : new int[] { 1, 2, 3, 7, 100, 16384, 1000000 }) {
+            CollectingLineReceiver receiver = new CollectingLineReceiver();
+            addOutput(receiver, output, blockSize);
+            receiver.flush();
+            assertEquals("block size " + blockSize, expected, receiver.mLines);
+        }
+    }
+
+    /**
+     * Test that {@link MultiLineReceiver} passes the lines of each block together, and the
+     * unfinished line on flush.
+     */
+    public void testMultiLineReceiver() throws Exception {
+        final List<String[]> batches = new ArrayList<String[]>();
+        MultiLineReceiver receiver = new MultiLineReceiver() {
+            @Override
+            public void processNewLines(String[] lines) {
+                batches.add(lines);
+            }
+
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+
+        addOutput(receiver, "a\r\nb\r\nc", 1000);
+        addOutput(receiver, "\r\n", 1000);
+        receiver.flush();
+
+        assertEquals(3, batches.size());
+        assertEquals(Arrays.asList("a", "b"), Arrays.asList(batches.get(0)));
+        assertEquals(Arrays.asList("c"), Arrays.asList(batches.get(1)));
+        assertEquals(Arrays.asList(""), Arrays.asList(batches.get(2)));
+    }
+
+    private static void addOutput(IShellOutputReceiver receiver, String output, int blockSize)
+            throws Exception {
+        byte[] data = output.getBytes("UTF-8");
+        for (int offset = 0; offset < data.length; offset += blockSize) {
+            receiver.addOutput(data, offset, Math.min(blockSize, data.length - offset));
+        }
+    }
+}
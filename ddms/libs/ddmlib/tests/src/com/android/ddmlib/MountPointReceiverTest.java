@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.IDevice.DeviceState;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MountPointReceiver}.
+ */
+public class MountPointReceiverTest extends TestCase {
+
+    /** Test that the command queries all the mount points at once. */
+    public void testCommand() {
+        assertEquals("echo EXTERNAL_STORAGE=$EXTERNAL_STORAGE; "
+                + "echo ANDROID_DATA=$ANDROID_DATA; echo ANDROID_ROOT=$ANDROID_ROOT",
+                MountPointReceiver.getCommand());
+    }
+
+    /** Test that the mount points are set, and that empty values are ignored. */
+    public void testParse() throws Exception {
+        Device device = new Device(null, "serial", DeviceState.ONLINE);
+        MountPointReceiver receiver = new MountPointReceiver(device);
+        byte[] output = ("EXTERNAL_STORAGE=\r\nANDROID_DATA=/data\r\n"
+                + "OTHER=/other\r\nANDROID_ROOT=/system\r\n").getBytes("ISO-8859-1");
+        receiver.addOutput(output, 0, output.length);
+        receiver.flush();
+
+        assertNull(device.getMountPoint(IDevice.MNT_EXTERNAL_STORAGE));
+        assertEquals("/data", device.getMountPoint(IDevice.MNT_DATA));
+        assertEquals("/system", device.getMountPoint(IDevice.MNT_ROOT));
+        assertNull(device.getMountPoint("OTHER"));
+    }
+}
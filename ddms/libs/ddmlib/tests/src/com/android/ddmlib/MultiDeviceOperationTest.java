@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.MultiDeviceOperation.DeviceResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MultiDeviceOperation}, with fake devices.
+ */
+public class MultiDeviceOperationTest extends TestCase {
+
+    /** Calls made to the fake devices, as "serial method argument". */
+    private final List<String> mCalls = Collections.synchronizedList(new ArrayList<String>());
+    private final Map<String, Integer> mRunningPerHost = new HashMap<String, Integer>();
+    private int mMaxRunning;
+    private int mMaxRunningPerHost;
+
+    /**
+     * Creates a fake device. Shell commands "sleep" wait 50 ms, install fails for packages named
+     * "bad", removing packages named "locked" throws, and the other calls are recorded.
+     */
+    private IDevice createDevice(final String serial) {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                new Class<?>[] { IDevice.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getSerialNumber")) {
+                    return serial;
+                }
+                mCalls.add(serial + " " + name + " " + args[0]);
+                if (name.equals("syncPackageToDevice")) {
+                    return "/data/local/tmp/" + args[0];
+                } else if (name.equals("installRemotePackage")) {
+                    return ((String) args[0]).endsWith("bad") ? "INSTALL_FAILED" : null;
+                } else if (name.equals("removeRemotePackage")
+                        && ((String) args[0]).endsWith("locked")) {
+                    throw new IllegalStateException("locked");
+                } else if (name.equals("executeShellCommand")) {
+                    String host = MultiDeviceOperation.getHost((IDevice) proxy);
+                    synchronized (mRunningPerHost) {
+                        Integer count = mRunningPerHost.get(host);
+                        count = count != null ? count + 1 : 1;
+                        mRunningPerHost.put(host, count);
+                        mMaxRunningPerHost = Math.max(mMaxRunningPerHost, count);
+                        int running = 0;
+                        for (int c : mRunningPerHost.values()) {
+                            running += c;
+                        }
+                        mMaxRunning = Math.max(mMaxRunning, running);
+                    }
+                    Thread.sleep(50);
+                    IShellOutputReceiver receiver = (IShellOutputReceiver) args[1];
+                    byte[] output = (serial + "\n").getBytes("UTF-8");
+                    receiver.addOutput(output, 0, output.length);
+                    receiver.flush();
+                    synchronized (mRunningPerHost) {
+                        mRunningPerHost.put(host, mRunningPerHost.get(host) - 1);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    private List<IDevice> createDevices(String prefix, int count) {
+        List<IDevice> devices = new ArrayList<IDevice>();
+        for (int i = 0; i < count; i++) {
+            devices.add(createDevice(prefix + i));
+        }
+        return devices;
+    }
+
+    private int countCalls(String call) {
+        int count = 0;
+        synchronized (mCalls) {
+            for (String c : mCalls) {
+                if (c.endsWith(call)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Check that a file used by several steps is pushed once per device, and removed. */
+    public void testPushOnce() throws Exception {
+        List<IDevice> devices = createDevices("device", 10);
+        MultiDeviceOperation operation = new MultiDeviceOperation(devices);
+        operation.addPush("app.apk");
+        operation.addInstall("app.apk", true);
+        operation.addInstall("app.apk", false);
+        List<DeviceResult> results = operation.run();
+
+        assertEquals(10, results.size());
+        for (int i = 0; i < 10; i++) {
+            DeviceResult result = results.get(i);
+            assertSame(devices.get(i), result.getDevice());
+            assertTrue(result.isSuccessful());
+            assertEquals(3, result.getSteps().size());
+            assertEquals("/data/local/tmp/app.apk", result.getSteps().get(0).getOutput());
+        }
+        assertEquals(10, countCalls("syncPackageToDevice app.apk"));
+        assertEquals(20, countCalls("installRemotePackage /data/local/tmp/app.apk"));
+        assertEquals(10, countCalls("removeRemotePackage /data/local/tmp/app.apk"));
+    }
+
+    /** Check that the steps of a device stop at the first failure. */
+    public void testFailure() throws Exception {
+        MultiDeviceOperation operation = new MultiDeviceOperation(createDevices("device", 3));
+        operation.addInstall("bad", false);
+        operation.addShellCommand("sleep", 0);
+        List<DeviceResult> results = operation.run();
+
+        for (DeviceResult result : results) {
+            assertFalse(result.isSuccessful());
+            assertFalse(result.isCanceled());
+            assertEquals(1, result.getSteps().size());
+            assertTrue(result.getError() instanceof InstallException);
+            assertEquals("INSTALL_FAILED", result.getSteps().get(0).getOutput());
+        }
+        assertEquals(0, countCalls("executeShellCommand sleep"));
+        assertEquals(3, countCalls("removeRemotePackage /data/local/tmp/bad"));
+    }
+
+    /** Check that the operation ends, and the other files are removed, if a removal throws. */
+    public void testRemoveFailure() throws Exception {
+        MultiDeviceOperation operation = new MultiDeviceOperation(createDevices("device", 3));
+        operation.addPush("locked");
+        operation.addPush("app.apk");
+        List<DeviceResult> results = operation.run();
+
+        assertEquals(3, results.size());
+        for (DeviceResult result : results) {
+            assertTrue(result.isSuccessful());
+        }
+        assertEquals(3, countCalls("removeRemotePackage /data/local/tmp/app.apk"));
+    }
+
+    /** Check that the devices run in parallel, within the limits. */
+    public void testConcurrency() throws Exception {
+        List<IDevice> devices = createDevices("device", 20);
+        devices.addAll(createDevices("10.0.0.1:", 6));
+        MultiDeviceOperation operation = new MultiDeviceOperation(devices);
+        operation.setMaxConcurrency(16);
+        operation.setMaxPerHost(2);
+        operation.addShellCommand("sleep", 0);
+        List<DeviceResult> results = operation.run();
+
+        for (DeviceResult result : results) {
+            assertTrue(result.isSuccessful());
+            assertEquals(result.getDevice().getSerialNumber() + "\n",
+                    result.getSteps().get(0).getOutput());
+        }
+        assertEquals(2, mMaxRunningPerHost);
+        assertEquals(4, mMaxRunning);
+
+        mMaxRunning = mMaxRunningPerHost = 0;
+        operation = new MultiDeviceOperation(devices);
+        operation.setMaxConcurrency(16);
+        operation.addShellCommand("sleep", 0);
+        operation.run();
+        assertEquals(16, mMaxRunning);
+        // 26 devices of 50 ms each, 16 at a time.
+        assertTrue(operation.getElapsedTime() < 26 * 50 * 1000000L / 2);
+    }
+
+    /** Check that the devices which did not start are skipped once canceled. */
+    public void testCancel() throws Exception {
+        final MultiDeviceOperation operation =
+                new MultiDeviceOperation(createDevices("device", 5));
+        operation.setMaxConcurrency(1);
+        operation.addShellCommand("sleep", 0);
+        operation.setListener(new MultiDeviceOperation.IDeviceDoneListener() {
+            public void deviceDone(DeviceResult result) {
+                operation.cancel();
+            }
+        });
+        List<DeviceResult> results = operation.run();
+
+        assertTrue(results.get(0).isSuccessful());
+        for (int i = 1; i < 5; i++) {
+            assertTrue(results.get(i).isCanceled());
+            assertEquals(0, results.get(i).getSteps().size());
+        }
+        assertEquals(1, countCalls("executeShellCommand sleep"));
+    }
+
+    public void testGetHost() {
+        assertEquals("10.0.0.1", MultiDeviceOperation.getHost(createDevice("10.0.0.1:5555")));
+        assertEquals("localhost", MultiDeviceOperation.getHost(createDevice("emulator-5554")));
+        assertEquals("localhost", MultiDeviceOperation.getHost(createDevice("HT9CTP801234")));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Measures the conversion of 1080p frames into a <code>TYPE_INT_ARGB</code>
+ * {@link BufferedImage}, with the per pixel {@link RawImage#getARGB(int)} and
+ * {@link BufferedImage#setRGB(int, int, int)} loop the screenshot tools used, and with
+ * {@link RawImageConverter} on one thread and on all the cores.
+ * <p/>Each scenario is run for the 565, RGBA and BGRA layouts, without and with a rotation.
+ * Usage: {@code RawImageConverterBenchmark [iterations]}
+ */
+public class RawImageConverterBenchmark {
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int WARMUP = 5;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        RawImage[] images = new RawImage[] {
+                RawImageConverterTest.create565(WIDTH, HEIGHT),
+                RawImageConverterTest.createRGBA(WIDTH, HEIGHT),
+                RawImageConverterTest.createBGRA(WIDTH, HEIGHT),
+        };
+        String[] names = new String[] { "565", "RGBA", "BGRA" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        for (int i = 0; i < images.length; i++) {
+            for (int rotation = 0; rotation < 2; rotation++) {
+                String name = names[i] + (rotation == 0 ? "" : " rotated"); //$NON-NLS-1$ //$NON-NLS-2$
+                benchmarkPerPixel(images[i], rotation, WARMUP);
+                report(name + " getARGB/setRGB", //$NON-NLS-1$
+                        benchmarkPerPixel(images[i], rotation, iterations));
+
+                benchmarkConverter(images[i], rotation, 1, WARMUP);
+                report(name + " converter", //$NON-NLS-1$
+                        benchmarkConverter(images[i], rotation, 1, iterations));
+
+                benchmarkConverter(images[i], rotation, cores, WARMUP);
+                report(name + " converter x" + cores, //$NON-NLS-1$
+                        benchmarkConverter(images[i], rotation, cores, iterations));
+            }
+        }
+    }
+
+    private static long[] benchmarkPerPixel(RawImage image, int rotation, int iterations) {
+        long[] times = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            RawImage rawImage = rotation == 0 ? image : image.getRotated();
+            BufferedImage bufferedImage = new BufferedImage(rawImage.width, rawImage.height,
+                    BufferedImage.TYPE_INT_ARGB);
+            int index = 0;
+            int indexInc = rawImage.bpp >> 3;
+            for (int y = 0 ; y < rawImage.height ; y++) {
+                for (int x = 0 ; x < rawImage.width ; x++) {
+                    bufferedImage.setRGB(x, y, rawImage.getARGB(index));
+                    index += indexInc;
+                }
+            }
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static long[] benchmarkConverter(RawImage image, int rotation, int threadCount,
+            int iterations) {
+        long[] times = new long[iterations];
+        BufferedImage bufferedImage = new BufferedImage(
+                RawImageConverter.getRotatedWidth(image, rotation),
+                RawImageConverter.getRotatedHeight(image, rotation),
+                BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = null;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            pixels = RawImageConverter.toARGB(image, rotation, pixels, threadCount);
+            bufferedImage.getRaster().setDataElements(0, 0, bufferedImage.getWidth(),
+                    bufferedImage.getHeight(), pixels);
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        Arrays.sort(times);
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        System.out.println(String.format(
+                "%1$-32s n=%2$d mean=%3$.2fms p50=%4$.2fms max=%5$.2fms", //$NON-NLS-1$
+                name, times.length,
+                total / 1e6 / times.length,
+                times[times.length / 2] / 1e6,
+                times[times.length - 1] / 1e6));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link RawImageConverter}, checked against {@link RawImage#getARGB(int)}.
+ */
+public class RawImageConverterTest extends TestCase {
+
+    /**
+     * Creates an image with random data.
+     * @param offsets the red, green, blue and alpha offsets.
+     * @param lengths the red, green, blue and alpha lengths.
+     */
+    static RawImage createImage(int bpp, int width, int height, int[] offsets, int[] lengths) {
+        RawImage image = new RawImage();
+        image.version = 1;
+        image.bpp = bpp;
+        image.width = width;
+        image.height = height;
+        image.size = width * height * (bpp >> 3);
+        image.red_offset = offsets[0];
+        image.green_offset = offsets[1];
+        image.blue_offset = offsets[2];
+        image.alpha_offset = offsets[3];
+        image.red_length = lengths[0];
+        image.green_length = lengths[1];
+        image.blue_length = lengths[2];
+        image.alpha_length = lengths[3];
+        image.data = new byte[image.size];
+        new Random(width * 31 + height).nextBytes(image.data);
+        return image;
+    }
+
+    static RawImage create565(int width, int height) {
+        return createImage(16, width, height, new int[] { 11, 5, 0, 0 },
+                new int[] { 5, 6, 5, 0 });
+    }
+
+    static RawImage createRGBA(int width, int height) {
+        return createImage(32, width, height, new int[] { 0, 8, 16, 24 },
+                new int[] { 8, 8, 8, 8 });
+    }
+
+    static RawImage createBGRA(int width, int height) {
+        return createImage(32, width, height, new int[] { 16, 8, 0, 24 },
+                new int[] { 8, 8, 8, 8 });
+    }
+
+    /** Checks the conversion of an image with all the rotations against getARGB(). */
+    private static void checkConversion(RawImage image, int threadCount) {
+        for (int rotation = 0; rotation < 4; rotation++) {
+            RawImage rotated = image;
+            for (int i = 0; i < rotation; i++) {
+                rotated = rotated.getRotated();
+            }
+            assertEquals(rotated.width, RawImageConverter.getRotatedWidth(image, rotation));
+            assertEquals(rotated.height, RawImageConverter.getRotatedHeight(image, rotation));
+
+            int[] pixels = RawImageConverter.toARGB(image, rotation, null, threadCount);
+            int byteCount = image.bpp >> 3;
+            for (int i = 0; i < image.width * image.height; i++) {
+                if (rotated.getARGB(i * byteCount) != pixels[i]) {
+                    fail("rotation " + rotation + ", pixel " + i);
+                }
+            }
+        }
+    }
+
+    public void test565() {
+        checkConversion(create565(7, 5), 1);
+    }
+
+    public void testRGBA() {
+        checkConversion(createRGBA(7, 5), 1);
+    }
+
+    public void testBGRA() {
+        checkConversion(createBGRA(7, 5), 1);
+    }
+
+    /** Check the generic 32 bit path, with an opaque layout. */
+    public void testOther32() {
+        checkConversion(createImage(32, 5, 7, new int[] { 24, 16, 8, 0 },
+                new int[] { 8, 8, 8, 0 }), 1);
+        checkConversion(createImage(32, 5, 7, new int[] { 20, 10, 0, 30 },
+                new int[] { 10, 10, 10, 2 }), 1);
+    }
+
+    /** Check a conversion split across threads, on an image large enough to be split. */
+    public void testParallel() {
+        checkConversion(createRGBA(600, 500), 3);
+        checkConversion(create565(500, 600), 4);
+    }
+
+    /** Check that the array is reused when it is large enough. */
+    public void testReuse() {
+        RawImage image = createBGRA(4, 4);
+        int[] pixels = new int[20];
+        assertSame(pixels, RawImageConverter.toARGB(image, pixels));
+        assertNotSame(pixels, RawImageConverter.toARGB(createBGRA(5, 5), pixels));
+    }
+
+    /** Check that rotating several quarter turns at once is the same as one at a time. */
+    public void testGetRotated() {
+        RawImage image = create565(3, 4);
+        RawImage rotated = image;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            RawImage direct = image.getRotated(rotation);
+            assertEquals(rotated.width, direct.width);
+            assertEquals(rotated.height, direct.height);
+            assertTrue(Arrays.equals(rotated.data, direct.data));
+            rotated = rotated.getRotated();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the frame comparison of {@link ScreenCaptureSession}.
+ */
+public class ScreenCaptureSessionTest extends TestCase {
+    private static final int ROW_SIZE = 8;
+    private static final int HEIGHT = 10;
+
+    private static byte[] createFrame() {
+        byte[] frame = new byte[ROW_SIZE * HEIGHT];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+        return frame;
+    }
+
+    /** Check that identical frames have no changed rows. */
+    public void testUnchanged() {
+        byte[] previous = createFrame();
+        byte[] current = createFrame();
+        assertEquals(-1, ScreenCaptureSession.getFirstChangedRow(previous, current, ROW_SIZE,
+                HEIGHT));
+        assertEquals(-1, ScreenCaptureSession.getLastChangedRow(previous, current, ROW_SIZE,
+                HEIGHT));
+    }
+
+    /** Check the range of rows reported for changed pixels. */
+    public void testChangedRows() {
+        byte[] previous = createFrame();
+        byte[] current = createFrame();
+        current[3 * ROW_SIZE + ROW_SIZE - 1]++;
+        current[6 * ROW_SIZE]++;
+        assertEquals(3, ScreenCaptureSession.getFirstChangedRow(previous, current, ROW_SIZE,
+                HEIGHT));
+        assertEquals(6, ScreenCaptureSession.getLastChangedRow(previous, current, ROW_SIZE,
+                HEIGHT));
+
+        current = createFrame();
+        current[0]--;
+        current[current.length - 1]--;
+        assertEquals(0, ScreenCaptureSession.getFirstChangedRow(previous, current, ROW_SIZE,
+                HEIGHT));
+        assertEquals(HEIGHT - 1, ScreenCaptureSession.getLastChangedRow(previous, current,
+                ROW_SIZE, HEIGHT));
+    }
+}
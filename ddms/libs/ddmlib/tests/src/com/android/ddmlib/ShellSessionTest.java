@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.IDevice.DeviceState;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ShellSession}, run against the interactive shell of a
+ * {@link FakeAdbServer}.
+ */
+public class ShellSessionTest extends TestCase {
+
+    private FakeAdbServer mServer;
+    private ShellSession mSession;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FakeAdbServer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSession != null) {
+            mSession.close();
+        }
+        mServer.stop();
+        super.tearDown();
+    }
+
+    private ShellSession openSession() throws Exception {
+        Device device = new Device(null, "fake-device", DeviceState.ONLINE); //$NON-NLS-1$
+        mSession = new ShellSession(mServer.getSocketAddress(), device);
+        mSession.open();
+        return mSession;
+    }
+
+    /**
+     * Test that pipelined commands each get their own output and exit code.
+     */
+    public void testPipelinedCommands() throws Exception {
+        ShellSession session = openSession();
+
+        int count = 50;
+        CollectingOutputReceiver[] receivers = new CollectingOutputReceiver[count];
+        ShellSession.Command[] commands = new ShellSession.Command[count];
+        for (int i = 0; i < count; i++) {
+            receivers[i] = new CollectingOutputReceiver();
+            commands[i] = session.submit("echo line" + i + "; echo second" + i + "; exit " + i,
+                    receivers[i], 5000);
+        }
+
+        for (int i = 0; i < count; i++) {
+            commands[i].waitFor();
+            assertEquals("line" + i + "\nsecond" + i + "\n", receivers[i].getOutput());
+            assertEquals(i, commands[i].getExitCode());
+        }
+    }
+
+    /**
+     * Test that many commands pipelined behind a busy command all complete, and that neither
+     * submitting them nor checking the state of a command waits for the shell to read them.
+     */
+    public void testManyPipelinedCommands() throws Exception {
+        ShellSession session = openSession();
+
+        // the commands are padded so that they fill the buffers of the connection while the
+        // shell sleeps.
+        StringBuilder padding = new StringBuilder(": "); //$NON-NLS-1$
+        for (int i = 0; i < 2000; i++) {
+            padding.append('x');
+        }
+        padding.append("; "); //$NON-NLS-1$
+
+        ShellSession.Command busy = session.submit("sleep 2", null, 5000);
+        int count = 2000;
+        ShellSession.Command[] commands = new ShellSession.Command[count];
+        long maxCheckTime = 0;
+        for (int i = 0; i < count; i++) {
+            long start = System.nanoTime();
+            commands[i] = session.submit(padding + "exit " + (i % 100), null, 10000);
+            busy.isDone();
+            maxCheckTime = Math.max(maxCheckTime, System.nanoTime() - start);
+        }
+        assertFalse(busy.isDone());
+
+        for (int i = 0; i < count; i++) {
+            commands[i].waitFor();
+            assertEquals(i % 100, commands[i].getExitCode());
+        }
+        assertEquals(0, busy.getExitCode());
+        assertTrue("submit() and isDone() took " + maxCheckTime / 1000000 + " ms",
+                maxCheckTime < 500 * 1000000L);
+        assertEquals(0, session.getRecoveryCount());
+    }
+
+    /**
+     * Test that output larger than the read buffer, and commands without output, are handled.
+     */
+    public void testLargeAndEmptyOutput() throws Exception {
+        ShellSession session = openSession();
+
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        assertEquals(0, session.execute("i=0; while [ $i -lt 2000 ]; do " +
+                "echo 0123456789012345678901234567890123456789; i=$((i+1)); done",
+                receiver, 5000));
+        assertEquals(2000 * 41, receiver.getOutput().length());
+
+        receiver = new CollectingOutputReceiver();
+        assertEquals(1, session.execute("false", receiver, 5000));
+        assertEquals("", receiver.getOutput());
+    }
+
+    /**
+     * Test that commands do not change the state of the session.
+     */
+    public void testCommandsAreIsolated() throws Exception {
+        ShellSession session = openSession();
+
+        session.execute("cd /", null, 5000);
+        session.execute("X=1", null, 5000);
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        session.execute("echo \"[$X]\"", receiver, 5000);
+        assertEquals("[]\n", receiver.getOutput());
+    }
+
+    /**
+     * Test that an unresponsive command fails, and that the session recovers and runs the
+     * commands queued behind it.
+     */
+    public void testUnresponsiveCommandRecovery() throws Exception {
+        ShellSession session = openSession();
+
+        ShellSession.Command stuck = session.submit("sleep 5", null, 200);
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        ShellSession.Command next = session.submit("echo after", receiver, 5000);
+
+        long start = System.currentTimeMillis();
+        try {
+            stuck.waitFor();
+            fail("ShellCommandUnresponsiveException not thrown");
+        } catch (ShellCommandUnresponsiveException e) {
+            // expected
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Took " + elapsed + " ms", elapsed < 2000);
+
+        next.waitFor();
+        assertEquals("after\n", receiver.getOutput());
+        assertEquals(1, session.getRecoveryCount());
+        assertFalse(session.isClosed());
+    }
+
+    /**
+     * Test a shell which echoes its input, as a shell on a terminal without stty does.
+     */
+    public void testEchoingShell() throws Exception {
+        mServer.setShellEcho(true);
+        ShellSession session = openSession();
+
+        CollectingOutputReceiver receiver1 = new CollectingOutputReceiver();
+        CollectingOutputReceiver receiver2 = new CollectingOutputReceiver();
+        ShellSession.Command command1 = session.submit("echo one", receiver1, 5000);
+        ShellSession.Command command2 = session.submit("echo two", receiver2, 5000);
+        command1.waitFor();
+        command2.waitFor();
+        assertEquals("one\n", receiver1.getOutput());
+        assertEquals("two\n", receiver2.getOutput());
+    }
+
+    /**
+     * Test that closing the session fails the pending commands, and rejects new ones.
+     */
+    public void testClose() throws Exception {
+        ShellSession session = openSession();
+
+        ShellSession.Command stuck = session.submit("sleep 5", null, 0);
+        session.close();
+        try {
+            stuck.waitFor();
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+
+        try {
+            session.submit("echo", null, 0);
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.IDevice.DeviceState;
+import com.android.ddmlib.SyncException.SyncError;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SyncService} and {@link BulkSyncService}, run against the sync service
+ * of a {@link FakeAdbServer}.
+ */
+public class SyncServiceTest extends TestCase {
+
+    private FakeAdbServer mServer;
+    private Device mDevice;
+    private File mLocalDir;
+    private File mRemoteDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocalDir = createTempDir("local");
+        mRemoteDir = createTempDir("remote");
+        mServer = new FakeAdbServer();
+        mServer.setSyncRoot(mRemoteDir);
+        mDevice = new Device(null, "fake-device", DeviceState.ONLINE); //$NON-NLS-1$
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop();
+        deleteRecursively(mLocalDir);
+        deleteRecursively(mRemoteDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that a file pushed then pulled back is unchanged, including files larger than a
+     * sync data packet and empty files.
+     */
+    public void testPushPullFile() throws Exception {
+        SyncService sync = new SyncService(mServer.getSocketAddress(), mDevice);
+        assertTrue(sync.openSync());
+        try {
+            for (int size : new int[] { 0, 10, 64 * 1024, 200000 }) {
+                File local = createFile(new File(mLocalDir, "file" + size), size);
+                sync.pushFile(local.getPath(), "/data/file" + size,
+                        SyncService.getNullProgressMonitor());
+                assertSameContent(local, new File(mRemoteDir, "data/file" + size));
+
+                File pulled = new File(mLocalDir, "pulled" + size);
+                sync.pullFile("/data/file" + size, pulled.getPath(),
+                        SyncService.getNullProgressMonitor());
+                assertSameContent(local, pulled);
+            }
+        } finally {
+            sync.close();
+        }
+    }
+
+    /**
+     * Test that a tree pushed over several connections, then pulled back, is unchanged, and
+     * that the progress is reported in full.
+     */
+    public void testBulkPushPull() throws Exception {
+        File tree = new File(mLocalDir, "tree");
+        Random random = new Random(0);
+        int count = 40;
+        String[] remote = new String[count];
+        String[] pulled = new String[count];
+        File[] files = new File[count];
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            String name = "dir" + (i % 3) + "/file" + i;
+            int size = i == 0 ? 0 : random.nextInt(300000);
+            files[i] = createFile(new File(tree, name), size);
+            remote[i] = "/sdcard/tree/" + name;
+            pulled[i] = new File(mLocalDir, "pulled/" + name).getPath();
+            total += size;
+        }
+
+        BulkSyncService bulk = new BulkSyncService(mServer.getSocketAddress(), mDevice, 4);
+        assertTrue(bulk.open());
+        try {
+            CountingMonitor monitor = new CountingMonitor();
+            bulk.push(new String[] { tree.getPath() }, "/sdcard", monitor);
+            assertEquals(total, monitor.mTotal);
+            assertEquals(total, monitor.mWork);
+            assertEquals(total, monitor.mTransferred);
+            for (int i = 0; i < count; i++) {
+                assertSameContent(files[i], new File(mRemoteDir, remote[i]));
+            }
+
+            monitor = new CountingMonitor();
+            bulk.pullFiles(remote, pulled, monitor);
+            assertEquals(total, monitor.mWork);
+            for (int i = 0; i < count; i++) {
+                assertSameContent(files[i], new File(pulled[i]));
+            }
+        } finally {
+            bulk.close();
+        }
+    }
+
+    /**
+     * Test that pulling a file which does not exist fails before transferring anything.
+     */
+    public void testBulkPullMissingFile() throws Exception {
+        createFile(new File(mRemoteDir, "data/present"), 100);
+
+        BulkSyncService bulk = new BulkSyncService(mServer.getSocketAddress(), mDevice, 2);
+        assertTrue(bulk.open());
+        try {
+            bulk.pullFiles(new String[] { "/data/present", "/data/missing" },
+                    new String[] {
+                        new File(mLocalDir, "present").getPath(),
+                        new File(mLocalDir, "missing").getPath() },
+                    SyncService.getNullProgressMonitor());
+            fail("SyncException not thrown");
+        } catch (SyncException e) {
+            assertEquals(SyncError.NO_REMOTE_OBJECT, e.getErrorCode());
+        } finally {
+            bulk.close();
+        }
+        assertFalse(new File(mLocalDir, "present").exists());
+    }
+
+    private static class CountingMonitor implements BulkSyncService.IBulkSyncProgressMonitor {
+        long mTotal = -1;
+        long mWork;
+        long mTransferred;
+
+        public void start(int totalWork) {
+            mTotal = totalWork;
+        }
+        public void stop() {
+        }
+        public boolean isCanceled() {
+            return false;
+        }
+        public void startSubTask(String name) {
+        }
+        public void advance(int work) {
+            mWork += work;
+        }
+        public void throughput(long bytesTransferred, long totalBytes, long bytesPerSecond) {
+            mTransferred = bytesTransferred;
+        }
+    }
+
+    private static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, null);
+        dir.delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        f.delete();
+    }
+
+    private static File createFile(File f, int size) throws IOException {
+        f.getParentFile().mkdirs();
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        return f;
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        FileInputStream fis = new FileInputStream(f);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += fis.read(data, offset, data.length - offset);
+            }
+        } finally {
+            fis.close();
+        }
+        return data;
+    }
+
+    private static void assertSameContent(File expected, File actual) throws IOException {
+        assertTrue(actual.getPath(), actual.isFile());
+        assertTrue(actual.getPath(), Arrays.equals(readFile(expected), readFile(actual)));
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.log;
+
+import com.android.ddmlib.DdmPreferences;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.log.EventContainer.EventValueType;
+import com.android.ddmlib.log.EventValueDescription.ValueType;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link EventLogParser}.
+ */
+public class EventLogParserTest extends TestCase {
+
+    private static final String[] TAGS = new String[] {
+        "# comment",
+        "2722 battery_level (level|1|6),(voltage|1|1),(temperature|1|1)",
+        "30001 am_finish_activity (Token|1|5),(Task ID|1|5),(Component Name|3),(Reason|3)",
+        "42 answer",
+    };
+
+    /** The commands run by the device. */
+    private final List<String> mCommands = new ArrayList<String>();
+    private File mCacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCacheDir = File.createTempFile("eventtags", null);
+        mCacheDir.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DdmPreferences.setEventTagCacheLocation(null);
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mCacheDir.delete();
+        super.tearDown();
+    }
+
+    private IDevice createDevice(final String fingerprint) {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                new Class<?>[] { IDevice.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("getProperty")) {
+                    return "ro.build.fingerprint".equals(args[0]) ? fingerprint : null;
+                } else if (method.getName().equals("executeShellCommand")) {
+                    mCommands.add((String) args[0]);
+                    StringBuilder output = new StringBuilder();
+                    for (String line : TAGS) {
+                        output.append(line).append("\r\n");
+                    }
+                    byte[] data = output.toString().getBytes("UTF-8");
+                    IShellOutputReceiver receiver = (IShellOutputReceiver) args[1];
+                    receiver.addOutput(data, 0, data.length);
+                    receiver.flush();
+                }
+                return null;
+            }
+        });
+    }
+
+    /** Returns a unique fingerprint, as the tags are cached in memory for the session. */
+    private String createFingerprint() {
+        return "generic/sdk/generic:2.3/" + getName() + "/" + System.nanoTime() + ":eng/test";
+    }
+
+    private static void checkTags(EventLogParser parser) {
+        assertEquals("battery_level", parser.getTagMap().get(2722));
+        assertEquals("answer", parser.getTagMap().get(42));
+        EventValueDescription[] descriptions = parser.getEventInfoMap().get(30001);
+        assertEquals(4, descriptions.length);
+        assertEquals("Task ID", descriptions[1].getName());
+        assertEquals(EventValueType.INT, descriptions[1].getEventValueType());
+        assertEquals(ValueType.ID, descriptions[1].getValueType());
+        assertEquals(EventValueType.STRING, descriptions[3].getEventValueType());
+    }
+
+    public void testInitCachedInMemory() {
+        String fingerprint = createFingerprint();
+        EventLogParser parser = new EventLogParser();
+        assertTrue(parser.init(createDevice(fingerprint)));
+        checkTags(parser);
+        assertEquals(1, mCommands.size());
+
+        parser = new EventLogParser();
+        assertTrue(parser.init(createDevice(fingerprint)));
+        checkTags(parser);
+        assertEquals(1, mCommands.size());
+
+        // another build.
+        parser = new EventLogParser();
+        assertTrue(parser.init(createDevice(createFingerprint())));
+        assertEquals(2, mCommands.size());
+    }
+
+    public void testInitCachedOnDisk() throws Exception {
+        DdmPreferences.setEventTagCacheLocation(mCacheDir.getPath());
+        EventLogParser parser = new EventLogParser();
+        assertTrue(parser.init(createDevice(createFingerprint())));
+        assertEquals(1, mCommands.size());
+        File[] files = mCacheDir.listFiles();
+        assertEquals(1, files.length);
+
+        // a file saved by a previous session, for a build not cached in memory.
+        String fingerprint = createFingerprint();
+        File cacheFile = new File(mCacheDir, fingerprint.replaceAll("[^A-Za-z0-9.-]", "_")
+                + ".tags");
+        assertTrue(files[0].renameTo(cacheFile));
+        parser = new EventLogParser();
+        assertTrue(parser.init(createDevice(fingerprint)));
+        checkTags(parser);
+        assertEquals(1, mCommands.size());
+    }
+
+    /** Creates an entry for an event of tag 30001, with the given encoded value. */
+    private static LogEntry createEntry(byte[] value) {
+        LogEntry entry = new LogEntry();
+        entry.pid = 12;
+        entry.tid = 34;
+        entry.sec = 56;
+        entry.nsec = 78;
+        entry.data = new byte[4 + value.length];
+        entry.len = entry.data.length;
+        ByteBuffer.wrap(entry.data).order(ByteOrder.LITTLE_ENDIAN).putInt(30001).put(value);
+        return entry;
+    }
+
+    private static ByteBuffer createValue() {
+        return ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] toArray(ByteBuffer value) {
+        return Arrays.copyOf(value.array(), value.position());
+    }
+
+    private static void putString(ByteBuffer value, String string) throws Exception {
+        byte[] bytes = string.getBytes("UTF-8");
+        value.put((byte) 2).putInt(bytes.length).put(bytes);
+    }
+
+    public void testParseSingleValues() throws Exception {
+        EventLogParser parser = new EventLogParser();
+        parser.init(TAGS);
+
+        ByteBuffer value = createValue();
+        value.put((byte) 0).putInt(-5);
+        EventContainer event = parser.parse(createEntry(toArray(value)));
+        assertEquals(EventValueType.INT, event.getType());
+        assertEquals(Integer.valueOf(-5), event.getInt());
+        assertEquals(Integer.valueOf(-5), event.getValue(3));
+        assertEquals(-5.0, event.getValueAsDouble(0));
+        assertEquals("-5", event.getValueAsString(0));
+        assertEquals(12, event.pid);
+        assertEquals(78, event.nsec);
+
+        value = createValue();
+        value.put((byte) 1).putLong(1L << 40);
+        event = parser.parse(createEntry(toArray(value)));
+        assertEquals(EventValueType.LONG, event.getType());
+        assertEquals(Long.valueOf(1L << 40), event.getLong());
+        assertEquals((double) (1L << 40), event.getValueAsDouble(0));
+
+        value = createValue();
+        putString(value, "h\u00e9llo");
+        event = parser.parse(createEntry(toArray(value)));
+        assertEquals(EventValueType.STRING, event.getType());
+        assertEquals("h\u00e9llo", event.getString());
+        try {
+            event.getValueAsDouble(0);
+            fail();
+        } catch (InvalidTypeException e) {
+            // expected
+        }
+    }
+
+    public void testParseList() throws Exception {
+        EventLogParser parser = new EventLogParser();
+        parser.init(TAGS);
+
+        ByteBuffer value = createValue();
+        value.put((byte) 3).put((byte) 4);
+        value.put((byte) 0).putInt(1234);
+        value.put((byte) 1).putLong(-7);
+        putString(value, "com.example/.Main");
+        putString(value, "");
+        EventContainer event = parser.parse(createEntry(toArray(value)));
+
+        assertEquals(EventValueType.LIST, event.getType());
+        assertEquals(1234.0, event.getValueAsDouble(0));
+        assertEquals(-7.0, event.getValueAsDouble(1));
+        assertEquals("-7", event.getValueAsString(1));
+        assertEquals("com.example/.Main", event.getValueAsString(2));
+        assertEquals("", event.getValueAsString(3));
+        assertEquals(Integer.valueOf(1234), event.getValue(0));
+        assertEquals(Long.valueOf(-7), event.getValue(1));
+        assertNull(event.getValue(4));
+        assertTrue(event.testValue(0, Integer.valueOf(1000),
+                EventContainer.CompareMethod.GREATER_THAN));
+        assertTrue(event.testValue(2, "com.example/.Main",
+                EventContainer.CompareMethod.EQUAL_TO));
+        try {
+            event.getValueAsDouble(4);
+            fail();
+        } catch (InvalidTypeException e) {
+            // expected
+        }
+        try {
+            event.getInt();
+            fail();
+        } catch (InvalidTypeException e) {
+            // expected
+        }
+    }
+
+    public void testParseListOfLists() throws Exception {
+        EventLogParser parser = new EventLogParser();
+        parser.init(TAGS);
+
+        ByteBuffer value = createValue();
+        value.put((byte) 3).put((byte) 2);
+        value.put((byte) 0).putInt(1);
+        value.put((byte) 3).put((byte) 1).put((byte) 0).putInt(2);
+        EventContainer event = parser.parse(createEntry(toArray(value)));
+        assertEquals(EventValueType.TREE, event.getType());
+    }
+
+    public void testParseMalformed() throws Exception {
+        EventLogParser parser = new EventLogParser();
+        parser.init(TAGS);
+
+        ByteBuffer value = createValue();
+        value.put((byte) 3).put((byte) 2);
+        value.put((byte) 0).putInt(1);
+        assertNull(parser.parse(createEntry(toArray(value))));
+
+        value = createValue();
+        value.put((byte) 1).putInt(1);
+        assertNull(parser.parse(createEntry(toArray(value))));
+
+        value = createValue();
+        value.put((byte) 2).putInt(10).put((byte) 'a');
+        assertNull(parser.parse(createEntry(toArray(value))));
+
+        value = createValue();
+        value.put((byte) 9);
+        assertNull(parser.parse(createEntry(toArray(value))));
+    }
+
+    public void testSaveTags() throws Exception {
+        EventLogParser parser = new EventLogParser();
+        parser.init(TAGS);
+        mCacheDir.mkdirs();
+        File file = new File(mCacheDir, "saved.tags");
+        parser.saveTags(file.getPath());
+
+        parser = new EventLogParser();
+        assertTrue(parser.init(file.getPath()));
+        checkTags(parser);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Measures {@link InstrumentationResultParser} replaying the output of
+ * <code>am instrument -r</code>, fed in blocks of the size adb reads.
+ * <p/>The output is read from a file recorded with
+ * <code>adb shell am instrument -r -w &lt;package&gt;/&lt;runner&gt; &gt; output.txt</code>, or
+ * generated in the same format: 5000 tests with their stream output, one in ten failing with a
+ * long stack trace, and a few metrics each.
+ * Usage: {@code InstrumentationResultParserBenchmark [recorded output] [iterations]}
+ */
+public class InstrumentationResultParserBenchmark {
+
+    private static final int BLOCK_SIZE = 16384;
+    private static final int TEST_COUNT = 5000;
+    private static final int WARMUP = 50;
+    private static final String FAILURE_MESSAGE =
+            "junit.framework.AssertionFailedError: expected:<1> but was:<2>"; //$NON-NLS-1$
+    private static final String FRAME_FORMAT =
+            "\r\n\tat com.example.app.Frame%1$d.call(Frame.java:%2$d)"; //$NON-NLS-1$
+
+    /** Counts the results, so that the listener calls are not optimized away. */
+    private static class CountingListener implements ITestRunListener {
+        int mEnded;
+        int mFailed;
+
+        public void testRunStarted(String runName, int testCount) {
+        }
+
+        public void testStarted(TestIdentifier test) {
+        }
+
+        public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            mFailed++;
+        }
+
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mEnded++;
+        }
+
+        public void testRunFailed(String errorMessage) {
+        }
+
+        public void testRunStopped(long elapsedTime) {
+        }
+
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] output;
+        int iterations = 100;
+        if (args.length > 0) {
+            output = readFile(args[0]);
+            if (args.length > 1) {
+                iterations = Integer.parseInt(args[1]);
+            }
+        } else {
+            output = createOutput(TEST_COUNT).getBytes("UTF-8"); //$NON-NLS-1$
+        }
+
+        replay(output, WARMUP);
+        long gcCount = getGcCount();
+        CountingListener listener = new CountingListener();
+        long[] times = new long[iterations];
+        double testsPerSecond = 0;
+        for (int i = 0; i < iterations; i++) {
+            InstrumentationResultParser parser = replay(output, listener);
+            times[i] = parser.getParseTime();
+            testsPerSecond += parser.getTestsPerSecond();
+        }
+        gcCount = getGcCount() - gcCount;
+
+        Arrays.sort(times);
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        double mean = total / 1e6 / times.length;
+        System.out.println(String.format(
+                "%1$d bytes, %2$d tests, %3$d failed", //$NON-NLS-1$
+                output.length, listener.mEnded / iterations, listener.mFailed / iterations));
+        System.out.println(String.format(
+                "n=%1$d mean=%2$.2fms p50=%3$.2fms max=%4$.2fms", //$NON-NLS-1$
+                times.length, mean, times[times.length / 2] / 1e6,
+                times[times.length - 1] / 1e6));
+        System.out.println(String.format(
+                "%1$.1f MB/s, %2$.0f tests/s, %3$d GCs", //$NON-NLS-1$
+                output.length / mean / 1e3, testsPerSecond / iterations, gcCount));
+    }
+
+    private static void replay(byte[] output, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            replay(output, new CountingListener());
+        }
+    }
+
+    private static InstrumentationResultParser replay(byte[] output,
+            ITestRunListener listener) {
+        InstrumentationResultParser parser = new InstrumentationResultParser(
+                "benchmark", listener); //$NON-NLS-1$
+        for (int offset = 0; offset < output.length; offset += BLOCK_SIZE) {
+            parser.addOutput(output, offset, Math.min(BLOCK_SIZE, output.length - offset));
+        }
+        parser.flush();
+        return parser;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    private static byte[] readFile(String path) throws IOException {
+        InputStream input = new FileInputStream(path);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[BLOCK_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    /** Creates the output of a run, as printed by <code>am instrument -r</code>. */
+    static String createOutput(int testCount) {
+        StringBuilder output = new StringBuilder();
+        String lastClass = null;
+        for (int i = 0; i < testCount; i++) {
+            String className = String.format("com.example.app.tests.Feature%1$dTest", //$NON-NLS-1$
+                    i / 20);
+            String testName = "testCase" + i; //$NON-NLS-1$
+            // the class name is printed before its first test.
+            String stream = ""; //$NON-NLS-1$
+            if (!className.equals(lastClass)) {
+                stream = String.format("\r\n%1$s:", className); //$NON-NLS-1$
+            }
+            lastClass = className;
+
+            addStatus(output, className, testName, i + 1, testCount, stream);
+            output.append("INSTRUMENTATION_STATUS_CODE: 1\r\n"); //$NON-NLS-1$
+            if (i % 10 == 9) {
+                StringBuilder stack = new StringBuilder(FAILURE_MESSAGE);
+                for (int frame = 0; frame < 30; frame++) {
+                    stack.append(String.format(FRAME_FORMAT, frame, frame * 7));
+                }
+                String failure = String.format("\r\nFailure in %1$s:\r\n%2$s", //$NON-NLS-1$
+                        testName, stack);
+                addStatus(output, className, testName, i + 1, testCount, failure);
+                addKey(output, "stack", stack + "\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+                output.append("INSTRUMENTATION_STATUS_CODE: -2\r\n"); //$NON-NLS-1$
+            } else {
+                addStatus(output, className, testName, i + 1, testCount, "."); //$NON-NLS-1$
+                addKey(output, "startTime", Long.toString(1000000L + i * 13)); //$NON-NLS-1$
+                addKey(output, "endTime", Long.toString(1000010L + i * 13)); //$NON-NLS-1$
+                addKey(output, "cpu_time", Integer.toString(i % 97)); //$NON-NLS-1$
+                output.append("INSTRUMENTATION_STATUS_CODE: 0\r\n"); //$NON-NLS-1$
+            }
+        }
+        output.append("INSTRUMENTATION_RESULT: stream=\r\nTest results for " //$NON-NLS-1$
+                + "InstrumentationTestRunner=..\r\nTime: 123.456\r\n\r\n" //$NON-NLS-1$
+                + "FAILURES!!!\r\nTests run: " + testCount //$NON-NLS-1$
+                + "\r\n\r\n\r\n"); //$NON-NLS-1$
+        output.append("INSTRUMENTATION_CODE: -1\r\n"); //$NON-NLS-1$
+        return output.toString();
+    }
+
+    private static void addStatus(StringBuilder output, String className, String testName,
+            int current, int testCount, String stream) {
+        addKey(output, "id", "InstrumentationTestRunner"); //$NON-NLS-1$ //$NON-NLS-2$
+        addKey(output, "current", Integer.toString(current)); //$NON-NLS-1$
+        addKey(output, "class", className); //$NON-NLS-1$
+        addKey(output, "stream", stream); //$NON-NLS-1$
+        addKey(output, "numtests", Integer.toString(testCount)); //$NON-NLS-1$
+        addKey(output, "test", testName); //$NON-NLS-1$
+    }
+
+    private static void addKey(StringBuilder output, String key, String value) {
+        output.append("INSTRUMENTATION_STATUS: ").append(key).append('=') //$NON-NLS-1$
+                .append(value).append("\r\n"); //$NON-NLS-1$
+    }
+}
@@ -102,6 +102,24 @@ public class InstrumentationResultParserTest extends TestCase {
         injectAndVerifyTestString(output.toString());
     }
 
+    /**
+     * Tests the parsing counters of a single successful test execution.
+     */
+    public void testParse_counters() {
+        StringBuilder output = createSuccessTest();
+
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST_ID);
+        mMockListener.testEnded(TEST_ID, Collections.EMPTY_MAP);
+        mMockListener.testRunEnded(0, Collections.EMPTY_MAP);
+
+        injectAndVerifyTestString(output.toString());
+
+        assertEquals(1, mParser.getNumTestsRun());
+        assertEquals(output.length(), mParser.getBytesParsed());
+        assertTrue(mParser.getParseTime() > 0);
+    }
+
     /**
      * Tests parsing output for a successful test execution with metrics.
      */
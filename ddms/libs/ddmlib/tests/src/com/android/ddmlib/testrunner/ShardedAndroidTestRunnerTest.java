@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.testrunner;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.testrunner.ShardedAndroidTestRunner.ShardTiming;
+import com.android.ddmlib.testrunner.ShardedAndroidTestRunner.ShardingMode;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ShardedAndroidTestRunner}, with fake devices which print the output
+ * of <code>am instrument -r</code>.
+ */
+public class ShardedAndroidTestRunnerTest extends TestCase {
+
+    private static final String[] CLASSES = new String[] {
+        "com.foo.ATest", "com.foo.BTest", "com.foo.CTest", "com.foo.DTest", "com.foo.ETest",
+    };
+    private static final String[] METHODS = new String[] { "testOne", "testTwo" };
+    private static final Pattern ARG_PATTERN = Pattern.compile("-e (\\S+) (\\S+)");
+
+    /** Collects the results of the merged run. */
+    private static class CollectingListener implements ITestRunListener {
+        final List<TestIdentifier> mEnded = new ArrayList<TestIdentifier>();
+        final List<TestIdentifier> mFailed = new ArrayList<TestIdentifier>();
+        final List<String> mRunFailures = new ArrayList<String>();
+        int mRunStarted;
+        int mRunEnded;
+
+        public void testRunStarted(String runName, int testCount) {
+            mRunStarted++;
+        }
+
+        public void testStarted(TestIdentifier test) {
+        }
+
+        public void testFailed(TestFailure status, TestIdentifier test, String trace) {
+            mFailed.add(test);
+        }
+
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            mEnded.add(test);
+        }
+
+        public void testRunFailed(String errorMessage) {
+            mRunFailures.add(errorMessage);
+        }
+
+        public void testRunStopped(long elapsedTime) {
+        }
+
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            mRunEnded++;
+        }
+    }
+
+    /** The classes crashing the first time they are run. */
+    private final Set<String> mCrashes = Collections.synchronizedSet(new HashSet<String>());
+    /** The classes hanging the first time they are run. */
+    private final Set<String> mHangs = Collections.synchronizedSet(new HashSet<String>());
+    /** The class lists run by the devices. */
+    private final List<String> mRuns = Collections.synchronizedList(new ArrayList<String>());
+
+    private IDevice createDevice(final String serial) {
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                new Class<?>[] { IDevice.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getSerialNumber")
+                        || method.getName().equals("toString")) {
+                    return serial;
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("executeShellCommand")) {
+                    runInstrumentation(serial, (String) args[0],
+                            (IShellOutputReceiver) args[1]);
+                }
+                return null;
+            }
+        });
+    }
+
+    /** Prints the output of the tests selected by the arguments of an instrument command. */
+    private void runInstrumentation(String serial, String command,
+            IShellOutputReceiver receiver) throws Exception {
+        Map<String, String> args = new HashMap<String, String>();
+        Matcher matcher = ARG_PATTERN.matcher(command);
+        while (matcher.find()) {
+            args.put(matcher.group(1), matcher.group(2));
+        }
+
+        List<String> classes = new ArrayList<String>();
+        if (args.containsKey("class")) {
+            classes.addAll(Arrays.asList(args.get("class").split(",")));
+        } else {
+            int numShards = Integer.parseInt(args.get("numShards"));
+            int shardIndex = Integer.parseInt(args.get("shardIndex"));
+            for (int i = shardIndex; i < CLASSES.length; i += numShards) {
+                classes.add(CLASSES[i]);
+            }
+        }
+        mRuns.add(serial + " " + classes);
+
+        StringBuilder output = new StringBuilder();
+        int numTests = classes.size() * METHODS.length;
+        int current = 0;
+        for (String className : classes) {
+            for (String methodName : METHODS) {
+                current++;
+                addStatus(output, className, methodName, current, numTests, "1");
+                if (mCrashes.remove(className)) {
+                    output.append("INSTRUMENTATION_RESULT: shortMsg=Process crashed.\r\n");
+                    output.append("INSTRUMENTATION_CODE: 0\r\n");
+                    send(receiver, output);
+                    return;
+                }
+                if (mHangs.remove(className)) {
+                    // the receiver is not flushed when the command times out.
+                    byte[] data = output.toString().getBytes("UTF-8");
+                    receiver.addOutput(data, 0, data.length);
+                    throw new ShellCommandUnresponsiveException();
+                }
+                addStatus(output, className, methodName, current, numTests, "0");
+            }
+        }
+        output.append("INSTRUMENTATION_RESULT: stream=\r\nOK\r\n");
+        output.append("INSTRUMENTATION_CODE: -1\r\n");
+        send(receiver, output);
+    }
+
+    private static void addStatus(StringBuilder output, String className, String methodName,
+            int current, int numTests, String code) {
+        output.append("INSTRUMENTATION_STATUS: id=InstrumentationTestRunner\r\n");
+        output.append("INSTRUMENTATION_STATUS: class=" + className + "\r\n");
+        output.append("INSTRUMENTATION_STATUS: test=" + methodName + "\r\n");
+        output.append("INSTRUMENTATION_STATUS: current=" + current + "\r\n");
+        output.append("INSTRUMENTATION_STATUS: numtests=" + numTests + "\r\n");
+        output.append("INSTRUMENTATION_STATUS_CODE: " + code + "\r\n");
+    }
+
+    private static void send(IShellOutputReceiver receiver, StringBuilder output)
+            throws Exception {
+        byte[] data = output.toString().getBytes("UTF-8");
+        receiver.addOutput(data, 0, data.length);
+        receiver.flush();
+    }
+
+    private List<IDevice> createDevices(int count) {
+        List<IDevice> devices = new ArrayList<IDevice>();
+        for (int i = 0; i < count; i++) {
+            devices.add(createDevice("device" + i));
+        }
+        return devices;
+    }
+
+    /** Checks that each test of each class ended exactly once. */
+    private static void checkAllTestsEnded(CollectingListener listener) {
+        assertEquals(1, listener.mRunStarted);
+        assertEquals(1, listener.mRunEnded);
+        assertEquals(CLASSES.length * METHODS.length, listener.mEnded.size());
+        for (String className : CLASSES) {
+            for (String methodName : METHODS) {
+                assertTrue(listener.mEnded.contains(new TestIdentifier(className, methodName)));
+            }
+        }
+    }
+
+    public void testInstrumentationShards() {
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(3));
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+
+        checkAllTestsEnded(listener);
+        assertTrue(listener.mRunFailures.isEmpty());
+        assertEquals(3, runner.getShardTimings().size());
+        assertEquals(CLASSES.length, runner.getClassTimes().size());
+    }
+
+    public void testClassPartition() {
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(2));
+        runner.setShardingMode(ShardingMode.CLASSES);
+        runner.setClassNames(CLASSES);
+        Map<String, Long> times = new HashMap<String, Long>();
+        times.put(CLASSES[0], 100L);
+        times.put(CLASSES[1], 60L);
+        times.put(CLASSES[2], 50L);
+        runner.setClassTimes(times);
+
+        List<ShardedAndroidTestRunner.Shard> shards = runner.createShards();
+        assertEquals(2, shards.size());
+        // the unknown D and E take the average time (70): A+B = 160, D+E+C = 190.
+        assertEquals(Arrays.asList(CLASSES[0], CLASSES[1]), shards.get(0).mClassNames);
+        assertEquals(Arrays.asList(CLASSES[3], CLASSES[4], CLASSES[2]),
+                shards.get(1).mClassNames);
+
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+        checkAllTestsEnded(listener);
+        assertEquals(2, mRuns.size());
+    }
+
+    public void testDynamic() {
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(2));
+        runner.setShardingMode(ShardingMode.DYNAMIC);
+        runner.setClassNames(CLASSES);
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+
+        checkAllTestsEnded(listener);
+        assertEquals(CLASSES.length, mRuns.size());
+        assertEquals(CLASSES.length, runner.getShardTimings().size());
+    }
+
+    /** Check that the tests a crashed shard did not run are run again on another device. */
+    public void testCrash() {
+        mCrashes.add(CLASSES[1]);
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(2));
+        runner.setShardingMode(ShardingMode.CLASSES);
+        runner.setClassNames(CLASSES);
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+
+        checkAllTestsEnded(listener);
+        // the test running during the crash is reported as failed, and not run again.
+        assertEquals(Collections.singletonList(new TestIdentifier(CLASSES[1], METHODS[0])),
+                listener.mFailed);
+        assertTrue(listener.mRunFailures.isEmpty());
+
+        // the retry runs on the other device.
+        ShardTiming failed = null;
+        ShardTiming retry = null;
+        for (ShardTiming timing : runner.getShardTimings()) {
+            if (!timing.isCompleted()) {
+                assertNull(failed);
+                failed = timing;
+            } else if (timing.getAttempt() == 1) {
+                retry = timing;
+            }
+        }
+        assertEquals(3, runner.getShardTimings().size());
+        assertNotNull(failed);
+        assertNotNull(retry);
+        assertFalse(failed.getSerialNumber().equals(retry.getSerialNumber()));
+        // B, D are in the second shard: B crashed during its first test and runs again.
+        assertEquals(2, failed.getTestCount() + 1);
+        assertEquals(4, retry.getTestCount());
+    }
+
+    /** Check that a hung shard is run again, on the same device which is not dropped. */
+    public void testUnresponsive() {
+        mHangs.add(CLASSES[1]);
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(1));
+        runner.setShardingMode(ShardingMode.DYNAMIC);
+        runner.setClassNames(CLASSES);
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+
+        checkAllTestsEnded(listener);
+        assertTrue(listener.mRunFailures.isEmpty());
+        // the hung class runs again, and the device runs the classes after it.
+        assertEquals(CLASSES.length + 1, mRuns.size());
+        assertEquals(CLASSES.length + 1, runner.getShardTimings().size());
+    }
+
+    /** Check that a shard which keeps crashing is reported as failed. */
+    public void testCrashAgain() {
+        mCrashes.add(CLASSES[0]);
+        ShardedAndroidTestRunner runner = new ShardedAndroidTestRunner("com.foo", null,
+                createDevices(1));
+        runner.setShardingMode(ShardingMode.CLASSES);
+        runner.setClassNames(CLASSES);
+        runner.setMaxRetries(0);
+        CollectingListener listener = new CollectingListener();
+        runner.run(listener);
+
+        assertEquals(1, listener.mRunFailures.size());
+        assertEquals(1, listener.mEnded.size());
+    }
+}
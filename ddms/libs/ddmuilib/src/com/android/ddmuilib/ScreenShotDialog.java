@@ -121,12 +121,9 @@ public class ScreenShotDialog extends Dialog {
             @Override
             public void widgetSelected(SelectionEvent e) {
                 updateDeviceImage(shell);
-                // RawImage only allows us to rotate the image 90 degrees at the time,
-                // so to preserve the current rotation we must call getRotated()
-                // the same number of times the user has done it manually.
-                // TODO: improve the RawImage class.
-                for (int i=0; i < mRotateCount; i++) {
-                    mRawImage = mRawImage.getRotated();
+                // preserve the rotation the user has done manually.
+                if (mRawImage != null && mRotateCount != 0) {
+                    mRawImage = mRawImage.getRotated(mRotateCount);
                 }
                 updateImageDisplay(shell);
             }
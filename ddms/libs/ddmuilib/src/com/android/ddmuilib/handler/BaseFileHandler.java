@@ -32,9 +32,11 @@ import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Shell;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.FileChannel;
 
 /**
  * Base handler class for handler dealing with files located on a device.
@@ -122,6 +124,42 @@ public abstract class BaseFileHandler {
         return false;
     }
 
+    /**
+     * Prompts the user for a save location and moves a temp file into it. The temp file is
+     * deleted in all cases.
+     * <p/>This <strong>must</strong> be called from the UI Thread.
+     * @param localFileName The default local name
+     * @param tempFile The temp file to move.
+     * @param title The title of the File Save dialog.
+     * @return true if success, false on error or cancel.
+     */
+    protected boolean promptAndSave(String localFileName, File tempFile, String title) {
+        FileDialog fileDialog = new FileDialog(mParentShell, SWT.SAVE);
+
+        fileDialog.setText(title);
+        fileDialog.setFileName(localFileName);
+
+        String localFilePath = fileDialog.open();
+        try {
+            if (localFilePath != null) {
+                try {
+                    moveFile(tempFile, new File(localFilePath));
+                    return true;
+                } catch (IOException e) {
+                    String errorMsg = e.getMessage();
+                    displayErrorInUiThread(
+                            "Failed to save file '%1$s'%2$s",
+                            localFilePath,
+                            errorMsg != null ? ":\n" + errorMsg : ".");
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+
+        return false;
+    }
+
     /**
      * Display an error message.
      * <p/>This will call about to {@link Display} to run this in an async {@link Runnable} in the
@@ -178,4 +216,38 @@ public abstract class BaseFileHandler {
             }
         }
     }
+
+    /**
+     * Moves a file, copying it if it cannot be renamed, for instance when the destination is
+     * on another file system.
+     * @param input the file to move.
+     * @param output the destination file.
+     * @throws IOException
+     */
+    protected void moveFile(File input, File output) throws IOException {
+        output.delete();
+        if (input.renameTo(output)) {
+            return;
+        }
+
+        FileChannel in = null;
+        FileChannel out = null;
+        try {
+            in = new FileInputStream(input).getChannel();
+            out = new FileOutputStream(output).getChannel();
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+        input.delete();
+    }
 }
@@ -20,10 +20,18 @@ import com.android.ddmlib.log.EventContainer;
 import com.android.ddmlib.log.EventLogParser;
 import com.android.ddmlib.log.EventValueDescription;
 import com.android.ddmlib.log.InvalidTypeException;
+import com.android.ddmuilib.log.event.MultiResolutionSeries.IPointReceiver;
+import org.eclipse.swt.events.ControlAdapter;
+import org.eclipse.swt.events.ControlEvent;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.jfree.chart.axis.AxisLocation;
 import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.axis.ValueAxis;
+import org.jfree.chart.event.AxisChangeEvent;
+import org.jfree.chart.event.AxisChangeListener;
 import org.jfree.chart.plot.XYPlot;
 import org.jfree.chart.renderer.xy.AbstractXYItemRenderer;
 import org.jfree.chart.renderer.xy.XYAreaRenderer;
@@ -36,10 +44,30 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
 
 public class DisplayGraph extends EventDisplay {
 
+    /** The bucket count used when the width of the chart is not known yet. */
+    private final static int DEFAULT_BUCKET_COUNT = 1000;
+
+    /**
+     * The values of each {@link TimeSeries}. The {@link TimeSeries} objects in the datasets only
+     * contain the points of the visible range, downsampled to the width of the chart, so that
+     * drawing does not depend on the number of events.
+     * <p/>The hash code of a {@link TimeSeries} depends on its items, so the map uses identity.
+     */
+    private final IdentityHashMap<TimeSeries, MultiResolutionSeries> mSeriesValues =
+            new IdentityHashMap<TimeSeries, MultiResolutionSeries>();
+    /** Whether values were added since the {@link TimeSeries} objects were last refreshed. */
+    private boolean mSeriesValuesChanged = false;
+    /** The range and width the {@link TimeSeries} objects were last refreshed for. */
+    private long mRefreshStart = -1;
+    private long mRefreshEnd = -1;
+    private int mRefreshWidth = -1;
+
     public DisplayGraph(String name) {
         super(name);
     }
@@ -58,6 +86,8 @@ public class DisplayGraph extends EventDisplay {
         }
         mValueDescriptorSeriesMap.clear();
         mOcurrenceDescriptorSeriesMap.clear();
+        mSeriesValues.clear();
+        mRefreshWidth = -1;
     }
 
     /**
@@ -70,7 +100,39 @@ public class DisplayGraph extends EventDisplay {
     public Control createComposite(final Composite parent, EventLogParser logParser,
             final ILogColumnListener listener) {
         String title = getChartTitle(logParser);
-        return createCompositeChart(parent, logParser, title);
+        Control control = createCompositeChart(parent, logParser, title);
+
+        // the series are refreshed when the chart is zoomed, scrolled or resized.
+        mChart.getXYPlot().getDomainAxis().addChangeListener(new AxisChangeListener() {
+            public void axisChanged(AxisChangeEvent event) {
+                refreshSeries(false /* force */);
+            }
+        });
+        control.addControlListener(new ControlAdapter() {
+            @Override
+            public void controlResized(ControlEvent e) {
+                refreshSeries(false /* force */);
+            }
+        });
+        control.addDisposeListener(new DisposeListener() {
+            public void widgetDisposed(DisposeEvent e) {
+                mSeriesValues.clear();
+                mRefreshWidth = -1;
+            }
+        });
+
+        return control;
+    }
+
+    /**
+     * Refreshes the series with the values added during the multi event display.
+     */
+    @Override
+    void endMultiEventDisplay() {
+        super.endMultiEventDisplay();
+        if (mSeriesValuesChanged) {
+            refreshSeries(true /* force */);
+        }
     }
 
     /**
@@ -104,7 +166,6 @@ public class DisplayGraph extends EventDisplay {
             ArrayList<OccurrenceDisplayDescriptor> occurrenceDescriptors) {
         Map<Integer, String> tagMap = logParser.getTagMap();
 
-        Millisecond millisecondTime = null;
         long msec = -1;
 
         // If the event container is a cpu container (tag == 2721), and there is no descriptor
@@ -162,9 +223,11 @@ public class DisplayGraph extends EventDisplay {
 
                     // create the series
                     timeSeries = new TimeSeries(seriesFullName, Millisecond.class);
+                    MultiResolutionSeries values = new MultiResolutionSeries();
                     if (mMaximumChartItemAge != -1) {
-                        timeSeries.setMaximumItemAge(mMaximumChartItemAge * 1000);
+                        values.setMaximumItemAge(mMaximumChartItemAge * 1000);
                     }
+                    mSeriesValues.put(timeSeries, values);
 
                     dataset.addSeries(timeSeries);
 
@@ -184,13 +247,14 @@ public class DisplayGraph extends EventDisplay {
                 }
 
                 // get the time
-                if (millisecondTime == null) {
+                if (msec == -1) {
                     msec = (long)event.sec * 1000L + (event.nsec / 1000000L);
-                    millisecondTime = new Millisecond(new Date(msec));
                 }
 
-                // add the value to the time series
-                timeSeries.addOrUpdate(millisecondTime, value);
+                // add the value to the values of the time series. The time series itself is
+                // refreshed at the end of the multi event display.
+                mSeriesValues.get(timeSeries).addOrUpdate(msec, value);
+                mSeriesValuesChanged = true;
             } catch (InvalidTypeException e) {
                 // just ignore this descriptor if there's a type mismatch
             }
@@ -218,9 +282,11 @@ public class DisplayGraph extends EventDisplay {
                             tagMap.get(descriptor.eventTag), seriesLabel);
 
                     timeSeries = new TimeSeries(seriesFullName, Millisecond.class);
+                    MultiResolutionSeries values = new MultiResolutionSeries();
                     if (mMaximumChartItemAge != -1) {
-                        timeSeries.setMaximumItemAge(mMaximumChartItemAge);
+                        values.setMaximumItemAge(mMaximumChartItemAge);
                     }
+                    mSeriesValues.put(timeSeries, values);
 
                     getOccurrenceDataSet().addSeries(timeSeries);
 
@@ -230,13 +296,13 @@ public class DisplayGraph extends EventDisplay {
                 // update the series
 
                 // get the time
-                if (millisecondTime == null) {
+                if (msec == -1) {
                     msec = (long)event.sec * 1000L + (event.nsec / 1000000L);
-                    millisecondTime = new Millisecond(new Date(msec));
                 }
 
-                // add the value to the time series
-                timeSeries.addOrUpdate(millisecondTime, 0); // the value is unused
+                // add the value to the values of the time series
+                mSeriesValues.get(timeSeries).addOrUpdate(msec, 0); // the value is unused
+                mSeriesValuesChanged = true;
             } catch (InvalidTypeException e) {
                 // just ignore this descriptor if there's a type mismatch
             }
@@ -244,25 +310,67 @@ public class DisplayGraph extends EventDisplay {
 
         // go through all the series and remove old values.
         if (msec != -1 && mMaximumChartItemAge != -1) {
-            Collection<HashMap<Integer, TimeSeries>> pidMapValues =
-                mValueDescriptorSeriesMap.values();
+            for (MultiResolutionSeries values : mSeriesValues.values()) {
+                values.removeAgedItems(msec);
+            }
+        }
+    }
 
-            for (HashMap<Integer, TimeSeries> pidMapValue : pidMapValues) {
-                Collection<TimeSeries> seriesCollection = pidMapValue.values();
+    /**
+     * Refreshes the {@link TimeSeries} objects with the points of their values in the visible
+     * range, downsampled to the width of the chart.
+     * <p/>The visible range is the range of all the values, unless the chart is zoomed.
+     * @param force whether to refresh the series even if the visible range and the width of the
+     * chart did not change.
+     */
+    private void refreshSeries(boolean force) {
+        if (mChart == null) {
+            return;
+        }
 
-                for (TimeSeries timeSeries : seriesCollection) {
-                    timeSeries.removeAgedItems(msec, true);
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        ValueAxis axis = mChart.getXYPlot().getDomainAxis();
+        if (axis.isAutoRange()) {
+            for (MultiResolutionSeries values : mSeriesValues.values()) {
+                if (values.getItemCount() > 0) {
+                    start = Math.min(start, values.getFirstTime());
+                    end = Math.max(end, values.getLastTime());
                 }
             }
+        } else {
+            start = (long)Math.floor(axis.getLowerBound());
+            end = (long)Math.ceil(axis.getUpperBound());
+        }
 
-            pidMapValues = mOcurrenceDescriptorSeriesMap.values();
-            for (HashMap<Integer, TimeSeries> pidMapValue : pidMapValues) {
-                Collection<TimeSeries> seriesCollection = pidMapValue.values();
+        int width = getChartWidth();
+        if (width == 0) {
+            width = DEFAULT_BUCKET_COUNT;
+        }
 
-                for (TimeSeries timeSeries : seriesCollection) {
-                    timeSeries.removeAgedItems(msec, true);
-                }
+        // refreshing the series changes the range of the axis, which calls this method again.
+        if (force == false && start == mRefreshStart && end == mRefreshEnd
+                && width == mRefreshWidth) {
+            return;
+        }
+        mRefreshStart = start;
+        mRefreshEnd = end;
+        mRefreshWidth = width;
+        mSeriesValuesChanged = false;
+
+        for (Entry<TimeSeries, MultiResolutionSeries> entry : mSeriesValues.entrySet()) {
+            final TimeSeries timeSeries = entry.getKey();
+            timeSeries.setNotify(false);
+            timeSeries.clear();
+            if (start <= end) {
+                entry.getValue().getPoints(start, end, width, new IPointReceiver() {
+                    public void addPoint(long time, double value) {
+                        timeSeries.add(new Millisecond(new Date(time)), value,
+                                false /* notify */);
+                    }
+                });
             }
+            timeSeries.setNotify(true);
         }
     }
 
@@ -605,6 +605,17 @@ abstract class EventDisplay {
 
     }
 
+    /**
+     * Returns the width of the chart in pixels, or 0 if the chart is not displayed.
+     */
+    protected int getChartWidth() {
+        if (mChartComposite != null && mChartComposite.isDisposed() == false) {
+            return mChartComposite.getClientArea().width;
+        }
+
+        return 0;
+    }
+
     private void processClick(XYPlot xyPlot) {
         double rangeValue = xyPlot.getRangeCrosshairValue();
         if (rangeValue != 0) {
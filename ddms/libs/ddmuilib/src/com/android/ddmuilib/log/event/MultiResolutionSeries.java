@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.log.event;
+
+/**
+ * Stores the values of a time series, and returns them downsampled to the resolution of the
+ * display.
+ * <p/>The values are kept sorted by time, with one value per millisecond. Above them, each level
+ * <code>k</code> stores the index of the minimum and the maximum value of each bucket of
+ * <code>2^k</code> consecutive values. A time range is split in buckets of equal time, one per
+ * pixel, and is returned as the minimum and the maximum of each bucket, computed from the
+ * largest buckets of the levels that fit in it. The number of points depends on the width of
+ * the display rather than on the number of values, while the peaks are kept, even where the
+ * values are sparse.
+ * <p/>The levels are updated lazily, when the values are requested, from the first value added
+ * or changed since the previous request. Appending values is cheap.
+ */
+final class MultiResolutionSeries {
+
+    /**
+     * Receives the points of a time range.
+     */
+    interface IPointReceiver {
+        /**
+         * Adds a point. The points are added by increasing time.
+         * @param time the time in ms.
+         * @param value the value.
+         */
+        void addPoint(long time, double value);
+    }
+
+    private final static int INITIAL_CAPACITY = 64;
+    private final static int MAX_LEVELS = 31;
+
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private double[] mValues = new double[INITIAL_CAPACITY];
+    /** The index of the first value, after the removed values. */
+    private int mStart;
+    /** The index after the last value. */
+    private int mEnd;
+
+    /**
+     * The index of the minimum and maximum values of each complete bucket, by level. The
+     * level 0 is the values themselves, and has no arrays.
+     */
+    private final int[][] mLevelMin = new int[MAX_LEVELS][];
+    private final int[][] mLevelMax = new int[MAX_LEVELS][];
+    /** The index of the first value not included in the levels yet. */
+    private int mLevelEnd;
+
+    private long mMaximumItemAge = -1;
+
+    /** The index of the last point returned by {@link #getPoints}. */
+    private int mLastPoint;
+    /** The indices of the minimum and maximum values found by {@link #findMinMax}. */
+    private int mMinIndex;
+    private int mMaxIndex;
+
+    /**
+     * Sets the maximum age of the values, in ms, for {@link #removeAgedItems(long)}.
+     * @param age the age, or -1 to keep all the values.
+     */
+    void setMaximumItemAge(long age) {
+        mMaximumItemAge = age;
+    }
+
+    /**
+     * Returns the number of values.
+     */
+    int getItemCount() {
+        return mEnd - mStart;
+    }
+
+    /**
+     * Returns the time of the first value. The series must not be empty.
+     */
+    long getFirstTime() {
+        return mTimes[mStart];
+    }
+
+    /**
+     * Returns the time of the last value. The series must not be empty.
+     */
+    long getLastTime() {
+        return mTimes[mEnd - 1];
+    }
+
+    /**
+     * Adds a value, or replaces the value at the same time.
+     * @param time the time in ms.
+     * @param value the value.
+     */
+    void addOrUpdate(long time, double value) {
+        if (mEnd == mTimes.length) {
+            grow();
+        }
+
+        int index;
+        if (mStart == mEnd || time > mTimes[mEnd - 1]) {
+            // the usual case, as the events come in order.
+            index = mEnd;
+        } else {
+            index = findIndex(time, mStart);
+            if (index < mEnd && mTimes[index] == time) {
+                mValues[index] = value;
+                mLevelEnd = Math.min(mLevelEnd, index);
+                return;
+            }
+        }
+
+        if (index < mEnd) {
+            System.arraycopy(mTimes, index, mTimes, index + 1, mEnd - index);
+            System.arraycopy(mValues, index, mValues, index + 1, mEnd - index);
+            mLevelEnd = Math.min(mLevelEnd, index);
+        }
+        mTimes[index] = time;
+        mValues[index] = value;
+        mEnd++;
+    }
+
+    /**
+     * Removes the values older than the maximum item age, relative to a given time.
+     * @param latest the time in ms the age is computed from.
+     */
+    void removeAgedItems(long latest) {
+        if (mMaximumItemAge != -1) {
+            while (mStart < mEnd && latest - mTimes[mStart] > mMaximumItemAge) {
+                mStart++;
+            }
+        }
+    }
+
+    /**
+     * Removes all the values.
+     */
+    void clear() {
+        mStart = mEnd = mLevelEnd = 0;
+    }
+
+    /**
+     * Returns the points of a time range, downsampled to a number of buckets.
+     * <p/>The points are the values just before and after the range, so that the lines cross
+     * the edges of the display, and the values in the range. If there are more than
+     * twice as many values in the range as buckets, the range is split in buckets of equal
+     * time, and only the minimum and maximum of each bucket are returned.
+     *
+     * @param start the start of the range, in ms.
+     * @param end the end of the range, in ms.
+     * @param bucketCount the number of buckets, usually the width of the display in pixels.
+     * @param receiver the receiver of the points.
+     */
+    void getPoints(long start, long end, int bucketCount, IPointReceiver receiver) {
+        if (mStart == mEnd) {
+            return;
+        }
+
+        int first = Math.max(findIndex(start, mStart) - 1, mStart);
+        int last = Math.min(findIndex(end + 1, mStart), mEnd - 1);
+        if (last - first + 1 <= 2 * bucketCount) {
+            for (int i = first; i <= last; i++) {
+                receiver.addPoint(mTimes[i], mValues[i]);
+            }
+            return;
+        }
+
+        updateLevels();
+        double bucketTime = (double) (end - start + 1) / bucketCount;
+
+        mLastPoint = first - 1;
+        addPoint(first, receiver);
+        int index = first + 1;
+        while (index < last) {
+            // the values between first and last are all in the range.
+            long bucket = Math.min((long) ((mTimes[index] - start) / bucketTime),
+                    bucketCount - 1);
+            int bucketEnd = last;
+            if (bucket < bucketCount - 1) {
+                long endTime = start + (long) Math.ceil((bucket + 1) * bucketTime);
+                bucketEnd = Math.max(Math.min(findIndex(endTime, index), last), index + 1);
+            }
+
+            findMinMax(index, bucketEnd - 1);
+            addPoint(Math.min(mMinIndex, mMaxIndex), receiver);
+            addPoint(Math.max(mMinIndex, mMaxIndex), receiver);
+            index = bucketEnd;
+        }
+        addPoint(last, receiver);
+    }
+
+    /**
+     * Finds the indices of the minimum and maximum values between two indices, from the
+     * largest buckets of the levels that fit between them, and stores them in
+     * {@link #mMinIndex} and {@link #mMaxIndex}. The levels must be up to date.
+     */
+    private void findMinMax(int first, int last) {
+        int min = first;
+        int max = first;
+        int index = first;
+        while (index <= last) {
+            int level = 0;
+            while (level + 1 < MAX_LEVELS && (index & ((2 << level) - 1)) == 0
+                    && index + (2 << level) - 1 <= last) {
+                level++;
+            }
+
+            if (level == 0) {
+                min = minIndex(min, index);
+                max = maxIndex(max, index);
+            } else {
+                min = minIndex(min, mLevelMin[level][index >> level]);
+                max = maxIndex(max, mLevelMax[level][index >> level]);
+            }
+            index += 1 << level;
+        }
+
+        mMinIndex = min;
+        mMaxIndex = max;
+    }
+
+    /**
+     * Adds the point at an index, unless it was already added.
+     */
+    private void addPoint(int index, IPointReceiver receiver) {
+        if (index > mLastPoint) {
+            receiver.addPoint(mTimes[index], mValues[index]);
+            mLastPoint = index;
+        }
+    }
+
+    /**
+     * Returns the index of the first value at or after a time, from a given index.
+     */
+    private int findIndex(long time, int low) {
+        int high = mEnd;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int minIndex(int i, int j) {
+        return mValues[j] < mValues[i] ? j : i;
+    }
+
+    private int maxIndex(int i, int j) {
+        return mValues[j] > mValues[i] ? j : i;
+    }
+
+    /**
+     * Computes the buckets of each level that include values added or changed since the last
+     * update, from the buckets of the level below.
+     */
+    private void updateLevels() {
+        for (int level = 1; level < MAX_LEVELS && (mEnd >> level) > 0; level++) {
+            int[] min = mLevelMin[level];
+            int[] max = mLevelMax[level];
+            int bucketCount = mEnd >> level;
+            if (min == null || min.length < bucketCount) {
+                int length = Math.max(mTimes.length >> level, bucketCount);
+                min = copyOf(min, length);
+                max = copyOf(max, length);
+                mLevelMin[level] = min;
+                mLevelMax[level] = max;
+            }
+
+            int[] lowerMin = mLevelMin[level - 1];
+            int[] lowerMax = mLevelMax[level - 1];
+            for (int bucket = mLevelEnd >> level; bucket < bucketCount; bucket++) {
+                int lower = bucket << 1;
+                if (level == 1) {
+                    min[bucket] = minIndex(lower, lower + 1);
+                    max[bucket] = maxIndex(lower, lower + 1);
+                } else {
+                    min[bucket] = minIndex(lowerMin[lower], lowerMin[lower + 1]);
+                    max[bucket] = maxIndex(lowerMax[lower], lowerMax[lower + 1]);
+                }
+            }
+        }
+        mLevelEnd = mEnd;
+    }
+
+    /**
+     * Makes room for a value: the removed values are dropped if they are at least half of the
+     * arrays, else the arrays grow.
+     */
+    private void grow() {
+        if (mStart >= mTimes.length / 2) {
+            // the buckets are aligned on the indices, so the levels are computed again.
+            System.arraycopy(mTimes, mStart, mTimes, 0, mEnd - mStart);
+            System.arraycopy(mValues, mStart, mValues, 0, mEnd - mStart);
+            mEnd -= mStart;
+            mStart = 0;
+            mLevelEnd = 0;
+        } else {
+            long[] times = new long[mTimes.length * 2];
+            System.arraycopy(mTimes, 0, times, 0, mEnd);
+            mTimes = times;
+            double[] values = new double[mValues.length * 2];
+            System.arraycopy(mValues, 0, values, 0, mEnd);
+            mValues = values;
+        }
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        if (array != null) {
+            System.arraycopy(array, 0, copy, 0, array.length);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only archive of logcat messages on disk, which keeps all the messages received from
+ * a device, unlike the in-memory {@link LogCatMessageList}.
+ * <p/>Messages are numbered from 0 in the order they are archived, and stored in segment
+ * files of about {@link #SEGMENT_SIZE} bytes. Once full, a segment is sealed: its indexes are
+ * written next to it, and it is read through memory mapped buffers, so that browsing or
+ * searching the archive does not load it into the heap. The segment being written keeps its
+ * indexes in memory, and is read with positional reads.
+ * <p/>Each segment has the following files, named after the sequence number of its first
+ * message:
+ * <ul>
+ * <li>.dat: the messages. Each record is the length of the rest of the record (int), the log
+ * level ordinal (byte, -1 if none) and the pid, app name, tag, time and text (each an unsigned
+ * short length followed by UTF-8 bytes).</li>
+ * <li>.tim: the time index. For every {@link #TIME_INDEX_INTERVAL} messages, the highest time
+ * so far (long, see {@link #getTimeKey(String)}). Sealed segments only.</li>
+ * <li>.tag and .pid: the tag and pid indexes. The number of entries (int), then for each
+ * distinct value, its length (unsigned short), its UTF-8 bytes, the number of messages (int)
+ * and the index of each message in the segment (int). Sealed segments only.</li>
+ * <li>.idx: the offset (int) of each message in the .dat file. It is written last when
+ * sealing, so a segment without one is rebuilt by reading its .dat file.</li>
+ * </ul>
+ * All numbers are big endian. This class is thread safe.
+ */
+public final class LogCatArchive {
+    /** Preference key for the folder of the logcat archives. No archive is kept if empty. */
+    public static final String ARCHIVE_FOLDER_PREFKEY = "logcat.archive.folder"; //$NON-NLS-1$
+
+    /** Size of the segments. */
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Number of messages between two entries of the time index. */
+    public static final int TIME_INDEX_INTERVAL = 256;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private static final String DATA_EXTENSION = ".dat"; //$NON-NLS-1$
+    private static final String OFFSETS_EXTENSION = ".idx"; //$NON-NLS-1$
+    private static final String TIMES_EXTENSION = ".tim"; //$NON-NLS-1$
+    private static final String TAGS_EXTENSION = ".tag"; //$NON-NLS-1$
+    private static final String PIDS_EXTENSION = ".pid"; //$NON-NLS-1$
+
+    private static final LogLevel[] sLevels = LogLevel.values();
+
+    /** Growable list of ints. */
+    private static final class IntList {
+        int[] mValues = new int[16];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+    }
+
+    /**
+     * A segment file, and its indexes. The indexes are mapped from their files once the
+     * segment is sealed, and kept in memory before.
+     */
+    private static final class Segment {
+        private final File mFolder;
+        private final long mFirstSequence;
+        private int mCount;
+
+        /* sealed segment. */
+        private ByteBuffer mData;
+        private ByteBuffer mOffsets;
+        private ByteBuffer mTimes;
+        private ByteBuffer mTags;
+        private ByteBuffer mPids;
+
+        /* segment being written. */
+        private FileChannel mChannel;
+        private long mSize;
+        private IntList mOffsetList;
+        private long[] mTimeList;
+        private long mMaxTimeKey = -1;
+        private Map<String, IntList> mTagPostings;
+        private Map<String, IntList> mPidPostings;
+
+        Segment(File folder, long firstSequence) {
+            mFolder = folder;
+            mFirstSequence = firstSequence;
+        }
+
+        File getFile(String extension) {
+            return new File(mFolder, String.format("%020d%s", mFirstSequence, extension)); //$NON-NLS-1$
+        }
+
+        boolean isSealed() {
+            return mChannel == null;
+        }
+
+        /** Opens the segment for writing, reading the messages already in the data file. */
+        void openForWriting() throws IOException {
+            mOffsetList = new IntList();
+            mTimeList = new long[16];
+            mTagPostings = new HashMap<String, IntList>();
+            mPidPostings = new HashMap<String, IntList>();
+
+            mChannel = new RandomAccessFile(getFile(DATA_EXTENSION), "rw") //$NON-NLS-1$
+                    .getChannel();
+            long length = mChannel.size();
+            ByteBuffer header = ByteBuffer.allocate(4);
+            while (mSize + 4 <= length) {
+                header.clear();
+                mChannel.read(header, mSize);
+                int recordLength = header.getInt(0);
+                if (recordLength <= 0 || mSize + 4 + recordLength > length) {
+                    break;
+                }
+                ByteBuffer record = ByteBuffer.allocate(recordLength);
+                mChannel.read(record, mSize + 4);
+                record.flip();
+                index(decode(record, 0, new byte[recordLength]), (int) mSize);
+                mSize += 4 + recordLength;
+            }
+            // drop an incomplete record written before a crash.
+            mChannel.truncate(mSize);
+        }
+
+        /** Adds a message written at the given offset to the in-memory indexes. */
+        void index(LogCatMessage m, int offset) {
+            if (mCount % TIME_INDEX_INTERVAL == 0 && mCount > 0) {
+                int entry = mCount / TIME_INDEX_INTERVAL - 1;
+                if (entry == mTimeList.length) {
+                    mTimeList = Arrays.copyOf(mTimeList, entry * 2);
+                }
+                mTimeList[entry] = mMaxTimeKey;
+            }
+            mMaxTimeKey = Math.max(mMaxTimeKey, getTimeKey(m.getTime()));
+
+            mOffsetList.add(offset);
+            addPosting(mTagPostings, m.getTag(), mCount);
+            addPosting(mPidPostings, m.getPid(), mCount);
+            mCount++;
+        }
+
+        private static void addPosting(Map<String, IntList> postings, String key, int index) {
+            if (key == null) {
+                key = ""; //$NON-NLS-1$
+            }
+            IntList list = postings.get(key);
+            if (list == null) {
+                list = new IntList();
+                postings.put(key, list);
+            }
+            list.add(index);
+        }
+
+        void append(ByteBuffer records, List<LogCatMessage> messages, int[] offsets)
+                throws IOException {
+            while (records.hasRemaining()) {
+                mChannel.write(records, mSize + records.position());
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                index(messages.get(i), (int) mSize + offsets[i]);
+            }
+            mSize += records.limit();
+        }
+
+        /** Writes the indexes, and maps the segment for reading. */
+        void seal() throws IOException {
+            if (mChannel != null) {
+                mChannel.force(false);
+                mChannel.close();
+                mChannel = null;
+
+                DataOutputStream out = createFile(TIMES_EXTENSION);
+                for (int i = 0; i < getTimeEntries(); i++) {
+                    out.writeLong(mTimeList[i]);
+                }
+                // the last entry is the highest time of the segment.
+                out.writeLong(mMaxTimeKey);
+                out.close();
+
+                writePostings(TAGS_EXTENSION, mTagPostings);
+                writePostings(PIDS_EXTENSION, mPidPostings);
+
+                out = createFile(OFFSETS_EXTENSION);
+                for (int i = 0; i < mCount; i++) {
+                    out.writeInt(mOffsetList.mValues[i]);
+                }
+                out.close();
+
+                mOffsetList = null;
+                mTimeList = null;
+                mTagPostings = null;
+                mPidPostings = null;
+            }
+
+            mData = map(DATA_EXTENSION);
+            mOffsets = map(OFFSETS_EXTENSION);
+            mTimes = map(TIMES_EXTENSION);
+            mTags = map(TAGS_EXTENSION);
+            mPids = map(PIDS_EXTENSION);
+            mCount = mOffsets.capacity() / 4;
+        }
+
+        private DataOutputStream createFile(String extension) throws IOException {
+            return new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(getFile(extension))));
+        }
+
+        private void writePostings(String extension, Map<String, IntList> postings)
+                throws IOException {
+            DataOutputStream out = createFile(extension);
+            out.writeInt(postings.size());
+            for (Map.Entry<String, IntList> entry : postings.entrySet()) {
+                byte[] key = truncate(entry.getKey().getBytes(UTF8));
+                out.writeShort(key.length);
+                out.write(key);
+                IntList list = entry.getValue();
+                out.writeInt(list.mSize);
+                for (int i = 0; i < list.mSize; i++) {
+                    out.writeInt(list.mValues[i]);
+                }
+            }
+            out.close();
+        }
+
+        private MappedByteBuffer map(String extension) throws IOException {
+            RandomAccessFile file = new RandomAccessFile(getFile(extension), "r"); //$NON-NLS-1$
+            try {
+                FileChannel channel = file.getChannel();
+                return channel.map(MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                // the mapping stays valid after the file is closed.
+                file.close();
+            }
+        }
+
+        void close() throws IOException {
+            if (mChannel != null) {
+                mChannel.close();
+            }
+        }
+
+        /** Reads the message at the given index in the segment. */
+        LogCatMessage read(int index, byte[] scratch) throws IOException {
+            if (isSealed()) {
+                int offset = mOffsets.getInt(index * 4);
+                return decode(mData, offset + 4, scratch);
+            }
+
+            int offset = mOffsetList.mValues[index];
+            ByteBuffer header = ByteBuffer.allocate(4);
+            mChannel.read(header, offset);
+            ByteBuffer record = ByteBuffer.allocate(header.getInt(0));
+            mChannel.read(record, offset + 4);
+            return decode(record, 0, scratch);
+        }
+
+        /**
+         * Returns the index of the first message in the segment which may have a time equal or
+         * higher than the given one.
+         */
+        int findTime(long timeKey) {
+            int entries = isSealed() ? mTimes.capacity() / 8 - 1 : getTimeEntries();
+            int low = 0;
+            int high = entries;
+            // find the first interval whose highest time reaches the key.
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long key = isSealed() ? mTimes.getLong(mid * 8) : mTimeList[mid];
+                if (key < timeKey) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low * TIME_INDEX_INTERVAL;
+        }
+
+        /** Returns the number of entries in the time index of the segment being written. */
+        private int getTimeEntries() {
+            return mCount > 0 ? (mCount - 1) / TIME_INDEX_INTERVAL : 0;
+        }
+
+        long getMaxTimeKey() {
+            return isSealed() ? mTimes.getLong(mTimes.capacity() - 8) : mMaxTimeKey;
+        }
+
+        /**
+         * Adds the indexes in the segment of the messages with the given tag or pid.
+         * @param tags true for the tag index, false for the pid index.
+         */
+        void find(boolean tags, String value, int from, int max, IntList result) {
+            if (!isSealed()) {
+                IntList list = (tags ? mTagPostings : mPidPostings).get(value);
+                if (list != null) {
+                    int i = Arrays.binarySearch(list.mValues, 0, list.mSize, from);
+                    for (i = i >= 0 ? i : -i - 1; i < list.mSize && result.mSize < max; i++) {
+                        result.add(list.mValues[i]);
+                    }
+                }
+                return;
+            }
+
+            ByteBuffer postings = tags ? mTags : mPids;
+            byte[] key = truncate(value.getBytes(UTF8));
+            int count = postings.getInt(0);
+            int position = 4;
+            for (int entry = 0; entry < count; entry++) {
+                int keyLength = postings.getShort(position) & 0xFFFF;
+                int listPosition = position + 2 + keyLength;
+                int listSize = postings.getInt(listPosition);
+                if (keyLength == key.length && equals(postings, position + 2, key)) {
+                    for (int i = 0; i < listSize && result.mSize < max; i++) {
+                        int index = postings.getInt(listPosition + 4 + i * 4);
+                        if (index >= from) {
+                            result.add(index);
+                        }
+                    }
+                    return;
+                }
+                position = listPosition + 4 + listSize * 4;
+            }
+        }
+
+        private static boolean equals(ByteBuffer buffer, int position, byte[] bytes) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (buffer.get(position + i) != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final File mFolder;
+    private final int mSegmentSize;
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private Segment mCurrent;
+
+    private ByteBuffer mEncodeBuffer = ByteBuffer.allocate(64 * 1024);
+    private final byte[] mScratch = new byte[MAX_STRING_LENGTH];
+
+    /**
+     * Opens an archive, creating it if needed.
+     * @param folder the folder of the archive. It should only contain the archive.
+     * @throws IOException if the archive cannot be read or created.
+     */
+    public LogCatArchive(File folder) throws IOException {
+        this(folder, SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens an archive with a given segment size.
+     * @param folder the folder of the archive.
+     * @param segmentSize the size from which a segment is sealed.
+     * @throws IOException if the archive cannot be read or created.
+     */
+    LogCatArchive(File folder, int segmentSize) throws IOException {
+        mFolder = folder;
+        mSegmentSize = segmentSize;
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Cannot create " + folder); //$NON-NLS-1$
+        }
+
+        String[] names = folder.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(DATA_EXTENSION);
+            }
+        });
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+            long first = Long.parseLong(
+                    names[i].substring(0, names[i].length() - DATA_EXTENSION.length()));
+            Segment segment = new Segment(folder, first);
+            if (!segment.getFile(OFFSETS_EXTENSION).isFile()) {
+                segment.openForWriting();
+                if (i < names.length - 1) {
+                    segment.seal();
+                }
+            } else {
+                segment.seal();
+            }
+            mSegments.add(segment);
+        }
+
+        if (mSegments.size() > 0 && !mSegments.get(mSegments.size() - 1).isSealed()) {
+            mCurrent = mSegments.get(mSegments.size() - 1);
+        } else {
+            startSegment();
+        }
+    }
+
+    /** Returns the folder of the archive. */
+    public File getFolder() {
+        return mFolder;
+    }
+
+    /** Returns the sequence number of the first message in the archive. */
+    public synchronized long getFirstSequence() {
+        return mSegments.get(0).mFirstSequence;
+    }
+
+    /** Returns the sequence number the next archived message will get. */
+    public synchronized long getNextSequence() {
+        return mCurrent.mFirstSequence + mCurrent.mCount;
+    }
+
+    /** Returns the number of messages in the archive. */
+    public synchronized long size() {
+        return getNextSequence() - getFirstSequence();
+    }
+
+    /**
+     * Appends messages to the archive.
+     * @param messages the messages
+     * @throws IOException if the messages could not be written.
+     */
+    public synchronized void append(List<LogCatMessage> messages) throws IOException {
+        int[] offsets = new int[messages.size()];
+        mEncodeBuffer.clear();
+        for (int i = 0; i < messages.size(); i++) {
+            offsets[i] = mEncodeBuffer.position();
+            encode(messages.get(i));
+        }
+        mEncodeBuffer.flip();
+        mCurrent.append(mEncodeBuffer, messages, offsets);
+
+        if (mCurrent.mSize >= mSegmentSize) {
+            mCurrent.seal();
+            startSegment();
+        }
+    }
+
+    /**
+     * Reads messages from the archive.
+     * @param sequence the sequence number of the first message to read.
+     * @param max the maximum number of messages to read.
+     * @return the messages, which may be fewer than max if the end of the archive is reached.
+     * @throws IOException if the messages could not be read.
+     */
+    public synchronized List<LogCatMessage> read(long sequence, int max) throws IOException {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        sequence = Math.max(sequence, getFirstSequence());
+        int segmentIndex = findSegment(sequence);
+        while (messages.size() < max && segmentIndex < mSegments.size()) {
+            Segment segment = mSegments.get(segmentIndex);
+            int index = (int) (sequence - segment.mFirstSequence);
+            if (index >= segment.mCount) {
+                segmentIndex++;
+                continue;
+            }
+            messages.add(segment.read(index, mScratch));
+            sequence++;
+        }
+        return messages;
+    }
+
+    /**
+     * Finds the first message at or after a given time. As messages are archived in the order
+     * they are received, their times may not always be increasing: this returns the first
+     * message after all the ones earlier than the given time, in the index granularity.
+     * @param time the time, in the logcat format {@code MM-dd HH:mm:ss.SSS}
+     * @return the sequence number of the message, or {@link #getNextSequence()} if all the
+     * messages are older.
+     * @throws IOException if the messages could not be read.
+     */
+    public synchronized long findTime(String time) throws IOException {
+        long timeKey = getTimeKey(time);
+        for (Segment segment : mSegments) {
+            if (segment.mCount == 0 || segment.getMaxTimeKey() < timeKey) {
+                continue;
+            }
+            // the index gives the interval, the messages of the interval are then read.
+            for (int i = segment.findTime(timeKey); i < segment.mCount; i++) {
+                if (getTimeKey(segment.read(i, mScratch).getTime()) >= timeKey) {
+                    return segment.mFirstSequence + i;
+                }
+            }
+        }
+        return getNextSequence();
+    }
+
+    /**
+     * Finds the messages with a given tag, from the tag index.
+     * @param tag the tag
+     * @param sequence the sequence number from which to search.
+     * @param max the maximum number of messages to find.
+     * @return the sequence numbers of the messages, in increasing order.
+     */
+    public synchronized long[] findTag(String tag, long sequence, int max) {
+        return find(true, tag, sequence, max);
+    }
+
+    /**
+     * Finds the messages from a given pid, from the pid index.
+     * @param pid the pid
+     * @param sequence the sequence number from which to search.
+     * @param max the maximum number of messages to find.
+     * @return the sequence numbers of the messages, in increasing order.
+     */
+    public synchronized long[] findPid(String pid, long sequence, int max) {
+        return find(false, pid, sequence, max);
+    }
+
+    /**
+     * Closes the archive. The segment being written is left unsealed, it is read again when
+     * the archive is opened.
+     */
+    public synchronized void close() throws IOException {
+        for (Segment segment : mSegments) {
+            segment.close();
+        }
+    }
+
+    private long[] find(boolean tags, String value, long sequence, int max) {
+        List<Long> result = new ArrayList<Long>();
+        IntList indexes = new IntList();
+        sequence = Math.max(sequence, getFirstSequence());
+        for (int i = findSegment(sequence); i < mSegments.size() && result.size() < max; i++) {
+            Segment segment = mSegments.get(i);
+            indexes.mSize = 0;
+            segment.find(tags, value, (int) Math.max(0, sequence - segment.mFirstSequence),
+                    max - result.size(), indexes);
+            for (int j = 0; j < indexes.mSize; j++) {
+                result.add(Long.valueOf(segment.mFirstSequence + indexes.mValues[j]));
+            }
+        }
+
+        long[] sequences = new long[result.size()];
+        for (int i = 0; i < sequences.length; i++) {
+            sequences[i] = result.get(i).longValue();
+        }
+        return sequences;
+    }
+
+    private int findSegment(long sequence) {
+        int low = 0;
+        int high = mSegments.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mSegments.get(mid).mFirstSequence <= sequence) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void startSegment() throws IOException {
+        long first = 0;
+        if (mSegments.size() > 0) {
+            Segment last = mSegments.get(mSegments.size() - 1);
+            first = last.mFirstSequence + last.mCount;
+        }
+        mCurrent = new Segment(mFolder, first);
+        mCurrent.openForWriting();
+        mSegments.add(mCurrent);
+    }
+
+    private void encode(LogCatMessage m) {
+        byte[][] strings = new byte[][] {
+                getBytes(m.getPid()), getBytes(m.getAppName()), getBytes(m.getTag()),
+                getBytes(m.getTime()), getBytes(m.getMessage()) };
+        int length = 1;
+        for (byte[] s : strings) {
+            length += 2 + s.length;
+        }
+
+        if (mEncodeBuffer.remaining() < 4 + length) {
+            ByteBuffer buffer = ByteBuffer.allocate(
+                    Math.max(mEncodeBuffer.capacity() * 2, mEncodeBuffer.position() + 4 + length));
+            mEncodeBuffer.flip();
+            buffer.put(mEncodeBuffer);
+            mEncodeBuffer = buffer;
+        }
+
+        mEncodeBuffer.putInt(length);
+        mEncodeBuffer.put((byte) (m.getLogLevel() != null ? m.getLogLevel().ordinal() : -1));
+        for (byte[] s : strings) {
+            mEncodeBuffer.putShort((short) s.length);
+            mEncodeBuffer.put(s);
+        }
+    }
+
+    private static byte[] getBytes(String s) {
+        return s != null ? truncate(s.getBytes(UTF8)) : new byte[0];
+    }
+
+    private static byte[] truncate(byte[] bytes) {
+        return bytes.length > MAX_STRING_LENGTH ? Arrays.copyOf(bytes, MAX_STRING_LENGTH) : bytes;
+    }
+
+    /** Decodes a record, without its length, starting at the given position of the buffer. */
+    private static LogCatMessage decode(ByteBuffer buffer, int position, byte[] scratch) {
+        int level = buffer.get(position);
+        position++;
+
+        String[] strings = new String[5];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            position += 2;
+            for (int j = 0; j < length; j++) {
+                scratch[j] = buffer.get(position + j);
+            }
+            strings[i] = new String(scratch, 0, length, UTF8);
+            position += length;
+        }
+
+        return new LogCatMessage(level >= 0 && level < sLevels.length ? sLevels[level] : null,
+                strings[0], strings[1], strings[2], strings[3], strings[4]);
+    }
+
+    /**
+     * Returns a number increasing with the time, for a time in the logcat format
+     * {@code MM-dd HH:mm:ss.SSS}, or -1 if the time cannot be parsed.
+     */
+    static long getTimeKey(String time) {
+        if (time == null || time.length() < 14) {
+            return -1;
+        }
+
+        // keep the digits, so that the fraction of second can have any number of digits.
+        long key = 0;
+        int digits = 0;
+        for (int i = 0; i < time.length() && digits < 13; i++) {
+            char c = time.charAt(i);
+            if (c >= '0' && c <= '9') {
+                key = key * 10 + (c - '0');
+                digits++;
+            }
+        }
+        while (digits < 13) {
+            key *= 10;
+            digits++;
+        }
+        return key;
+    }
+}
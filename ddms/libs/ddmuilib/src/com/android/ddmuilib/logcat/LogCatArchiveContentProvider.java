@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A lazy JFace content provider for the messages of a {@link LogCatArchive}, used in the
+ * {@link LogCatPanel} to browse all the archived messages. The rows of the table are the
+ * messages of the archive, read a page at a time when they are displayed.
+ */
+public final class LogCatArchiveContentProvider implements ILazyContentProvider {
+    private static final int PAGE_SIZE = 512;
+
+    private final TableViewer mViewer;
+    private LogCatArchive mArchive;
+    private long mFirstSequence;
+
+    private long mPageStart = -1;
+    private List<LogCatMessage> mPage = Collections.emptyList();
+
+    /**
+     * Creates a provider for a viewer of a virtual table.
+     * @param viewer the viewer, whose input must be a {@link LogCatArchive}.
+     */
+    public LogCatArchiveContentProvider(TableViewer viewer) {
+        mViewer = viewer;
+    }
+
+    public void dispose() {
+        mArchive = null;
+        mPage = Collections.emptyList();
+    }
+
+    public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+        mArchive = newInput instanceof LogCatArchive ? (LogCatArchive) newInput : null;
+        mPageStart = -1;
+        mPage = Collections.emptyList();
+        if (mArchive != null) {
+            mFirstSequence = mArchive.getFirstSequence();
+            updateItemCount();
+        }
+    }
+
+    /** Updates the number of rows of the table, as messages are archived. */
+    public void updateItemCount() {
+        if (mArchive != null) {
+            mViewer.setItemCount((int) Math.min(Integer.MAX_VALUE,
+                    mArchive.getNextSequence() - mFirstSequence));
+        }
+    }
+
+    /** Returns the row of the table showing the message with a given sequence number. */
+    public int getIndex(long sequence) {
+        return (int) (sequence - mFirstSequence);
+    }
+
+    /** Returns the sequence number of the message shown in a given row of the table. */
+    public long getSequence(int index) {
+        return mFirstSequence + index;
+    }
+
+    /**
+     * Returns the message shown in a given row of the table.
+     * @return the message, or null if it could not be read.
+     */
+    public LogCatMessage getMessage(int index) {
+        long sequence = getSequence(index);
+        if (mArchive == null) {
+            return null;
+        }
+
+        if (sequence < mPageStart || sequence >= mPageStart + mPage.size()) {
+            // pages are aligned, so that scrolling back and forth reuses them.
+            long start = sequence - (sequence - mFirstSequence) % PAGE_SIZE;
+            try {
+                mPage = mArchive.read(start, PAGE_SIZE);
+                mPageStart = start;
+            } catch (IOException e) {
+                Log.e("LogCat", "Unable to read the logcat archive"); //$NON-NLS-1$
+                Log.e("LogCat", e); //$NON-NLS-1$
+                mPage = Collections.emptyList();
+                mPageStart = -1;
+                return null;
+            }
+            if (sequence >= mPageStart + mPage.size()) {
+                return null;
+            }
+        }
+
+        return mPage.get((int) (sequence - mPageStart));
+    }
+
+    public void updateElement(int index) {
+        LogCatMessage m = getMessage(index);
+        if (m != null) {
+            mViewer.replace(m, index);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Class to decode the binary entries of the device logs, as read by
+ * {@link com.android.ddmlib.log.LogReceiver}, to {@link LogCatMessage} objects.
+ * <p/>The payload of an entry is a priority byte, followed by the tag and the message as
+ * NUL terminated UTF-8 strings. They are decoded directly from the entry data, without
+ * formatting the entry to text and parsing it back. The messages are the same as the ones
+ * {@link LogCatMessageParser} creates from the output of {@code logcat -v long}: one message
+ * per non blank line, without its trailing white space, with the time formatted as
+ * {@code MM-dd HH:mm:ss.SSS}.
+ * <p/>logcat formats the time in the time zone of the device, which the entries do not carry:
+ * it must be given with {@link #setTimeZone(TimeZone)}, or the time zone of the host is used.
+ * <p/>This class is not thread safe.
+ */
+public final class LogCatBinaryMessageParser {
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /** Number of entries in the tag cache. Must be a power of 2. */
+    private static final int TAG_CACHE_SIZE = 256;
+
+    /** {@link LogLevel} for each priority, from 0 to {@link LogLevel#ASSERT}. */
+    private static final LogLevel[] sLevels = new LogLevel[] {
+        LogLevel.VERBOSE, // ANDROID_LOG_UNKNOWN
+        LogLevel.VERBOSE, // ANDROID_LOG_DEFAULT
+        LogLevel.VERBOSE,
+        LogLevel.DEBUG,
+        LogLevel.INFO,
+        LogLevel.WARN,
+        LogLevel.ERROR,
+        LogLevel.ASSERT,  // ANDROID_LOG_FATAL, see LogCatMessageParser.
+    };
+
+    /** Tags are few and repeated: they are only decoded the first time they're seen. */
+    private final byte[][] mTagBytes = new byte[TAG_CACHE_SIZE][];
+    private final String[] mTags = new String[TAG_CACHE_SIZE];
+
+    private int mLastPid = -1;
+    private String mLastPidString;
+
+    private Calendar mCalendar = Calendar.getInstance();
+    private final StringBuilder mTimeBuilder = new StringBuilder(18);
+    private long mLastSecond = Long.MIN_VALUE;
+    private int mLastMillis = -1;
+    private String mLastTime;
+
+    /**
+     * Sets the time zone in which the time of the messages is formatted.
+     * @param timeZone the time zone of the device which wrote the entries.
+     */
+    public void setTimeZone(TimeZone timeZone) {
+        mCalendar = Calendar.getInstance(timeZone);
+        mLastSecond = Long.MIN_VALUE;
+        mLastMillis = -1;
+    }
+
+    /**
+     * Decodes a {@link LogEntry} into {@link LogCatMessage} objects.
+     * @param entry the entry read from the main or system log.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @param messages the list to which the messages are added.
+     */
+    public void processLogEntry(LogEntry entry, LogCatPidToNameMapper pidToNameMapper,
+            List<LogCatMessage> messages) {
+        processLogEntry(entry.pid, entry.sec, entry.nsec, entry.data, 0, entry.len,
+                pidToNameMapper, messages);
+    }
+
+    /**
+     * Decodes the payload of a log entry into {@link LogCatMessage} objects.
+     * @param pid the pid of the process which wrote the entry.
+     * @param sec the time of the entry, in seconds since epoch.
+     * @param nsec the nanoseconds part of the time of the entry.
+     * @param data the buffer containing the payload. It is not kept after this returns.
+     * @param offset the offset of the payload in the buffer.
+     * @param length the length of the payload.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @param messages the list to which the messages are added.
+     */
+    public void processLogEntry(int pid, int sec, int nsec, byte[] data, int offset, int length,
+            LogCatPidToNameMapper pidToNameMapper, List<LogCatMessage> messages) {
+        if (length < 1) {
+            return;
+        }
+
+        int end = offset + length;
+
+        int priority = data[offset];
+        LogLevel level = priority < 0 || priority >= sLevels.length ?
+                LogLevel.ASSERT : sLevels[priority];
+
+        int tagStart = offset + 1;
+        int tagEnd = indexOf(data, (byte) 0, tagStart, end);
+        if (tagEnd == end) {
+            // no message.
+            return;
+        }
+        String tag = getTag(data, tagStart, tagEnd);
+
+        int msgStart = tagEnd + 1;
+        int msgEnd = indexOf(data, (byte) 0, msgStart, end);
+
+        String pidString = getPid(pid);
+        String appName = pidToNameMapper.getName(pidString);
+        String time = getTime(sec, nsec);
+
+        // one message per line, without the trailing white space and skipping empty lines
+        // as the text parser does.
+        while (msgStart < msgEnd) {
+            int lineEnd = indexOf(data, (byte) '\n', msgStart, msgEnd);
+            int textEnd = lineEnd;
+            while (textEnd > msgStart && data[textEnd - 1] >= 0 && data[textEnd - 1] <= ' ') {
+                textEnd--;
+            }
+            if (textEnd > msgStart) {
+                messages.add(new LogCatMessage(level, pidString, appName, tag, time,
+                        new String(data, msgStart, textEnd - msgStart, UTF8)));
+            }
+            msgStart = lineEnd + 1;
+        }
+    }
+
+    private static int indexOf(byte[] data, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private String getTag(byte[] data, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+
+        byte[] cached = mTagBytes[index];
+        if (cached != null && cached.length == end - start) {
+            int i = 0;
+            while (i < cached.length && cached[i] == data[start + i]) {
+                i++;
+            }
+            if (i == cached.length) {
+                return mTags[index];
+            }
+        }
+
+        byte[] bytes = new byte[end - start];
+        System.arraycopy(data, start, bytes, 0, bytes.length);
+        String tag = new String(bytes, UTF8).trim();
+        mTagBytes[index] = bytes;
+        mTags[index] = tag;
+        return tag;
+    }
+
+    private String getPid(int pid) {
+        if (pid != mLastPid) {
+            mLastPid = pid;
+            mLastPidString = Integer.toString(pid);
+        }
+        return mLastPidString;
+    }
+
+    /**
+     * Returns the time formatted as {@code MM-dd HH:mm:ss.SSS} in the time zone of the
+     * device, as logcat does. The date part is only computed when the second changes.
+     */
+    private String getTime(int sec, int nsec) {
+        long second = sec & 0xFFFFFFFFL;
+        int millis = nsec / 1000000;
+        if (second == mLastSecond && millis == mLastMillis) {
+            return mLastTime;
+        }
+
+        if (second != mLastSecond) {
+            mLastSecond = second;
+            mCalendar.setTimeInMillis(second * 1000);
+
+            mTimeBuilder.setLength(0);
+            appendTwoDigits(mCalendar.get(Calendar.MONTH) + 1);
+            mTimeBuilder.append('-');
+            appendTwoDigits(mCalendar.get(Calendar.DAY_OF_MONTH));
+            mTimeBuilder.append(' ');
+            appendTwoDigits(mCalendar.get(Calendar.HOUR_OF_DAY));
+            mTimeBuilder.append(':');
+            appendTwoDigits(mCalendar.get(Calendar.MINUTE));
+            mTimeBuilder.append(':');
+            appendTwoDigits(mCalendar.get(Calendar.SECOND));
+            mTimeBuilder.append('.');
+        }
+
+        // keep the date part and replace the milliseconds.
+        mTimeBuilder.setLength(15);
+        mTimeBuilder.append((char) ('0' + millis / 100));
+        appendTwoDigits(millis % 100);
+
+        mLastMillis = millis;
+        mLastTime = mTimeBuilder.toString();
+        return mLastTime;
+    }
+
+    private void appendTwoDigits(int value) {
+        mTimeBuilder.append((char) ('0' + value / 10));
+        mTimeBuilder.append((char) ('0' + value % 10));
+    }
+}
@@ -20,7 +20,6 @@ import com.android.ddmlib.Log.LogLevel;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -210,41 +209,59 @@ public final class LogCatFilter {
      * @return true if the message matches the filter's conditions.
      */
     public boolean matches(LogCatMessage m) {
+        return matchesLogLevel(m.getLogLevel())
+                && matchesPid(m.getPid())
+                && matchesAppName(m.getAppName())
+                && matchesTag(m.getTag())
+                && matchesText(m.getMessage());
+    }
+
+    /** Returns whether the pid is checked by this filter. */
+    boolean checksPid() {
+        return mCheckPid;
+    }
+
+    /** Returns whether the app name is checked by this filter. */
+    boolean checksAppName() {
+        return mCheckAppName;
+    }
+
+    /** Returns whether the tag is checked by this filter. */
+    boolean checksTag() {
+        return mCheckTag;
+    }
+
+    /** Returns whether the message text is checked by this filter. */
+    boolean checksText() {
+        return mCheckText;
+    }
+
+    /* The following methods check a single field of a message. Checking them all is
+     * equivalent to calling matches(LogCatMessage). */
+
+    boolean matchesLogLevel(LogLevel level) {
         /* filter out messages of a lower priority */
-        if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
-            return false;
-        }
+        return level.getPriority() >= mLogLevel.getPriority();
+    }
 
+    boolean matchesPid(String pid) {
         /* if pid filter is enabled, filter out messages whose pid does not match
          * the filter's pid */
-        if (mCheckPid && !m.getPid().equals(mPid)) {
-            return false;
-        }
+        return !mCheckPid || pid.equals(mPid);
+    }
 
+    boolean matchesAppName(String appName) {
         /* if app name filter is enabled, filter out messages not matching the app name */
-        if (mCheckAppName) {
-            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
-            if (!matcher.find()) {
-                return false;
-            }
-        }
+        return !mCheckAppName || mAppNamePattern.matcher(appName).find();
+    }
 
+    boolean matchesTag(String tag) {
         /* if tag filter is enabled, filter out messages not matching the tag */
-        if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
-            if (!matcher.find()) {
-                return false;
-            }
-        }
-
-        if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
-            if (!matcher.find()) {
-                return false;
-            }
-        }
+        return !mCheckTag || mTagPattern.matcher(tag).find();
+    }
 
-        return true;
+    boolean matchesText(String text) {
+        return !mCheckText || mTextPattern.matcher(text).find();
     }
 
     /**
@@ -261,6 +278,14 @@ public final class LogCatFilter {
         }
     }
 
+    /**
+     * Increment the unread count by the number of new messages matching this filter.
+     * @param count number of new messages accepted by this filter.
+     */
+    public void incrementUnreadCount(int count) {
+        mUnreadCount += count;
+    }
+
     /**
      * Reset count of unread messages.
      */
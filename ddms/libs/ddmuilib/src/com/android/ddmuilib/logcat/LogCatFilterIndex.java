@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the messages of a {@link LogCatMessageList}, which evaluates a set of
+ * {@link LogCatFilter} objects incrementally as messages are received.
+ * <p/>The index keeps the sequence numbers of the messages by pid, by tag and by log level.
+ * The pids, tags and app names are given ids: the pid of a filter is compared by id, and the
+ * tag and app name regexes are only run once for each distinct tag or app name. Only the
+ * text regex runs for each message.
+ * <p/>For each filter, the index keeps the sequence numbers of the matching messages, so the
+ * messages of a filter can be displayed without going through all the messages. Filters added
+ * later are evaluated from the index, reading only the candidate messages.
+ * <p/>All methods are thread safe.
+ */
+public final class LogCatFilterIndex {
+    /** Number of dropped messages after which the lists of sequence numbers are trimmed. */
+    private static final int TRIM_INTERVAL = 1024;
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
+
+    private static final LogLevel[] sLevels = LogLevel.values();
+
+    /**
+     * Growable list of increasing sequence numbers, from which the oldest ones can be dropped.
+     */
+    static final class SequenceList {
+        private long[] mValues = new long[16];
+        private int mStart;
+        private int mEnd;
+
+        void add(long sequence) {
+            if (mEnd == mValues.length) {
+                int size = mEnd - mStart;
+                long[] values = size * 2 > mValues.length ?
+                        new long[mValues.length * 2] : mValues;
+                System.arraycopy(mValues, mStart, values, 0, size);
+                mValues = values;
+                mStart = 0;
+                mEnd = size;
+            }
+            mValues[mEnd++] = sequence;
+        }
+
+        /** Drops the sequence numbers lower than the given one. */
+        void trim(long first) {
+            int index = Arrays.binarySearch(mValues, mStart, mEnd, first);
+            mStart = index >= 0 ? index : -index - 1;
+        }
+
+        boolean contains(long sequence) {
+            return Arrays.binarySearch(mValues, mStart, mEnd, sequence) >= 0;
+        }
+
+        int size() {
+            return mEnd - mStart;
+        }
+
+        long[] toArray() {
+            long[] values = new long[mEnd - mStart];
+            System.arraycopy(mValues, mStart, values, 0, values.length);
+            return values;
+        }
+
+        void addTo(SequenceList list, long from) {
+            int index = Arrays.binarySearch(mValues, mStart, mEnd, from);
+            for (int i = index >= 0 ? index : -index - 1; i < mEnd; i++) {
+                list.add(mValues[i]);
+            }
+        }
+    }
+
+    /** Values of a message field, with their ids. */
+    private static final class FieldIds {
+        private final Map<String, Integer> mIds = new HashMap<String, Integer>();
+        private final List<String> mValues = new ArrayList<String>();
+        private final List<SequenceList> mPostings;
+
+        FieldIds(boolean withPostings) {
+            mPostings = withPostings ? new ArrayList<SequenceList>() : null;
+        }
+
+        int getId(String value) {
+            Integer id = mIds.get(value);
+            if (id == null) {
+                id = Integer.valueOf(mValues.size());
+                mIds.put(value, id);
+                mValues.add(value);
+                if (mPostings != null) {
+                    mPostings.add(new SequenceList());
+                }
+            }
+            return id.intValue();
+        }
+
+        String getValue(int id) {
+            return mValues.get(id);
+        }
+
+        int size() {
+            return mValues.size();
+        }
+
+        SequenceList getPostings(int id) {
+            return mPostings.get(id);
+        }
+    }
+
+    /** State of a filter: its matching messages, and its results for each tag and app name. */
+    private final class FilterState {
+        private final LogCatFilter mFilter;
+        private final SequenceList mMatches = new SequenceList();
+        private final int mPidId;
+        private byte[] mTagMatches = new byte[64];
+        private byte[] mAppNameMatches = new byte[64];
+        private int mLastBatchCount;
+
+        FilterState(LogCatFilter filter) {
+            mFilter = filter;
+            mPidId = filter.checksPid() ? mPids.getId(filter.getPid()) : -1;
+        }
+
+        boolean matches(LogCatMessage m, int pidId, int tagId, int appNameId) {
+            LogLevel level = m.getLogLevel();
+            if (level == null || !mFilter.matchesLogLevel(level)) {
+                return false;
+            }
+            if (mPidId >= 0 && pidId != mPidId) {
+                return false;
+            }
+            if (mFilter.checksAppName() && !matchesAppName(appNameId)) {
+                return false;
+            }
+            if (mFilter.checksTag() && !matchesTag(tagId)) {
+                return false;
+            }
+            return mFilter.matchesText(m.getMessage());
+        }
+
+        boolean matchesTag(int tagId) {
+            if (tagId >= mTagMatches.length) {
+                mTagMatches = Arrays.copyOf(mTagMatches, Math.max(tagId + 1,
+                        mTagMatches.length * 2));
+            }
+            if (mTagMatches[tagId] == UNKNOWN) {
+                mTagMatches[tagId] = mFilter.matchesTag(mTags.getValue(tagId)) ?
+                        MATCH : NO_MATCH;
+            }
+            return mTagMatches[tagId] == MATCH;
+        }
+
+        boolean matchesAppName(int appNameId) {
+            if (appNameId >= mAppNameMatches.length) {
+                mAppNameMatches = Arrays.copyOf(mAppNameMatches, Math.max(appNameId + 1,
+                        mAppNameMatches.length * 2));
+            }
+            if (mAppNameMatches[appNameId] == UNKNOWN) {
+                mAppNameMatches[appNameId] = mFilter.matchesAppName(
+                        mAppNames.getValue(appNameId)) ? MATCH : NO_MATCH;
+            }
+            return mAppNameMatches[appNameId] == MATCH;
+        }
+    }
+
+    private final FieldIds mPids = new FieldIds(true);
+    private final FieldIds mTags = new FieldIds(true);
+    private final FieldIds mAppNames = new FieldIds(false);
+    private final SequenceList[] mLevelPostings = new SequenceList[sLevels.length];
+
+    private List<FilterState> mFilterStates = new ArrayList<FilterState>();
+
+    /** sequence number of the first message that can be in the lists. */
+    private long mFirstSequence;
+    /** sequence number of the next message. */
+    private long mNextSequence;
+
+    public LogCatFilterIndex() {
+        for (int i = 0; i < mLevelPostings.length; i++) {
+            mLevelPostings[i] = new SequenceList();
+        }
+    }
+
+    /**
+     * Sets the filters to evaluate. The matching messages of filters which were already set
+     * are kept. The others are found from the index, reading the candidate messages from
+     * the list.
+     * @param filters the filters
+     * @param messages the message list whose messages were passed to
+     * {@link #addMessages(long, List, long)}.
+     */
+    public synchronized void setFilters(List<LogCatFilter> filters, LogCatMessageList messages) {
+        List<FilterState> states = new ArrayList<FilterState>(filters.size());
+        for (LogCatFilter filter : filters) {
+            FilterState state = getState(filter);
+            if (state == null) {
+                state = new FilterState(filter);
+                indexFilter(state, messages);
+            }
+            states.add(state);
+        }
+        mFilterStates = states;
+    }
+
+    /**
+     * Returns whether the matching messages of a filter are known.
+     */
+    public synchronized boolean isIndexed(LogCatFilter filter) {
+        return getState(filter) != null;
+    }
+
+    /**
+     * Returns the sequence numbers of the messages matching a filter, in increasing order.
+     * Some may belong to messages already dropped from the list.
+     * @return the sequence numbers, or null if the filter is not set in this index.
+     */
+    public synchronized long[] getMatches(LogCatFilter filter) {
+        FilterState state = getState(filter);
+        return state != null ? state.mMatches.toArray() : null;
+    }
+
+    /**
+     * Returns the number of messages matching a filter in the last call to
+     * {@link #addMessages(long, List, long)}, or -1 if the filter is not set in this index.
+     */
+    public synchronized int getLastBatchMatchCount(LogCatFilter filter) {
+        FilterState state = getState(filter);
+        return state != null ? state.mLastBatchCount : -1;
+    }
+
+    /**
+     * Adds messages to the index, and evaluates the filters for them.
+     * @param firstSequence the sequence number of the first message.
+     * @param messages the new messages, with consecutive sequence numbers.
+     * @param oldestSequence the sequence number of the oldest message still in the list.
+     */
+    public synchronized void addMessages(long firstSequence, List<LogCatMessage> messages,
+            long oldestSequence) {
+        for (FilterState state : mFilterStates) {
+            state.mLastBatchCount = 0;
+        }
+
+        long sequence = firstSequence;
+        for (LogCatMessage m : messages) {
+            int pidId = mPids.getId(nonNull(m.getPid()));
+            int tagId = mTags.getId(nonNull(m.getTag()));
+            int appNameId = mAppNames.getId(nonNull(m.getAppName()));
+            mPids.getPostings(pidId).add(sequence);
+            mTags.getPostings(tagId).add(sequence);
+            if (m.getLogLevel() != null) {
+                mLevelPostings[m.getLogLevel().ordinal()].add(sequence);
+            }
+
+            for (FilterState state : mFilterStates) {
+                if (state.matches(m, pidId, tagId, appNameId)) {
+                    state.mMatches.add(sequence);
+                    state.mLastBatchCount++;
+                }
+            }
+            sequence++;
+        }
+        mNextSequence = sequence;
+
+        if (oldestSequence - mFirstSequence >= TRIM_INTERVAL) {
+            trim(oldestSequence);
+        }
+    }
+
+    private FilterState getState(LogCatFilter filter) {
+        for (FilterState state : mFilterStates) {
+            if (state.mFilter == filter) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    private void trim(long first) {
+        mFirstSequence = first;
+        for (int i = 0; i < mPids.size(); i++) {
+            mPids.getPostings(i).trim(first);
+        }
+        for (int i = 0; i < mTags.size(); i++) {
+            mTags.getPostings(i).trim(first);
+        }
+        for (SequenceList list : mLevelPostings) {
+            list.trim(first);
+        }
+        for (FilterState state : mFilterStates) {
+            state.mMatches.trim(first);
+        }
+    }
+
+    /**
+     * Finds the messages matching a new filter. The candidates come from the most selective
+     * index: the messages of the filter's pid, or of the tags matching the filter, or of the
+     * accepted log levels. Only the candidates are read from the list, and only when the
+     * filter checks fields that the index cannot answer.
+     */
+    private void indexFilter(FilterState state, LogCatMessageList messages) {
+        LogCatFilter filter = state.mFilter;
+        long first = Math.max(mFirstSequence, messages.getFirstSequence());
+
+        SequenceList candidates = new SequenceList();
+        boolean checkTag = filter.checksTag();
+        if (state.mPidId >= 0) {
+            mPids.getPostings(state.mPidId).addTo(candidates, first);
+        } else if (checkTag) {
+            List<SequenceList> matchingPostings = new ArrayList<SequenceList>();
+            int count = 0;
+            for (int i = 0; i < mTags.size(); i++) {
+                if (state.matchesTag(i)) {
+                    matchingPostings.add(mTags.getPostings(i));
+                    count += mTags.getPostings(i).size();
+                }
+            }
+            long[] sequences = new long[count];
+            count = 0;
+            for (SequenceList postings : matchingPostings) {
+                System.arraycopy(postings.mValues, postings.mStart, sequences, count,
+                        postings.size());
+                count += postings.size();
+            }
+            Arrays.sort(sequences, 0, count);
+            for (int i = 0; i < count; i++) {
+                if (sequences[i] >= first) {
+                    candidates.add(sequences[i]);
+                }
+            }
+            checkTag = false;
+        } else {
+            for (long sequence = first; sequence < mNextSequence; sequence++) {
+                candidates.add(sequence);
+            }
+        }
+
+        boolean checkLevel = filter.getLogLevel().getPriority() > LogLevel.VERBOSE.getPriority();
+        boolean readMessages = checkTag || filter.checksAppName() || filter.checksText();
+
+        for (int i = 0; i < candidates.size(); i++) {
+            long sequence = candidates.mValues[candidates.mStart + i];
+            if (readMessages) {
+                LogCatMessage m = messages.getMessage(sequence);
+                if (m != null && state.matches(m,
+                        state.mPidId,
+                        mTags.getId(nonNull(m.getTag())),
+                        mAppNames.getId(nonNull(m.getAppName())))) {
+                    state.mMatches.add(sequence);
+                }
+            } else if (!checkLevel || matchesLevel(filter, sequence)) {
+                state.mMatches.add(sequence);
+            }
+        }
+    }
+
+    private boolean matchesLevel(LogCatFilter filter, long sequence) {
+        for (int i = 0; i < sLevels.length; i++) {
+            if (filter.matchesLogLevel(sLevels[i]) && mLevelPostings[i].contains(sequence)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String nonNull(String s) {
+        return s != null ? s : ""; //$NON-NLS-1$
+    }
+}
@@ -23,6 +23,19 @@ import org.eclipse.jface.viewers.Viewer;
  * A JFace content provider for the LogCat log messages, used in the {@link LogCatPanel}.
  */
 public final class LogCatMessageContentProvider implements IStructuredContentProvider {
+    private LogCatFilterIndex mFilterIndex;
+    private LogCatFilter mFilter;
+
+    /**
+     * Only provide the messages matching a filter, as found by a {@link LogCatFilterIndex}.
+     * @param index the index of the messages, or null to provide all the messages.
+     * @param filter the filter, which must be set in the index.
+     */
+    public void setFilter(LogCatFilterIndex index, LogCatFilter filter) {
+        mFilterIndex = index;
+        mFilter = filter;
+    }
+
     public void dispose() {
     }
 
@@ -31,6 +44,13 @@ public final class LogCatMessageContentProvider implements IStructuredContentPro
 
     public Object[] getElements(Object model) {
         if (model instanceof LogCatMessageList) {
+            if (mFilterIndex != null) {
+                long[] sequences = mFilterIndex.getMatches(mFilter);
+                if (sequences != null) {
+                    return ((LogCatMessageList) model).toArray(sequences, sequences.length);
+                }
+            }
+
             Object[] e = ((LogCatMessageList) model).toArray();
             return e;
         }
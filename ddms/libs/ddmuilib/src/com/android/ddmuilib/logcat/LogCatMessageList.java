@@ -16,12 +16,15 @@
 
 package com.android.ddmuilib.logcat;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Container for a list of log messages. The list of messages are
- * maintained in a circular buffer (FIFO).
+ * maintained in a circular buffer (FIFO), a {@link LogCatMessageStore}.
+ * <p/>Messages are appended by the receiver thread. Other threads can follow the new messages
+ * with a {@link Cursor}, without locking or copying the whole list.
  */
 public final class LogCatMessageList {
     /** Preference key for size of the FIFO. */
@@ -31,19 +34,52 @@ public final class LogCatMessageList {
     /** Default value for max # of messages. */
     public static final int MAX_MESSAGES_DEFAULT = 5000;
 
-    private int mFifoSize;
-    private BlockingQueue<LogCatMessage> mQ;
-    private LogCatMessage[] mQArray;
+    private volatile LogCatMessageStore mStore;
+
+    /** messages returned by the last {@link #toArray()}, reused by the next one. */
+    private LogCatMessage[] mSnapshot = new LogCatMessage[0];
+    private long mSnapshotStart;
+    private final Object mSnapshotLock = new Object();
+
+    /**
+     * Reads the messages of a {@link LogCatMessageList} incrementally. Each call to
+     * {@link #read(List, int)} returns the messages appended since the previous one.
+     * <p/>A cursor is only used by one thread, but different threads can use their own cursors.
+     */
+    public final class Cursor {
+        private long mSequence;
+
+        private Cursor(long sequence) {
+            mSequence = sequence;
+        }
+
+        /**
+         * Returns the sequence number of the next message to read.
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * Reads the next messages. If messages were dropped from the list before they could
+         * be read, they are skipped.
+         * @param messages the list to which the messages are added.
+         * @param max the maximum number of messages to read.
+         * @return the number of messages read.
+         */
+        public int read(List<LogCatMessage> messages, int max) {
+            int size = messages.size();
+            mSequence = mStore.read(mSequence, messages, max);
+            return messages.size() - size;
+        }
+    }
 
     /**
      * Construct an empty message list.
      * @param maxMessages capacity of the circular buffer
      */
     public LogCatMessageList(int maxMessages) {
-        mFifoSize = maxMessages;
-
-        mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-        mQArray = new LogCatMessage[mFifoSize];
+        mStore = new LogCatMessageStore(maxMessages, 0);
     }
 
     /**
@@ -51,21 +87,18 @@ public final class LogCatMessageList {
      * @param n new size for the list
      */
     public synchronized void resize(int n) {
-        mFifoSize = n;
-
-        if (mFifoSize > mQ.size()) {
-            /* if resizing to a bigger fifo, we can copy over all elements from the current mQ */
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize, true, mQ);
-        } else {
-            /* for a smaller fifo, copy over the last n entries */
-            LogCatMessage[] curMessages = mQ.toArray(new LogCatMessage[mQ.size()]);
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-            for (int i = curMessages.length - mFifoSize; i < curMessages.length; i++) {
-                mQ.offer(curMessages[i]);
-            }
+        LogCatMessageStore store = mStore;
+
+        /* copy over the last n entries, keeping their sequence numbers */
+        long first = Math.max(store.getFirstSequence(), store.getNextSequence() - n);
+        LogCatMessageStore newStore = new LogCatMessageStore(n, first);
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        store.read(first, messages, n);
+        for (LogCatMessage m : messages) {
+            newStore.append(m);
         }
 
-        mQArray = new LogCatMessage[mFifoSize];
+        mStore = newStore;
     }
 
     /**
@@ -74,32 +107,128 @@ public final class LogCatMessageList {
      * @param m log to be inserted
      */
     public synchronized void appendMessage(final LogCatMessage m) {
-        if (mQ.remainingCapacity() == 0) {
-            /* make space by removing the first entry */
-            mQ.poll();
-        }
-        mQ.offer(m);
+        mStore.append(m);
     }
 
     /**
      * Clear all messages in the list.
      */
     public synchronized void clear() {
-        mQ.clear();
+        mStore.clear();
+    }
+
+    /**
+     * Returns the number of messages in the list.
+     */
+    public int size() {
+        return mStore.size();
+    }
+
+    /**
+     * Returns a cursor reading the messages currently in the list, and the ones appended later.
+     */
+    public Cursor newCursor() {
+        return new Cursor(mStore.getFirstSequence());
+    }
+
+    /**
+     * Returns a cursor reading the messages appended after a sequence number.
+     * @param sequence the sequence number of the last message already read, as returned by
+     * {@link Cursor#getSequence()} minus one.
+     */
+    public Cursor newCursor(long sequence) {
+        return new Cursor(sequence + 1);
+    }
+
+    /**
+     * Returns the sequence number of the oldest message in the list.
+     */
+    public long getFirstSequence() {
+        return mStore.getFirstSequence();
+    }
+
+    /**
+     * Returns the sequence number the next appended message will get.
+     */
+    public long getNextSequence() {
+        return mStore.getNextSequence();
+    }
+
+    /**
+     * Returns the message with the given sequence number, or null if it is not in the list.
+     */
+    public LogCatMessage getMessage(long sequence) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(1);
+        if (mStore.read(sequence, messages, 1) == sequence + 1) {
+            return messages.get(0);
+        }
+        return null;
     }
 
     /**
      * Obtain all the messages currently present in the list.
+     * <p/>Only the messages appended since the previous call are read from the
+     * store, the others are taken from the previous array.
      * @return array containing all the log messages
      */
     public Object[] toArray() {
-        if (mQ.size() == mFifoSize) {
-            /*
-             * Once the queue is full, it stays full until the user explicitly clears
-             * all the logs. Optimize for this case by not reallocating the array.
-             */
-            return mQ.toArray(mQArray);
+        synchronized (mSnapshotLock) {
+            updateSnapshot();
+            return mSnapshot;
         }
-        return mQ.toArray();
+    }
+
+    /**
+     * Obtain the messages with the given sequence numbers, among the ones currently present in
+     * the list.
+     * @param sequences sorted sequence numbers.
+     * @param count the number of sequence numbers to use in the array.
+     * @return array containing the log messages
+     */
+    public Object[] toArray(long[] sequences, int count) {
+        synchronized (mSnapshotLock) {
+            updateSnapshot();
+
+            long start = mSnapshotStart;
+            long end = start + mSnapshot.length;
+            int from = Arrays.binarySearch(sequences, 0, count, start);
+            if (from < 0) {
+                from = -from - 1;
+            }
+
+            List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count - from);
+            for (int i = from; i < count && sequences[i] < end; i++) {
+                messages.add(mSnapshot[(int) (sequences[i] - start)]);
+            }
+            return messages.toArray();
+        }
+    }
+
+    /**
+     * Updates {@link #mSnapshot} with the current messages, only reading the messages appended
+     * since the previous update.
+     */
+    private void updateSnapshot() {
+        LogCatMessageStore store = mStore;
+        long first = store.getFirstSequence();
+        long snapshotEnd = mSnapshotStart + mSnapshot.length;
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(store.size());
+        long sequence = first;
+        if (first >= mSnapshotStart && first < snapshotEnd) {
+            for (int i = (int) (first - mSnapshotStart); i < mSnapshot.length; i++) {
+                messages.add(mSnapshot[i]);
+            }
+            sequence = snapshotEnd;
+        }
+        int copied = messages.size();
+        long next = store.read(sequence, messages, Integer.MAX_VALUE);
+        if (next - (messages.size() - copied) != sequence) {
+            // messages were dropped while reading: only keep the ones just read.
+            messages = messages.subList(copied, messages.size());
+        }
+
+        mSnapshot = messages.toArray(new LogCatMessage[messages.size()]);
+        mSnapshotStart = next - mSnapshot.length;
     }
 }
@@ -50,6 +50,9 @@ public final class LogCatMessageParser {
             "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
           + "\\s+(\\d*):(0x[0-9a-fA-F]+)\\s([VDIWEAF])/(.*)\\]$");
 
+    /** matcher reused for all the lines */
+    private final Matcher mHeaderMatcher = sLogHeaderPattern.matcher("");
+
     /**
      * Parse a list of strings into {@link LogCatMessage} objects. This method
      * maintains state from previous calls regarding the last seen header of
@@ -63,11 +66,37 @@ public final class LogCatMessageParser {
         List<LogCatMessage> messages = new ArrayList<LogCatMessage>(lines.length);
 
         for (String line : lines) {
-            if (line.length() == 0) {
-                continue;
+            LogCatMessage m = processLogLine(line, pidToNameMapper);
+            if (m != null) {
+                messages.add(m);
             }
+        }
 
-            Matcher matcher = sLogHeaderPattern.matcher(line);
+        return messages;
+    }
+
+    /**
+     * Parse a single line into a {@link LogCatMessage} object. This method
+     * maintains state from previous calls regarding the last seen header of
+     * logcat messages.
+     * @param line raw line obtained from logcat -v long. It is not kept after this returns.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @return the message, or null if the line is blank or a message header. The trailing
+     *         white space of the line is not part of the message.
+     */
+    public LogCatMessage processLogLine(CharSequence line,
+            LogCatPidToNameMapper pidToNameMapper) {
+        int length = line.length();
+        while (length > 0 && line.charAt(length - 1) <= ' ') {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+
+        // only headers start with '[': avoid running the pattern on the other lines.
+        if (line.charAt(0) == '[') {
+            Matcher matcher = mHeaderMatcher.reset(line);
             if (matcher.matches()) {
                 mCurTime = matcher.group(1);
                 mCurPid = matcher.group(2);
@@ -79,14 +108,12 @@ public final class LogCatMessageParser {
                 if (mCurLogLevel == null && matcher.group(4).equals("F")) {
                     mCurLogLevel = LogLevel.ASSERT;
                 }
-            } else {
-                LogCatMessage m = new LogCatMessage(mCurLogLevel, mCurPid,
-                        pidToNameMapper.getName(mCurPid),
-                        mCurTag, mCurTime, line);
-                messages.add(m);
+                return null;
             }
         }
 
-        return messages;
+        return new LogCatMessage(mCurLogLevel, mCurPid,
+                pidToNameMapper.getName(mCurPid),
+                mCurTag, mCurTime, line.subSequence(0, length).toString());
     }
 }
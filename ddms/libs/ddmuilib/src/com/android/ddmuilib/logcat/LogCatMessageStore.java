@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of log messages, stored in a compact form so that millions of messages can be
+ * kept.
+ * <p/>Instead of a {@link LogCatMessage} object per message, each slot of the ring holds a few
+ * primitive fields: the log level, ids for the pid, tag and app name, which are interned in a
+ * string table, and the position of the time and message text in a shared byte arena. The
+ * text is stored with one byte per character when all its characters fit, and two otherwise.
+ * <p/>Each message gets a sequence number, in order of appending. Messages are dropped, oldest
+ * first, when the ring is full or when the arena space of their text is reused.
+ * <p/>The slots and the arena start small, and grow as messages are appended until they reach
+ * the capacity of the store, so that an empty store costs little.
+ * <p/>There must only be one writer, which calls {@link #append(LogCatMessage)}. Readers read
+ * the messages after a sequence number with {@link #read(long, List, int)}. The writer and the
+ * readers only hold a lock while a single message is written or copied.
+ */
+public final class LogCatMessageStore {
+    /** Average space reserved in the arena for the text of a message. */
+    public static final int ARENA_BYTES_PER_MESSAGE = 96;
+
+    private static final int MIN_ARENA_SIZE = 64 * 1024;
+    private static final int MAX_ARENA_SIZE = 1 << 30;
+    private static final int INITIAL_SLOTS = 1024;
+
+    /** Flag in {@link #mLevels} for text stored with two bytes per character. */
+    private static final int WIDE_TEXT = 0x80;
+    private static final int NO_LEVEL = 0x7F;
+    private static final int NO_STRING = -1;
+    private static final int MAX_TIME_LENGTH = 0xFF;
+
+    private static final LogLevel[] sLevels = LogLevel.values();
+
+    private final int mCapacity;
+    private final long mFirstSequence;
+    private final int mMaxArenaSize;
+
+    /**
+     * Lock held while a message is written or copied, which guards the slots, the arena and the
+     * strings.
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * The text of the messages. It grows until it reaches {@link #mMaxArenaSize}, and is only
+     * used as a ring from then on, so that positions below its size never move.
+     */
+    private byte[] mArena;
+
+    /*
+     * the slots. Slot i holds the messages whose sequence number, relative to the first
+     * sequence number, modulo the capacity is i. They grow until they reach the capacity, and are
+     * only used as a ring from then on.
+     */
+    private byte[] mLevels;
+    private int[] mPids;
+    private int[] mTags;
+    private int[] mAppNames;
+    /** position in the arena of the text, counted since the creation of the store. */
+    private long[] mTextStarts;
+    /** length in bytes of the time and message text. */
+    private int[] mTextLengths;
+    /** length in characters of the time, at the start of the text. */
+    private byte[] mTimeLengths;
+
+    /** string ids, only used by the writer. */
+    private final Map<String, Integer> mStringIds = new HashMap<String, Integer>();
+    private String[] mStrings = new String[256];
+    private int mStringCount;
+
+    /** arena position of the next text, only used by the writer. */
+    private long mArenaPosition;
+
+    /** sequence number of the next message. Written after the message is complete. */
+    private volatile long mHead;
+    /** sequence number of the oldest message. Moved before a message is overwritten. */
+    private final AtomicLong mTail = new AtomicLong();
+
+    /**
+     * Creates an empty store.
+     * @param capacity the maximum number of messages.
+     * @param firstSequence the sequence number of the first message appended.
+     */
+    public LogCatMessageStore(int capacity, long firstSequence) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity: " + capacity); //$NON-NLS-1$
+        }
+        mCapacity = capacity;
+        mFirstSequence = firstSequence;
+        mMaxArenaSize = (int) Math.max(MIN_ARENA_SIZE,
+                Math.min(MAX_ARENA_SIZE, (long) capacity * ARENA_BYTES_PER_MESSAGE));
+
+        mArena = new byte[MIN_ARENA_SIZE];
+        growSlots(Math.min(capacity, INITIAL_SLOTS));
+
+        mHead = firstSequence;
+        mTail.set(firstSequence);
+    }
+
+    /** Returns the maximum number of messages. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /** Returns the sequence number of the oldest message in the store. */
+    public long getFirstSequence() {
+        return mTail.get();
+    }
+
+    /** Returns the sequence number the next appended message will get. */
+    public long getNextSequence() {
+        return mHead;
+    }
+
+    /** Returns the number of messages in the store. */
+    public int size() {
+        // read the head first, as the tail can only get closer to it.
+        long head = mHead;
+        return (int) Math.max(0, head - mTail.get());
+    }
+
+    /**
+     * Appends a message, dropping the oldest ones if there is no space left.
+     * <p/>This must only be called by one thread at a time.
+     * @param m the message
+     */
+    public void append(LogCatMessage m) {
+        long sequence = mHead;
+        int slot = getSlot(sequence);
+
+        String time = m.getTime() != null ? m.getTime() : ""; //$NON-NLS-1$
+        if (time.length() > MAX_TIME_LENGTH) {
+            time = time.substring(0, MAX_TIME_LENGTH);
+        }
+        String message = m.getMessage() != null ? m.getMessage() : ""; //$NON-NLS-1$
+
+        boolean wide = isWide(time) || isWide(message);
+        int bytesPerChar = wide ? 2 : 1;
+        // at most half of the arena for a message, so that it never evicts everything.
+        int maxChars = mMaxArenaSize / 2 / bytesPerChar;
+        int messageLength = Math.min(message.length(), maxChars - time.length());
+        int textLength = (time.length() + messageLength) * bytesPerChar;
+
+        synchronized (mLock) {
+            if (slot == mLevels.length) {
+                growSlots(Math.min(mCapacity, mLevels.length * 2));
+            }
+            long arenaEnd = mArenaPosition + textLength;
+            if (arenaEnd > mArena.length && mArena.length < mMaxArenaSize) {
+                // the arena was never used as a ring yet, so the positions are the indices.
+                byte[] arena = new byte[(int) Math.min(mMaxArenaSize,
+                        Math.max(arenaEnd, 2L * mArena.length))];
+                System.arraycopy(mArena, 0, arena, 0, (int) mArenaPosition);
+                mArena = arena;
+            }
+
+            // make space: drop the message in this slot, and the messages in the arena range.
+            long tail = Math.max(mTail.get(), sequence - mCapacity + 1);
+            long arenaLimit = arenaEnd - mArena.length;
+            while (tail < sequence && mTextStarts[getSlot(tail)] < arenaLimit) {
+                tail++;
+            }
+            advanceTail(tail);
+
+            // the slot and the arena range can now be written.
+            LogLevel level = m.getLogLevel();
+            mLevels[slot] = (byte) ((level != null ? level.ordinal() : NO_LEVEL)
+                    | (wide ? WIDE_TEXT : 0));
+            mPids[slot] = getStringId(m.getPid());
+            mTags[slot] = getStringId(m.getTag());
+            mAppNames[slot] = getStringId(m.getAppName());
+            mTextStarts[slot] = mArenaPosition;
+            mTextLengths[slot] = textLength;
+            mTimeLengths[slot] = (byte) time.length();
+
+            long position = putChars(time, time.length(), mArenaPosition, wide);
+            mArenaPosition = putChars(message, messageLength, position, wide);
+        }
+
+        // publish the message.
+        mHead = sequence + 1;
+    }
+
+    /**
+     * Removes all the messages. This can be called from any thread.
+     */
+    public void clear() {
+        advanceTail(mHead);
+    }
+
+    /**
+     * Reads the messages starting at a sequence number.
+     * <p/>If some of these messages were already dropped, reading starts at the oldest message.
+     * @param sequence the sequence number of the first message to read.
+     * @param messages the list to which the messages are added.
+     * @param max the maximum number of messages to read.
+     * @return the sequence number following the last message read, to pass to the next call.
+     */
+    public long read(long sequence, List<LogCatMessage> messages, int max) {
+        long head = mHead;
+
+        int count = 0;
+        while (sequence < head && count < max) {
+            LogCatMessage m;
+            // the writer moves the tail before overwriting a message, with the lock held.
+            synchronized (mLock) {
+                sequence = Math.max(sequence, mTail.get());
+                if (sequence >= head) {
+                    break;
+                }
+                m = get(sequence);
+            }
+
+            messages.add(m);
+            count++;
+            sequence++;
+        }
+
+        return sequence;
+    }
+
+    /** Must be called with the lock held. */
+    private LogCatMessage get(long sequence) {
+        int slot = getSlot(sequence);
+
+        int levelAndFlags = mLevels[slot] & 0xFF;
+        int level = levelAndFlags & ~WIDE_TEXT;
+        boolean wide = (levelAndFlags & WIDE_TEXT) != 0;
+        String pid = getString(mPids[slot]);
+        String tag = getString(mTags[slot]);
+        String appName = getString(mAppNames[slot]);
+
+        int textChars = mTextLengths[slot] / (wide ? 2 : 1);
+        int timeChars = mTimeLengths[slot] & 0xFF;
+        char[] chars = new char[textChars];
+        getChars(mTextStarts[slot], chars, wide);
+
+        return new LogCatMessage(level < sLevels.length ? sLevels[level] : null,
+                pid, appName, tag,
+                new String(chars, 0, timeChars),
+                new String(chars, timeChars, textChars - timeChars));
+    }
+
+    private int getSlot(long sequence) {
+        return (int) ((sequence - mFirstSequence) % mCapacity);
+    }
+
+    /**
+     * Grows the slots to the given size. Must be called with the lock held, or by the
+     * constructor.
+     */
+    private void growSlots(int size) {
+        int used = mLevels != null ? mLevels.length : 0;
+        mLevels = copyOf(mLevels, new byte[size], used);
+        mPids = copyOf(mPids, new int[size], used);
+        mTags = copyOf(mTags, new int[size], used);
+        mAppNames = copyOf(mAppNames, new int[size], used);
+        mTextStarts = copyOf(mTextStarts, new long[size], used);
+        mTextLengths = copyOf(mTextLengths, new int[size], used);
+        mTimeLengths = copyOf(mTimeLengths, new byte[size], used);
+    }
+
+    private static <T> T copyOf(T from, T to, int length) {
+        if (from != null) {
+            System.arraycopy(from, 0, to, 0, length);
+        }
+        return to;
+    }
+
+    private void advanceTail(long tail) {
+        while (true) {
+            long current = mTail.get();
+            if (current >= tail || mTail.compareAndSet(current, tail)) {
+                return;
+            }
+        }
+    }
+
+    private int getStringId(String s) {
+        if (s == null) {
+            return NO_STRING;
+        }
+
+        Integer id = mStringIds.get(s);
+        if (id == null) {
+            if (mStringCount == mStrings.length) {
+                String[] strings = new String[mStrings.length * 2];
+                System.arraycopy(mStrings, 0, strings, 0, mStrings.length);
+                mStrings = strings;
+            }
+            mStrings[mStringCount] = s;
+            id = Integer.valueOf(mStringCount++);
+            mStringIds.put(s, id);
+        }
+        return id.intValue();
+    }
+
+    private String getString(int id) {
+        return id != NO_STRING ? mStrings[id] : null;
+    }
+
+    private static boolean isWide(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long putChars(String s, int length, long position, boolean wide) {
+        int index = (int) (position % mArena.length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (wide) {
+                mArena[index] = (byte) (c >> 8);
+                index = index + 1 == mArena.length ? 0 : index + 1;
+            }
+            mArena[index] = (byte) c;
+            index = index + 1 == mArena.length ? 0 : index + 1;
+        }
+        return position + (wide ? 2 * length : length);
+    }
+
+    private void getChars(long position, char[] chars, boolean wide) {
+        int index = (int) (position % mArena.length);
+        for (int i = 0; i < chars.length; i++) {
+            int c = mArena[index] & 0xFF;
+            index = index + 1 == mArena.length ? 0 : index + 1;
+            if (wide) {
+                c = (c << 8) | (mArena[index] & 0xFF);
+                index = index + 1 == mArena.length ? 0 : index + 1;
+            }
+            chars[i] = (char) c;
+        }
+    }
+}
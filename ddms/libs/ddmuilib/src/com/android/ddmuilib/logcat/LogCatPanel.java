@@ -18,6 +18,7 @@ package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.DdmConstants;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.ITableFocusListener;
 import com.android.ddmuilib.ImageLoader;
@@ -111,7 +112,14 @@ public final class LogCatPanel extends SelectionDependentPanel
     private static final String DEFAULT_SEARCH_TOOLTIP =
             "Example search patterns:\n"
           + "    sqlite (search for sqlite in text field)\n"
-          + "    app:browser (search for messages generated by the browser application)";
+          + "    app:browser (search for messages generated by the browser application)\n"
+          + "When browsing the archive, press Enter to go to the next message matching\n"
+          + "    tag:<tag>, pid:<pid> or time:<MM-dd HH:mm:ss.SSS>";
+
+    /** Keywords of the archive search, as in the live filters. */
+    private static final String PID_KEYWORD = "pid:";   //$NON-NLS-1$
+    private static final String TAG_KEYWORD = "tag:";   //$NON-NLS-1$
+    private static final String TIME_KEYWORD = "time:"; //$NON-NLS-1$
 
     private static final String IMAGE_ADD_FILTER = "add.png"; //$NON-NLS-1$
     private static final String IMAGE_DELETE_FILTER = "delete.png"; //$NON-NLS-1$
@@ -119,11 +127,15 @@ public final class LogCatPanel extends SelectionDependentPanel
     private static final String IMAGE_SAVE_LOG_TO_FILE = "save.png"; //$NON-NLS-1$
     private static final String IMAGE_CLEAR_LOG = "clear.png"; //$NON-NLS-1$
     private static final String IMAGE_DISPLAY_FILTERS = "displayfilters.png"; //$NON-NLS-1$
+    private static final String IMAGE_BROWSE_ARCHIVE = "load.png"; //$NON-NLS-1$
 
     private static final int[] WEIGHTS_SHOW_FILTERS = new int[] {15, 85};
     private static final int[] WEIGHTS_LOGCAT_ONLY = new int[] {0, 100};
 
     private LogCatReceiver mReceiver;
+    private LogCatMessageContentProvider mMessageContentProvider;
+    /** provider of the archived messages, set while the archive is browsed. */
+    private LogCatArchiveContentProvider mArchiveContentProvider;
     private IPreferenceStore mPrefStore;
 
     private List<LogCatFilter> mLogCatFilters;
@@ -136,6 +148,7 @@ public final class LogCatPanel extends SelectionDependentPanel
 
     private Combo mLiveFilterLevelCombo;
     private Text mLiveFilterText;
+    private ToolItem mBrowseArchiveToolItem;
 
     private TableViewer mViewer;
     private boolean mShouldScrollToLatestLog = true;
@@ -236,7 +249,8 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         mReceiver = LogCatReceiverFactory.INSTANCE.newReceiver(device, mPrefStore);
         mReceiver.addMessageReceivedEventListener(this);
-        mViewer.setInput(mReceiver.getMessages());
+        mBrowseArchiveToolItem.setEnabled(mReceiver.getArchive() != null);
+        setArchiveBrowsing(false);
 
         // Always scroll to last line whenever the selected device changes.
         // Run this in a separate async thread to give the table some time to update after the
@@ -504,6 +518,12 @@ public final class LogCatPanel extends SelectionDependentPanel
                 updateAppliedFilters();
             }
         });
+        mLiveFilterText.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetDefaultSelected(SelectionEvent arg0) {
+                searchArchive(mLiveFilterText.getText().trim());
+            }
+        });
 
         mLiveFilterLevelCombo = new Combo(c, SWT.READ_ONLY | SWT.DROP_DOWN);
         mLiveFilterLevelCombo.setItems(
@@ -543,6 +563,19 @@ public final class LogCatPanel extends SelectionDependentPanel
             }
         });
 
+        mBrowseArchiveToolItem = new ToolItem(toolBar, SWT.CHECK);
+        mBrowseArchiveToolItem.setImage(
+                ImageLoader.getDdmUiLibLoader().loadImage(IMAGE_BROWSE_ARCHIVE,
+                        toolBar.getDisplay()));
+        mBrowseArchiveToolItem.setToolTipText("Browse All Archived Messages");
+        mBrowseArchiveToolItem.setEnabled(false);
+        mBrowseArchiveToolItem.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent event) {
+                setArchiveBrowsing(mBrowseArchiveToolItem.getSelection());
+            }
+        });
+
         final ToolItem showFiltersColumn = new ToolItem(toolBar, SWT.CHECK);
         showFiltersColumn.setImage(
                 ImageLoader.getDdmUiLibLoader().loadImage(IMAGE_DISPLAY_FILTERS,
@@ -559,6 +592,73 @@ public final class LogCatPanel extends SelectionDependentPanel
         });
     }
 
+    /**
+     * Switch the table between the messages in memory, and all the messages of the archive of
+     * the current receiver, which are read lazily as they are displayed. Filters are not
+     * applied to the archive, which is searched from the live filter text instead.
+     */
+    private void setArchiveBrowsing(boolean browse) {
+        LogCatArchive archive = mReceiver != null ? mReceiver.getArchive() : null;
+
+        mViewer.setInput(null);
+        if (browse && archive != null) {
+            mArchiveContentProvider = new LogCatArchiveContentProvider(mViewer);
+            mViewer.setFilters(new LogCatViewerFilter[0]);
+            mViewer.setContentProvider(mArchiveContentProvider);
+            mViewer.setInput(archive);
+        } else {
+            mArchiveContentProvider = null;
+            mViewer.setContentProvider(mMessageContentProvider);
+            mViewer.setInput(mReceiver != null ? mReceiver.getMessages() : null);
+            updateAppliedFilters();
+        }
+
+        mBrowseArchiveToolItem.setSelection(mArchiveContentProvider != null);
+        scrollToLatestLog();
+    }
+
+    /**
+     * Select the next archived message after the current selection matching a query:
+     * {@code tag:<tag>}, {@code pid:<pid>} or {@code time:<MM-dd HH:mm:ss.SSS>}. The archive
+     * indexes are used, so unlike the live filters, tags and pids must match exactly.
+     */
+    private void searchArchive(String query) {
+        LogCatArchive archive = mReceiver != null ? mReceiver.getArchive() : null;
+        if (mArchiveContentProvider == null || archive == null) {
+            return;
+        }
+
+        Table table = mViewer.getTable();
+        long from = mArchiveContentProvider.getSequence(table.getSelectionIndex() + 1);
+        long sequence = -1;
+        try {
+            if (query.startsWith(TIME_KEYWORD)) {
+                sequence = archive.findTime(query.substring(TIME_KEYWORD.length()).trim());
+            } else if (query.startsWith(TAG_KEYWORD)) {
+                long[] found = archive.findTag(
+                        query.substring(TAG_KEYWORD.length()).trim(), from, 1);
+                sequence = found.length > 0 ? found[0] : -1;
+            } else if (query.startsWith(PID_KEYWORD)) {
+                long[] found = archive.findPid(
+                        query.substring(PID_KEYWORD.length()).trim(), from, 1);
+                sequence = found.length > 0 ? found[0] : -1;
+            }
+        } catch (IOException e) {
+            Log.e("LogCat", "Unable to search the logcat archive"); //$NON-NLS-1$
+            Log.e("LogCat", e); //$NON-NLS-1$
+        }
+
+        if (sequence >= 0) {
+            mArchiveContentProvider.updateItemCount();
+            int index = mArchiveContentProvider.getIndex(sequence);
+            if (index < table.getItemCount()) {
+                mShouldScrollToLatestLog = false;
+                table.setSelection(index);
+                table.showSelection();
+            }
+        }
+    }
+
     private void updateFiltersColumn(boolean showFilters) {
         if (showFilters) {
             mSash.setWeights(WEIGHTS_SHOW_FILTERS);
@@ -644,7 +744,13 @@ public final class LogCatPanel extends SelectionDependentPanel
         List<LogCatMessage> selectedMessages = new ArrayList<LogCatMessage>(indices.length);
         for (int i : indices) {
             LogCatMessage m = (LogCatMessage) table.getItem(i).getData();
-            selectedMessages.add(m);
+            if (m == null && mArchiveContentProvider != null) {
+                /* rows of the archive are only read when they are displayed */
+                m = mArchiveContentProvider.getMessage(i);
+            }
+            if (m != null) {
+                selectedMessages.add(m);
+            }
         }
 
         return selectedMessages;
@@ -696,7 +802,8 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         mViewer.getTable().setLinesVisible(true); /* zebra stripe the table */
         mViewer.getTable().setHeaderVisible(true);
-        mViewer.setContentProvider(new LogCatMessageContentProvider());
+        mMessageContentProvider = new LogCatMessageContentProvider();
+        mViewer.setContentProvider(mMessageContentProvider);
         WrappingToolTipSupport.enableFor(mViewer, ToolTip.NO_RECREATE);
 
         // Set the row height to be sufficient enough to display the current font.
@@ -860,9 +967,26 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private void updateAppliedFilters() {
+        if (mArchiveContentProvider != null) {
+            /* the lazily read archive cannot be filtered by the viewer */
+            return;
+        }
+
         /* list of filters to apply = saved filter + live filters */
         List<LogCatViewerFilter> filters = new ArrayList<LogCatViewerFilter>();
-        filters.add(getSelectedSavedFilter());
+
+        /* the messages matching the saved filters are known from the index of the receiver,
+         * so the saved filter is only applied by the viewer if there is no receiver. */
+        LogCatFilter savedFilter = mLogCatFilters.get(getSelectedSavedFilterIndex());
+        if (mReceiver != null && mReceiver.getMessages() != null) {
+            LogCatFilterIndex index = mReceiver.getFilterIndex();
+            index.setFilters(mLogCatFilters, mReceiver.getMessages());
+            mMessageContentProvider.setFilter(index, savedFilter);
+        } else {
+            mMessageContentProvider.setFilter(null, null);
+            filters.add(new LogCatViewerFilter(savedFilter));
+        }
+
         filters.addAll(getCurrentLiveFilters());
         mViewer.setFilters(filters.toArray(new LogCatViewerFilter[filters.size()]));
 
@@ -884,11 +1008,6 @@ public final class LogCatPanel extends SelectionDependentPanel
         return liveFilters;
     }
 
-    private LogCatViewerFilter getSelectedSavedFilter() {
-        int index = getSelectedSavedFilterIndex();
-        return new LogCatViewerFilter(mLogCatFilters.get(index));
-    }
-
 
     @Override
     public void setFocus() {
@@ -912,12 +1031,22 @@ public final class LogCatPanel extends SelectionDependentPanel
      * @param receivedMessages list of new messages received
      */
     private void updateUnreadCount(List<LogCatMessage> receivedMessages) {
+        /* the index of the receiver has already matched the received messages */
+        LogCatReceiver receiver = mReceiver;
+        LogCatFilterIndex index = receiver != null ? receiver.getFilterIndex() : null;
+
         for (int i = 0; i < mLogCatFilters.size(); i++) {
             if (i == mCurrentSelectedFilterIndex) {
                 /* no need to update unread count for currently selected filter */
                 continue;
             }
-            mLogCatFilters.get(i).updateUnreadCount(receivedMessages);
+            LogCatFilter f = mLogCatFilters.get(i);
+            int count = index != null ? index.getLastBatchMatchCount(f) : -1;
+            if (count >= 0) {
+                f.incrementUnreadCount(count);
+            } else {
+                f.updateUnreadCount(receivedMessages);
+            }
         }
     }
 
@@ -959,7 +1088,12 @@ public final class LogCatPanel extends SelectionDependentPanel
                 mCurrentRefresher = null;
             }
 
-            mViewer.refresh();
+            if (mArchiveContentProvider != null) {
+                /* the archive is only appended to: the existing rows are still valid */
+                mArchiveContentProvider.updateItemCount();
+            } else {
+                mViewer.refresh();
+            }
 
             if (mShouldScrollToLatestLog) {
                 scrollToLatestLog();
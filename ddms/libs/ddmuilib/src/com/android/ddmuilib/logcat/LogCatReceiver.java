@@ -16,30 +16,50 @@
 
 package com.android.ddmuilib.logcat;
 
+import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.LineReceiver;
 import com.android.ddmlib.Log;
-import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.log.LogReceiver;
+import com.android.ddmlib.log.LogReceiver.ILogBlockListener;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TimeZone;
 
 /**
  * A class to monitor a device for logcat messages. It stores the received
  * log messages in a circular buffer.
+ * <p/>The main and system logs are read in their binary form through the device log service,
+ * and decoded by {@link LogCatBinaryMessageParser}. If the device rejects the log service,
+ * the receiver falls back to parsing the text output of {@code logcat -v long}.
+ * <p/>If a folder is set for {@link LogCatArchive#ARCHIVE_FOLDER_PREFKEY}, all the messages
+ * are also written to a {@link LogCatArchive} in a sub folder for the device.
  */
 public final class LogCatReceiver {
     private static final String LOGCAT_COMMAND = "logcat -v long";
+    private static final String MAIN_LOG = "main"; //$NON-NLS-1$
+    private static final String SYSTEM_LOG = "system"; //$NON-NLS-1$
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
+    private static final String TIME_ZONE_PROPERTY = "persist.sys.timezone"; //$NON-NLS-1$
 
     private LogCatMessageList mLogMessages;
     private IDevice mCurrentDevice;
     private LogCatOutputReceiver mCurrentLogCatOutputReceiver;
+    private LogCatBinaryReceiver mCurrentMainLogReceiver;
+    private LogCatBinaryReceiver mCurrentSystemLogReceiver;
     private Set<ILogCatMessageEventListener> mLogCatMessageListeners;
     private LogCatMessageParser mLogCatMessageParser;
     private LogCatPidToNameMapper mPidToNameMapper;
+    private LogCatFilterIndex mFilterIndex;
+    private volatile LogCatArchive mArchive;
     private IPreferenceStore mPrefStore;
 
     /**
@@ -57,8 +77,10 @@ public final class LogCatReceiver {
         mLogCatMessageListeners = new HashSet<ILogCatMessageEventListener>();
         mLogCatMessageParser = new LogCatMessageParser();
         mPidToNameMapper = new LogCatPidToNameMapper(mCurrentDevice);
+        mFilterIndex = new LogCatFilterIndex();
 
         mLogMessages = new LogCatMessageList(getFifoSize());
+        mArchive = openArchive();
 
         startReceiverThread();
     }
@@ -72,18 +94,61 @@ public final class LogCatReceiver {
             mCurrentLogCatOutputReceiver.mIsCancelled = true;
             mCurrentLogCatOutputReceiver = null;
         }
+        if (mCurrentMainLogReceiver != null) {
+            mCurrentMainLogReceiver.cancel();
+            mCurrentMainLogReceiver = null;
+        }
+        if (mCurrentSystemLogReceiver != null) {
+            mCurrentSystemLogReceiver.cancel();
+            mCurrentSystemLogReceiver = null;
+        }
 
+        closeArchive();
         mLogMessages = null;
         mCurrentDevice = null;
     }
 
+    private LogCatArchive openArchive() {
+        String folder = mPrefStore.getString(LogCatArchive.ARCHIVE_FOLDER_PREFKEY);
+        if (folder == null || folder.length() == 0) {
+            return null;
+        }
+
+        // serial numbers of network devices contain ':'.
+        String name = mCurrentDevice.getSerialNumber()
+                .replaceAll("[^\\w.-]", "_"); //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            return new LogCatArchive(new File(folder, name));
+        } catch (IOException e) {
+            Log.e("LogCat", "Unable to open the logcat archive in " + folder); //$NON-NLS-1$
+            Log.e("LogCat", e); //$NON-NLS-1$
+            return null;
+        }
+    }
+
+    private synchronized void closeArchive() {
+        if (mArchive != null) {
+            try {
+                mArchive.close();
+            } catch (IOException e) {
+                Log.e("LogCat", e); //$NON-NLS-1$
+            }
+            mArchive = null;
+        }
+    }
+
     private int getFifoSize() {
         int n = mPrefStore.getInt(LogCatMessageList.MAX_MESSAGES_PREFKEY);
         return n == 0 ? LogCatMessageList.MAX_MESSAGES_DEFAULT : n;
     }
 
     private void startReceiverThread() {
-        mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
+        final LogCatOutputReceiver outputReceiver = new LogCatOutputReceiver();
+        final LogCatBinaryReceiver mainLogReceiver = new LogCatBinaryReceiver();
+        final LogCatBinaryReceiver systemLogReceiver = new LogCatBinaryReceiver();
+        mCurrentLogCatOutputReceiver = outputReceiver;
+        mCurrentMainLogReceiver = mainLogReceiver;
+        mCurrentSystemLogReceiver = systemLogReceiver;
 
         Thread t = new Thread(new Runnable() {
             public void run() {
@@ -97,16 +162,20 @@ public final class LogCatReceiver {
                 }
 
                 try {
-                    mCurrentDevice.executeShellCommand(LOGCAT_COMMAND,
-                            mCurrentLogCatOutputReceiver, 0);
+                    if (runLogServices(mainLogReceiver, systemLogReceiver)) {
+                        return;
+                    }
+
+                    mCurrentDevice.executeShellCommand(LOGCAT_COMMAND, outputReceiver, 0);
                 } catch (Exception e) {
                     /* There are 4 possible exceptions: TimeoutException,
                      * AdbCommandRejectedException, ShellCommandUnresponsiveException and
                      * IOException. In case of any of them, the only recourse is to just
                      * log this unexpected situation and move on.
                      */
-                    Log.e("Unexpected error while launching logcat. Try reselecting the device.",
-                            e);
+                    Log.e("LogCat", //$NON-NLS-1$
+                            "Unexpected error while launching logcat. Try reselecting the device.");
+                    Log.e("LogCat", e); //$NON-NLS-1$
                 }
             }
         });
@@ -115,16 +184,75 @@ public final class LogCatReceiver {
     }
 
     /**
-     * LogCatOutputReceiver implements {@link MultiLineReceiver#processNewLines(String[])},
-     * which is called whenever there is output from logcat. It simply redirects this output
-     * to {@link LogCatReceiver#processLogLines(String[])}. This class is expected to be
+     * Reads the system log on a new thread, and the main log on the current thread, until
+     * the receivers are cancelled.
+     * @return false if the device rejected the log service, true otherwise.
+     */
+    private boolean runLogServices(LogCatBinaryReceiver mainLogReceiver,
+            final LogCatBinaryReceiver systemLogReceiver) throws Exception {
+        final IDevice device = mCurrentDevice;
+
+        TimeZone timeZone = getTimeZone(device);
+        mainLogReceiver.setTimeZone(timeZone);
+        systemLogReceiver.setTimeZone(timeZone);
+
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    device.runLogService(SYSTEM_LOG, systemLogReceiver.getLogReceiver());
+                } catch (AdbCommandRejectedException e) {
+                    // no system log on this device, or no log service at all, in which case
+                    // the main log is rejected too.
+                } catch (Exception e) {
+                    Log.e("LogCat", "Unexpected error while reading the system log."); //$NON-NLS-1$
+                    Log.e("LogCat", e); //$NON-NLS-1$
+                }
+            }
+        });
+        t.setName("LogCat system log receiver for " + device.getSerialNumber());
+        t.start();
+
+        try {
+            device.runLogService(MAIN_LOG, mainLogReceiver.getLogReceiver());
+            return true;
+        } catch (AdbCommandRejectedException e) {
+            systemLogReceiver.cancel();
+            Log.d("LogCat", "Log service rejected, using logcat instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the time zone of the device, in which logcat formats the time of the messages.
+     * Devices without a time zone set use GMT. If the time zone can't be read, the time zone
+     * of the host is used.
+     */
+    private static TimeZone getTimeZone(IDevice device) {
+        try {
+            String id = device.getPropertyCacheOrSync(TIME_ZONE_PROPERTY);
+            if (id == null || id.length() == 0) {
+                return TimeZone.getTimeZone("GMT"); //$NON-NLS-1$
+            }
+            return TimeZone.getTimeZone(id);
+        } catch (Exception e) {
+            Log.w("LogCat", "Unable to read the time zone of the device: " + e.getMessage());
+            return TimeZone.getDefault();
+        }
+    }
+
+    /**
+     * LogCatOutputReceiver implements {@link LineReceiver#processLine(CharSequence)},
+     * which is called for each line of output from logcat. It parses the lines into messages,
+     * and passes the messages of each block of output to
+     * {@link LogCatReceiver#processLogMessages(List)}. This class is expected to be
      * used from a different thread, and the only way to stop that thread is by using the
      * {@link LogCatOutputReceiver#mIsCancelled} variable.
      * See {@link IDevice#executeShellCommand(String, IShellOutputReceiver, int)} for more
      * details.
      */
-    private class LogCatOutputReceiver extends MultiLineReceiver {
+    private class LogCatOutputReceiver extends LineReceiver {
         private boolean mIsCancelled;
+        private final List<LogCatMessage> mMessages = new ArrayList<LogCatMessage>();
 
         public LogCatOutputReceiver() {
             setTrimLine(false);
@@ -136,21 +264,94 @@ public final class LogCatReceiver {
         }
 
         @Override
-        public void processNewLines(String[] lines) {
+        protected void processLine(CharSequence line) {
             if (!mIsCancelled) {
-                processLogLines(lines);
+                LogCatMessage m = mLogCatMessageParser.processLogLine(line, mPidToNameMapper);
+                if (m != null) {
+                    mMessages.add(m);
+                }
             }
         }
+
+        @Override
+        protected void processLinesDone() {
+            if (!mIsCancelled && mMessages.size() > 0) {
+                processLogMessages(new ArrayList<LogCatMessage>(mMessages));
+            }
+            mMessages.clear();
+        }
+    }
+
+    /**
+     * LogCatBinaryReceiver decodes the {@link LogEntry} objects read by its {@link LogReceiver}
+     * from a device log, and passes the messages of each block of data to
+     * {@link LogCatReceiver#processLogMessages(List)}. It is stopped with {@link #cancel()}.
+     * See {@link IDevice#runLogService(String, LogReceiver)} for more details.
+     */
+    private class LogCatBinaryReceiver implements ILogBlockListener {
+        private final LogReceiver mLogReceiver = new LogReceiver(this);
+        private final LogCatBinaryMessageParser mParser = new LogCatBinaryMessageParser();
+        private final List<LogCatMessage> mMessages = new ArrayList<LogCatMessage>();
+
+        public LogReceiver getLogReceiver() {
+            return mLogReceiver;
+        }
+
+        public void cancel() {
+            mLogReceiver.cancel();
+        }
+
+        /** Must be called before the log service is started. */
+        public void setTimeZone(TimeZone timeZone) {
+            mParser.setTimeZone(timeZone);
+        }
+
+        public void newData(byte[] data, int offset, int length) {
+            // only the entries are used.
+        }
+
+        public void newEntry(LogEntry entry) {
+            mParser.processLogEntry(entry, mPidToNameMapper, mMessages);
+        }
+
+        public void newEntriesDone() {
+            if (!mLogReceiver.isCancelled() && mMessages.size() > 0) {
+                processLogMessages(new ArrayList<LogCatMessage>(mMessages));
+            }
+            mMessages.clear();
+        }
     }
 
-    private void processLogLines(String[] lines) {
-        List<LogCatMessage> messages = mLogCatMessageParser.processLogLines(lines,
-                mPidToNameMapper);
+    /**
+     * Called from the receiver threads of both the main and system logs. The messages are
+     * archived first, outside of the lock, so that the other log is not held up by the disk.
+     */
+    private void processLogMessages(List<LogCatMessage> messages) {
+        if (messages.size() == 0) {
+            return;
+        }
+
+        LogCatArchive archive = mArchive;
+        if (archive != null) {
+            try {
+                archive.append(messages);
+            } catch (IOException e) {
+                // keep receiving messages, without the archive. It fails once closed by stop().
+                if (archive == mArchive) {
+                    Log.e("LogCat", //$NON-NLS-1$
+                            "Unable to write to the logcat archive, archiving stopped.");
+                    Log.e("LogCat", e); //$NON-NLS-1$
+                    closeArchive();
+                }
+            }
+        }
 
-        if (messages.size() > 0) {
+        synchronized (this) {
+            long firstSequence = mLogMessages.getNextSequence();
             for (LogCatMessage m : messages) {
                 mLogMessages.appendMessage(m);
             }
+            mFilterIndex.addMessages(firstSequence, messages, mLogMessages.getFirstSequence());
             sendMessageReceivedEvent(messages);
         }
     }
@@ -163,6 +364,23 @@ public final class LogCatReceiver {
         return mLogMessages;
     }
 
+    /**
+     * Get the index evaluating the logcat filters on the messages of this receiver. The
+     * filters to evaluate are set with
+     * {@link LogCatFilterIndex#setFilters(List, LogCatMessageList)}.
+     */
+    public LogCatFilterIndex getFilterIndex() {
+        return mFilterIndex;
+    }
+
+    /**
+     * Get the archive of all the messages received from the device.
+     * @return the archive, or null if no archive folder is set or it could not be written.
+     */
+    public LogCatArchive getArchive() {
+        return mArchive;
+    }
+
     /**
      * Clear the list of messages received from the currently active device.
      */
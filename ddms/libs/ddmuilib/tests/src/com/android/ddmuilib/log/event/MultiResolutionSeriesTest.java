@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.log.event;
+
+import com.android.ddmuilib.log.event.MultiResolutionSeries.IPointReceiver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link MultiResolutionSeries}.
+ */
+public class MultiResolutionSeriesTest extends TestCase {
+
+    /** Collects the points as "time=value" strings. */
+    private static class PointList implements IPointReceiver {
+        final List<String> mPoints = new ArrayList<String>();
+        final List<Long> mTimes = new ArrayList<Long>();
+        final List<Double> mValues = new ArrayList<Double>();
+
+        public void addPoint(long time, double value) {
+            mPoints.add(time + "=" + value);
+            mTimes.add(time);
+            mValues.add(value);
+        }
+    }
+
+    private static PointList getPoints(MultiResolutionSeries series, long start, long end,
+            int bucketCount) {
+        PointList points = new PointList();
+        series.getPoints(start, end, bucketCount, points);
+        return points;
+    }
+
+    public void testSmallSeries() {
+        MultiResolutionSeries series = new MultiResolutionSeries();
+        series.addOrUpdate(10, 1);
+        series.addOrUpdate(30, 3);
+        series.addOrUpdate(20, 2);
+        series.addOrUpdate(40, 4);
+        series.addOrUpdate(20, 5);
+        assertEquals(4, series.getItemCount());
+        assertEquals(10, series.getFirstTime());
+        assertEquals(40, series.getLastTime());
+
+        assertEquals("[10=1.0, 20=5.0, 30=3.0, 40=4.0]",
+                getPoints(series, 0, 100, 10).mPoints.toString());
+        // the points around the range are included.
+        assertEquals("[10=1.0, 20=5.0, 30=3.0]",
+                getPoints(series, 15, 25, 10).mPoints.toString());
+    }
+
+    public void testDownsampling() {
+        MultiResolutionSeries series = new MultiResolutionSeries();
+        Random random = new Random(0);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            series.addOrUpdate(i * 10L, random.nextGaussian());
+        }
+        series.addOrUpdate(500000, 100);
+        series.addOrUpdate(600000, -100);
+
+        PointList points = getPoints(series, 0, count * 10L, 200);
+        assertTrue(points.mPoints.size() <= 2 * 200 + 4);
+        assertTrue(points.mPoints.size() >= 200);
+        // the peaks, the first and the last values are kept.
+        assertTrue(points.mPoints.contains("500000=100.0"));
+        assertTrue(points.mPoints.contains("600000=-100.0"));
+        assertEquals(0L, points.mTimes.get(0).longValue());
+        assertEquals((count - 1) * 10L, points.mTimes.get(points.mTimes.size() - 1).longValue());
+        for (int i = 1; i < points.mTimes.size(); i++) {
+            assertTrue(points.mTimes.get(i - 1) < points.mTimes.get(i));
+        }
+
+        // zoomed in: a finer level, with the values around the range.
+        points = getPoints(series, 499000, 501000, 200);
+        assertTrue(points.mPoints.contains("500000=100.0"));
+        assertEquals(498990L, points.mTimes.get(0).longValue());
+        assertEquals(501010L, points.mTimes.get(points.mTimes.size() - 1).longValue());
+    }
+
+    /**
+     * Checks that sparse values after a burst of dense values are all kept, as the buckets
+     * split the time rather than the values.
+     */
+    public void testSparseValues() {
+        MultiResolutionSeries occurrences = new MultiResolutionSeries();
+        MultiResolutionSeries values = new MultiResolutionSeries();
+        Random random = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            occurrences.addOrUpdate(i, 0);
+            values.addOrUpdate(i, random.nextInt(100));
+        }
+        long end = 0;
+        for (int i = 1; i <= 100; i++) {
+            end = 20000 + i * 60000L;
+            occurrences.addOrUpdate(end, 0);
+            // one peak every four values.
+            values.addOrUpdate(end, (i % 4) == 0 ? 1000 : random.nextInt(100));
+        }
+
+        PointList points = getPoints(occurrences, 0, end, 800);
+        assertTrue(points.mPoints.size() <= 2 * 800 + 2);
+        for (int i = 1; i <= 100; i++) {
+            assertTrue(points.mTimes.contains(20000 + i * 60000L));
+        }
+
+        points = getPoints(values, 0, end, 800);
+        assertTrue(points.mPoints.size() <= 2 * 800 + 2);
+        for (int i = 4; i <= 100; i += 4) {
+            assertTrue(points.mPoints.contains((20000 + i * 60000L) + "=1000.0"));
+        }
+    }
+
+    /**
+     * Checks the points while values stream in, are updated, inserted and removed, against
+     * the values themselves.
+     */
+    public void testStreaming() {
+        MultiResolutionSeries series = new MultiResolutionSeries();
+        series.setMaximumItemAge(300000);
+        TreeMap<Long, Double> values = new TreeMap<Long, Double>();
+        Random random = new Random(1);
+        long time = 0;
+        for (int step = 0; step < 50; step++) {
+            for (int i = 0; i < 1000; i++) {
+                time += 1 + random.nextInt(20);
+                add(series, values, time, random.nextInt(1000));
+            }
+            // an update, a late value and a new peak.
+            add(series, values, time - random.nextInt(5000), random.nextInt(1000));
+            add(series, values, time - random.nextInt(5000) - 1, random.nextInt(1000));
+            add(series, values, time - random.nextInt(50000), 1000 + step);
+            series.removeAgedItems(time);
+            values.headMap(time - 300000, false).clear();
+            assertEquals(values.size(), series.getItemCount());
+
+            checkPoints(series, values, time - 100000, time, 100);
+            checkPoints(series, values, 0, time, 77);
+        }
+        assertTrue(series.getFirstTime() >= time - 300000);
+    }
+
+    private static void add(MultiResolutionSeries series, TreeMap<Long, Double> values,
+            long time, double value) {
+        series.addOrUpdate(time, value);
+        values.put(time, value);
+    }
+
+    /**
+     * Checks that the points are values, sorted, bounded by the number of buckets, and include
+     * the maximum of the range.
+     */
+    private static void checkPoints(MultiResolutionSeries series, TreeMap<Long, Double> values,
+            long start, long end, int bucketCount) {
+        PointList points = getPoints(series, start, end, bucketCount);
+        assertTrue(points.mPoints.size() <= 2 * bucketCount + 4);
+        for (int i = 0; i < points.mTimes.size(); i++) {
+            assertEquals(values.get(points.mTimes.get(i)), points.mValues.get(i));
+            if (i > 0) {
+                assertTrue(points.mTimes.get(i - 1) < points.mTimes.get(i));
+            }
+        }
+        double max = Collections.max(values.subMap(start, true, end, true).values());
+        assertTrue(points.mValues.contains(max));
+    }
+
+    public void testClear() {
+        MultiResolutionSeries series = new MultiResolutionSeries();
+        for (int i = 0; i < 1000; i++) {
+            series.addOrUpdate(i, i);
+        }
+        series.clear();
+        assertEquals(0, series.getItemCount());
+        assertTrue(getPoints(series, 0, 1000, 10).mPoints.isEmpty());
+        series.addOrUpdate(5, 5);
+        assertEquals("[5=5.0]", getPoints(series, 0, 1000, 10).mPoints.toString());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatArchive}.
+ */
+public final class LogCatArchiveTest extends TestCase {
+    private File mFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFolder = File.createTempFile("logcat", "archive");
+        mFolder.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    /** Creates a message, one per 10 milliseconds from 08-11 19:00:00.000. */
+    private static LogCatMessage createMessage(int i) {
+        return new LogCatMessage(LogLevel.values()[i % 6], Integer.toString(100 + i % 10),
+                "app" + (i % 3), "tag" + (i % 5),
+                String.format("08-11 19:%02d:%02d.%03d", i / 6000 % 60, i / 100 % 60,
+                        i % 100 * 10),
+                "message " + i);
+    }
+
+    private static void assertMessage(int i, LogCatMessage m) {
+        LogCatMessage expected = createMessage(i);
+        assertEquals(expected.getLogLevel(), m.getLogLevel());
+        assertEquals(expected.getPid(), m.getPid());
+        assertEquals(expected.getAppName(), m.getAppName());
+        assertEquals(expected.getTag(), m.getTag());
+        assertEquals(expected.getTime(), m.getTime());
+        assertEquals(expected.getMessage(), m.getMessage());
+    }
+
+    private static void append(LogCatArchive archive, int first, int count) throws IOException {
+        List<LogCatMessage> batch = new ArrayList<LogCatMessage>();
+        for (int i = first; i < first + count; i++) {
+            batch.add(createMessage(i));
+        }
+        archive.append(batch);
+    }
+
+    /** Check that messages are read back from the segment being written and sealed ones. */
+    public void testAppendAndRead() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mFolder, 16 * 1024);
+        for (int i = 0; i < 50; i++) {
+            append(archive, i * 100, 100);
+        }
+        archive.append(Collections.singletonList(
+                new LogCatMessage(null, null, null, "tag", "", "caf\u00e9 \u2603")));
+        assertEquals(5001, archive.size());
+        assertTrue(mFolder.list().length > 5);
+
+        List<LogCatMessage> messages = archive.read(0, 10000);
+        assertEquals(5001, messages.size());
+        for (int i = 0; i < 5000; i++) {
+            assertMessage(i, messages.get(i));
+        }
+        assertNull(messages.get(5000).getLogLevel());
+        assertEquals("", messages.get(5000).getPid());
+        assertEquals("caf\u00e9 \u2603", messages.get(5000).getMessage());
+
+        // pages across segments.
+        messages = archive.read(1234, 300);
+        assertEquals(300, messages.size());
+        assertMessage(1234, messages.get(0));
+        assertMessage(1533, messages.get(299));
+        assertEquals(0, archive.read(5001, 10).size());
+        archive.close();
+    }
+
+    /** Check that an archive is read again, including the segment being written. */
+    public void testReopen() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mFolder, 16 * 1024);
+        append(archive, 0, 3000);
+        append(archive, 3000, 10);
+        archive.close();
+
+        archive = new LogCatArchive(mFolder, 16 * 1024);
+        assertEquals(3010, archive.getNextSequence());
+        append(archive, 3010, 90);
+        List<LogCatMessage> messages = archive.read(0, 10000);
+        assertEquals(3100, messages.size());
+        for (int i = 0; i < 3100; i++) {
+            assertMessage(i, messages.get(i));
+        }
+        assertEquals(3100 / 5, archive.findTag("tag2", 0, 10000).length);
+        archive.close();
+    }
+
+    /** Check the time index. */
+    public void testFindTime() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mFolder, 64 * 1024);
+        for (int i = 0; i < 10; i++) {
+            append(archive, i * 1000, 1000);
+        }
+
+        assertEquals(0, archive.findTime("08-11 18:00:00.000"));
+        assertEquals(1234, archive.findTime(createMessage(1234).getTime()));
+        assertEquals(7001, archive.findTime("08-11 19:01:10.001"));
+        assertEquals(9999, archive.findTime(createMessage(9999).getTime()));
+        assertEquals(10000, archive.findTime("08-11 20:00:00.000"));
+        archive.close();
+    }
+
+    /** Check the tag and pid indexes. */
+    public void testFindTagAndPid() throws IOException {
+        LogCatArchive archive = new LogCatArchive(mFolder, 16 * 1024);
+        for (int i = 0; i < 10; i++) {
+            append(archive, i * 500, 500);
+        }
+
+        long[] tags = archive.findTag("tag3", 0, 10000);
+        assertEquals(1000, tags.length);
+        for (int i = 0; i < tags.length; i++) {
+            assertEquals(i * 5 + 3, tags[i]);
+        }
+
+        long[] pids = archive.findPid("107", 2001, 50);
+        assertEquals(50, pids.length);
+        assertEquals(2007, pids[0]);
+        assertEquals(2497, pids[49]);
+        for (int i = 0; i < pids.length; i++) {
+            assertEquals("107", archive.read(pids[i], 1).get(0).getPid());
+        }
+
+        assertEquals(0, archive.findTag("other", 0, 10000).length);
+        archive.close();
+    }
+}
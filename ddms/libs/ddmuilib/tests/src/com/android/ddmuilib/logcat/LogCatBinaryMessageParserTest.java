@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.log.LogReceiver;
+import com.android.ddmlib.log.LogReceiver.ILogBlockListener;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatBinaryMessageParser}.
+ */
+public final class LogCatBinaryMessageParserTest extends TestCase {
+    private static final int SEC = 1313115067;
+
+    private LogCatPidToNameMapper mMapper;
+    private List<LogCatMessage> mMessages;
+    private int mBlockCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        mMapper = new LogCatPidToNameMapper(null);
+        mMessages = new ArrayList<LogCatMessage>();
+    }
+
+    /**
+     * Writes a log entry in the format read by {@link LogReceiver}: a 20 byte little
+     * endian header followed by the payload.
+     */
+    static void writeEntry(ByteArrayOutputStream out, int pid, int sec, int nsec,
+            int priority, String tag, String msg) throws Exception {
+        byte[] tagBytes = tag.getBytes("UTF-8"); //$NON-NLS-1$
+        byte[] msgBytes = msg.getBytes("UTF-8"); //$NON-NLS-1$
+        int len = 1 + tagBytes.length + 1 + msgBytes.length + 1;
+
+        writeInt(out, len); // 16 bit length, and 16 bit padding
+        writeInt(out, pid);
+        writeInt(out, pid); // tid
+        writeInt(out, sec);
+        writeInt(out, nsec);
+        out.write(priority);
+        out.write(tagBytes);
+        out.write(0);
+        out.write(msgBytes);
+        out.write(0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+
+    private void parse(byte[] data, int chunkSize) {
+        final LogCatBinaryMessageParser parser = new LogCatBinaryMessageParser();
+        LogReceiver receiver = new LogReceiver(new ILogBlockListener() {
+            public void newEntry(LogEntry entry) {
+                parser.processLogEntry(entry, mMapper, mMessages);
+            }
+
+            public void newData(byte[] d, int offset, int length) {
+            }
+
+            public void newEntriesDone() {
+                mBlockCount++;
+            }
+        });
+
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            receiver.parseNewData(data, offset, Math.min(chunkSize, data.length - offset));
+        }
+    }
+
+    /** Check the fields of the decoded messages. */
+    public void testDecode() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeEntry(out, 495, SEC, 132000000, 3, "dtag", "debug message");
+        writeEntry(out, 495, SEC, 132999999, 6, "etag", "error message");
+        writeEntry(out, 540, SEC + 1, 7000000, 7, "wtftag", "wtf message");
+        writeEntry(out, 540, SEC + 1, 7000000, 4, "itag", "caf\u00e9");
+        parse(out.toByteArray(), 16384);
+
+        assertEquals(4, mMessages.size());
+        assertEquals(1, mBlockCount);
+
+        String date = new SimpleDateFormat("MM-dd HH:mm:ss.") //$NON-NLS-1$
+                .format(new Date(SEC * 1000L));
+        LogCatMessage m = mMessages.get(0);
+        assertEquals(LogLevel.DEBUG, m.getLogLevel());
+        assertEquals("495", m.getPid());
+        assertEquals("dtag", m.getTag());
+        assertEquals(date + "132", m.getTime());
+        assertEquals("debug message", m.getMessage());
+
+        assertEquals(LogLevel.ERROR, mMessages.get(1).getLogLevel());
+        assertEquals(date + "132", mMessages.get(1).getTime());
+
+        m = mMessages.get(2);
+        assertEquals(LogLevel.ASSERT, m.getLogLevel());
+        assertEquals("540", m.getPid());
+        assertEquals("wtftag", m.getTag());
+        assertEquals(new SimpleDateFormat("MM-dd HH:mm:ss.SSS") //$NON-NLS-1$
+                .format(new Date((SEC + 1) * 1000L + 7)), m.getTime());
+
+        assertEquals("caf\u00e9", mMessages.get(3).getMessage());
+    }
+
+    /** Check that the time is formatted in the time zone of the device. */
+    public void testTimeZone() throws Exception {
+        LogCatBinaryMessageParser parser = new LogCatBinaryMessageParser();
+        byte[] data = new byte[] { 4, 't', 0, 'm', 0 };
+
+        // 2011-08-12 02:11:07 GMT
+        parser.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+        parser.processLogEntry(1, SEC, 132000000, data, 0, data.length, mMapper, mMessages);
+        parser.setTimeZone(TimeZone.getTimeZone("America/Los_Angeles")); //$NON-NLS-1$
+        parser.processLogEntry(1, SEC, 132000000, data, 0, data.length, mMapper, mMessages);
+        parser.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata")); //$NON-NLS-1$
+        parser.processLogEntry(1, SEC, 132000000, data, 0, data.length, mMapper, mMessages);
+
+        assertEquals(3, mMessages.size());
+        assertEquals("08-12 02:11:07.132", mMessages.get(0).getTime());
+        assertEquals("08-11 19:11:07.132", mMessages.get(1).getTime());
+        assertEquals("08-12 07:41:07.132", mMessages.get(2).getTime());
+    }
+
+    /** Check that a multi line message is split in one message per non empty line. */
+    public void testMultiLineMessage() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeEntry(out, 1, SEC, 0, 6, "AndroidRuntime",
+                "java.lang.NullPointerException\n\tat Foo.bar(Foo.java:10)\n\n");
+        parse(out.toByteArray(), 16384);
+
+        assertEquals(2, mMessages.size());
+        assertEquals("java.lang.NullPointerException", mMessages.get(0).getMessage());
+        assertEquals("\tat Foo.bar(Foo.java:10)", mMessages.get(1).getMessage());
+        assertEquals("AndroidRuntime", mMessages.get(1).getTag());
+    }
+
+    /** Check that the lines are trimmed the same way as by {@link LogCatMessageParser}. */
+    public void testTrailingWhiteSpace() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeEntry(out, 1, SEC, 0, 3, "tag", "first line \r\n\tsecond line\t\n  \r\n");
+        parse(out.toByteArray(), 16384);
+
+        assertEquals(2, mMessages.size());
+        assertEquals("first line", mMessages.get(0).getMessage());
+        assertEquals("\tsecond line", mMessages.get(1).getMessage());
+    }
+
+    /** Check that entries split across blocks of data are decoded. */
+    public void testSplitEntries() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            writeEntry(out, i, SEC, i * 1000000, 2 + i % 6, "tag" + (i % 7), "message " + i);
+        }
+        byte[] data = out.toByteArray();
+        parse(data, 7);
+
+        assertEquals(100, mMessages.size());
+        assertEquals((data.length + 6) / 7, mBlockCount);
+        for (int i = 0; i < 100; i++) {
+            LogCatMessage m = mMessages.get(i);
+            assertEquals("message " + i, m.getMessage());
+            assertEquals("tag" + (i % 7), m.getTag());
+            assertEquals(Integer.toString(i), m.getPid());
+        }
+    }
+}
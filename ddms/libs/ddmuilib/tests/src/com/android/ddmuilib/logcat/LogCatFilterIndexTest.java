@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatFilterIndex}.
+ */
+public final class LogCatFilterIndexTest extends TestCase {
+    private LogCatMessageList mMessages;
+    private LogCatFilterIndex mIndex;
+    private int mCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        mMessages = new LogCatMessageList(5000);
+        mIndex = new LogCatFilterIndex();
+    }
+
+    private static List<LogCatFilter> createFilters() {
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
+        filters.add(new LogCatFilter("all", "", "", "", "", LogLevel.VERBOSE));
+        filters.add(new LogCatFilter("pid", "", "", "103", "", LogLevel.VERBOSE));
+        filters.add(new LogCatFilter("pid+level", "", "", "104", "", LogLevel.WARN));
+        filters.add(new LogCatFilter("tag", "^tag[12]$", "", "", "", LogLevel.VERBOSE));
+        filters.add(new LogCatFilter("tag+level", "tag3", "", "", "", LogLevel.INFO));
+        filters.add(new LogCatFilter("text", "", "7$", "", "", LogLevel.VERBOSE));
+        filters.add(new LogCatFilter("app+text", "", "1", "", "com.app2", LogLevel.DEBUG));
+        filters.add(new LogCatFilter("level", "", "", "", "", LogLevel.ERROR));
+        filters.add(new LogCatFilter("all fields", "tag", "5", "105", "app", LogLevel.DEBUG));
+        return filters;
+    }
+
+    private void addMessages(int count) {
+        List<LogCatMessage> batch = new ArrayList<LogCatMessage>();
+        for (int i = 0; i < count; i++, mCount++) {
+            batch.add(new LogCatMessage(LogLevel.values()[mCount % 6],
+                    Integer.toString(100 + mCount % 7), "com.app" + (mCount % 3),
+                    "tag" + (mCount % 5), "", "message " + mCount));
+        }
+
+        long first = mMessages.getNextSequence();
+        for (LogCatMessage m : batch) {
+            mMessages.appendMessage(m);
+        }
+        mIndex.addMessages(first, batch, mMessages.getFirstSequence());
+    }
+
+    /** Checks the indexed matches against {@link LogCatFilter#matches(LogCatMessage)}. */
+    private void assertMatches(List<LogCatFilter> filters) {
+        for (LogCatFilter f : filters) {
+            List<Long> expected = new ArrayList<Long>();
+            for (long s = mMessages.getFirstSequence(); s < mMessages.getNextSequence(); s++) {
+                if (f.matches(mMessages.getMessage(s))) {
+                    expected.add(Long.valueOf(s));
+                }
+            }
+
+            List<Long> actual = new ArrayList<Long>();
+            for (long s : mIndex.getMatches(f)) {
+                if (s >= mMessages.getFirstSequence()) {
+                    actual.add(Long.valueOf(s));
+                }
+            }
+            assertEquals(f.getName(), expected, actual);
+            assertEquals(f.getName(), expected.size(),
+                    mMessages.toArray(mIndex.getMatches(f), mIndex.getMatches(f).length).length);
+        }
+    }
+
+    /** Check the matches of filters set before the messages are received. */
+    public void testIncremental() {
+        List<LogCatFilter> filters = createFilters();
+        mIndex.setFilters(filters, mMessages);
+        for (int i = 0; i < 20; i++) {
+            addMessages(100);
+        }
+        assertMatches(filters);
+
+        addMessages(70);
+        int count = 0;
+        for (long s : mIndex.getMatches(filters.get(1))) {
+            if (s >= 2000) {
+                count++;
+            }
+        }
+        assertEquals(10, count);
+        assertEquals(10, mIndex.getLastBatchMatchCount(filters.get(1)));
+        assertEquals(70, mIndex.getLastBatchMatchCount(filters.get(0)));
+        assertEquals(-1, mIndex.getLastBatchMatchCount(
+                new LogCatFilter("other", "", "", "", "", LogLevel.VERBOSE)));
+    }
+
+    /** Check the matches of filters set after the messages are received. */
+    public void testAddedFilters() {
+        for (int i = 0; i < 20; i++) {
+            addMessages(100);
+        }
+        List<LogCatFilter> filters = createFilters();
+        mIndex.setFilters(filters, mMessages);
+        assertMatches(filters);
+
+        // filters keep their matches, and new ones are evaluated.
+        long[] matches = mIndex.getMatches(filters.get(3));
+        filters.remove(0);
+        filters.add(new LogCatFilter("new", "tag4", "", "", "", LogLevel.VERBOSE));
+        mIndex.setFilters(filters, mMessages);
+        assertTrue(Arrays.equals(matches, mIndex.getMatches(filters.get(2))));
+        addMessages(100);
+        assertMatches(filters);
+    }
+
+    /** Check that matches of dropped messages are dropped. */
+    public void testDroppedMessages() {
+        List<LogCatFilter> filters = createFilters();
+        mIndex.setFilters(filters, mMessages);
+        for (int i = 0; i < 100; i++) {
+            addMessages(100);
+        }
+        assertMatches(filters);
+        assertTrue(mIndex.getMatches(filters.get(0)).length < 5000 + 1024 + 100);
+
+        List<LogCatFilter> newFilters = createFilters();
+        mIndex.setFilters(newFilters, mMessages);
+        assertMatches(newFilters);
+    }
+}
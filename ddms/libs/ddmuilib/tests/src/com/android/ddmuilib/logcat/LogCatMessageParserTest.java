@@ -91,4 +91,16 @@ public final class LogCatMessageParserTest extends TestCase {
     public void testMessage() {
         assertEquals(mParsedMessages.get(2).getMessage(), MESSAGES[5]);
     }
+
+    /** Check that the trailing white space of the lines is dropped, and blank lines skipped. */
+    public void testTrailingWhiteSpace() {
+        List<LogCatMessage> messages = new LogCatMessageParser().processLogLines(
+                new String[] {
+                        "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]", //$NON-NLS-1$
+                        "\tdebug message \r",                           //$NON-NLS-1$
+                        "  \r",                                          //$NON-NLS-1$
+                }, new LogCatPidToNameMapper(null));
+        assertEquals(1, messages.size());
+        assertEquals("\tdebug message", messages.get(0).getMessage()); //$NON-NLS-1$
+    }
 }
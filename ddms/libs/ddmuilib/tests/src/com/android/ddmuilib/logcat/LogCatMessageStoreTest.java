@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogCatMessageStore} and {@link LogCatMessageList}.
+ */
+public final class LogCatMessageStoreTest extends TestCase {
+
+    private static LogCatMessage createMessage(int i) {
+        return new LogCatMessage(LogLevel.values()[i % 6], Integer.toString(100 + i % 10),
+                "app" + (i % 3), "tag" + (i % 5), "08-11 19:11:07." + (100 + i % 900),
+                "message " + i);
+    }
+
+    private static void assertMessage(int i, LogCatMessage m) {
+        LogCatMessage expected = createMessage(i);
+        assertEquals(expected.getLogLevel(), m.getLogLevel());
+        assertEquals(expected.getPid(), m.getPid());
+        assertEquals(expected.getAppName(), m.getAppName());
+        assertEquals(expected.getTag(), m.getTag());
+        assertEquals(expected.getTime(), m.getTime());
+        assertEquals(expected.getMessage(), m.getMessage());
+    }
+
+    /** Check that messages are read back with all their fields. */
+    public void testAppendAndRead() {
+        LogCatMessageStore store = new LogCatMessageStore(100, 0);
+        for (int i = 0; i < 10; i++) {
+            store.append(createMessage(i));
+        }
+        store.append(new LogCatMessage(null, null, null, "tag", "", "caf\u00e9 \u2603"));
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        assertEquals(11, store.read(0, messages, 100));
+        assertEquals(11, messages.size());
+        for (int i = 0; i < 10; i++) {
+            assertMessage(i, messages.get(i));
+        }
+
+        LogCatMessage m = messages.get(10);
+        assertNull(m.getLogLevel());
+        assertNull(m.getPid());
+        assertEquals("caf\u00e9 \u2603", m.getMessage());
+        assertEquals("", m.getTime());
+
+        // incremental reads.
+        messages.clear();
+        assertEquals(8, store.read(5, messages, 3));
+        assertEquals(3, messages.size());
+        assertMessage(5, messages.get(0));
+        messages.clear();
+        assertEquals(11, store.read(11, messages, 3));
+        assertEquals(0, messages.size());
+    }
+
+    /** Check that the oldest messages are dropped when the ring is full. */
+    public void testRingFull() {
+        LogCatMessageStore store = new LogCatMessageStore(10, 0);
+        for (int i = 0; i < 25; i++) {
+            store.append(createMessage(i));
+        }
+        assertEquals(10, store.size());
+        assertEquals(15, store.getFirstSequence());
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        assertEquals(25, store.read(3, messages, 100));
+        assertEquals(10, messages.size());
+        assertMessage(15, messages.get(0));
+        assertMessage(24, messages.get(9));
+    }
+
+    /** Check that messages are dropped when their text space is reused. */
+    public void testArenaFull() {
+        LogCatMessageStore store = new LogCatMessageStore(100000, 0);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('x');
+        }
+        String text = sb.toString();
+        for (int i = 0; i < 20000; i++) {
+            store.append(new LogCatMessage(LogLevel.INFO, "1", "", "tag", "", text + i));
+        }
+
+        int size = store.size();
+        assertTrue(size < 20000);
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        store.read(0, messages, Integer.MAX_VALUE);
+        assertEquals(size, messages.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(text + (20000 - size + i), messages.get(i).getMessage());
+        }
+    }
+
+    /** Check that large stores are allocated as messages are appended. */
+    public void testGrowth() {
+        // allocated at once, these would need several GB.
+        List<LogCatMessageStore> stores = new ArrayList<LogCatMessageStore>();
+        for (int i = 0; i < 20; i++) {
+            stores.add(new LogCatMessageStore(5000000, 0));
+        }
+
+        LogCatMessageStore store = new LogCatMessageStore(5000000, 7);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            store.append(createMessage(i));
+        }
+        assertEquals(count, store.size());
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        assertEquals(7 + count, store.read(7, messages, Integer.MAX_VALUE));
+        assertEquals(count, messages.size());
+        for (int i = 0; i < count; i++) {
+            assertMessage(i, messages.get(i));
+        }
+    }
+
+    /** Check that a reader running with the writer only gets consistent messages. */
+    public void testConcurrentReader() throws Exception {
+        final LogCatMessageStore store = new LogCatMessageStore(1000, 0);
+        final int count = 200000;
+        final Throwable[] failure = new Throwable[1];
+
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+                    long sequence = 0;
+                    int last = -1;
+                    while (sequence < count) {
+                        messages.clear();
+                        sequence = store.read(sequence, messages, 100);
+                        // the reader may fall behind and skip messages, but never gets
+                        // messages out of order or mixed up.
+                        for (LogCatMessage m : messages) {
+                            int i = Integer.parseInt(m.getMessage().substring(8));
+                            assertTrue(i > last);
+                            assertMessage(i, m);
+                            last = i;
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            store.append(createMessage(i));
+        }
+        reader.join();
+        if (failure[0] != null) {
+            throw new AssertionError(failure[0]);
+        }
+    }
+
+    /** Check the cursors, resizing, and the incremental snapshots of the message list. */
+    public void testMessageList() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        LogCatMessageList.Cursor cursor = list.newCursor();
+        for (int i = 0; i < 5; i++) {
+            list.appendMessage(createMessage(i));
+        }
+
+        Object[] snapshot = list.toArray();
+        assertEquals(5, snapshot.length);
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        assertEquals(5, cursor.read(messages, 100));
+        assertEquals(5, cursor.getSequence());
+
+        for (int i = 5; i < 12; i++) {
+            list.appendMessage(createMessage(i));
+        }
+        Object[] snapshot2 = list.toArray();
+        assertEquals(10, snapshot2.length);
+        // the messages still in the list are reused.
+        assertSame(snapshot[2], snapshot2[0]);
+        assertMessage(11, (LogCatMessage) snapshot2[9]);
+
+        list.resize(4);
+        assertEquals(4, list.size());
+        list.appendMessage(createMessage(12));
+        messages.clear();
+        assertEquals(4, cursor.read(messages, 100));
+        assertMessage(9, messages.get(0));
+        assertMessage(12, messages.get(3));
+
+        messages.clear();
+        assertEquals(2, list.newCursor(10).read(messages, 100));
+        assertMessage(11, messages.get(0));
+
+        list.clear();
+        assertEquals(0, list.toArray().length);
+        assertEquals(0, cursor.read(messages, 100));
+    }
+}
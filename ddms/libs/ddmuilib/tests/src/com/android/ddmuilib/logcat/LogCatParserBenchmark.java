@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.LineReceiver;
+import com.android.ddmlib.log.LogReceiver;
+import com.android.ddmlib.log.LogReceiver.ILogBlockListener;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Measures how many messages per second the two logcat ingestion paths decode, from the same
+ * synthetic log:
+ * <ul>
+ * <li>text: the output of {@code logcat -v long}, split in lines by a {@link LineReceiver}
+ * and parsed by {@link LogCatMessageParser}.</li>
+ * <li>binary: the raw entries of the log service, framed by {@link LogReceiver} and decoded
+ * by {@link LogCatBinaryMessageParser}.</li>
+ * </ul>
+ * Both are fed by blocks of 16KB, as read from the adb socket.
+ * <p/>Usage: {@code LogCatParserBenchmark [messages] [iterations]}
+ */
+public class LogCatParserBenchmark {
+
+    private static final int BLOCK_SIZE = 16384;
+    private static final int WARMUP = 5;
+
+    private static final String[] TAGS = new String[] {
+        "ActivityManager", "dalvikvm", "PackageManager", "WindowManager", "AndroidRuntime",
+        "InputDispatcher", "NetworkStats", "wpa_supplicant",
+    };
+    private static final char[] LEVELS = new char[] { 'V', 'V', 'V', 'D', 'I', 'W', 'E', 'F' };
+
+    private static int sCount;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        createLog(messages, text, binary);
+        byte[] textData = text.toByteArray();
+        byte[] binaryData = binary.toByteArray();
+
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+
+        for (int i = 0; i < WARMUP; i++) {
+            parseText(textData, mapper);
+            parseBinary(binaryData, mapper);
+        }
+
+        report("text", textData.length, messages, iterations, textData, mapper, false);
+        report("binary", binaryData.length, messages, iterations, binaryData, mapper, true);
+    }
+
+    private static void createLog(int count, ByteArrayOutputStream text,
+            ByteArrayOutputStream binary) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS"); //$NON-NLS-1$
+        int sec = (int) (System.currentTimeMillis() / 1000);
+        for (int i = 0; i < count; i++) {
+            int pid = 100 + i % 37;
+            int priority = 2 + i % 6;
+            int nsec = (i % 1000) * 1000000;
+            String tag = TAGS[i % TAGS.length];
+            String msg = "Message number " + i + " from the benchmark, with some padding text";
+            if (i % 50 == 0) {
+                msg += "\n\tat com.example.Foo.bar(Foo.java:" + i + ")"; //$NON-NLS-1$
+            }
+            if (i % 1000 == 999) {
+                sec++;
+            }
+
+            String time = format.format(new Date(sec * 1000L + nsec / 1000000));
+            String header = String.format("[ %s %5d:0x%x %c/%-8s ]", //$NON-NLS-1$
+                    time, pid, pid, LEVELS[priority], tag);
+            text.write((header + "\r\n" + msg.replace("\n", "\r\n") + "\r\n\r\n")
+                    .getBytes("UTF-8")); //$NON-NLS-1$
+
+            LogCatBinaryMessageParserTest.writeEntry(binary, pid, sec, nsec, priority, tag, msg);
+        }
+    }
+
+    private static int parseText(byte[] data, final LogCatPidToNameMapper mapper) {
+        final LogCatMessageParser parser = new LogCatMessageParser();
+        sCount = 0;
+        LineReceiver receiver = new LineReceiver() {
+            @Override
+            protected void processLine(CharSequence line) {
+                if (parser.processLogLine(line, mapper) != null) {
+                    sCount++;
+                }
+            }
+
+            public boolean isCancelled() {
+                return false;
+            }
+        };
+        receiver.setTrimLine(false);
+        for (int offset = 0; offset < data.length; offset += BLOCK_SIZE) {
+            receiver.addOutput(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+        }
+        receiver.flush();
+        return sCount;
+    }
+
+    private static int parseBinary(byte[] data, final LogCatPidToNameMapper mapper) {
+        final LogCatBinaryMessageParser parser = new LogCatBinaryMessageParser();
+        final List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        sCount = 0;
+        LogReceiver receiver = new LogReceiver(new ILogBlockListener() {
+            public void newEntry(LogEntry entry) {
+                parser.processLogEntry(entry, mapper, messages);
+            }
+
+            public void newData(byte[] d, int offset, int length) {
+            }
+
+            public void newEntriesDone() {
+                sCount += messages.size();
+                messages.clear();
+            }
+        });
+        for (int offset = 0; offset < data.length; offset += BLOCK_SIZE) {
+            receiver.parseNewData(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+        }
+        return sCount;
+    }
+
+    private static void report(String name, int size, int entries, int iterations,
+            byte[] data, LogCatPidToNameMapper mapper, boolean binary) {
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            count = binary ? parseBinary(data, mapper) : parseText(data, mapper);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.println(String.format(
+                "%-7s %9d bytes %7d entries %7d messages  best %7.2f ms  %10.0f messages/s",
+                name, size, entries, count, best / 1e6, count * 1e9 / best));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+/**
+ * The objects of a class in a heap, see {@link HprofHeap#getClassHistogram()}.
+ */
+public final class ClassHistogramEntry {
+    private final String mClassName;
+    private final long mInstanceCount;
+    private final long mShallowSize;
+    private final long mRetainedSize;
+
+    ClassHistogramEntry(String className, long instanceCount, long shallowSize,
+            long retainedSize) {
+        mClassName = className;
+        mInstanceCount = instanceCount;
+        mShallowSize = shallowSize;
+        mRetainedSize = retainedSize;
+    }
+
+    /**
+     * Returns the name of the class, for instance "java.lang.String" or "byte[]". All the
+     * class objects are counted as instances of "java.lang.Class".
+     */
+    public String getClassName() {
+        return mClassName;
+    }
+
+    /** Returns the number of objects of the class. */
+    public long getInstanceCount() {
+        return mInstanceCount;
+    }
+
+    /** Returns the total size of the objects of the class. */
+    public long getShallowSize() {
+        return mShallowSize;
+    }
+
+    /**
+     * Returns the size of the objects which would be freed if the objects of the class were
+     * freed. This is the sum of the retained sizes of the objects of the class which are not
+     * dominated by another object of the class.
+     */
+    public long getRetainedSize() {
+        return mRetainedSize;
+    }
+
+    @Override
+    public String toString() {
+        return mClassName + ": " + mInstanceCount + " objects, " //$NON-NLS-1$ //$NON-NLS-2$
+                + mShallowSize + " bytes, " + mRetainedSize + " retained"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+/**
+ * A class of the heap, read from a class dump record of the HPROF file, or made up for the
+ * primitive arrays, which have no class dump.
+ * <p/>There are few classes compared to the objects, so they are kept in the Java heap.
+ */
+final class ClassInfo {
+    /** HPROF type of the object fields and array elements. */
+    static final int TYPE_OBJECT = 2;
+
+    /** Sizes of the HPROF basic types, indexed by type. The size of objects is the id size. */
+    private static final int[] TYPE_SIZES = {
+        -1, -1, 0, -1, 1, 2, 4, 8, 1, 2, 4, 8
+    };
+
+    /** Names of the primitive arrays, indexed by HPROF type. */
+    private static final String[] ARRAY_NAMES = {
+        null, null, null, null,
+        "boolean[]", "char[]", "float[]", "double[]", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        "byte[]", "short[]", "int[]", "long[]" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    };
+
+    final long mId;
+    final int mOrdinal;
+    String mName;
+    long mSuperId;
+    long mLoaderId;
+    ClassInfo mSuper;
+    int mInstanceSize;
+    /** Size of the static fields. */
+    int mStaticSize;
+    /** Ids of the objects referenced by the static fields. */
+    long[] mStaticRefs = new long[0];
+    /** Names and types of the instance fields declared by the class, not the super classes. */
+    String[] mFieldNames = new String[0];
+    byte[] mFieldTypes = new byte[0];
+    /**
+     * Offsets of the object fields in the instance data, including the ones of the super
+     * classes. Computed by {@link #resolve(int)}.
+     */
+    int[] mRefOffsets;
+
+    ClassInfo(long id, int ordinal, String name) {
+        mId = id;
+        mOrdinal = ordinal;
+        mName = name;
+    }
+
+    /**
+     * Returns the size of a value of the given HPROF type.
+     * @throws IllegalArgumentException if the type is invalid.
+     */
+    static int getTypeSize(int type, int idSize) {
+        if (type == TYPE_OBJECT) {
+            return idSize;
+        }
+        if (type < 0 || type >= TYPE_SIZES.length || TYPE_SIZES[type] <= 0) {
+            throw new IllegalArgumentException("Invalid type: " + type); //$NON-NLS-1$
+        }
+        return TYPE_SIZES[type];
+    }
+
+    /** Returns the name of the array of a primitive HPROF type, or null for other types. */
+    static String getArrayName(int type) {
+        return type >= 0 && type < ARRAY_NAMES.length ? ARRAY_NAMES[type] : null;
+    }
+
+    /** Returns the number of primitive HPROF types. */
+    static int getTypeCount() {
+        return ARRAY_NAMES.length;
+    }
+
+    /**
+     * Computes the offsets of the object fields. The super class must be set beforehand.
+     */
+    void resolve(int idSize) {
+        int count = 0;
+        for (ClassInfo c = this; c != null; c = c.mSuper) {
+            for (byte type : c.mFieldTypes) {
+                if (type == TYPE_OBJECT) {
+                    count++;
+                }
+            }
+        }
+
+        mRefOffsets = new int[count];
+        int index = 0;
+        int offset = 0;
+        // the fields of the class come first, then the fields of the super classes.
+        for (ClassInfo c = this; c != null; c = c.mSuper) {
+            for (byte type : c.mFieldTypes) {
+                if (type == TYPE_OBJECT) {
+                    mRefOffsets[index++] = offset;
+                }
+                offset += getTypeSize(type, idSize);
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of an instance field in the instance data, or -1 if the class and
+     * its super classes have no such field.
+     */
+    int getFieldOffset(String name, int idSize) {
+        int offset = 0;
+        for (ClassInfo c = this; c != null; c = c.mSuper) {
+            for (int i = 0; i < c.mFieldTypes.length; i++) {
+                if (name.equals(c.mFieldNames[i])) {
+                    return offset;
+                }
+                offset += getTypeSize(c.mFieldTypes[i], idSize);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
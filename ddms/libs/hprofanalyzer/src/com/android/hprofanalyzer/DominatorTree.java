@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The dominator tree of the object graph, and the retained sizes of the objects.
+ * <p/>The dominators are computed with the algorithm of Lengauer and Tarjan, with path
+ * compression. A made up root references all the GC roots. All the arrays are off-heap, and
+ * the recursions of the algorithm are done with explicit stacks, so that graphs larger than
+ * the Java heap can be processed.
+ * <p/>In the arrays of this class, node 0 is "none", node 1 is the made up root, and the
+ * object of index i is node i + 2.
+ */
+final class DominatorTree {
+    private static final int NONE = 0;
+    private static final int ROOT = 1;
+
+    private final int mObjectCount;
+    private final File mFolder;
+    /** Immediate dominators, by node. */
+    private final IntArray mDominators;
+    /** Retained sizes, by object index. */
+    private final LongArray mRetainedSizes;
+
+    // arrays used during the computation only.
+    private IntArray mSemi;
+    private IntArray mAncestors;
+    private IntArray mLabels;
+    private IntArray mStack;
+
+    /**
+     * Computes the dominator tree.
+     * @param objectCount the number of objects.
+     * @param roots the indexes of the objects which are GC roots.
+     * @param refStarts for each object index i, the start of its references in refs. Element
+     * i + 1 is the end of its references.
+     * @param refs the indexes of the referenced objects, or -1 for unknown objects.
+     * @param shallowSizes the shallow sizes, by object index.
+     * @param folder the folder of the temporary files.
+     */
+    DominatorTree(int objectCount, IntArray roots, LongArray refStarts, IntArray refs,
+            IntArray shallowSizes, File folder) throws IOException {
+        mObjectCount = objectCount;
+        mFolder = folder;
+        int nodeCount = objectCount + 2;
+        mDominators = new IntArray(nodeCount, folder);
+        mRetainedSizes = new LongArray(objectCount, folder);
+
+        LongArray predStarts = null;
+        IntArray preds = null;
+        IntArray vertices = null;
+        IntArray parents = null;
+        IntArray bucketHeads = null;
+        IntArray bucketNext = null;
+        try {
+            // predecessors of each node.
+            predStarts = new LongArray(nodeCount + 1, folder);
+            for (long i = 0; i < roots.length(); i++) {
+                increment(predStarts, roots.get(i) + 2 + 1);
+            }
+            for (long i = 0; i < refs.length(); i++) {
+                int ref = refs.get(i);
+                if (ref >= 0) {
+                    increment(predStarts, ref + 2 + 1);
+                }
+            }
+            for (int w = 1; w <= nodeCount; w++) {
+                predStarts.set(w, predStarts.get(w) + predStarts.get(w - 1));
+            }
+            preds = new IntArray(predStarts.get(nodeCount), folder);
+            for (long i = 0; i < roots.length(); i++) {
+                addPredecessor(predStarts, preds, roots.get(i) + 2, ROOT);
+            }
+            for (int v = 0; v < objectCount; v++) {
+                for (long i = refStarts.get(v); i < refStarts.get(v + 1); i++) {
+                    int ref = refs.get(i);
+                    if (ref >= 0) {
+                        addPredecessor(predStarts, preds, ref + 2, v + 2);
+                    }
+                }
+            }
+            // each start was moved to the next one by addPredecessor.
+            for (int w = nodeCount; w > 0; w--) {
+                predStarts.set(w, predStarts.get(w - 1));
+            }
+            predStarts.set(0, 0);
+
+            mSemi = new IntArray(nodeCount, folder);
+            mAncestors = new IntArray(nodeCount, folder);
+            mLabels = new IntArray(nodeCount, folder);
+            mStack = new IntArray(nodeCount, folder);
+            vertices = new IntArray(nodeCount, folder);
+            parents = new IntArray(nodeCount, folder);
+            int count = depthFirstSearch(roots, refStarts, refs, vertices, parents);
+
+            bucketHeads = new IntArray(nodeCount, folder);
+            bucketNext = new IntArray(nodeCount, folder);
+            for (int i = count; i >= 2; i--) {
+                int w = vertices.get(i);
+                for (long p = predStarts.get(w); p < predStarts.get(w + 1); p++) {
+                    int v = preds.get(p);
+                    if (mSemi.get(v) == 0) {
+                        // unreachable predecessor.
+                        continue;
+                    }
+                    int u = eval(v);
+                    if (mSemi.get(u) < mSemi.get(w)) {
+                        mSemi.set(w, mSemi.get(u));
+                    }
+                }
+                int s = vertices.get(mSemi.get(w));
+                bucketNext.set(w, bucketHeads.get(s));
+                bucketHeads.set(s, w);
+
+                int parent = parents.get(w);
+                mAncestors.set(w, parent);
+                for (int v = bucketHeads.get(parent); v != NONE; v = bucketNext.get(v)) {
+                    int u = eval(v);
+                    mDominators.set(v, mSemi.get(u) < mSemi.get(v) ? u : parent);
+                }
+                bucketHeads.set(parent, NONE);
+            }
+            for (int i = 2; i <= count; i++) {
+                int w = vertices.get(i);
+                if (mDominators.get(w) != vertices.get(mSemi.get(w))) {
+                    mDominators.set(w, mDominators.get(mDominators.get(w)));
+                }
+            }
+
+            // retained sizes, from the leaves of the tree up.
+            for (int i = 0; i < objectCount; i++) {
+                mRetainedSizes.set(i, shallowSizes.get(i));
+            }
+            for (int i = count; i >= 2; i--) {
+                int w = vertices.get(i);
+                int dominator = mDominators.get(w);
+                if (dominator != ROOT) {
+                    mRetainedSizes.set(dominator - 2,
+                            mRetainedSizes.get(dominator - 2) + mRetainedSizes.get(w - 2));
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        } finally {
+            close(predStarts);
+            close(preds);
+            close(vertices);
+            close(parents);
+            close(bucketHeads);
+            close(bucketNext);
+            close(mSemi);
+            close(mAncestors);
+            close(mLabels);
+            close(mStack);
+            mSemi = mAncestors = mLabels = mStack = null;
+        }
+    }
+
+    private static void increment(LongArray array, long index) {
+        array.set(index, array.get(index) + 1);
+    }
+
+    private static void addPredecessor(LongArray predStarts, IntArray preds, int w, int v) {
+        long position = predStarts.get(w);
+        preds.set(position, v);
+        predStarts.set(w, position + 1);
+    }
+
+    private static void close(IntArray array) {
+        if (array != null) {
+            array.close();
+        }
+    }
+
+    private static void close(LongArray array) {
+        if (array != null) {
+            array.close();
+        }
+    }
+
+    /**
+     * Numbers the nodes reachable from the root in depth first order, starting from 1.
+     * @return the number of reachable nodes, including the root.
+     */
+    private int depthFirstSearch(IntArray roots, LongArray refStarts, IntArray refs,
+            IntArray vertices, IntArray parents) throws IOException {
+        LongArray cursors = new LongArray(mObjectCount + 2, mFolder);
+        try {
+            int count = 0;
+            int depth = 0;
+            int w = ROOT;
+            int parent = NONE;
+            while (true) {
+                if (w != NONE) {
+                    // visits a new node.
+                    mSemi.set(w, ++count);
+                    mLabels.set(w, w);
+                    vertices.set(count, w);
+                    parents.set(w, parent);
+                    mStack.set(depth, w);
+                    cursors.set(depth, w == ROOT ? 0 : refStarts.get(w - 2));
+                    depth++;
+                }
+                if (depth == 0) {
+                    return count;
+                }
+
+                // finds the next unvisited successor of the top of the stack.
+                int v = mStack.get(depth - 1);
+                long cursor = cursors.get(depth - 1);
+                long end = v == ROOT ? roots.length() : refStarts.get(v - 1);
+                w = NONE;
+                while (cursor < end && w == NONE) {
+                    int successor = v == ROOT ? roots.get(cursor) : refs.get(cursor);
+                    cursor++;
+                    if (successor >= 0 && mSemi.get(successor + 2) == 0) {
+                        w = successor + 2;
+                    }
+                }
+                cursors.set(depth - 1, cursor);
+                if (w == NONE) {
+                    depth--;
+                } else {
+                    parent = v;
+                }
+            }
+        } finally {
+            cursors.close();
+        }
+    }
+
+    /**
+     * Returns the node of minimum semi-dominator number on the path from v to the root of its
+     * tree in the forest built by the algorithm.
+     */
+    private int eval(int v) {
+        if (mAncestors.get(v) == NONE) {
+            return v;
+        }
+
+        // compresses the path, from the top down.
+        int depth = 0;
+        for (int u = v; mAncestors.get(mAncestors.get(u)) != NONE; u = mAncestors.get(u)) {
+            mStack.set(depth++, u);
+        }
+        while (depth > 0) {
+            int u = mStack.get(--depth);
+            int ancestor = mAncestors.get(u);
+            if (mSemi.get(mLabels.get(ancestor)) < mSemi.get(mLabels.get(u))) {
+                mLabels.set(u, mLabels.get(ancestor));
+            }
+            mAncestors.set(u, mAncestors.get(ancestor));
+        }
+        return mLabels.get(v);
+    }
+
+    /**
+     * Returns the index of the immediate dominator of an object, -1 if the object is only
+     * dominated by the GC roots, or -2 if the object cannot be reached from the GC roots.
+     */
+    int getDominator(int index) {
+        int dominator = mDominators.get(index + 2);
+        return dominator == NONE ? -2 : dominator - 2;
+    }
+
+    /**
+     * Returns the retained size of an object. The retained size of an object which cannot be
+     * reached is its shallow size.
+     */
+    long getRetainedSize(int index) {
+        return mRetainedSizes.get(index);
+    }
+
+    /**
+     * Returns, for each class, the sum of the retained sizes of its reachable objects which are
+     * not dominated by another object of the class.
+     * @param classes the class ordinal, by object index.
+     * @param classCount the number of classes.
+     */
+    long[] getClassRetainedSizes(IntArray classes, int classCount) throws IOException {
+        int nodeCount = mObjectCount + 2;
+        long[] retainedSizes = new long[classCount];
+        int[] onPath = new int[classCount];
+        IntArray childStarts = new IntArray(nodeCount + 1, mFolder);
+        IntArray children = null;
+        IntArray stack = null;
+        IntArray cursors = null;
+        try {
+            // children of each node, as for the predecessors in the constructor.
+            int childCount = 0;
+            for (int w = 2; w < nodeCount; w++) {
+                int dominator = mDominators.get(w);
+                if (dominator != NONE) {
+                    childStarts.set(dominator + 1, childStarts.get(dominator + 1) + 1);
+                    childCount++;
+                }
+            }
+            for (int v = 1; v <= nodeCount; v++) {
+                childStarts.set(v, childStarts.get(v) + childStarts.get(v - 1));
+            }
+            children = new IntArray(childCount, mFolder);
+            for (int w = 2; w < nodeCount; w++) {
+                int dominator = mDominators.get(w);
+                if (dominator != NONE) {
+                    int position = childStarts.get(dominator);
+                    children.set(position, w);
+                    childStarts.set(dominator, position + 1);
+                }
+            }
+            for (int v = nodeCount; v > 0; v--) {
+                childStarts.set(v, childStarts.get(v - 1));
+            }
+            childStarts.set(0, 0);
+
+            // walks the tree, counting the objects of each class on the path from the root.
+            stack = new IntArray(nodeCount, mFolder);
+            cursors = new IntArray(nodeCount, mFolder);
+            stack.set(0, ROOT);
+            cursors.set(0, childStarts.get(ROOT));
+            int depth = 1;
+            while (depth > 0) {
+                int v = stack.get(depth - 1);
+                int cursor = cursors.get(depth - 1);
+                if (cursor < childStarts.get(v + 1)) {
+                    cursors.set(depth - 1, cursor + 1);
+                    int w = children.get(cursor);
+                    int c = classes.get(w - 2);
+                    if (onPath[c] == 0) {
+                        retainedSizes[c] += mRetainedSizes.get(w - 2);
+                    }
+                    onPath[c]++;
+                    stack.set(depth, w);
+                    cursors.set(depth, childStarts.get(w));
+                    depth++;
+                } else {
+                    if (v != ROOT) {
+                        onPath[classes.get(v - 2)]--;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            close(childStarts);
+            close(children);
+            close(stack);
+            close(cursors);
+        }
+        return retainedSizes;
+    }
+
+    void close() {
+        mDominators.close();
+        mRetainedSizes.close();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+/**
+ * Objects of a heap holding the same content, see {@link HprofHeap#getDuplicateStrings(int)}
+ * and {@link HprofHeap#getDuplicateBitmaps(int)}.
+ */
+public final class DuplicateGroup {
+    private final String mDescription;
+    private final long[] mObjectIds;
+    private final long mWastedSize;
+
+    DuplicateGroup(String description, long[] objectIds, long wastedSize) {
+        mDescription = description;
+        mObjectIds = objectIds;
+        mWastedSize = wastedSize;
+    }
+
+    /**
+     * Returns a description of the content: the value of the strings, or the dimensions of
+     * the bitmaps.
+     */
+    public String getDescription() {
+        return mDescription;
+    }
+
+    /** Returns the ids of the objects holding the content. */
+    public long[] getObjectIds() {
+        return mObjectIds;
+    }
+
+    /** Returns the number of objects holding the content. */
+    public int getCount() {
+        return mObjectIds.length;
+    }
+
+    /** Returns the size which would be saved if all the objects shared a single content. */
+    public long getWastedSize() {
+        return mWastedSize;
+    }
+
+    @Override
+    public String toString() {
+        return mObjectIds.length + " x " + mDescription + ": " //$NON-NLS-1$ //$NON-NLS-2$
+                + mWastedSize + " bytes wasted"; //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read-only access to an HPROF file mapped in memory, so that files larger than the Java heap
+ * can be read.
+ * <p/>A buffer cannot map more than 2GB, so the file is mapped in several buffers. Each buffer
+ * overlaps the next one by {@link #OVERLAP} bytes, so that a value starting in a buffer can
+ * always be read from it. This class is thread safe.
+ */
+final class HprofBuffer {
+    /** Size of the overlap of the mapped buffers, more than the size of any value read. */
+    static final int OVERLAP = 64 * 1024;
+
+    /** Size of the mapped buffers, without the overlap. Must be a power of 2. */
+    static int sMappingSize = 1 << 30;
+
+    private final long mLength;
+    private final ByteBuffer[] mMappings;
+    private final int mMappingShift;
+    private final int mMappingMask;
+    private int mIdSize = 4;
+
+    HprofBuffer(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            FileChannel channel = raf.getChannel();
+            mLength = channel.size();
+            mMappingShift = Integer.numberOfTrailingZeros(sMappingSize);
+            mMappingMask = sMappingSize - 1;
+
+            int count = (int) ((mLength + mMappingMask) >>> mMappingShift);
+            mMappings = new ByteBuffer[Math.max(1, count)];
+            for (int i = 0; i < mMappings.length; i++) {
+                long start = (long) i << mMappingShift;
+                long size = Math.min(mLength - start, (long) sMappingSize + OVERLAP);
+                mMappings[i] = channel.map(MapMode.READ_ONLY, start, Math.max(0, size));
+            }
+        } finally {
+            // the mappings stay valid after the file is closed.
+            raf.close();
+        }
+    }
+
+    long length() {
+        return mLength;
+    }
+
+    /** Sets the size of the ids, read from the header of the file. */
+    void setIdSize(int idSize) throws IOException {
+        if (idSize != 4 && idSize != 8) {
+            throw new IOException("Unsupported id size: " + idSize); //$NON-NLS-1$
+        }
+        mIdSize = idSize;
+    }
+
+    int getIdSize() {
+        return mIdSize;
+    }
+
+    private ByteBuffer mapping(long position) {
+        return mMappings[(int) (position >>> mMappingShift)];
+    }
+
+    byte get(long position) {
+        return mapping(position).get((int) (position & mMappingMask));
+    }
+
+    int getUnsignedByte(long position) {
+        return get(position) & 0xFF;
+    }
+
+    char getChar(long position) {
+        return mapping(position).getChar((int) (position & mMappingMask));
+    }
+
+    int getUnsignedShort(long position) {
+        return mapping(position).getShort((int) (position & mMappingMask)) & 0xFFFF;
+    }
+
+    int getInt(long position) {
+        return mapping(position).getInt((int) (position & mMappingMask));
+    }
+
+    long getUnsignedInt(long position) {
+        return getInt(position) & 0xFFFFFFFFL;
+    }
+
+    long getLong(long position) {
+        return mapping(position).getLong((int) (position & mMappingMask));
+    }
+
+    /** Reads an id, whose size is given by the header of the file. */
+    long getId(long position) {
+        return mIdSize == 4 ? getUnsignedInt(position) : getLong(position);
+    }
+
+    /** Reads bytes, which may span several mapped buffers. */
+    void get(long position, byte[] dest, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = get(position + i);
+        }
+    }
+}
@@ -0,0 +1,937 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The heap of an HPROF file, as written by the VM and converted by hprof-conv.
+ * <p/>The file is mapped in memory rather than read, and the indexes of the objects, of their
+ * classes, of their references and of their dominators are kept in temporary files mapped in
+ * memory, see {@link MappedPages}. Only the classes and the names are kept in the Java heap,
+ * so that dumps larger than the Java heap can be analyzed.
+ * <p/>The file is read once sequentially to find the objects, whose ids are then sorted so
+ * that the index of an object is the position of its id. The records of the objects are then
+ * read again by several threads to index their classes and references. The dominator tree is
+ * built last.
+ * <p/>The methods of this class must not be called from several threads at the same time.
+ */
+public final class HprofHeap {
+    // top level records.
+    private static final int TAG_STRING = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP = 0x0C;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    // records of the heap dumps.
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int ROOT_INTERNED_STRING = 0x89;
+    private static final int ROOT_FINALIZING = 0x8A;
+    private static final int ROOT_DEBUGGER = 0x8B;
+    private static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+    private static final int ROOT_VM_INTERNAL = 0x8D;
+    private static final int ROOT_JNI_MONITOR = 0x8E;
+    private static final int ROOT_UNREACHABLE = 0x90;
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJECT_ARRAY_DUMP = 0x22;
+    private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+    private static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xC3;
+    private static final int HEAP_DUMP_INFO = 0xFE;
+
+    private static final int TYPE_CHAR = 5;
+    private static final int TYPE_BYTE = 8;
+
+    private static final long HASH_OFFSET = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    /** Maximum length of the strings in the descriptions of the duplicate strings. */
+    private static final int MAX_DESCRIPTION_LENGTH = 100;
+
+    private static final String STRING_CLASS = "java.lang.String"; //$NON-NLS-1$
+    private static final String BITMAP_CLASS = "android.graphics.Bitmap"; //$NON-NLS-1$
+
+    private final File mFolder;
+    private final Workers mWorkers;
+    private final HprofBuffer mBuffer;
+    private int mIdSize;
+
+    private final Map<Long, String> mStrings = new HashMap<Long, String>();
+    private final Map<Long, Long> mClassNameIds = new HashMap<Long, Long>();
+    private final Map<Long, ClassInfo> mClasses = new HashMap<Long, ClassInfo>();
+    private final Map<String, ClassInfo> mClassesByName = new HashMap<String, ClassInfo>();
+    private final List<ClassInfo> mClassList = new ArrayList<ClassInfo>();
+    /** Classes of the primitive arrays, indexed by HPROF type. */
+    private final ClassInfo[] mArrayClasses = new ClassInfo[ClassInfo.getTypeCount()];
+    private ClassInfo mClassClass;
+    private ClassInfo mObjectArrayClass;
+    private ClassInfo mUnknownClass;
+
+    private int mObjectCount;
+    /** Ids of the objects, sorted. The index of an object is the position of its id. */
+    private LongArray mIds;
+    /** Offsets of the records of the objects in the file, by index. */
+    private LongArray mOffsets;
+    private IntArray mRoots;
+    private IntArray mClassOrdinals;
+    private IntArray mShallowSizes;
+    private LongArray mRefStarts;
+    private IntArray mRefs;
+    private DominatorTree mDominatorTree;
+
+    /** Reads the contents compared to find duplicate objects. */
+    private interface ContentReader {
+        /** Returns a hash of the content of an object, or 0 if it has no content. */
+        long hash(int index);
+
+        /** Returns the size of the content of an object. */
+        long getSize(int index);
+
+        /** Returns a description of the content of an object. */
+        String describe(int index);
+    }
+
+    private HprofHeap(File hprofFile, File tempFolder, int threadCount) throws IOException {
+        mFolder = tempFolder;
+        mBuffer = new HprofBuffer(hprofFile);
+        mWorkers = new Workers(threadCount);
+    }
+
+    /**
+     * Opens an HPROF file, and indexes its heap.
+     * @param hprofFile the HPROF file, which must not be modified until the heap is closed.
+     * @param tempFolder the folder of the temporary files, or null for the default one. The
+     * files take about 40 bytes per object, plus 4 bytes per reference.
+     * @param threadCount the number of threads indexing the heap, or 0 to use all the
+     * processors.
+     * @return the heap, which must be closed.
+     * @throws IOException if the file could not be read, or is not a valid HPROF file.
+     */
+    public static HprofHeap open(File hprofFile, File tempFolder, int threadCount)
+            throws IOException {
+        HprofHeap heap = new HprofHeap(hprofFile, tempFolder, threadCount);
+        try {
+            heap.build();
+        } catch (IndexOutOfBoundsException e) {
+            heap.close();
+            IOException ioe = new IOException("Truncated hprof file"); //$NON-NLS-1$
+            ioe.initCause(e);
+            throw ioe;
+        } catch (IllegalArgumentException e) {
+            heap.close();
+            IOException ioe = new IOException("Invalid hprof file: " + e.getMessage()); //$NON-NLS-1$
+            ioe.initCause(e);
+            throw ioe;
+        } catch (IOException e) {
+            heap.close();
+            throw e;
+        }
+        return heap;
+    }
+
+    private void build() throws IOException {
+        mIds = new LongArray(0, mFolder);
+        mOffsets = new LongArray(0, mFolder);
+        LongArray rootIds = new LongArray(0, mFolder);
+        try {
+            readRecords(rootIds);
+            resolveClasses();
+
+            long count = mIds.length();
+            if (count > Integer.MAX_VALUE - 2) {
+                throw new IOException("Too many objects: " + count); //$NON-NLS-1$
+            }
+            mObjectCount = (int) count;
+            ParallelSort.sort(mIds, mOffsets, mObjectCount, mWorkers, mFolder);
+
+            mRoots = new IntArray(0, mFolder);
+            for (long i = 0; i < rootIds.length(); i++) {
+                int index = findObject(rootIds.get(i));
+                if (index >= 0) {
+                    mRoots.add(index);
+                }
+            }
+        } finally {
+            rootIds.close();
+        }
+
+        indexObjects();
+        mDominatorTree = new DominatorTree(mObjectCount, mRoots, mRefStarts, mRefs,
+                mShallowSizes, mFolder);
+    }
+
+    /**
+     * Reads the top level records of the file, and finds the objects of the heap dumps.
+     */
+    private void readRecords(LongArray rootIds) throws IOException {
+        // the header is a NUL terminated version, the size of the ids, and a time stamp.
+        long position = 0;
+        while (mBuffer.get(position) != 0) {
+            position++;
+        }
+        position++;
+        mBuffer.setIdSize(mBuffer.getInt(position));
+        mIdSize = mBuffer.getIdSize();
+        position += 4 + 8;
+
+        long length = mBuffer.length();
+        while (position < length) {
+            int tag = mBuffer.getUnsignedByte(position);
+            long recordLength = mBuffer.getUnsignedInt(position + 5);
+            long data = position + 9;
+            if (data + recordLength > length) {
+                throw new IOException("Truncated hprof file"); //$NON-NLS-1$
+            }
+            switch (tag) {
+                case TAG_STRING:
+                    byte[] bytes = new byte[(int) recordLength - mIdSize];
+                    mBuffer.get(data + mIdSize, bytes, 0, bytes.length);
+                    mStrings.put(mBuffer.getId(data), decode(bytes));
+                    break;
+                case TAG_LOAD_CLASS:
+                    mClassNameIds.put(mBuffer.getId(data + 4),
+                            mBuffer.getId(data + 4 + mIdSize + 4));
+                    break;
+                case TAG_HEAP_DUMP:
+                case TAG_HEAP_DUMP_SEGMENT:
+                    readHeapDump(data, data + recordLength, rootIds);
+                    break;
+            }
+            position = data + recordLength;
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8"); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Reads the records of a heap dump, from start to end. */
+    private void readHeapDump(long start, long end, LongArray rootIds) throws IOException {
+        long position = start;
+        while (position < end) {
+            int tag = mBuffer.getUnsignedByte(position);
+            long data = position + 1;
+            switch (tag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                case ROOT_INTERNED_STRING:
+                case ROOT_FINALIZING:
+                case ROOT_DEBUGGER:
+                case ROOT_REFERENCE_CLEANUP:
+                case ROOT_VM_INTERNAL:
+                    rootIds.add(mBuffer.getId(data));
+                    position = data + mIdSize;
+                    break;
+                case ROOT_UNREACHABLE:
+                    position = data + mIdSize;
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    rootIds.add(mBuffer.getId(data));
+                    position = data + 2 * mIdSize;
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_THREAD_OBJECT:
+                case ROOT_JNI_MONITOR:
+                    rootIds.add(mBuffer.getId(data));
+                    position = data + mIdSize + 8;
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    rootIds.add(mBuffer.getId(data));
+                    position = data + mIdSize + 4;
+                    break;
+                case HEAP_DUMP_INFO:
+                    position = data + 4 + mIdSize;
+                    break;
+                case CLASS_DUMP:
+                    addObject(mBuffer.getId(data), position);
+                    position = readClassDump(data);
+                    break;
+                case INSTANCE_DUMP:
+                    addObject(mBuffer.getId(data), position);
+                    position = data + 2 * mIdSize + 8
+                            + mBuffer.getUnsignedInt(data + 2 * mIdSize + 4);
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    addObject(mBuffer.getId(data), position);
+                    position = data + 2 * mIdSize + 8
+                            + mBuffer.getUnsignedInt(data + mIdSize + 4) * mIdSize;
+                    break;
+                case PRIMITIVE_ARRAY_DUMP:
+                    addObject(mBuffer.getId(data), position);
+                    position = data + mIdSize + 9 + mBuffer.getUnsignedInt(data + mIdSize + 4)
+                            * ClassInfo.getTypeSize(mBuffer.get(data + mIdSize + 8), mIdSize);
+                    break;
+                case PRIMITIVE_ARRAY_NODATA_DUMP:
+                    addObject(mBuffer.getId(data), position);
+                    // checks the type.
+                    ClassInfo.getTypeSize(mBuffer.get(data + mIdSize + 8), mIdSize);
+                    position = data + mIdSize + 9;
+                    break;
+                default:
+                    throw new IOException(String.format(
+                            "Unknown heap dump record 0x%02x at offset %d", //$NON-NLS-1$
+                            tag, position));
+            }
+        }
+    }
+
+    private void addObject(long id, long offset) throws IOException {
+        mIds.add(id);
+        mOffsets.add(offset);
+    }
+
+    /**
+     * Reads a class dump record.
+     * @param data the position of the record, after its tag.
+     * @return the position of the next record.
+     */
+    private long readClassDump(long data) {
+        ClassInfo info = new ClassInfo(mBuffer.getId(data), mClassList.size(), null);
+        long position = data + mIdSize + 4;
+        info.mSuperId = mBuffer.getId(position);
+        position += mIdSize;
+        info.mLoaderId = mBuffer.getId(position);
+        // the loader, the signers, the protection domain, and 2 reserved ids.
+        position += 5 * mIdSize;
+        info.mInstanceSize = mBuffer.getInt(position);
+        position += 4;
+
+        int constantCount = mBuffer.getUnsignedShort(position);
+        position += 2;
+        for (int i = 0; i < constantCount; i++) {
+            int type = mBuffer.get(position + 2);
+            position += 3 + ClassInfo.getTypeSize(type, mIdSize);
+        }
+
+        int staticCount = mBuffer.getUnsignedShort(position);
+        position += 2;
+        long[] refs = new long[staticCount];
+        int refCount = 0;
+        for (int i = 0; i < staticCount; i++) {
+            int type = mBuffer.get(position + mIdSize);
+            position += mIdSize + 1;
+            if (type == ClassInfo.TYPE_OBJECT) {
+                refs[refCount++] = mBuffer.getId(position);
+            }
+            int size = ClassInfo.getTypeSize(type, mIdSize);
+            info.mStaticSize += size;
+            position += size;
+        }
+        info.mStaticRefs = Arrays.copyOf(refs, refCount);
+
+        int fieldCount = mBuffer.getUnsignedShort(position);
+        position += 2;
+        info.mFieldNames = new String[fieldCount];
+        info.mFieldTypes = new byte[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            info.mFieldNames[i] = mStrings.get(mBuffer.getId(position));
+            info.mFieldTypes[i] = mBuffer.get(position + mIdSize);
+            // checks the type.
+            ClassInfo.getTypeSize(info.mFieldTypes[i], mIdSize);
+            position += mIdSize + 1;
+        }
+
+        mClasses.put(info.mId, info);
+        mClassList.add(info);
+        return position;
+    }
+
+    /**
+     * Names the classes, links them to their super classes, and makes up the classes of the
+     * objects which have no class dump.
+     */
+    private void resolveClasses() {
+        for (ClassInfo info : mClassList) {
+            Long nameId = mClassNameIds.get(info.mId);
+            String name = nameId != null ? mStrings.get(nameId) : null;
+            info.mName = name != null ? getJavaName(name)
+                    : "unknown class 0x" + Long.toHexString(info.mId); //$NON-NLS-1$
+            info.mSuper = mClasses.get(info.mSuperId);
+            if (!mClassesByName.containsKey(info.mName)) {
+                mClassesByName.put(info.mName, info);
+            }
+        }
+        for (ClassInfo info : mClassList) {
+            info.resolve(mIdSize);
+        }
+
+        for (int type = 0; type < mArrayClasses.length; type++) {
+            String name = ClassInfo.getArrayName(type);
+            if (name != null) {
+                mArrayClasses[type] = getClass(name);
+            }
+        }
+        mClassClass = getClass("java.lang.Class"); //$NON-NLS-1$
+        mObjectArrayClass = getClass("java.lang.Object[]"); //$NON-NLS-1$
+        mUnknownClass = getClass("unknown"); //$NON-NLS-1$
+    }
+
+    /** Returns the class of the given name, which is made up if there is no such class. */
+    private ClassInfo getClass(String name) {
+        ClassInfo info = mClassesByName.get(name);
+        if (info == null) {
+            info = new ClassInfo(0, mClassList.size(), name);
+            info.mRefOffsets = new int[0];
+            mClassList.add(info);
+            mClassesByName.put(name, info);
+        }
+        return info;
+    }
+
+    /**
+     * Returns the Java name of a class, for instance "java.lang.String[]" for
+     * "[Ljava/lang/String;".
+     */
+    static String getJavaName(String name) {
+        int dimensions = 0;
+        while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String element = name.substring(dimensions);
+        if (dimensions > 0) {
+            if (element.startsWith("L") && element.endsWith(";")) { //$NON-NLS-1$ //$NON-NLS-2$
+                element = element.substring(1, element.length() - 1);
+            } else if (element.length() == 1) {
+                int index = "ZCFDBSIJ".indexOf(element.charAt(0)); //$NON-NLS-1$
+                if (index >= 0) {
+                    String arrayName = ClassInfo.getArrayName(index + 4);
+                    element = arrayName.substring(0, arrayName.length() - 2);
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(element.replace('/', '.'));
+        for (int i = 0; i < dimensions; i++) {
+            sb.append("[]"); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+
+    /** Returns the index of an object, or -1 if there is no object with the given id. */
+    private int findObject(long id) {
+        int low = 0;
+        int high = mObjectCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = mIds.get(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes the classes, the shallow sizes and the references of the objects. The records
+     * are read twice by all the threads: once to count the references, and once to store them
+     * after the space of each object is known.
+     */
+    private void indexObjects() throws IOException {
+        mClassOrdinals = new IntArray(mObjectCount, mFolder);
+        mShallowSizes = new IntArray(mObjectCount, mFolder);
+        mRefStarts = new LongArray(mObjectCount + 1, mFolder);
+        mWorkers.runRanges(mObjectCount, new Workers.RangeTask() {
+            public void run(long start, long end) {
+                for (int i = (int) start; i < end; i++) {
+                    mRefStarts.set(i + 1, readObject(i, -1));
+                }
+            }
+        });
+
+        for (int i = 1; i <= mObjectCount; i++) {
+            mRefStarts.set(i, mRefStarts.get(i) + mRefStarts.get(i - 1));
+        }
+
+        mRefs = new IntArray(mRefStarts.get(mObjectCount), mFolder);
+        mWorkers.runRanges(mObjectCount, new Workers.RangeTask() {
+            public void run(long start, long end) {
+                for (int i = (int) start; i < end; i++) {
+                    readObject(i, mRefStarts.get(i));
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the record of an object. When counting its references, its class and size are
+     * stored as well.
+     * @param index the index of the object.
+     * @param refPosition the position of the references of the object in {@link #mRefs}, or
+     * -1 to only count them.
+     * @return the number of references.
+     */
+    private int readObject(int index, long refPosition) {
+        long offset = mOffsets.get(index);
+        int tag = mBuffer.getUnsignedByte(offset);
+        long data = offset + 1 + mIdSize;
+        ClassInfo info;
+        long size;
+        int count = 0;
+        switch (tag) {
+            case CLASS_DUMP:
+                info = mClasses.get(mIds.get(index));
+                count += addReference(info.mSuperId, refPosition, count);
+                count += addReference(info.mLoaderId, refPosition, count);
+                for (long ref : info.mStaticRefs) {
+                    count += addReference(ref, refPosition, count);
+                }
+                size = info.mStaticSize;
+                info = mClassClass;
+                break;
+            case INSTANCE_DUMP: {
+                long classId = mBuffer.getId(data + 4);
+                size = mBuffer.getUnsignedInt(data + 4 + mIdSize);
+                long fields = data + 4 + mIdSize + 4;
+                info = mClasses.get(classId);
+                if (info == null) {
+                    info = mUnknownClass;
+                }
+                count += addReference(classId, refPosition, count);
+                for (int fieldOffset : info.mRefOffsets) {
+                    if (fieldOffset + mIdSize <= size) {
+                        count += addReference(mBuffer.getId(fields + fieldOffset), refPosition,
+                                count);
+                    }
+                }
+                break;
+            }
+            case OBJECT_ARRAY_DUMP: {
+                long length = mBuffer.getUnsignedInt(data + 4);
+                long classId = mBuffer.getId(data + 8);
+                long elements = data + 8 + mIdSize;
+                info = mClasses.get(classId);
+                if (info == null) {
+                    info = mObjectArrayClass;
+                }
+                count += addReference(classId, refPosition, count);
+                for (long i = 0; i < length; i++) {
+                    count += addReference(mBuffer.getId(elements + i * mIdSize), refPosition,
+                            count);
+                }
+                size = length * mIdSize;
+                break;
+            }
+            default: {
+                // primitive array, with or without data.
+                int type = mBuffer.get(data + 8);
+                info = mArrayClasses[type];
+                size = mBuffer.getUnsignedInt(data + 4) * ClassInfo.getTypeSize(type, mIdSize);
+                break;
+            }
+        }
+
+        if (refPosition < 0) {
+            mClassOrdinals.set(index, info.mOrdinal);
+            mShallowSizes.set(index, (int) Math.min(size, Integer.MAX_VALUE));
+        }
+        return count;
+    }
+
+    /**
+     * Stores a reference at the given position of {@link #mRefs}, unless the position is -1.
+     * @return 1, or 0 if the id is null.
+     */
+    private int addReference(long id, long refPosition, int count) {
+        if (id == 0) {
+            return 0;
+        }
+        if (refPosition >= 0) {
+            mRefs.set(refPosition + count, findObject(id));
+        }
+        return 1;
+    }
+
+    /** Returns the number of objects in the heap, including the classes. */
+    public int getObjectCount() {
+        return mObjectCount;
+    }
+
+    /**
+     * Returns the number of objects, and their shallow and retained sizes, of each class of the
+     * heap, sorted by decreasing retained size.
+     */
+    public List<ClassHistogramEntry> getClassHistogram() throws IOException {
+        final int classCount = mClassList.size();
+        final long[] counts = new long[classCount];
+        final long[] sizes = new long[classCount];
+        mWorkers.runRanges(mObjectCount, new Workers.RangeTask() {
+            public void run(long start, long end) {
+                long[] rangeCounts = new long[classCount];
+                long[] rangeSizes = new long[classCount];
+                for (long i = start; i < end; i++) {
+                    int ordinal = mClassOrdinals.get(i);
+                    rangeCounts[ordinal]++;
+                    rangeSizes[ordinal] += mShallowSizes.get(i);
+                }
+                synchronized (counts) {
+                    for (int c = 0; c < classCount; c++) {
+                        counts[c] += rangeCounts[c];
+                        sizes[c] += rangeSizes[c];
+                    }
+                }
+            }
+        });
+        long[] retainedSizes = mDominatorTree.getClassRetainedSizes(mClassOrdinals, classCount);
+
+        List<ClassHistogramEntry> histogram = new ArrayList<ClassHistogramEntry>();
+        for (int c = 0; c < classCount; c++) {
+            if (counts[c] > 0) {
+                histogram.add(new ClassHistogramEntry(mClassList.get(c).mName, counts[c],
+                        sizes[c], retainedSizes[c]));
+            }
+        }
+        Collections.sort(histogram, new Comparator<ClassHistogramEntry>() {
+            public int compare(ClassHistogramEntry e1, ClassHistogramEntry e2) {
+                long r1 = e1.getRetainedSize();
+                long r2 = e2.getRetainedSize();
+                return r1 > r2 ? -1 : (r1 < r2 ? 1 : e1.getClassName().compareTo(
+                        e2.getClassName()));
+            }
+        });
+        return histogram;
+    }
+
+    /**
+     * Returns the name of the class of an object, or null if there is no such object. The class
+     * of the class objects is "java.lang.Class".
+     */
+    public String getClassName(long objectId) {
+        int index = findObject(objectId);
+        return index >= 0 ? mClassList.get(mClassOrdinals.get(index)).mName : null;
+    }
+
+    /**
+     * Returns the size of an object, or -1 if there is no such object. The size of an object is
+     * the size of its data in the dump, and the size of a class object is the size of its
+     * static fields.
+     */
+    public long getShallowSize(long objectId) {
+        int index = findObject(objectId);
+        return index >= 0 ? mShallowSizes.get(index) : -1;
+    }
+
+    /**
+     * Returns the size of the objects which would be freed if an object was freed, including
+     * itself, or -1 if there is no such object.
+     */
+    public long getRetainedSize(long objectId) {
+        int index = findObject(objectId);
+        return index >= 0 ? mDominatorTree.getRetainedSize(index) : -1;
+    }
+
+    /**
+     * Returns the id of the immediate dominator of an object: the closest object that all the
+     * paths from the GC roots to the object go through.
+     * @return the id of the dominator, or 0 if the object is only dominated by the GC roots,
+     * cannot be reached from the GC roots, or does not exist.
+     */
+    public long getDominator(long objectId) {
+        int index = findObject(objectId);
+        if (index < 0) {
+            return 0;
+        }
+        int dominator = mDominatorTree.getDominator(index);
+        return dominator >= 0 ? mIds.get(dominator) : 0;
+    }
+
+    /**
+     * Returns whether an object can be reached from the GC roots.
+     */
+    public boolean isReachable(long objectId) {
+        int index = findObject(objectId);
+        return index >= 0 && mDominatorTree.getDominator(index) != -2;
+    }
+
+    /**
+     * Returns the groups of strings with the same value, sorted by decreasing wasted size. The
+     * wasted size of a group is the size of the strings and characters beyond the first one.
+     * @param max the maximum number of groups returned.
+     */
+    public List<DuplicateGroup> getDuplicateStrings(int max) throws IOException {
+        final ClassInfo stringClass = mClassesByName.get(STRING_CLASS);
+        if (stringClass == null) {
+            return Collections.emptyList();
+        }
+        final int valueOffset = stringClass.getFieldOffset("value", mIdSize); //$NON-NLS-1$
+        final int offsetOffset = stringClass.getFieldOffset("offset", mIdSize); //$NON-NLS-1$
+        final int countOffset = stringClass.getFieldOffset("count", mIdSize); //$NON-NLS-1$
+        if (valueOffset < 0) {
+            return Collections.emptyList();
+        }
+
+        return findDuplicates(stringClass, max, new ContentReader() {
+            /**
+             * Returns the position of the characters of a string in the file, and stores
+             * their count in lengthOut[0].
+             */
+            private long getChars(int index, long[] lengthOut) {
+                long fields = getFields(index);
+                long array = getPrimitiveArray(mBuffer.getId(fields + valueOffset), TYPE_CHAR);
+                if (array < 0) {
+                    return -1;
+                }
+                long arrayLength = mBuffer.getUnsignedInt(array - 5);
+                long start = offsetOffset >= 0 ? mBuffer.getInt(fields + offsetOffset) : 0;
+                long length = countOffset >= 0 ? mBuffer.getInt(fields + countOffset)
+                        : arrayLength;
+                if (start < 0 || length < 0 || start + length > arrayLength) {
+                    return -1;
+                }
+                lengthOut[0] = length;
+                return array + 2 * start;
+            }
+
+            public long hash(int index) {
+                long[] length = new long[1];
+                long chars = getChars(index, length);
+                return chars < 0 ? 0 : hashContent(chars, 2 * length[0]);
+            }
+
+            public long getSize(int index) {
+                long[] length = new long[1];
+                getChars(index, length);
+                return mShallowSizes.get(index) + 2 * length[0];
+            }
+
+            public String describe(int index) {
+                long[] length = new long[1];
+                long chars = getChars(index, length);
+                int count = (int) Math.min(length[0], MAX_DESCRIPTION_LENGTH);
+                StringBuilder sb = new StringBuilder(count);
+                for (int i = 0; i < count; i++) {
+                    sb.append(mBuffer.getChar(chars + 2 * i));
+                }
+                if (count < length[0]) {
+                    sb.append("..."); //$NON-NLS-1$
+                }
+                return sb.toString();
+            }
+        });
+    }
+
+    /**
+     * Returns the groups of bitmaps with the same pixels, sorted by decreasing wasted size. The
+     * wasted size of a group is the size of the pixels beyond the first bitmap.
+     * <p/>Only the bitmaps whose pixels are in the Java heap are found.
+     * @param max the maximum number of groups returned.
+     */
+    public List<DuplicateGroup> getDuplicateBitmaps(int max) throws IOException {
+        ClassInfo bitmapClass = mClassesByName.get(BITMAP_CLASS);
+        if (bitmapClass == null) {
+            return Collections.emptyList();
+        }
+        final int bufferOffset = bitmapClass.getFieldOffset("mBuffer", mIdSize); //$NON-NLS-1$
+        final int widthOffset = bitmapClass.getFieldOffset("mWidth", mIdSize); //$NON-NLS-1$
+        final int heightOffset = bitmapClass.getFieldOffset("mHeight", mIdSize); //$NON-NLS-1$
+        if (bufferOffset < 0) {
+            return Collections.emptyList();
+        }
+
+        return findDuplicates(bitmapClass, max, new ContentReader() {
+            private long getPixels(int index) {
+                return getPrimitiveArray(mBuffer.getId(getFields(index) + bufferOffset),
+                        TYPE_BYTE);
+            }
+
+            public long hash(int index) {
+                long pixels = getPixels(index);
+                return pixels < 0 ? 0 : hashContent(pixels, mBuffer.getUnsignedInt(pixels - 5));
+            }
+
+            public long getSize(int index) {
+                long pixels = getPixels(index);
+                return pixels < 0 ? 0 : mBuffer.getUnsignedInt(pixels - 5);
+            }
+
+            public String describe(int index) {
+                long fields = getFields(index);
+                if (widthOffset < 0 || heightOffset < 0) {
+                    return BITMAP_CLASS;
+                }
+                return mBuffer.getInt(fields + widthOffset) + "x" //$NON-NLS-1$
+                        + mBuffer.getInt(fields + heightOffset);
+            }
+        });
+    }
+
+    /** Returns the position of the fields of an instance in the file. */
+    private long getFields(int index) {
+        return mOffsets.get(index) + 1 + mIdSize + 4 + mIdSize + 4;
+    }
+
+    /**
+     * Returns the position of the data of a primitive array in the file, or -1 if there is no
+     * array of the given type with this id.
+     */
+    private long getPrimitiveArray(long id, int type) {
+        int index = findObject(id);
+        if (index < 0) {
+            return -1;
+        }
+        long offset = mOffsets.get(index);
+        if (mBuffer.getUnsignedByte(offset) != PRIMITIVE_ARRAY_DUMP
+                || mBuffer.get(offset + 1 + mIdSize + 8) != type) {
+            return -1;
+        }
+        return offset + 1 + mIdSize + 9;
+    }
+
+    /**
+     * Returns a 64 bit hash of bytes of the file, never 0. The bytes are hashed 8 at a time,
+     * as FNV-1a does one at a time.
+     */
+    private long hashContent(long position, long length) {
+        long hash = HASH_OFFSET;
+        long i = 0;
+        for (; i + 8 <= length; i += 8) {
+            hash = (hash ^ mBuffer.getLong(position + i)) * HASH_PRIME;
+        }
+        for (; i < length; i++) {
+            hash = (hash ^ mBuffer.get(position + i)) * HASH_PRIME;
+        }
+        hash = (hash ^ length) * HASH_PRIME;
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Finds the objects of a class with the same content. The contents are hashed by all the
+     * threads, then the objects are sorted by hash, so that duplicates are next to each other.
+     * Contents with the same hash are considered equal.
+     */
+    private List<DuplicateGroup> findDuplicates(ClassInfo info, int max,
+            final ContentReader reader) throws IOException {
+        if (max <= 0) {
+            return Collections.emptyList();
+        }
+
+        final LongArray indexes = new LongArray(0, mFolder);
+        LongArray hashes = null;
+        Comparator<DuplicateGroup> comparator = new Comparator<DuplicateGroup>() {
+            public int compare(DuplicateGroup g1, DuplicateGroup g2) {
+                long w1 = g1.getWastedSize();
+                long w2 = g2.getWastedSize();
+                return w1 < w2 ? -1 : (w1 > w2 ? 1 : 0);
+            }
+        };
+        // the smallest of the groups kept is at the head.
+        PriorityQueue<DuplicateGroup> top = new PriorityQueue<DuplicateGroup>(max + 1,
+                comparator);
+        try {
+            for (int i = 0; i < mObjectCount; i++) {
+                if (mClassOrdinals.get(i) == info.mOrdinal) {
+                    indexes.add(i);
+                }
+            }
+            long count = indexes.length();
+            final LongArray finalHashes = hashes = new LongArray(count, mFolder);
+            mWorkers.runRanges(count, new Workers.RangeTask() {
+                public void run(long start, long end) {
+                    for (long i = start; i < end; i++) {
+                        finalHashes.set(i, reader.hash((int) indexes.get(i)));
+                    }
+                }
+            });
+            ParallelSort.sort(hashes, indexes, count, mWorkers, mFolder);
+
+            long start = 0;
+            while (start < count) {
+                long hash = hashes.get(start);
+                long end = start + 1;
+                while (end < count && hashes.get(end) == hash) {
+                    end++;
+                }
+                if (hash != 0 && end - start > 1) {
+                    int first = (int) indexes.get(start);
+                    long wastedSize = (end - start - 1) * reader.getSize(first);
+                    if (top.size() < max || wastedSize > top.peek().getWastedSize()) {
+                        long[] ids = new long[(int) (end - start)];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = mIds.get(indexes.get(start + i));
+                        }
+                        top.add(new DuplicateGroup(reader.describe(first), ids, wastedSize));
+                        if (top.size() > max) {
+                            top.poll();
+                        }
+                    }
+                }
+                start = end;
+            }
+        } finally {
+            indexes.close();
+            if (hashes != null) {
+                hashes.close();
+            }
+        }
+
+        List<DuplicateGroup> groups = new ArrayList<DuplicateGroup>(top);
+        Collections.sort(groups, Collections.reverseOrder(comparator));
+        return groups;
+    }
+
+    /**
+     * Releases the indexes, and deletes their temporary files. The heap must not be used
+     * anymore.
+     */
+    public void close() {
+        mWorkers.shutdown();
+        if (mDominatorTree != null) {
+            mDominatorTree.close();
+        }
+        LongArray[] longArrays = { mIds, mOffsets, mRefStarts };
+        for (LongArray array : longArrays) {
+            if (array != null) {
+                array.close();
+            }
+        }
+        IntArray[] intArrays = { mRoots, mClassOrdinals, mShallowSizes, mRefs };
+        for (IntArray array : intArrays) {
+            if (array != null) {
+                array.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An array of longs outside of the Java heap, which can grow, see {@link MappedPages}.
+ */
+final class LongArray {
+    private final MappedPages mPages;
+    private long mLength;
+    private long mCapacity;
+
+    /**
+     * Creates an array.
+     * @param length the initial length of the array. The elements are initially 0.
+     * @param folder the folder of the temporary file, or null for the default one.
+     */
+    LongArray(long length, File folder) throws IOException {
+        mPages = new MappedPages(folder);
+        setLength(length);
+    }
+
+    long length() {
+        return mLength;
+    }
+
+    /** Changes the length of the array. New elements are 0, unless the array was shrunk. */
+    void setLength(long length) throws IOException {
+        if (length << 3 > mCapacity) {
+            mCapacity = mPages.ensureCapacity(length << 3);
+        }
+        mLength = length;
+    }
+
+    /** Adds an element at the end of the array. */
+    void add(long value) throws IOException {
+        setLength(mLength + 1);
+        set(mLength - 1, value);
+    }
+
+    long get(long index) {
+        return mPages.getLong(index << 3);
+    }
+
+    void set(long index, long value) {
+        mPages.putLong(index << 3, value);
+    }
+
+    void swap(long i, long j) {
+        long value = get(i);
+        set(i, get(j));
+        set(j, value);
+    }
+
+    /** Releases the array, which must not be used anymore. */
+    void close() {
+        mPages.close();
+    }
+}
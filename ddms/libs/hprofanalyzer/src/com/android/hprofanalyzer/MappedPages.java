@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+/**
+ * Memory outside of the Java heap, made of pages of a temporary file mapped in memory. The
+ * pages are mapped as they are needed, and initially filled with zeros.
+ * <p/>Reading and writing different positions from different threads is safe, as long as the
+ * pages were allocated with {@link #ensureCapacity(long)} beforehand.
+ */
+final class MappedPages {
+    /** Size of the pages. Must be a power of 2, it is only changed by tests. */
+    static int sPageSize = 1 << 27;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final int mPageShift;
+    private final int mPageMask;
+    private ByteBuffer[] mPages = new ByteBuffer[0];
+
+    /**
+     * Creates empty pages.
+     * @param folder the folder of the temporary file, or null for the default one.
+     * @throws IOException if the temporary file could not be created.
+     */
+    MappedPages(File folder) throws IOException {
+        mFile = File.createTempFile("hprof", ".tmp", folder); //$NON-NLS-1$ //$NON-NLS-2$
+        mFile.deleteOnExit();
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw"); //$NON-NLS-1$
+        mPageShift = Integer.numberOfTrailingZeros(sPageSize);
+        mPageMask = sPageSize - 1;
+    }
+
+    /**
+     * Makes sure the given number of bytes are mapped.
+     * @return the number of bytes mapped, which may be more than requested.
+     * @throws IOException if the pages could not be mapped.
+     */
+    synchronized long ensureCapacity(long bytes) throws IOException {
+        int pageCount = (int) ((bytes + mPageMask) >>> mPageShift);
+        if (pageCount <= mPages.length) {
+            return (long) mPages.length << mPageShift;
+        }
+
+        FileChannel channel = mRandomAccessFile.getChannel();
+        long size = (long) pageCount << mPageShift;
+        if (mRandomAccessFile.length() < size) {
+            mRandomAccessFile.setLength(size);
+        }
+        ByteBuffer[] pages = Arrays.copyOf(mPages, pageCount);
+        for (int i = mPages.length; i < pageCount; i++) {
+            pages[i] = channel.map(MapMode.READ_WRITE, (long) i << mPageShift, 1 << mPageShift);
+        }
+        mPages = pages;
+        return size;
+    }
+
+    int getInt(long position) {
+        return mPages[(int) (position >>> mPageShift)].getInt((int) (position & mPageMask));
+    }
+
+    void putInt(long position, int value) {
+        mPages[(int) (position >>> mPageShift)].putInt((int) (position & mPageMask), value);
+    }
+
+    long getLong(long position) {
+        return mPages[(int) (position >>> mPageShift)].getLong((int) (position & mPageMask));
+    }
+
+    void putLong(long position, long value) {
+        mPages[(int) (position >>> mPageShift)].putLong((int) (position & mPageMask), value);
+    }
+
+    /**
+     * Releases the pages, and deletes the temporary file. The pages must not be used anymore.
+     */
+    synchronized void close() {
+        mPages = new ByteBuffer[0];
+        try {
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            // nothing to do, the file is deleted anyway.
+        }
+        // this may fail while the pages are still mapped, the file is then deleted on exit.
+        mFile.delete();
+    }
+}
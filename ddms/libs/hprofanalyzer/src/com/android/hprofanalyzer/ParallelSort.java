@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts pairs of {@link LongArray}s with several threads: the ranges of each thread are
+ * sorted in place, then merged by pairs in rounds, each merge running on its own thread.
+ */
+final class ParallelSort {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private ParallelSort() {
+    }
+
+    /**
+     * Sorts keys in increasing order, with their values.
+     * @param keys the keys.
+     * @param values the values, which are moved with their keys.
+     * @param length the number of keys to sort, from the start of the arrays.
+     * @param workers the threads to use.
+     * @param folder the folder of the temporary arrays used to merge.
+     */
+    static void sort(final LongArray keys, final LongArray values, long length,
+            Workers workers, File folder) throws IOException {
+        int runCount = (int) Math.max(1, Math.min(workers.getThreadCount(),
+                length / INSERTION_SORT_THRESHOLD));
+        final long[] runStarts = new long[runCount + 1];
+        for (int i = 0; i <= runCount; i++) {
+            runStarts[i] = length * i / runCount;
+        }
+
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < runCount; i++) {
+            final int run = i;
+            tasks.add(new Runnable() {
+                public void run() {
+                    quickSort(keys, values, runStarts[run], runStarts[run + 1] - 1);
+                }
+            });
+        }
+        workers.run(tasks);
+        if (runCount == 1) {
+            return;
+        }
+
+        LongArray srcKeys = keys;
+        LongArray srcValues = values;
+        LongArray dstKeys = new LongArray(length, folder);
+        LongArray dstValues = new LongArray(length, folder);
+        try {
+            long[] starts = runStarts;
+            while (starts.length > 2) {
+                long[] merged = new long[(starts.length - 1 + 1) / 2 + 1];
+                tasks.clear();
+                for (int i = 0; i + 1 < starts.length; i += 2) {
+                    final long start = starts[i];
+                    final long middle = starts[Math.min(i + 1, starts.length - 1)];
+                    final long end = starts[Math.min(i + 2, starts.length - 1)];
+                    merged[i / 2] = start;
+                    final LongArray sk = srcKeys;
+                    final LongArray sv = srcValues;
+                    final LongArray dk = dstKeys;
+                    final LongArray dv = dstValues;
+                    tasks.add(new Runnable() {
+                        public void run() {
+                            merge(sk, sv, dk, dv, start, middle, end);
+                        }
+                    });
+                }
+                merged[merged.length - 1] = length;
+                workers.run(tasks);
+
+                starts = merged;
+                LongArray k = srcKeys;
+                LongArray v = srcValues;
+                srcKeys = dstKeys;
+                srcValues = dstValues;
+                dstKeys = k;
+                dstValues = v;
+            }
+
+            if (srcKeys != keys) {
+                copy(srcKeys, srcValues, keys, values, length, workers);
+            }
+        } finally {
+            // the two temporary arrays are the ones not holding the result.
+            if (srcKeys != keys) {
+                srcKeys.close();
+                srcValues.close();
+            } else {
+                dstKeys.close();
+                dstValues.close();
+            }
+        }
+    }
+
+    private static void copy(final LongArray srcKeys, final LongArray srcValues,
+            final LongArray dstKeys, final LongArray dstValues, long length, Workers workers)
+            throws IOException {
+        workers.runRanges(length, new Workers.RangeTask() {
+            public void run(long start, long end) {
+                for (long i = start; i < end; i++) {
+                    dstKeys.set(i, srcKeys.get(i));
+                    dstValues.set(i, srcValues.get(i));
+                }
+            }
+        });
+    }
+
+    /** Merges the sorted ranges [start, middle) and [middle, end) of src into dst. */
+    private static void merge(LongArray srcKeys, LongArray srcValues, LongArray dstKeys,
+            LongArray dstValues, long start, long middle, long end) {
+        long i = start;
+        long j = middle;
+        for (long k = start; k < end; k++) {
+            if (j >= end || (i < middle && srcKeys.get(i) <= srcKeys.get(j))) {
+                dstKeys.set(k, srcKeys.get(i));
+                dstValues.set(k, srcValues.get(i));
+                i++;
+            } else {
+                dstKeys.set(k, srcKeys.get(j));
+                dstValues.set(k, srcValues.get(j));
+                j++;
+            }
+        }
+    }
+
+    /** Sorts the range [low, high] in place. */
+    private static void quickSort(LongArray keys, LongArray values, long low, long high) {
+        while (high - low >= INSERTION_SORT_THRESHOLD) {
+            // median of three, moved to high - 1.
+            long middle = (low + high) >>> 1;
+            if (keys.get(middle) < keys.get(low)) {
+                swap(keys, values, middle, low);
+            }
+            if (keys.get(high) < keys.get(low)) {
+                swap(keys, values, high, low);
+            }
+            if (keys.get(high) < keys.get(middle)) {
+                swap(keys, values, high, middle);
+            }
+            swap(keys, values, middle, high - 1);
+            long pivot = keys.get(high - 1);
+
+            long i = low;
+            long j = high - 1;
+            while (true) {
+                while (keys.get(++i) < pivot) {
+                }
+                while (keys.get(--j) > pivot) {
+                }
+                if (i >= j) {
+                    break;
+                }
+                swap(keys, values, i, j);
+            }
+            swap(keys, values, i, high - 1);
+
+            // recurse on the smaller side, so that the stack stays small.
+            if (i - low < high - i) {
+                quickSort(keys, values, low, i - 1);
+                low = i + 1;
+            } else {
+                quickSort(keys, values, i + 1, high);
+                high = i - 1;
+            }
+        }
+
+        for (long i = low + 1; i <= high; i++) {
+            long key = keys.get(i);
+            long value = values.get(i);
+            long j = i - 1;
+            while (j >= low && keys.get(j) > key) {
+                keys.set(j + 1, keys.get(j));
+                values.set(j + 1, values.get(j));
+                j--;
+            }
+            keys.set(j + 1, key);
+            values.set(j + 1, value);
+        }
+    }
+
+    private static void swap(LongArray keys, LongArray values, long i, long j) {
+        keys.swap(i, j);
+        values.swap(i, j);
+    }
+}
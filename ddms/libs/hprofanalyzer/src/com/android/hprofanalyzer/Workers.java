@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A pool of threads running the tasks of the index build, which waits for their completion.
+ */
+final class Workers {
+    private final int mThreadCount;
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates the threads.
+     * @param threadCount the number of threads, or 0 for the number of processors.
+     */
+    Workers(int threadCount) {
+        mThreadCount = threadCount > 0 ? threadCount :
+                Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+            private int mCount;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Hprof Analyzer " + mCount++); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Runs tasks, and waits until they are all done.
+     * @throws IOException if a task failed, or the thread was interrupted.
+     */
+    void run(List<Runnable> tasks) throws IOException {
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+        for (Runnable task : tasks) {
+            futures.add(mExecutor.submit(task));
+        }
+
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = new IOException("Hprof analysis failed: " //$NON-NLS-1$
+                            + e.getCause());
+                    failure.initCause(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                if (failure == null) {
+                    failure = new IOException("Hprof analysis interrupted"); //$NON-NLS-1$
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** Runs a task on each range of [0, length), one per thread, and waits until done. */
+    void runRanges(long length, final RangeTask task) throws IOException {
+        List<Runnable> tasks = new ArrayList<Runnable>(mThreadCount);
+        for (int i = 0; i < mThreadCount; i++) {
+            final long start = length * i / mThreadCount;
+            final long end = length * (i + 1) / mThreadCount;
+            if (start == end) {
+                continue;
+            }
+            tasks.add(new Runnable() {
+                public void run() {
+                    task.run(start, end);
+                }
+            });
+        }
+        run(tasks);
+    }
+
+    /** Stops the threads. */
+    void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /** A task running on a range of indexes. */
+    interface RangeTask {
+        /** Runs the task on [start, end). */
+        void run(long start, long end);
+    }
+}
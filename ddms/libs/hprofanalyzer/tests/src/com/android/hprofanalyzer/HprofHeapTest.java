@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HprofHeap}.
+ */
+public class HprofHeapTest extends TestCase {
+    private static final long OBJECT_CLASS = 0x100;
+    private static final long NODE_CLASS = 0x101;
+    private static final long STRING_CLASS = 0x102;
+    private static final long BITMAP_CLASS = 0x103;
+    private static final long ARRAY_CLASS = 0x104;
+
+    private File mFile;
+    private HprofHeap mHeap;
+    private int mPageSize;
+    private int mMappingSize;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFile = File.createTempFile("test", ".hprof");
+        mPageSize = MappedPages.sPageSize;
+        mMappingSize = HprofBuffer.sMappingSize;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mHeap != null) {
+            mHeap.close();
+        }
+        mFile.delete();
+        MappedPages.sPageSize = mPageSize;
+        HprofBuffer.sMappingSize = mMappingSize;
+    }
+
+    /** Returns a writer with the classes used by the tests. */
+    private static HprofWriter createWriter(int idSize) throws IOException {
+        HprofWriter writer = new HprofWriter(idSize);
+        writer.addClass(OBJECT_CLASS, "java/lang/Object", 0, new String[0], new int[0],
+                new long[0]);
+        writer.addClass(NODE_CLASS, "com.example.Node", OBJECT_CLASS,
+                new String[] { "next", "other", "value" },
+                new int[] { HprofWriter.TYPE_OBJECT, HprofWriter.TYPE_OBJECT,
+                        HprofWriter.TYPE_INT },
+                new long[0]);
+        writer.addClass(STRING_CLASS, "java.lang.String", OBJECT_CLASS,
+                new String[] { "count", "hashCode", "offset", "value" },
+                new int[] { HprofWriter.TYPE_INT, HprofWriter.TYPE_INT, HprofWriter.TYPE_INT,
+                        HprofWriter.TYPE_OBJECT },
+                new long[0]);
+        writer.addClass(BITMAP_CLASS, "android.graphics.Bitmap", OBJECT_CLASS,
+                new String[] { "mBuffer", "mHeight", "mWidth" },
+                new int[] { HprofWriter.TYPE_OBJECT, HprofWriter.TYPE_INT,
+                        HprofWriter.TYPE_INT },
+                new long[0]);
+        writer.addClass(ARRAY_CLASS, "[Ljava/lang/Object;", OBJECT_CLASS, new String[0],
+                new int[0], new long[0]);
+        return writer;
+    }
+
+    private static ClassHistogramEntry findEntry(List<ClassHistogramEntry> histogram,
+            String className) {
+        for (ClassHistogramEntry entry : histogram) {
+            if (entry.getClassName().equals(className)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Check the dominators and retained sizes of a small graph, and the histogram. */
+    public void testDominators() throws IOException {
+        HprofWriter writer = createWriter(4);
+        // 1 -> 2 -> 4 -> 5, 1 -> 3 -> 4, 6 unreachable -> 5, 7 is an array -> 1, 3.
+        writer.addRoot(1);
+        writer.addInstance(1, NODE_CLASS, 2, 3, 0);
+        writer.addInstance(2, NODE_CLASS, 4, 0, 0);
+        writer.endSegment();
+        writer.addInstance(3, NODE_CLASS, 4, 0, 0);
+        writer.addInstance(4, NODE_CLASS, 5, 0, 0);
+        writer.addInstance(5, NODE_CLASS, 0, 0, 0);
+        writer.addInstance(6, NODE_CLASS, 5, 0, 0);
+        writer.addObjectArray(7, ARRAY_CLASS, 1, 3);
+        writer.addRoot(7);
+        writer.write(mFile);
+
+        mHeap = HprofHeap.open(mFile, null, 2);
+        assertEquals(7 + 5, mHeap.getObjectCount());
+
+        assertEquals(12, mHeap.getShallowSize(1));
+        assertEquals(8, mHeap.getShallowSize(7));
+        assertEquals(-1, mHeap.getShallowSize(8));
+        assertEquals("com.example.Node", mHeap.getClassName(1));
+        assertEquals("java.lang.Object[]", mHeap.getClassName(7));
+        assertEquals("java.lang.Class", mHeap.getClassName(NODE_CLASS));
+
+        assertEquals(0, mHeap.getDominator(1));
+        assertEquals(1, mHeap.getDominator(2));
+        assertEquals(0, mHeap.getDominator(3));
+        assertEquals(0, mHeap.getDominator(4));
+        assertEquals(4, mHeap.getDominator(5));
+        assertEquals(0, mHeap.getDominator(6));
+        assertFalse(mHeap.isReachable(6));
+        assertTrue(mHeap.isReachable(5));
+
+        assertEquals(24, mHeap.getRetainedSize(1));
+        assertEquals(12, mHeap.getRetainedSize(2));
+        assertEquals(12, mHeap.getRetainedSize(3));
+        assertEquals(24, mHeap.getRetainedSize(4));
+        assertEquals(12, mHeap.getRetainedSize(6));
+
+        List<ClassHistogramEntry> histogram = mHeap.getClassHistogram();
+        ClassHistogramEntry nodes = findEntry(histogram, "com.example.Node");
+        assertEquals(6, nodes.getInstanceCount());
+        assertEquals(72, nodes.getShallowSize());
+        // 1, 3 and 4 are not dominated by another node.
+        assertEquals(24 + 12 + 24, nodes.getRetainedSize());
+        assertEquals(5, findEntry(histogram, "java.lang.Class").getInstanceCount());
+        assertEquals(1, findEntry(histogram, "java.lang.Object[]").getInstanceCount());
+        assertNull(findEntry(histogram, "char[]"));
+    }
+
+    /** Check the duplicate strings, including a string sharing the characters of another. */
+    public void testDuplicateStrings() throws IOException {
+        HprofWriter writer = createWriter(8);
+        String[] values = { "hello", "world", "hello", "unique", "world", "hello" };
+        for (int i = 0; i < values.length; i++) {
+            writer.addCharArray(100 + i, values[i]);
+            writer.addInstance(200 + i, STRING_CLASS, values[i].length(), 0, 0, 100 + i);
+            writer.addRoot(200 + i);
+        }
+        writer.addCharArray(300, "--hello--");
+        writer.addInstance(301, STRING_CLASS, 5, 0, 2, 300);
+        writer.addInstance(302, STRING_CLASS, 9, 0, 0, 300);
+        writer.addRoot(301);
+        writer.addRoot(302);
+        // an empty string, and a string without value.
+        writer.addCharArray(400, "");
+        writer.addInstance(401, STRING_CLASS, 0, 0, 0, 400);
+        writer.addInstance(402, STRING_CLASS, 0, 0, 0, 0);
+        writer.write(mFile);
+
+        mHeap = HprofHeap.open(mFile, null, 3);
+        List<DuplicateGroup> groups = mHeap.getDuplicateStrings(10);
+        assertEquals(2, groups.size());
+
+        DuplicateGroup hello = groups.get(0);
+        assertEquals("hello", hello.getDescription());
+        assertEquals(4, hello.getCount());
+        long[] ids = hello.getObjectIds();
+        Arrays.sort(ids);
+        assertTrue(Arrays.equals(new long[] { 200, 202, 205, 301 }, ids));
+        // 4 fields of 4 bytes and an id of 8 bytes, and 5 characters.
+        assertEquals(3 * (20 + 10), hello.getWastedSize());
+
+        DuplicateGroup world = groups.get(1);
+        assertEquals("world", world.getDescription());
+        assertEquals(2, world.getCount());
+        assertEquals(20 + 10, world.getWastedSize());
+
+        groups = mHeap.getDuplicateStrings(1);
+        assertEquals(1, groups.size());
+        assertEquals("hello", groups.get(0).getDescription());
+        assertEquals(0, mHeap.getDuplicateStrings(0).size());
+    }
+
+    /** Check the duplicate bitmaps. */
+    public void testDuplicateBitmaps() throws IOException {
+        HprofWriter writer = createWriter(4);
+        byte[] pixels = new byte[101];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (byte) (i * 7);
+        }
+        writer.addByteArray(10, pixels);
+        writer.addByteArray(11, pixels.clone());
+        pixels[100]++;
+        writer.addByteArray(12, pixels);
+        writer.addInstance(20, BITMAP_CLASS, 10, 5, 20);
+        writer.addInstance(21, BITMAP_CLASS, 11, 5, 20);
+        writer.addInstance(22, BITMAP_CLASS, 12, 5, 20);
+        writer.write(mFile);
+
+        mHeap = HprofHeap.open(mFile, null, 1);
+        List<DuplicateGroup> groups = mHeap.getDuplicateBitmaps(10);
+        assertEquals(1, groups.size());
+        assertEquals("20x5", groups.get(0).getDescription());
+        assertEquals(2, groups.get(0).getCount());
+        assertEquals(101, groups.get(0).getWastedSize());
+        assertEquals(0, mHeap.getDuplicateStrings(10).size());
+    }
+
+    /**
+     * Check a long list, indexed with small pages and mappings so that the values span
+     * several of them, and with unsorted ids.
+     */
+    public void testLargeHeap() throws IOException {
+        MappedPages.sPageSize = 4096;
+        HprofBuffer.sMappingSize = 4096;
+        int count = 20000;
+
+        HprofWriter writer = createWriter(8);
+        writer.addRoot(1000 * 1000);
+        for (int i = 0; i < count; i++) {
+            // the ids decrease along the list.
+            long id = 1000 * 1000 - i;
+            writer.addInstance(id, NODE_CLASS, i == count - 1 ? 0 : id - 1, 0, i);
+            if (i % 1000 == 0) {
+                writer.endSegment();
+            }
+        }
+        writer.write(mFile);
+
+        mHeap = HprofHeap.open(mFile, null, 4);
+        assertEquals(count + 5, mHeap.getObjectCount());
+        for (int i = 1; i < count; i++) {
+            long id = 1000 * 1000 - i;
+            assertEquals(id + 1, mHeap.getDominator(id));
+            assertEquals(20L * (count - i), mHeap.getRetainedSize(id));
+        }
+        ClassHistogramEntry nodes = findEntry(mHeap.getClassHistogram(), "com.example.Node");
+        assertEquals(count, nodes.getInstanceCount());
+        assertEquals(20L * count, nodes.getRetainedSize());
+        assertEquals("com.example.Node", mHeap.getClassHistogram().get(0).getClassName());
+    }
+
+    /** Check that invalid files are reported. */
+    public void testInvalidFile() throws IOException {
+        HprofWriter writer = createWriter(4);
+        writer.addRoot(1);
+        writer.addRecord(new byte[] { 0x42 });
+        writer.write(mFile);
+        try {
+            HprofHeap.open(mFile, null, 1);
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+
+        writer = createWriter(4);
+        writer.addInstance(1, NODE_CLASS, 0, 0, 0);
+        writer.write(mFile);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(raf.length() - 10);
+        raf.close();
+        try {
+            HprofHeap.open(mFile, null, 1);
+            fail();
+        } catch (IOException e) {
+            // expected.
+        }
+    }
+
+    public void testJavaName() {
+        assertEquals("java.lang.String", HprofHeap.getJavaName("java/lang/String"));
+        assertEquals("java.lang.String[]", HprofHeap.getJavaName("[Ljava/lang/String;"));
+        assertEquals("int[][]", HprofHeap.getJavaName("[[I"));
+        assertEquals("byte[]", HprofHeap.getJavaName("byte[]"));
+    }
+}
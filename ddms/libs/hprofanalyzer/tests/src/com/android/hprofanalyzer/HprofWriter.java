@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.hprofanalyzer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes HPROF files for the tests, in the format converted by hprof-conv.
+ */
+class HprofWriter {
+    static final int TYPE_OBJECT = 2;
+    static final int TYPE_CHAR = 5;
+    static final int TYPE_BYTE = 8;
+    static final int TYPE_INT = 10;
+
+    private final int mIdSize;
+    private final ByteArrayOutputStream mRecords = new ByteArrayOutputStream();
+    private final DataOutputStream mRecordsOut = new DataOutputStream(mRecords);
+    private ByteArrayOutputStream mHeapDump = new ByteArrayOutputStream();
+    private DataOutputStream mHeapDumpOut = new DataOutputStream(mHeapDump);
+    private final Map<Long, int[]> mFieldTypes = new HashMap<Long, int[]>();
+    private final Map<Long, Long> mSuperIds = new HashMap<Long, Long>();
+    private long mNextStringId = 1000 * 1000;
+
+    HprofWriter(int idSize) {
+        mIdSize = idSize;
+    }
+
+    private void writeId(DataOutputStream out, long id) throws IOException {
+        if (mIdSize == 4) {
+            out.writeInt((int) id);
+        } else {
+            out.writeLong(id);
+        }
+    }
+
+    private void writeRecord(int tag, byte[] data) throws IOException {
+        mRecordsOut.writeByte(tag);
+        mRecordsOut.writeInt(0);
+        mRecordsOut.writeInt(data.length);
+        mRecordsOut.write(data);
+    }
+
+    /** Writes a string record, and returns the id of the string. */
+    long addString(String value) throws IOException {
+        long id = mNextStringId++;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        writeId(out, id);
+        out.write(value.getBytes("UTF-8"));
+        writeRecord(0x01, data.toByteArray());
+        return id;
+    }
+
+    /** Writes the load class record and the class dump of a class, which is a GC root. */
+    void addClass(long id, String name, long superId, String[] fieldNames, int[] fieldTypes,
+            long[] staticRefs) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        out.writeInt(1);
+        writeId(out, id);
+        out.writeInt(0);
+        writeId(out, addString(name));
+        writeRecord(0x02, data.toByteArray());
+
+        mFieldTypes.put(id, fieldTypes);
+        mSuperIds.put(id, superId);
+
+        mHeapDumpOut.writeByte(0x05);
+        writeId(mHeapDumpOut, id);
+
+        mHeapDumpOut.writeByte(0x20);
+        writeId(mHeapDumpOut, id);
+        mHeapDumpOut.writeInt(0);
+        writeId(mHeapDumpOut, superId);
+        for (int i = 0; i < 5; i++) {
+            writeId(mHeapDumpOut, 0);
+        }
+        mHeapDumpOut.writeInt(0);
+        // a constant, which is skipped.
+        mHeapDumpOut.writeShort(1);
+        mHeapDumpOut.writeShort(0);
+        mHeapDumpOut.writeByte(TYPE_INT);
+        mHeapDumpOut.writeInt(42);
+        mHeapDumpOut.writeShort(staticRefs.length + 1);
+        for (long ref : staticRefs) {
+            writeId(mHeapDumpOut, addString("sRef"));
+            mHeapDumpOut.writeByte(TYPE_OBJECT);
+            writeId(mHeapDumpOut, ref);
+        }
+        writeId(mHeapDumpOut, addString("sCount"));
+        mHeapDumpOut.writeByte(TYPE_INT);
+        mHeapDumpOut.writeInt(7);
+        mHeapDumpOut.writeShort(fieldNames.length);
+        for (int i = 0; i < fieldNames.length; i++) {
+            writeId(mHeapDumpOut, addString(fieldNames[i]));
+            mHeapDumpOut.writeByte(fieldTypes[i]);
+        }
+    }
+
+    /**
+     * Writes an instance dump. The values are the values of the fields of the class, then of
+     * the super classes.
+     */
+    void addInstance(long id, long classId, long... values) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(data);
+        int index = 0;
+        for (long c = classId; c != 0; c = mSuperIds.get(c)) {
+            for (int type : mFieldTypes.get(c)) {
+                long value = values[index++];
+                switch (type) {
+                    case TYPE_OBJECT:
+                        writeId(out, value);
+                        break;
+                    case TYPE_CHAR:
+                        out.writeChar((int) value);
+                        break;
+                    case TYPE_BYTE:
+                        out.writeByte((int) value);
+                        break;
+                    case TYPE_INT:
+                        out.writeInt((int) value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
+                }
+            }
+        }
+
+        mHeapDumpOut.writeByte(0x21);
+        writeId(mHeapDumpOut, id);
+        mHeapDumpOut.writeInt(0);
+        writeId(mHeapDumpOut, classId);
+        mHeapDumpOut.writeInt(data.size());
+        mHeapDumpOut.write(data.toByteArray());
+    }
+
+    void addObjectArray(long id, long classId, long... elements) throws IOException {
+        mHeapDumpOut.writeByte(0x22);
+        writeId(mHeapDumpOut, id);
+        mHeapDumpOut.writeInt(0);
+        mHeapDumpOut.writeInt(elements.length);
+        writeId(mHeapDumpOut, classId);
+        for (long element : elements) {
+            writeId(mHeapDumpOut, element);
+        }
+    }
+
+    void addCharArray(long id, String value) throws IOException {
+        mHeapDumpOut.writeByte(0x23);
+        writeId(mHeapDumpOut, id);
+        mHeapDumpOut.writeInt(0);
+        mHeapDumpOut.writeInt(value.length());
+        mHeapDumpOut.writeByte(TYPE_CHAR);
+        mHeapDumpOut.writeChars(value);
+    }
+
+    void addByteArray(long id, byte[] value) throws IOException {
+        mHeapDumpOut.writeByte(0x23);
+        writeId(mHeapDumpOut, id);
+        mHeapDumpOut.writeInt(0);
+        mHeapDumpOut.writeInt(value.length);
+        mHeapDumpOut.writeByte(TYPE_BYTE);
+        mHeapDumpOut.write(value);
+    }
+
+    /** Writes a JNI global root. */
+    void addRoot(long id) throws IOException {
+        mHeapDumpOut.writeByte(0x01);
+        writeId(mHeapDumpOut, id);
+        writeId(mHeapDumpOut, 0);
+    }
+
+    /** Writes a raw heap dump record. */
+    void addRecord(byte[] record) throws IOException {
+        mHeapDumpOut.write(record);
+    }
+
+    /** Ends the current heap dump segment, and starts a new one. */
+    void endSegment() throws IOException {
+        if (mHeapDump.size() > 0) {
+            writeRecord(0x1C, mHeapDump.toByteArray());
+        }
+        mHeapDump = new ByteArrayOutputStream();
+        mHeapDumpOut = new DataOutputStream(mHeapDump);
+    }
+
+    /** Writes the file. */
+    void write(File file) throws IOException {
+        endSegment();
+        writeRecord(0x2C, new byte[0]);
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.write("JAVA PROFILE 1.0.3".getBytes("US-ASCII"));
+            out.writeByte(0);
+            out.writeInt(mIdSize);
+            out.writeLong(0);
+            mRecords.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.android.ide.eclipse.ddms.preferences;
 
 import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.ComboFieldEditor;
+import org.eclipse.jface.preference.DirectoryFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
 import org.eclipse.jface.preference.FontFieldEditor;
 import org.eclipse.jface.preference.IntegerFieldEditor;
@@ -27,6 +28,7 @@ import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 import org.eclipse.ui.PlatformUI;
 
+import com.android.ddmuilib.logcat.LogCatArchive;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
 import com.android.ide.eclipse.ddms.DdmsPlugin;
@@ -61,6 +63,12 @@ public class LogCatPreferencePage extends FieldEditorPreferencePage implements
                 Messages.LogCatPreferencePage_MaxMessages, getFieldEditorParent());
         addField(mMaxMessages);
 
+        DirectoryFieldEditor archiveFolder = new DirectoryFieldEditor(
+                LogCatArchive.ARCHIVE_FOLDER_PREFKEY,
+                Messages.LogCatPreferencePage_ArchiveFolder, getFieldEditorParent());
+        archiveFolder.setEmptyStringAllowed(true);
+        addField(archiveFolder);
+
         ComboFieldEditor cfe = new ComboFieldEditor(PreferenceInitializer.ATTR_LOGCAT_GOTO_PROBLEM,
                 Messages.LogCatPreferencePage_Double_Click_Action, new String[][] {
                         {
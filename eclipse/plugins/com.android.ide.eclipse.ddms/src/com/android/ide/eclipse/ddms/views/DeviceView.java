@@ -25,7 +25,7 @@ import com.android.ddmlib.SyncException;
 import com.android.ddmlib.SyncService;
 import com.android.ddmlib.TimeoutException;
 import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
-import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpFileHandler;
 import com.android.ddmlib.ClientData.MethodProfilingStatus;
 import com.android.ddmlib.SyncService.ISyncProgressMonitor;
 import com.android.ddmuilib.DevicePanel;
@@ -95,7 +95,7 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
     private ImageDescriptor mTracingStartImage;
     private ImageDescriptor mTracingStopImage;
 
-    public class HProfHandler extends BaseFileHandler implements IHprofDumpHandler {
+    public class HProfHandler extends BaseFileHandler implements IHprofDumpFileHandler {
         public final static String ACTION_SAVE = "hprof.save"; //$NON-NLS-1$
         public final static String ACTION_OPEN = "hprof.open"; //$NON-NLS-1$
 
@@ -224,6 +224,34 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
             });
         }
 
+        public void onSuccess(final File hprofFile, final Client client) {
+            mParentShell.getDisplay().asyncExec(new Runnable() {
+                public void run() {
+                    // get from the preference what action to take
+                    IPreferenceStore store = DdmsPlugin.getDefault().getPreferenceStore();
+                    String value = store.getString(PreferenceInitializer.ATTR_HPROF_ACTION);
+
+                    if (ACTION_OPEN.equals(value)) {
+                        try {
+                            // the streamed file is converted into another temp file.
+                            open(hprofFile.getAbsolutePath());
+                        } catch (Exception e) {
+                            String errorMsg = e.getMessage();
+                            displayErrorFromUiThread(
+                                    Messages.DeviceView_Failed_To_Save_HPROF_Data,
+                                    errorMsg != null ? ":\n" + errorMsg : "."); //$NON-NLS-1$ //$NON-NLS-2$
+                        } finally {
+                            hprofFile.delete();
+                        }
+                    } else {
+                        // default action is ACTION_SAVE
+                        promptAndSave(client.getClientData().getClientDescription() + DOT_HPROF,
+                                hprofFile, Messages.DeviceView_Save_HPROF_File);
+                    }
+                }
+            });
+        }
+
         private void open(String path) throws IOException, InterruptedException, PartInitException {
             // make a temp file to convert the hprof into something
             // readable by normal tools
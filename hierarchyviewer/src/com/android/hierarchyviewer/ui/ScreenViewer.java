@@ -2,6 +2,7 @@ package com.android.hierarchyviewer.ui;
 
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.RawImage;
+import com.android.ddmlib.RawImageConverter;
 import com.android.hierarchyviewer.util.WorkerThread;
 import com.android.hierarchyviewer.scene.ViewNode;
 import com.android.hierarchyviewer.ui.util.PngFileFilter;
@@ -56,7 +57,7 @@ class ScreenViewer extends JPanel implements ActionListener {
 
     private GetScreenshotTask task;
     private BufferedImage image;
-    private int[] scanline;
+    private int[] pixels;
     private volatile boolean isLoading;
 
     private BufferedImage overlay;
@@ -685,17 +686,13 @@ class ScreenViewer extends JPanel implements ActionListener {
                             rawImage.height != image.getHeight()) {
                         image = new BufferedImage(rawImage.width, rawImage.height,
                                 BufferedImage.TYPE_INT_ARGB);
-                        scanline = new int[rawImage.width];
                         resize = true;
                     }
 
-                    switch (rawImage.bpp) {
-                        case 16:
-                            rawImage16toARGB(rawImage);
-                            break;
-                        case 32:
-                            rawImage32toARGB(rawImage);
-                            break;
+                    if (rawImage.bpp == 16 || rawImage.bpp == 32) {
+                        pixels = RawImageConverter.toARGB(rawImage, pixels);
+                        image.getRaster().setDataElements(0, 0, rawImage.width,
+                                rawImage.height, pixels);
                     }
                 }
             } finally {
@@ -705,77 +702,6 @@ class ScreenViewer extends JPanel implements ActionListener {
             return resize;
         }
         
-        private int getMask(int length) {
-            int res = 0;
-            for (int i = 0 ; i < length ; i++) {
-                res = (res << 1) + 1;
-            }
-    
-            return res;
-        }
-
-        private void rawImage32toARGB(RawImage rawImage) {
-            byte[] buffer = rawImage.data;
-            int index = 0;
-
-            final int redOffset = rawImage.red_offset;
-            final int redLength = rawImage.red_length;
-            final int redMask = getMask(redLength);
-            final int greenOffset = rawImage.green_offset;
-            final int greenLength = rawImage.green_length;
-            final int greenMask = getMask(greenLength);
-            final int blueOffset = rawImage.blue_offset;
-            final int blueLength = rawImage.blue_length;
-            final int blueMask = getMask(blueLength);
-            final int alphaLength = rawImage.alpha_length;
-            final int alphaOffset = rawImage.alpha_offset;
-            final int alphaMask = getMask(alphaLength);
-
-            for (int y = 0 ; y < rawImage.height ; y++) {
-                for (int x = 0 ; x < rawImage.width ; x++) {
-                    int value = buffer[index++] & 0x00FF;
-                    value |= (buffer[index++] & 0x00FF) << 8;
-                    value |= (buffer[index++] & 0x00FF) << 16;
-                    value |= (buffer[index++] & 0x00FF) << 24;
-
-                    int r = ((value >>> redOffset) & redMask) << (8 - redLength);
-                    int g = ((value >>> greenOffset) & greenMask) << (8 - greenLength);
-                    int b = ((value >>> blueOffset) & blueMask) << (8 - blueLength);
-                    int a = 0xFF;
-
-                    if (alphaLength != 0) {
-                        a = ((value >>> alphaOffset) & alphaMask) << (8 - alphaLength);
-                    }
-
-                    scanline[x] = a << 24 | r << 16 | g << 8 | b;
-                }
-
-                image.setRGB(0, y, rawImage.width, 1, scanline,
-                        0, rawImage.width);
-            }
-        }
-
-        private void rawImage16toARGB(RawImage rawImage) {
-            byte[] buffer = rawImage.data;
-            int index = 0;
-
-            for (int y = 0 ; y < rawImage.height ; y++) {
-                for (int x = 0 ; x < rawImage.width ; x++) {
-                    int value = buffer[index++] & 0x00FF;
-                    value |= (buffer[index++] << 8) & 0x0FF00;
-
-                    int r = ((value >> 11) & 0x01F) << 3;
-                    int g = ((value >> 5) & 0x03F) << 2;
-                    int b = ((value     ) & 0x01F) << 3;
-
-                    scanline[x] = 0xFF << 24 | r << 16 | g << 8 | b;
-                }
-
-                image.setRGB(0, y, rawImage.width, 1, scanline,
-                        0, rawImage.width);
-            }
-        }
-
         @Override
         protected void done() {
             workspace.endTask();
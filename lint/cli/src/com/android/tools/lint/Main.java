@@ -19,15 +19,23 @@ package com.android.tools.lint;
 import com.android.tools.lint.api.DetectorRegistry;
 import com.android.tools.lint.api.IDomParser;
 import com.android.tools.lint.api.Lint;
+import com.android.tools.lint.api.LintProfiler;
+import com.android.tools.lint.api.ResultCache;
 import com.android.tools.lint.api.ToolContext;
 import com.android.tools.lint.checks.BuiltinDetectorRegistry;
+import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.Position;
 import com.android.tools.lint.detector.api.Scope;
 import com.android.tools.lint.detector.api.Severity;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -54,6 +62,11 @@ public class Main implements ToolContext {
     private StringBuilder mOutput = new StringBuilder(2000);
     private boolean mFatal;
     private String mCommonPrefix;
+    private int mThreadCount = 1;
+    private File mCacheFile;
+    private boolean mProfile;
+    private File mProfileJsonFile;
+    private long mTimeBudget;
 
     /** Creates a CLI driver */
     public Main() {
@@ -118,6 +131,50 @@ public class Main implements ToolContext {
                     }
                     mEnabled.add(id);
                 }
+            } else if (arg.equals("--threads")) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing thread count");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+                String count = args[++index];
+                try {
+                    mThreadCount = Integer.parseInt(count);
+                } catch (NumberFormatException e) {
+                    mThreadCount = 0;
+                }
+                if (mThreadCount < 1) {
+                    System.err.println("Invalid thread count \"" + count + "\".");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+            } else if (arg.equals("--cache")) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing cache file");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+                mCacheFile = new File(args[++index]);
+            } else if (arg.equals("--profile")) {
+                mProfile = true;
+            } else if (arg.equals("--profile-json")) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing profile output file");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+                mProfileJsonFile = new File(args[++index]);
+            } else if (arg.equals("--budget")) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing time budget");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
+                String budget = args[++index];
+                try {
+                    mTimeBudget = Long.parseLong(budget);
+                } catch (NumberFormatException e) {
+                    mTimeBudget = 0;
+                }
+                if (mTimeBudget <= 0) {
+                    System.err.println("Invalid time budget \"" + budget + "\".");
+                    System.exit(ERRNO_INVALIDARGS);
+                }
             } else {
                 String filename = arg;
                 File file = new File(filename);
@@ -143,7 +200,35 @@ public class Main implements ToolContext {
         }
 
         Lint analyzer = new Lint(new BuiltinDetectorRegistry(), this, Scope.PROJECT);
+        analyzer.setThreadCount(mThreadCount);
+        if (mCacheFile != null) {
+            analyzer.setCache(new ResultCache(mCacheFile, registry));
+        }
+        LintProfiler profiler = null;
+        if (mProfile || mProfileJsonFile != null) {
+            profiler = new LintProfiler();
+            analyzer.setProfiler(profiler);
+        }
+        analyzer.setTimeBudget(mTimeBudget);
         analyzer.analyze(files);
+
+        if (profiler != null) {
+            writeProfile(profiler);
+        }
+        List<Detector> deferred = analyzer.getDeferredDetectors();
+        if (deferred.size() > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (Detector detector : deferred) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(detector.getClass().getSimpleName());
+            }
+            System.err.println(String.format(
+                    "Time budget of %1$d ms exceeded; skipped %2$s", mTimeBudget,
+                    sb.toString()));
+        }
+
         if (mOutput.length() == 0) {
             System.out.println("No warnings.");
             System.exit(0); // Success error code
@@ -155,6 +240,29 @@ public class Main implements ToolContext {
         }
     }
 
+    private void writeProfile(LintProfiler profiler) {
+        if (mProfile) {
+            profiler.writeText(new OutputStreamWriter(System.out));
+        }
+        if (mProfileJsonFile != null) {
+            Writer writer = null;
+            try {
+                writer = new BufferedWriter(new FileWriter(mProfileJsonFile));
+                profiler.writeJson(writer);
+            } catch (IOException e) {
+                log(e, "Could not write %1$s", mProfileJsonFile.getPath());
+            } finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    } catch (IOException e) {
+                        // pass
+                    }
+                }
+            }
+        }
+    }
+
     private void displayValidIds(DetectorRegistry registry) {
         List<Issue> issues = registry.getIssues();
         System.err.println("Valid issue ids:");
@@ -165,7 +273,9 @@ public class Main implements ToolContext {
 
     private static void printUsage() {
         // TODO: Look up launcher script name!
-        System.err.println("Usage: lint [--suppress ids] [--enable ids] <project | file> ...");
+        System.err.println("Usage: lint [--suppress ids] [--enable ids] [--threads count] " +
+                "[--cache file] [--profile] [--profile-json file] [--budget ms] " +
+                "<project | file> ...");
     }
 
     private static String getCommonPrefix(String a, String b) {
@@ -16,7 +16,7 @@
 
 package com.android.tools.lint;
 
-import com.android.tools.lint.api.IDomParser;
+import com.android.tools.lint.api.IStreamingParser;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Position;
 
@@ -30,9 +30,15 @@ import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLFilterImpl;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 
 import javax.xml.transform.Transformer;
@@ -42,8 +48,12 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.sax.SAXSource;
 
-/** A simple XML parser which can store and retrieve line:column information for the nodes */
-public class PositionXmlParser implements IDomParser {
+/**
+ * A simple XML parser which can store and retrieve line:column information for
+ * the nodes. It can also stream the elements of a file with their positions,
+ * without building a DOM.
+ */
+public class PositionXmlParser implements IStreamingParser {
     private static final String ATTR_LOCATION = "location";                     //$NON-NLS-1$
     private static final String PRIVATE_NAMESPACE = "http://tools.android.com"; //$NON-NLS-1$
     private static final String PRIVATE_PREFIX = "temp";                        //$NON-NLS-1$
@@ -69,6 +79,68 @@ public class PositionXmlParser implements IDomParser {
         return null;
     }
 
+    public boolean parse(Context context, ElementHandler handler) {
+        // Read the file itself rather than Context#getContents(), which would keep
+        // the whole text in memory. This also lets the parser detect the encoding.
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(context.file));
+            XMLReader reader = XMLReaderFactory.createXMLReader();
+            reader.setContentHandler(new StreamHandler(handler));
+            reader.parse(new InputSource(stream));
+            return true;
+        } catch (FileNotFoundException e) {
+            // Unreadable files are reported as not parsed, as empty contents are
+            return false;
+        } catch (SAXException e) {
+            // The file doesn't parse: not an exception. Infrastructure will log a warning
+            // that this file was not analyzed.
+            return false;
+        } catch (IOException e) {
+            context.toolContext.log(e, null);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    context.toolContext.log(e, null);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /** Passes the elements on to an {@link ElementHandler} along with their positions */
+    private static class StreamHandler extends DefaultHandler {
+        private final ElementHandler mHandler;
+        private Locator mLocator;
+
+        StreamHandler(ElementHandler handler) {
+            mHandler = handler;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            mLocator = locator;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qualifiedName,
+                Attributes attributes) throws SAXException {
+            // Same line:column convention as the positions recorded by the Filter
+            Position position = new OffsetPosition(mLocator.getLineNumber(),
+                    mLocator.getColumnNumber(), -1);
+            mHandler.startElement(qualifiedName, attributes, position);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qualifiedName)
+                throws SAXException {
+            mHandler.endElement(qualifiedName);
+        }
+    }
+
     private static class Filter extends XMLFilterImpl {
         private Locator mLocator;
 
@@ -3,3 +3,4 @@
 CHECKERLIBS_LOCAL_DIR := $(call my-dir)
 include $(CHECKERLIBS_LOCAL_DIR)/lint_api/Android.mk
 include $(CHECKERLIBS_LOCAL_DIR)/lint_checks/Android.mk
+include $(CHECKERLIBS_LOCAL_DIR)/lint_benchmarks/Android.mk
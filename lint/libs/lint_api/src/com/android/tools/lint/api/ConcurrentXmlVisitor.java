@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs XML detectors on a set of files using a pool of worker threads.
+ * <p>
+ * Each file is parsed on a worker thread. The detectors which are
+ * {@link Detector#isThreadSafe() thread safe} are then run on the same worker
+ * thread, except for {@link Detector#afterCheckFile}. The remaining work for
+ * each file (calling {@link Detector#afterCheckFile} on the thread safe
+ * detectors, and running all the other detectors) is performed on the calling
+ * thread, in the same order as the files were passed in.
+ * <p>
+ * Issues reported while checking a file are buffered and delivered to the
+ * {@link ToolContext} once the file has been fully processed, so the report
+ * order only depends on the order of the files, not on the thread scheduling.
+ * <p>
+ * When a {@link ResultCache} is in use, files are hashed on the worker threads,
+ * and the cached results for unchanged files are replayed in file order as
+ * well.
+ * <p>
+ * Only a bounded number of files are in flight at any given time, such that
+ * the number of parsed documents kept in memory does not grow with the size
+ * of the project.
+ */
+class ConcurrentXmlVisitor {
+    /** Number of files queued up per worker thread */
+    private static final int FILES_PER_THREAD = 2;
+
+    private final Lint mLint;
+    private final ExecutorService mExecutor;
+    private final int mMaxPending;
+    private final List<ResourceXmlDetector> mDetectors;
+    /** Visitor for the thread safe detectors, or null if there are none */
+    private final XmlVisitor mConcurrentVisitor;
+    /** Visitor for the detectors that must be called from a single thread, or null */
+    private final XmlVisitor mSerialVisitor;
+
+    ConcurrentXmlVisitor(Lint lint, ExecutorService executor, int threadCount,
+            List<ResourceXmlDetector> detectors, LintProfiler profiler,
+            ResourceFolderType folderType) {
+        mLint = lint;
+        mExecutor = executor;
+        mMaxPending = threadCount * FILES_PER_THREAD;
+        mDetectors = detectors;
+
+        List<ResourceXmlDetector> concurrent =
+                new ArrayList<ResourceXmlDetector>(detectors.size());
+        List<ResourceXmlDetector> serial = new ArrayList<ResourceXmlDetector>(detectors.size());
+        for (ResourceXmlDetector detector : detectors) {
+            if (detector.isThreadSafe()) {
+                concurrent.add(detector);
+            } else {
+                serial.add(detector);
+            }
+        }
+
+        IDomParser parser = lint.getToolContext().getParser();
+        mConcurrentVisitor = concurrent.size() > 0
+                ? new XmlVisitor(parser, concurrent, profiler, folderType) : null;
+        mSerialVisitor = serial.size() > 0
+                ? new XmlVisitor(parser, serial, profiler, folderType) : null;
+    }
+
+    /**
+     * Checks the given XML files. Returns when all the files have been
+     * processed, or when the lint run has been canceled.
+     *
+     * @param files the XML files to check
+     */
+    void visitFiles(List<File> files) {
+        LinkedList<FileTask> pending = new LinkedList<FileTask>();
+        Iterator<File> iterator = files.iterator();
+        while (pending.size() < mMaxPending && iterator.hasNext()) {
+            pending.add(submit(iterator.next()));
+        }
+
+        try {
+            while (!pending.isEmpty()) {
+                FileTask task = pending.removeFirst();
+                finish(task);
+
+                if (mLint.isCanceled()) {
+                    return;
+                }
+
+                if (iterator.hasNext()) {
+                    pending.add(submit(iterator.next()));
+                }
+            }
+        } finally {
+            for (FileTask task : pending) {
+                task.mFuture.cancel(true);
+            }
+        }
+    }
+
+    private FileTask submit(File file) {
+        FileTask task = new FileTask(file);
+        task.mFuture = mExecutor.submit(task);
+        return task;
+    }
+
+    /** Waits for the worker part of the given task and runs the remaining work */
+    private void finish(FileTask task) {
+        boolean parsed = false;
+        try {
+            parsed = task.mFuture.get().booleanValue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mLint.cancel();
+            return;
+        } catch (ExecutionException e) {
+            mLint.getToolContext().log(e.getCause(), "Unexpected failure analyzing %1$s",
+                    task.mFile.getPath());
+        }
+
+        if (task.mCacheEntry != null) {
+            mLint.replayCachedFile(task.mCacheEntry, mDetectors, task.mFile);
+            return;
+        }
+
+        Context context = task.mContext;
+        if (parsed) {
+            if (mConcurrentVisitor != null) {
+                mConcurrentVisitor.afterCheckFile(context);
+            }
+            if (mSerialVisitor != null) {
+                mSerialVisitor.visit(context);
+                mSerialVisitor.afterCheckFile(context);
+            }
+            if (task.mHash != null) {
+                mLint.cacheFile(context, task.mHash, task.mBuffer, mDetectors);
+            }
+        }
+
+        task.mBuffer.flush();
+    }
+
+    /**
+     * Parses (or streams, if there are only thread safe streaming detectors)
+     * a single file and runs the thread safe detectors on it. Returns
+     * true if the file was successfully parsed, and false if it was skipped
+     * (or if it has not changed since it was cached).
+     */
+    private class FileTask implements Callable<Boolean> {
+        private final File mFile;
+        private final ReportBuffer mBuffer;
+        private final Context mContext;
+        private Future<Boolean> mFuture;
+        private String mHash;
+        private ResultCache.Entry mCacheEntry;
+
+        FileTask(File file) {
+            mFile = file;
+            mBuffer = new ReportBuffer(mLint.getToolContext());
+            mContext = new Context(mBuffer, file);
+        }
+
+        public Boolean call() throws Exception {
+            if (mLint.isCanceled()) {
+                return Boolean.FALSE;
+            }
+
+            ResultCache cache = mLint.getCache();
+            if (cache != null) {
+                mHash = ResultCache.hash(mFile);
+                if (mHash != null) {
+                    mCacheEntry = cache.get(mFile, mHash);
+                    if (mCacheEntry != null) {
+                        return Boolean.FALSE;
+                    }
+                }
+            }
+
+            // Tool contexts hand out a new parser on each call, so each file gets
+            // its own parser rather than sharing one between threads
+            IDomParser parser = mLint.getToolContext().getParser();
+            if (mSerialVisitor == null && mConcurrentVisitor.canStream(parser)) {
+                return Boolean.valueOf(
+                        mConcurrentVisitor.stream(mContext, mFile, (IStreamingParser) parser));
+            }
+
+            XmlVisitor visitor = mConcurrentVisitor != null ? mConcurrentVisitor : mSerialVisitor;
+            if (!visitor.parseFile(mContext, mFile, parser)) {
+                return Boolean.FALSE;
+            }
+
+            if (mConcurrentVisitor != null) {
+                mConcurrentVisitor.visit(mContext);
+            }
+
+            return Boolean.TRUE;
+        }
+    }
+}
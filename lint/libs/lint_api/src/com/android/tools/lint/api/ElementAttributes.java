@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.xml.sax.Attributes;
+
+/**
+ * Presents the attributes of a DOM element as SAX {@link Attributes}, such
+ * that streaming detectors can be run on files which have been parsed into a
+ * DOM anyway. A single instance is reused for all the elements of a document.
+ */
+class ElementAttributes implements Attributes {
+    private static final String CDATA = "CDATA"; //$NON-NLS-1$
+
+    private NamedNodeMap mAttributes;
+
+    /**
+     * Points this adapter to the attributes of the given element
+     *
+     * @param element the element whose attributes should be presented
+     * @return this, for convenience
+     */
+    ElementAttributes reset(Element element) {
+        mAttributes = element.getAttributes();
+        return this;
+    }
+
+    private Attr item(int index) {
+        if (index < 0 || index >= mAttributes.getLength()) {
+            return null;
+        }
+        return (Attr) mAttributes.item(index);
+    }
+
+    private static String nonNull(String s) {
+        return s != null ? s : ""; //$NON-NLS-1$
+    }
+
+    public int getLength() {
+        return mAttributes.getLength();
+    }
+
+    public String getURI(int index) {
+        Attr attr = item(index);
+        return attr != null ? nonNull(attr.getNamespaceURI()) : null;
+    }
+
+    public String getLocalName(int index) {
+        Attr attr = item(index);
+        if (attr == null) {
+            return null;
+        }
+        String name = attr.getLocalName();
+        return name != null ? name : attr.getName();
+    }
+
+    public String getQName(int index) {
+        Attr attr = item(index);
+        return attr != null ? attr.getName() : null;
+    }
+
+    public String getType(int index) {
+        return item(index) != null ? CDATA : null;
+    }
+
+    public String getValue(int index) {
+        Attr attr = item(index);
+        return attr != null ? attr.getValue() : null;
+    }
+
+    public int getIndex(String uri, String localName) {
+        for (int i = 0, n = mAttributes.getLength(); i < n; i++) {
+            if (localName.equals(getLocalName(i)) && uri.equals(getURI(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getIndex(String qName) {
+        for (int i = 0, n = mAttributes.getLength(); i < n; i++) {
+            if (qName.equals(((Attr) mAttributes.item(i)).getName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getType(String uri, String localName) {
+        return getType(getIndex(uri, localName));
+    }
+
+    public String getType(String qName) {
+        return getType(getIndex(qName));
+    }
+
+    public String getValue(String uri, String localName) {
+        return getValue(getIndex(uri, localName));
+    }
+
+    public String getValue(String qName) {
+        return getValue(getIndex(qName));
+    }
+}
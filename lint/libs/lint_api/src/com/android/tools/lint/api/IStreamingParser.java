@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+
+import org.xml.sax.Attributes;
+
+/**
+ * An {@link IDomParser} which can also deliver the elements of a file as a
+ * stream of events, without building a DOM. Lint uses this for files where all
+ * the applicable detectors are {@link ResourceXmlDetector#isStreaming()
+ * streaming} detectors.
+ * <p/>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+public interface IStreamingParser extends IDomParser {
+    /**
+     * Parses the file pointed to by the given context, and passes each element
+     * to the given handler as it is read
+     *
+     * @param context the context pointing to the file to be parsed
+     * @param handler the handler to notify
+     * @return true if the file was parsed successfully, false if parsing
+     *         failed (in which case the handler may have seen some of the
+     *         elements)
+     */
+    public boolean parse(Context context, ElementHandler handler);
+
+    /** Receives the elements of a file parsed by an {@link IStreamingParser} */
+    public interface ElementHandler {
+        /**
+         * An element start tag was read
+         *
+         * @param tag the qualified tag name of the element
+         * @param attributes the attributes of the element, only valid during
+         *            this call
+         * @param position the position of the start tag
+         */
+        void startElement(String tag, Attributes attributes, Position position);
+
+        /**
+         * An element end tag was read
+         *
+         * @param tag the qualified tag name of the element
+         */
+        void endElement(String tag);
+    }
+}
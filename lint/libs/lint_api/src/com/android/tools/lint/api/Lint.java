@@ -24,11 +24,20 @@ import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.ResourceXmlDetector;
 import com.android.tools.lint.detector.api.Scope;
 import com.android.tools.lint.detector.api.Severity;
+import com.android.tools.lint.detector.api.Speed;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** Analyzes Android projects and files */
 public class Lint {
@@ -37,6 +46,14 @@ public class Lint {
     private volatile boolean mCanceled;
     private DetectorRegistry mRegistry;
     private Scope mScope;
+    private int mThreadCount = 1;
+    private ExecutorService mExecutor;
+    private ResultCache mCache;
+    private LintProfiler mProfiler;
+    private long mTimeBudget;
+    /** When running a time budgeted analysis, the speed of the detectors to run */
+    private Speed mSpeed;
+    private final List<Detector> mDeferred = new ArrayList<Detector>();
 
     /**
      * Creates a new {@link Lint}
@@ -59,6 +76,82 @@ public class Lint {
         mCanceled = true;
     }
 
+    /**
+     * Returns true if the current lint run has been canceled
+     *
+     * @return true if the lint run has been canceled
+     */
+    boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Sets the number of threads to use when analyzing XML files. With a
+     * thread count of 1 (the default) all work is done on the thread calling
+     * {@link #analyze(List)}. With more threads, files are parsed and checked
+     * on a pool of worker threads; see {@link Detector#isThreadSafe()} for the
+     * implications for detectors. Issues are reported in the same order
+     * regardless of the number of threads.
+     *
+     * @param threadCount the number of worker threads, at least 1
+     */
+    public void setThreadCount(int threadCount) {
+        assert threadCount >= 1 : threadCount;
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Sets the cache to use for incremental analysis. Files that have not
+     * changed since the cache was written are not parsed or checked again;
+     * instead the cached issues are reported. The cache is written back to
+     * disk at the end of {@link #analyze(List)}.
+     *
+     * @param cache the cache to use, or null to check all files
+     */
+    public void setCache(ResultCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Sets a profiler to record the time spent in each detector, per resource
+     * folder type. Profiling adds some overhead to every detector callback.
+     *
+     * @param profiler the profiler to record timing information in, or null
+     */
+    public void setProfiler(LintProfiler profiler) {
+        mProfiler = profiler;
+    }
+
+    /**
+     * Sets a time budget for the analysis, such as the latency an IDE can
+     * tolerate. When a budget is set, the detectors are run in order of their
+     * declared {@link Speed}: first all the {@link Speed#FAST} detectors, then
+     * the {@link Speed#NORMAL} ones and finally the {@link Speed#SLOW} ones,
+     * each group in its own pass over the files. Once the budget has been
+     * used up, the remaining groups are not run; they can be looked up with
+     * {@link #getDeferredDetectors()} and scheduled later. A group that has
+     * been started is always completed, such that project wide detectors do
+     * not see a partial project.
+     * <p>
+     * The result cache (see {@link #setCache(ResultCache)}) is not used when
+     * running with a time budget.
+     *
+     * @param budgetMs the time budget in milliseconds, or 0 for no budget
+     */
+    public void setTimeBudget(long budgetMs) {
+        mTimeBudget = budgetMs;
+    }
+
+    /**
+     * Returns the detectors that were not run by the last call to
+     * {@link #analyze(List)} because the time budget had been used up
+     *
+     * @return a list of detectors, never null
+     */
+    public List<Detector> getDeferredDetectors() {
+        return Collections.unmodifiableList(new ArrayList<Detector>(mDeferred));
+    }
+
     /**
      * Analyze the given file (which can point to an Android project). Issues found
      * are reported to the associated {@link ToolContext}.
@@ -66,6 +159,61 @@ public class Lint {
      * @param files the files and directories to be analyzed
      */
     public void analyze(List<File> files) {
+        if (mThreadCount > 1) {
+            mExecutor = Executors.newFixedThreadPool(mThreadCount, new WorkerThreadFactory());
+        }
+        mDeferred.clear();
+        try {
+            if (mTimeBudget > 0) {
+                checkFilesWithBudget(files);
+                return;
+            }
+
+            checkFiles(files);
+
+            if (mCache != null && !mCanceled) {
+                try {
+                    mCache.save();
+                } catch (IOException e) {
+                    mToolContext.log(e, "Could not write lint cache");
+                }
+            }
+        } finally {
+            if (mExecutor != null) {
+                mExecutor.shutdownNow();
+                mExecutor = null;
+            }
+            mCurrentFolderType = null;
+            mCurrentXmlDetectors = null;
+            mCurrentVisitor = null;
+            mCurrentConcurrentVisitor = null;
+            mSpeed = null;
+        }
+    }
+
+    /** Checks the files in one pass per detector speed, until the budget runs out */
+    private void checkFilesWithBudget(List<File> files) {
+        long start = System.currentTimeMillis();
+        for (Speed speed : Speed.values()) {
+            if (mCanceled) {
+                return;
+            }
+            if (System.currentTimeMillis() - start >= mTimeBudget) {
+                for (Detector detector : getEnabledDetectors()) {
+                    if (detector.getSpeed().compareTo(speed) >= 0) {
+                        mDeferred.add(detector);
+                    }
+                }
+                return;
+            }
+
+            mSpeed = speed;
+            checkFiles(files);
+        }
+    }
+
+    /** Returns the detectors that are within the scope and have an enabled issue */
+    private List<Detector> getEnabledDetectors() {
         List<? extends Detector> availableChecks = mRegistry.getDetectors();
 
         // Filter out disabled checks
@@ -83,6 +231,27 @@ public class Lint {
             }
         }
 
+        return checks;
+    }
+
+    private void checkFiles(List<File> files) {
+        List<Detector> checks = getEnabledDetectors();
+        if (mSpeed != null) {
+            List<Detector> filtered = new ArrayList<Detector>(checks.size());
+            for (Detector check : checks) {
+                if (check.getSpeed() == mSpeed) {
+                    filtered.add(check);
+                }
+            }
+            checks = filtered;
+        }
+
+        // Visitors are specific to the set of detectors being run
+        mCurrentFolderType = null;
+        mCurrentXmlDetectors = null;
+        mCurrentVisitor = null;
+        mCurrentConcurrentVisitor = null;
+
         // Process XML files in a single pass
         List<ResourceXmlDetector> xmlChecks = new ArrayList<ResourceXmlDetector>(checks.size());
         List<Detector> other = new ArrayList<Detector>(checks.size());
@@ -95,6 +264,11 @@ public class Lint {
             }
         }
 
+        ResultCache cache = getCache();
+        if (cache != null) {
+            cache.load(getConfigurationKey(checks));
+        }
+
         Context projectContext = new Context(mToolContext, null);
         for (Detector check : checks) {
             check.beforeCheckProject(projectContext);
@@ -132,8 +306,7 @@ public class Lint {
                     if (type != null) {
                         XmlVisitor visitor = getVisitor(xmlChecks, type);
                         if (visitor != null) {
-                            Context context = new Context(mToolContext, file);
-                            visitor.visitFile(context, file);
+                            checkXmlFile(visitor, file);
                         }
                     }
                 } else {
@@ -176,6 +349,7 @@ public class Lint {
     private ResourceFolderType mCurrentFolderType;
     private List<ResourceXmlDetector> mCurrentXmlDetectors;
     private XmlVisitor mCurrentVisitor;
+    private ConcurrentXmlVisitor mCurrentConcurrentVisitor;
 
     private XmlVisitor getVisitor(List<ResourceXmlDetector> checks, ResourceFolderType type) {
         if (type != mCurrentFolderType) {
@@ -191,16 +365,25 @@ public class Lint {
             }
 
             // If the list of detectors hasn't changed, then just use the current visitor!
-            if (mCurrentXmlDetectors != null && mCurrentXmlDetectors.equals(applicableChecks)) {
+            // (unless profiling, since the profiling data is recorded per folder type)
+            if (mCurrentXmlDetectors != null && mCurrentXmlDetectors.equals(applicableChecks)
+                    && mProfiler == null) {
                 return mCurrentVisitor;
             }
 
+            mCurrentXmlDetectors = applicableChecks;
             if (applicableChecks.size() == 0) {
                 mCurrentVisitor = null;
+                mCurrentConcurrentVisitor = null;
                 return null;
             }
 
-            mCurrentVisitor = new XmlVisitor(mToolContext.getParser(), applicableChecks);
+            mCurrentVisitor = new XmlVisitor(mToolContext.getParser(), applicableChecks,
+                    mProfiler, type);
+            if (mExecutor != null) {
+                mCurrentConcurrentVisitor = new ConcurrentXmlVisitor(this, mExecutor,
+                        mThreadCount, applicableChecks, mProfiler, type);
+            }
         }
 
         return mCurrentVisitor;
@@ -239,12 +422,24 @@ public class Lint {
         // Process the resource folder
         File[] xmlFiles = dir.listFiles();
         if (xmlFiles != null && xmlFiles.length > 0) {
+            // Sort such that issues are reported in the same order on all platforms
+            Arrays.sort(xmlFiles);
             XmlVisitor visitor = getVisitor(xmlChecks, type);
             if (visitor != null) { // if not, there are no applicable rules in this folder
+                if (mCurrentConcurrentVisitor != null) {
+                    List<File> files = new ArrayList<File>(xmlFiles.length);
+                    for (File xmlFile : xmlFiles) {
+                        if (ResourceXmlDetector.isXmlFile(xmlFile)) {
+                            files.add(xmlFile);
+                        }
+                    }
+                    mCurrentConcurrentVisitor.visitFiles(files);
+                    return;
+                }
+
                 for (File xmlFile : xmlFiles) {
                     if (ResourceXmlDetector.isXmlFile(xmlFile)) {
-                        Context context = new Context(mToolContext, xmlFile);
-                        visitor.visitFile(context, xmlFile);
+                        checkXmlFile(visitor, xmlFile);
                         if (mCanceled) {
                             return;
                         }
@@ -254,6 +449,116 @@ public class Lint {
         }
     }
 
+    /** Checks a single XML file, using the result cache if possible */
+    private void checkXmlFile(XmlVisitor visitor, File file) {
+        ResultCache cache = getCache();
+        if (cache == null) {
+            Context context = new Context(mToolContext, file);
+            visitor.visitFile(context, file);
+            return;
+        }
+
+        String hash = ResultCache.hash(file);
+        ResultCache.Entry entry = hash != null ? cache.get(file, hash) : null;
+        if (entry != null) {
+            replayCachedFile(entry, visitor.getDetectors(), file);
+            return;
+        }
+
+        ReportBuffer buffer = new ReportBuffer(mToolContext);
+        Context context = new Context(buffer, file);
+        if (visitor.visitFile(context, file) && hash != null) {
+            cacheFile(context, hash, buffer, visitor.getDetectors());
+        }
+        buffer.flush();
+    }
+
+    /**
+     * Returns the cache used for incremental analysis, if any
+     *
+     * @return the cache, or null
+     */
+    ResultCache getCache() {
+        // Cached results cover all the detectors, not a subset of a given speed
+        return mSpeed == null ? mCache : null;
+    }
+
+    /**
+     * Reports the cached issues for an unchanged file, and hands the cached
+     * per-file summaries back to the detectors
+     *
+     * @param entry the cache entry for the file
+     * @param detectors the detectors which apply to the file
+     * @param file the unchanged file
+     */
+    void replayCachedFile(ResultCache.Entry entry, List<ResourceXmlDetector> detectors,
+            File file) {
+        if (entry.hasSummaries()) {
+            // Any issues reported by afterCheckFile are already part of the cached
+            // issues, so they are discarded here
+            Context context = new Context(new ReportBuffer(mToolContext), file);
+            for (ResourceXmlDetector detector : detectors) {
+                String summary = entry.getSummary(detector.getClass().getName());
+                if (summary != null) {
+                    detector.restoreFileSummary(context, summary);
+                    detector.afterCheckFile(context);
+                }
+            }
+        }
+
+        entry.replay(mToolContext, file);
+    }
+
+    /**
+     * Stores the issues and detector summaries for a file that was just checked
+     * in the cache, unless one of the detectors does not support incremental
+     * analysis
+     *
+     * @param context the context the file was checked with
+     * @param hash the content hash of the file
+     * @param buffer the buffer holding the issues reported for the file
+     * @param detectors the detectors which were run on the file
+     */
+    void cacheFile(Context context, String hash, ReportBuffer buffer,
+            List<ResourceXmlDetector> detectors) {
+        ResultCache cache = getCache();
+        if (cache == null) {
+            return;
+        }
+
+        Map<String, String> summaries = new HashMap<String, String>();
+        for (ResourceXmlDetector detector : detectors) {
+            String summary = detector.getFileSummary(context);
+            if (summary != null) {
+                summaries.put(detector.getClass().getName(), summary);
+            } else if (detector.getScope() != Scope.SINGLE_FILE) {
+                return;
+            }
+        }
+
+        cache.put(context.file, hash, buffer.getReports(), summaries);
+    }
+
+    /**
+     * Returns a key identifying the set of enabled detectors and issues, such
+     * that cached results are not reused when the configuration changes
+     */
+    private String getConfigurationKey(List<Detector> checks) {
+        List<String> names = new ArrayList<String>();
+        for (Detector check : checks) {
+            StringBuilder sb = new StringBuilder(check.getClass().getName());
+            for (Issue issue : check.getIssues()) {
+                if (mToolContext.isEnabled(issue)) {
+                    sb.append(',').append(issue.getId());
+                }
+            }
+            names.add(sb.toString());
+        }
+        Collections.sort(names);
+
+        return names.toString();
+    }
+
     /**
      * Returns the associated tool context for the surrounding tool that is
      * embedding lint analysis
@@ -263,4 +568,16 @@ public class Lint {
     public ToolContext getToolContext() {
         return mToolContext;
     }
+
+    /** Creates the daemon worker threads used for concurrent analysis */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "Lint worker " + mCount.incrementAndGet()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.detector.api.Detector;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects timing information for a lint run: the wall time, the number of
+ * callbacks and (where the JVM supports it) the number of bytes allocated by
+ * each detector, broken down by resource folder type, as well as the time
+ * spent parsing the files in each folder type.
+ * <p>
+ * Install the profiler with {@link Lint#setProfiler(LintProfiler)}, and print
+ * the results with {@link #writeText(Writer)} or {@link #writeJson(Writer)}.
+ * <p/>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+public class LintProfiler {
+    /** Name used in the report for the time spent parsing files */
+    private static final String PARSER = "<parser>"; //$NON-NLS-1$
+    private static final String NO_FOLDER = "-"; //$NON-NLS-1$
+
+    private final Map<String, Stats> mStats = new HashMap<String, Stats>();
+
+    /** Whether this JVM can report the number of bytes allocated by a thread */
+    private static final boolean sMeasuringAllocations;
+    static {
+        boolean supported = false;
+        try {
+            supported = AllocationCounter.isSupported();
+        } catch (Throwable t) {
+            // NoClassDefFoundError on JVMs without com.sun.management
+        }
+        sMeasuringAllocations = supported;
+    }
+
+    /**
+     * Calls {@code com.sun.management.ThreadMXBean} directly, since a reflective
+     * call would allocate on every measurement. On JVMs without it, loading
+     * this class fails in the static initializer of the profiler, and the class
+     * is not used again.
+     */
+    private static final class AllocationCounter {
+        private static final ThreadMXBean sThreadBean = ManagementFactory.getThreadMXBean();
+
+        static boolean isSupported() {
+            return sThreadBean instanceof com.sun.management.ThreadMXBean
+                    && getCurrentThreadAllocatedBytes() >= 0;
+        }
+
+        static long getCurrentThreadAllocatedBytes() {
+            return ((com.sun.management.ThreadMXBean) sThreadBean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+    }
+
+    /** Creates a new profiler */
+    public LintProfiler() {
+    }
+
+    /**
+     * Returns true if this JVM can report the number of bytes allocated, in
+     * which case {@link Stats#getAllocatedBytes()} is meaningful
+     *
+     * @return true if allocations are measured
+     */
+    public static boolean isMeasuringAllocations() {
+        return sMeasuringAllocations;
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or 0
+     * if {@link #isMeasuringAllocations()} is false
+     *
+     * @return the number of bytes allocated by the current thread
+     */
+    public static long getCurrentThreadAllocatedBytes() {
+        if (sMeasuringAllocations) {
+            return AllocationCounter.getCurrentThreadAllocatedBytes();
+        }
+
+        return 0;
+    }
+
+    /** Discards all the data collected so far */
+    public synchronized void reset() {
+        mStats.clear();
+    }
+
+    /**
+     * Returns the (live) statistics for the given detector in the given
+     * folder type, creating it if necessary
+     */
+    synchronized Stats getStats(Detector detector, ResourceFolderType folderType) {
+        return getStats(detector.getClass().getSimpleName(), detector.getSpeed().name(),
+                folderType);
+    }
+
+    /** Returns the (live) statistics for parsing files in the given folder type */
+    synchronized Stats getParserStats(ResourceFolderType folderType) {
+        return getStats(PARSER, NO_FOLDER, folderType);
+    }
+
+    private Stats getStats(String name, String speed, ResourceFolderType folderType) {
+        String folder = folderType != null ? folderType.getName() : NO_FOLDER;
+        String key = name + ':' + folder;
+        Stats stats = mStats.get(key);
+        if (stats == null) {
+            stats = new Stats(name, folder, speed);
+            mStats.put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics collected so far, most expensive first
+     *
+     * @return a list of statistics, never null
+     */
+    public synchronized List<Stats> getStats() {
+        List<Stats> list = new ArrayList<Stats>(mStats.values());
+        Collections.sort(list, new Comparator<Stats>() {
+            public int compare(Stats s1, Stats s2) {
+                long delta = s2.getNanos() - s1.getNanos();
+                if (delta != 0) {
+                    return delta > 0 ? 1 : -1;
+                }
+                int nameDelta = s1.getName().compareTo(s2.getName());
+                if (nameDelta != 0) {
+                    return nameDelta;
+                }
+                return s1.getFolderType().compareTo(s2.getFolderType());
+            }
+        });
+        return list;
+    }
+
+    /**
+     * Writes a human readable report, as a table with one line per detector
+     * and folder type
+     *
+     * @param writer the writer to write the report to
+     */
+    public void writeText(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        String format = "%1$-32s %2$-10s %3$-7s %4$7s %5$10s %6$10s %7$10s %8$12s%n"; //$NON-NLS-1$
+        out.printf(format, "Detector", "Folder", "Speed", "Files", "Time (ms)", "Elements",
+                "Attributes", "Alloc (KB)");
+        long total = 0;
+        for (Stats stats : getStats()) {
+            total += stats.getNanos();
+            out.printf(format, stats.getName(), stats.getFolderType(), stats.getSpeed(),
+                    Long.toString(stats.getFiles()),
+                    String.format("%1$.1f", stats.getNanos() / 1e6), //$NON-NLS-1$
+                    Long.toString(stats.getElements()),
+                    Long.toString(stats.getAttributes()),
+                    isMeasuringAllocations()
+                        ? Long.toString(stats.getAllocatedBytes() / 1024) : "?"); //$NON-NLS-1$
+        }
+        out.printf("Total: %1$.1f ms%n", total / 1e6);
+        out.flush();
+    }
+
+    /**
+     * Writes the report as a JSON document
+     *
+     * @param writer the writer to write the report to
+     * @throws IOException if the report cannot be written
+     */
+    public void writeJson(Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(1000);
+        sb.append("{\n  \"allocationsMeasured\": ").append(isMeasuringAllocations()); //$NON-NLS-1$
+        sb.append(",\n  \"detectors\": [");                                  //$NON-NLS-1$
+        boolean first = true;
+        for (Stats stats : getStats()) {
+            sb.append(first ? "\n" : ",\n");                                  //$NON-NLS-1$
+            first = false;
+            sb.append("    {");                                               //$NON-NLS-1$
+            appendJson(sb, "name", stats.getName()).append(", ");            //$NON-NLS-1$
+            appendJson(sb, "folder", stats.getFolderType()).append(", ");    //$NON-NLS-1$
+            appendJson(sb, "speed", stats.getSpeed()).append(", ");          //$NON-NLS-1$
+            sb.append("\"files\": ").append(stats.getFiles());               //$NON-NLS-1$
+            sb.append(", \"nanos\": ").append(stats.getNanos());             //$NON-NLS-1$
+            sb.append(", \"elements\": ").append(stats.getElements());       //$NON-NLS-1$
+            sb.append(", \"attributes\": ").append(stats.getAttributes());   //$NON-NLS-1$
+            sb.append(", \"allocatedBytes\": ").append(stats.getAllocatedBytes()); //$NON-NLS-1$
+            sb.append('}');
+        }
+        sb.append("\n  ]\n}\n");                                              //$NON-NLS-1$
+        writer.write(sb.toString());
+        writer.flush();
+    }
+
+    private static StringBuilder appendJson(StringBuilder sb, String key, String value) {
+        sb.append('"').append(key).append("\": \"");                         //$NON-NLS-1$
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%1$04x", (int) c));               //$NON-NLS-1$
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Statistics for a single detector (or the parser) in a single folder
+     * type. The counters can be updated concurrently from several threads.
+     */
+    public static class Stats {
+        private final String mName;
+        private final String mFolderType;
+        private final String mSpeed;
+        private final AtomicLong mFiles = new AtomicLong();
+        private final AtomicLong mNanos = new AtomicLong();
+        private final AtomicLong mElements = new AtomicLong();
+        private final AtomicLong mAttributes = new AtomicLong();
+        private final AtomicLong mAllocated = new AtomicLong();
+
+        Stats(String name, String folderType, String speed) {
+            mName = name;
+            mFolderType = folderType;
+            mSpeed = speed;
+        }
+
+        void addFile() {
+            mFiles.incrementAndGet();
+        }
+
+        void addElement() {
+            mElements.incrementAndGet();
+        }
+
+        void addAttribute() {
+            mAttributes.incrementAndGet();
+        }
+
+        /**
+         * Adds the time and allocations since the given starting points
+         *
+         * @param startNanos the value of {@link System#nanoTime()} at the start
+         * @param startAllocated the value of {@link LintProfiler#getCurrentThreadAllocatedBytes()}
+         *            at the start
+         */
+        void add(long startNanos, long startAllocated) {
+            mNanos.addAndGet(System.nanoTime() - startNanos);
+            if (sMeasuringAllocations) {
+                mAllocated.addAndGet(getCurrentThreadAllocatedBytes() - startAllocated);
+            }
+        }
+
+        /** @return the simple class name of the detector */
+        public String getName() {
+            return mName;
+        }
+
+        /** @return the name of the resource folder type, or "-" */
+        public String getFolderType() {
+            return mFolderType;
+        }
+
+        /** @return the declared speed of the detector */
+        public String getSpeed() {
+            return mSpeed;
+        }
+
+        /** @return the number of files checked */
+        public long getFiles() {
+            return mFiles.get();
+        }
+
+        /** @return the total wall time spent, in nanoseconds */
+        public long getNanos() {
+            return mNanos.get();
+        }
+
+        /** @return the number of element callbacks */
+        public long getElements() {
+            return mElements.get();
+        }
+
+        /** @return the number of attribute callbacks */
+        public long getAttributes() {
+            return mAttributes.get();
+        }
+
+        /** @return the number of bytes allocated, or 0 if not measured */
+        public long getAllocatedBytes() {
+            return mAllocated.get();
+        }
+    }
+}
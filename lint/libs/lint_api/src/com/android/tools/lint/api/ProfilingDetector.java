@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+import com.android.tools.lint.detector.api.Scope;
+import com.android.tools.lint.detector.api.Speed;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
+
+import java.io.File;
+import java.util.Collection;
+
+/**
+ * A {@link ResourceXmlDetector} which delegates to another detector and
+ * records the time spent in (and the number of calls to) each file callback
+ * in a {@link LintProfiler}. The {@link XmlVisitor} dispatches to these
+ * wrappers instead of the real detectors when profiling, such that the
+ * visitor itself does not pay for the instrumentation when not profiling.
+ * Callbacks which throw are recorded too.
+ */
+class ProfilingDetector extends ResourceXmlDetector {
+    private final ResourceXmlDetector mDelegate;
+    private final LintProfiler.Stats mStats;
+
+    ProfilingDetector(ResourceXmlDetector delegate, LintProfiler.Stats stats) {
+        mDelegate = delegate;
+        mStats = stats;
+    }
+
+    @Override
+    public void beforeCheckFile(Context context) {
+        mStats.addFile();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.beforeCheckFile(context);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void afterCheckFile(Context context) {
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.afterCheckFile(context);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitDocument(Context context, Document document) {
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitDocument(context, document);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitElement(Context context, Element element) {
+        mStats.addElement();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitElement(context, element);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitElementAfter(Context context, Element element) {
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitElementAfter(context, element);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitAttribute(Context context, Attr attribute) {
+        mStats.addAttribute();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitAttribute(context, attribute);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitStartElement(Context context, String tag, Attributes attributes) {
+        mStats.addElement();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitStartElement(context, tag, attributes);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitEndElement(Context context, String tag) {
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitEndElement(context, tag);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    @Override
+    public void visitStreamingAttribute(Context context, String uri, String name,
+            String value) {
+        mStats.addAttribute();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            mDelegate.visitStreamingAttribute(context, uri, name, value);
+        } finally {
+            mStats.add(nanos, allocated);
+        }
+    }
+
+    // The remaining methods are not timed
+
+    @Override
+    public Issue[] getIssues() {
+        return mDelegate.getIssues();
+    }
+
+    @Override
+    public Speed getSpeed() {
+        return mDelegate.getSpeed();
+    }
+
+    @Override
+    public Scope getScope() {
+        return mDelegate.getScope();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return mDelegate.isThreadSafe();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return mDelegate.isStreaming();
+    }
+
+    @Override
+    public boolean appliesTo(Context context, File file) {
+        return mDelegate.appliesTo(context, file);
+    }
+
+    @Override
+    public boolean appliesTo(ResourceFolderType folderType) {
+        return mDelegate.appliesTo(folderType);
+    }
+
+    @Override
+    public Collection<String> getApplicableElements() {
+        return mDelegate.getApplicableElements();
+    }
+
+    @Override
+    public Collection<String> getApplicableAttributes() {
+        return mDelegate.getApplicableAttributes();
+    }
+
+    @Override
+    public String getFileSummary(Context context) {
+        return mDelegate.getFileSummary(context);
+    }
+
+    @Override
+    public void restoreFileSummary(Context context, String summary) {
+        mDelegate.restoreFileSummary(context, summary);
+    }
+}
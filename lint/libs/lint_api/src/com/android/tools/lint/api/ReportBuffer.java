@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Severity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ToolContext} which records the issues reported for a single file
+ * instead of passing them on immediately. This is used when files are
+ * analyzed concurrently, such that the reports can be delivered to the real
+ * tool context in the same order regardless of which worker thread finished
+ * first. All other calls are delegated directly to the wrapped context.
+ */
+class ReportBuffer implements ToolContext {
+    private final ToolContext mDelegate;
+    private final List<Report> mReports = new ArrayList<Report>();
+
+    ReportBuffer(ToolContext delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Passes all the recorded reports on to the wrapped tool context, in the
+     * order they were reported, and clears the buffer
+     */
+    void flush() {
+        for (int i = 0, n = mReports.size(); i < n; i++) {
+            Report report = mReports.get(i);
+            mDelegate.report(report.issue, report.location, report.message);
+        }
+        mReports.clear();
+    }
+
+    /**
+     * Returns the reports recorded since the last {@link #flush()}
+     *
+     * @return the list of recorded reports
+     */
+    List<Report> getReports() {
+        return mReports;
+    }
+
+    public void report(Issue issue, Location location, String message) {
+        mReports.add(new Report(issue, location, message));
+    }
+
+    public boolean isSuppressed(Issue issue, Location location, String message,
+            Severity severity) {
+        return mDelegate.isSuppressed(issue, location, message, severity);
+    }
+
+    public void log(Throwable exception, String format, Object... args) {
+        mDelegate.log(exception, format, args);
+    }
+
+    public IDomParser getParser() {
+        return mDelegate.getParser();
+    }
+
+    public boolean isEnabled(Issue issue) {
+        return mDelegate.isEnabled(issue);
+    }
+
+    public Severity getSeverity(Issue issue) {
+        return mDelegate.getSeverity(issue);
+    }
+
+    /** An issue reported for a file */
+    static class Report {
+        final Issue issue;
+        final Location location;
+        final String message;
+
+        Report(Issue issue, Location location, String message) {
+            this.issue = issue;
+            this.location = location;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A persistent cache of the issues found in each file, used for incremental
+ * analysis. Each entry is keyed by the SHA-1 hash of the file contents, and
+ * the whole cache is discarded when the set of enabled detectors and issues,
+ * or the lint version, changes. When a file has not changed since the cache
+ * was written, {@link Lint} replays the cached issues instead of parsing and
+ * checking the file again, and hands the cached per-file summaries back to
+ * the detectors (see {@link com.android.tools.lint.detector.api.Detector#getFileSummary})
+ * such that project wide checks still see every file.
+ * <p/>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+public class ResultCache {
+    /** Identifies a lint cache file */
+    private static final int MAGIC = 0x4c494e54; // "LINT"
+    /** Version of the cache file format; bump when the format changes */
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+    private final File mFile;
+    private final DetectorRegistry mRegistry;
+    private Map<String, Entry> mEntries = new HashMap<String, Entry>();
+    private String mKey;
+    private boolean mModified;
+    private int mHitCount;
+
+    /**
+     * Creates a new cache backed by the given file
+     *
+     * @param file the file to read the cache from and write it to; it does not
+     *            have to exist yet
+     * @param registry the registry used to look up the cached issues
+     */
+    public ResultCache(File file, DetectorRegistry registry) {
+        mFile = file;
+        mRegistry = registry;
+    }
+
+    /**
+     * Loads the cache from disk. If the cache on disk was written for a
+     * different configuration, or cannot be read, the cache starts out empty.
+     *
+     * @param key a key describing the configuration of the lint run, such as
+     *            the set of enabled detectors and issues
+     */
+    synchronized void load(String key) {
+        key = key + ':' + getLintVersion();
+        if (key.equals(mKey)) {
+            return;
+        }
+
+        mKey = key;
+        mEntries = new HashMap<String, Entry>();
+        mModified = false;
+        if (!mFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile),
+                    BUFFER_SIZE));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || !key.equals(readString(in))) {
+                // Stale cache: start over
+                mModified = true;
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = readEntry(in);
+                if (entry != null) {
+                    mEntries.put(entry.mPath, entry);
+                } else {
+                    mModified = true;
+                }
+            }
+        } catch (IOException e) {
+            // Corrupt or truncated cache: start over
+            mEntries.clear();
+            mModified = true;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // pass
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the cache back to disk, if it has been modified. Entries for
+     * files which no longer exist are dropped.
+     *
+     * @throws IOException if the cache cannot be written
+     */
+    public synchronized void save() throws IOException {
+        for (Iterator<Entry> iterator = mEntries.values().iterator(); iterator.hasNext(); ) {
+            if (!new File(iterator.next().mPath).exists()) {
+                iterator.remove();
+                mModified = true;
+            }
+        }
+        if (!mModified || mKey == null) {
+            return;
+        }
+
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        // Write to a temporary file first such that an interrupted write never
+        // leaves a truncated cache behind
+        File temp = new File(mFile.getPath() + ".tmp"); //$NON-NLS-1$
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, mKey);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                writeEntry(out, entry);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (mFile.exists() && !mFile.delete() || !temp.renameTo(mFile)) {
+            temp.delete();
+            throw new IOException("Could not write " + mFile.getPath());
+        }
+        mModified = false;
+    }
+
+    /**
+     * Returns the number of files which were served from this cache instead of
+     * being checked, since it was created
+     *
+     * @return the number of cache hits
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Computes the content hash of the given file
+     *
+     * @param file the file to hash
+     * @return the hash, or null if the file cannot be read
+     */
+    static String hash(File file) {
+        InputStream in = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (true) {
+                int read = in.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                digest.update(buffer, 0, read);
+            }
+
+            byte[] bytes = digest.digest();
+            char[] chars = new char[bytes.length * 2];
+            for (int i = 0; i < bytes.length; i++) {
+                chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+                chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // pass
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cache entry for the given file, provided the file contents
+     * have not changed since the entry was stored
+     *
+     * @param file the file to look up
+     * @param hash the current content hash of the file
+     * @return the corresponding entry, or null
+     */
+    synchronized Entry get(File file, String hash) {
+        Entry entry = mEntries.get(file.getAbsolutePath());
+        if (entry != null && entry.mHash.equals(hash)) {
+            mHitCount++;
+            return entry;
+        }
+
+        return null;
+    }
+
+    /**
+     * Stores the issues and summaries found for the given file
+     *
+     * @param file the file that was checked
+     * @param hash the content hash of the file
+     * @param reports the issues reported while checking the file
+     * @param summaries map from detector class name to per-file summary
+     */
+    synchronized void put(File file, String hash, List<ReportBuffer.Report> reports,
+            Map<String, String> summaries) {
+        String path = file.getAbsolutePath();
+        for (ReportBuffer.Report report : reports) {
+            // Issues that are not in the registry (such as the synthetic issue
+            // used to report parser errors) cannot be replayed
+            if (report.issue == null || mRegistry.getIssue(report.issue.getId()) == null) {
+                if (mEntries.remove(path) != null) {
+                    mModified = true;
+                }
+                return;
+            }
+        }
+
+        mEntries.put(path, new Entry(path, hash, new ArrayList<ReportBuffer.Report>(reports),
+                summaries));
+        mModified = true;
+    }
+
+    /**
+     * Returns a version string for the lint code itself, such that the cache
+     * is invalidated whenever lint or its detectors are updated
+     */
+    private static String getLintVersion() {
+        try {
+            CodeSource source = ResultCache.class.getProtectionDomain().getCodeSource();
+            if (source != null && source.getLocation() != null) {
+                File jar = new File(source.getLocation().toURI());
+                if (jar.isFile()) {
+                    return jar.length() + "/" + jar.lastModified(); //$NON-NLS-1$
+                }
+            }
+        } catch (Exception e) {
+            // pass: not available in this environment
+        }
+
+        return "dev"; //$NON-NLS-1$
+    }
+
+    private Entry readEntry(DataInputStream in) throws IOException {
+        String path = readString(in);
+        String hash = readString(in);
+        boolean valid = true;
+
+        int reportCount = in.readInt();
+        List<ReportBuffer.Report> reports = new ArrayList<ReportBuffer.Report>(reportCount);
+        for (int i = 0; i < reportCount; i++) {
+            String id = readString(in);
+            String message = readString(in);
+            Location location = readLocation(in);
+            Issue issue = mRegistry.getIssue(id);
+            if (issue == null) {
+                valid = false;
+            }
+            reports.add(new ReportBuffer.Report(issue, location, message));
+        }
+
+        int summaryCount = in.readInt();
+        Map<String, String> summaries = new HashMap<String, String>(summaryCount);
+        for (int i = 0; i < summaryCount; i++) {
+            summaries.put(readString(in), readString(in));
+        }
+
+        return valid ? new Entry(path, hash, reports, summaries) : null;
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        writeString(out, entry.mPath);
+        writeString(out, entry.mHash);
+        out.writeInt(entry.mReports.size());
+        for (ReportBuffer.Report report : entry.mReports) {
+            writeString(out, report.issue.getId());
+            writeString(out, report.message);
+            writeLocation(out, report.location);
+        }
+        out.writeInt(entry.mSummaries.size());
+        for (Map.Entry<String, String> summary : entry.mSummaries.entrySet()) {
+            writeString(out, summary.getKey());
+            writeString(out, summary.getValue());
+        }
+    }
+
+    private static Location readLocation(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String path = readString(in);
+        Location location = new Location(path != null ? new File(path) : null,
+                readPosition(in), readPosition(in));
+        location.setSecondary(readLocation(in));
+        return location;
+    }
+
+    private static void writeLocation(DataOutputStream out, Location location)
+            throws IOException {
+        out.writeBoolean(location != null);
+        if (location != null) {
+            File file = location.getFile();
+            writeString(out, file != null ? file.getPath() : null);
+            writePosition(out, location.getStart());
+            writePosition(out, location.getEnd());
+            writeLocation(out, location.getSecondary());
+        }
+    }
+
+    private static Position readPosition(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new CachedPosition(in.readInt(), in.readInt(), in.readInt());
+    }
+
+    private static void writePosition(DataOutputStream out, Position position)
+            throws IOException {
+        out.writeBoolean(position != null);
+        if (position != null) {
+            out.writeInt(position.getLine());
+            out.writeInt(position.getColumn());
+            out.writeInt(position.getOffset());
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8"); //$NON-NLS-1$
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        // Not using writeUTF since summaries can be larger than 64K
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8"); //$NON-NLS-1$
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /** The cached results for a single file */
+    static class Entry {
+        private final String mPath;
+        private final String mHash;
+        private final List<ReportBuffer.Report> mReports;
+        private final Map<String, String> mSummaries;
+
+        private Entry(String path, String hash, List<ReportBuffer.Report> reports,
+                Map<String, String> summaries) {
+            mPath = path;
+            mHash = hash;
+            mReports = reports;
+            mSummaries = summaries;
+        }
+
+        /**
+         * Returns the per-file summary stored for the given detector class
+         *
+         * @param detectorClass the fully qualified class name of the detector
+         * @return the summary, or null
+         */
+        String getSummary(String detectorClass) {
+            return mSummaries.get(detectorClass);
+        }
+
+        /** Returns true if any summaries were stored for this file */
+        boolean hasSummaries() {
+            return !mSummaries.isEmpty();
+        }
+
+        /**
+         * Reports the cached issues to the given tool context
+         *
+         * @param toolContext the tool context to report the issues to
+         * @param file the file handle to use in locations pointing to the
+         *            cached file itself
+         */
+        void replay(ToolContext toolContext, File file) {
+            for (ReportBuffer.Report report : mReports) {
+                toolContext.report(report.issue, relocate(report.location, file),
+                        report.message);
+            }
+        }
+
+        /**
+         * The cache stores absolute paths; map them back to the file handle
+         * passed in by the user such that paths are displayed consistently
+         */
+        private Location relocate(Location location, File file) {
+            if (location == null) {
+                return null;
+            }
+            File locationFile = location.getFile();
+            if (locationFile != null && locationFile.getAbsolutePath().equals(mPath)) {
+                locationFile = file;
+            }
+            Location relocated = new Location(locationFile, location.getStart(),
+                    location.getEnd());
+            relocated.setSecondary(relocate(location.getSecondary(), file));
+            return relocated;
+        }
+    }
+
+    /** A {@link Position} read back from the cache */
+    private static class CachedPosition extends Position {
+        private final int mLine;
+        private final int mColumn;
+        private final int mOffset;
+
+        CachedPosition(int line, int column, int offset) {
+            mLine = line;
+            mColumn = column;
+            mOffset = offset;
+        }
+
+        @Override
+        public int getLine() {
+            return mLine;
+        }
+
+        @Override
+        public int getOffset() {
+            return mOffset;
+        }
+
+        @Override
+        public int getColumn() {
+            return mColumn;
+        }
+    }
+}
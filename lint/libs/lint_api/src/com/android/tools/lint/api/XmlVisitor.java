@@ -16,9 +16,11 @@
 
 package com.android.tools.lint.api;
 
+import com.android.resources.ResourceFolderType;
 import com.android.tools.lint.detector.api.Context;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
 import com.android.tools.lint.detector.api.ResourceXmlDetector;
 import com.android.tools.lint.detector.api.Severity;
 
@@ -27,6 +29,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -50,6 +53,10 @@ import java.util.RandomAccess;
  * </ol>
  * It also notifies all the detectors before and after the document is processed
  * such that they can do pre- and post-processing.
+ * <p>
+ * When all the detectors are {@link ResourceXmlDetector#isStreaming() streaming}
+ * detectors and the parser is an {@link IStreamingParser}, the second phase is
+ * driven directly by the parser, and no DOM is built for the file.
  */
 class XmlVisitor {
     private final Map<String, List<ResourceXmlDetector>> mElementToCheck =
@@ -63,15 +70,58 @@ class XmlVisitor {
     private final List<ResourceXmlDetector> mAllAttributeDetectors =
             new ArrayList<ResourceXmlDetector>();
     private final List<ResourceXmlDetector> mAllDetectors;
+    private final List<ResourceXmlDetector> mDetectors;
     private final IDomParser mParser;
+    private final LintProfiler.Stats mParserStats;
+    /** Whether any of the detectors is a streaming detector */
+    private boolean mHasStreamingDetectors;
+    /** Whether all of the detectors are streaming detectors */
+    private boolean mAllStreamingDetectors = true;
+    /** Attributes adapter used to call streaming detectors on a DOM */
+    private ElementAttributes mElementAttributes;
 
     XmlVisitor(IDomParser parser, List<ResourceXmlDetector> detectors) {
+        this(parser, detectors, null, null);
+    }
+
+    /**
+     * Creates a new visitor for the given detectors
+     *
+     * @param parser the parser to use for {@link #visitFile(Context, File)}
+     * @param detectors the detectors to run
+     * @param profiler if not null, the profiler to record timing information in
+     * @param folderType the folder type the detectors are run on, used to break
+     *            down the profiling data
+     */
+    XmlVisitor(IDomParser parser, List<ResourceXmlDetector> detectors,
+            LintProfiler profiler, ResourceFolderType folderType) {
         mParser = parser;
+        mDetectors = detectors;
+
+        if (profiler != null) {
+            // Dispatch to instrumented wrappers instead of the detectors themselves
+            List<ResourceXmlDetector> wrappers =
+                    new ArrayList<ResourceXmlDetector>(detectors.size());
+            for (ResourceXmlDetector detector : detectors) {
+                wrappers.add(new ProfilingDetector(detector,
+                        profiler.getStats(detector, folderType)));
+            }
+            detectors = wrappers;
+            mParserStats = profiler.getParserStats(folderType);
+        } else {
+            mParserStats = null;
+        }
         mAllDetectors = detectors;
 
         // TODO: Check appliesTo() for files, and find a quick way to enable/disable
         // rules when running through a full project!
         for (ResourceXmlDetector detector : detectors) {
+            if (detector.isStreaming()) {
+                mHasStreamingDetectors = true;
+            } else {
+                mAllStreamingDetectors = false;
+            }
+
             Collection<String> attributes = detector.getApplicableAttributes();
             if (attributes == ResourceXmlDetector.ALL) {
                 mAllAttributeDetectors.add(detector);
@@ -108,29 +158,171 @@ class XmlVisitor {
         }
     }
 
-    void visitFile(Context context, File file) {
+    /**
+     * Parses and checks the given file
+     *
+     * @param context the context for the file
+     * @param file the file to be checked
+     * @return true if the file was checked, false if it was skipped because it
+     *         was empty or could not be parsed
+     */
+    boolean visitFile(Context context, File file) {
+        if (context.document == null && canStream(mParser)) {
+            if (stream(context, file, (IStreamingParser) mParser)) {
+                afterCheckFile(context);
+                return true;
+            }
+            return false;
+        }
+
+        if (parseFile(context, file, mParser)) {
+            visit(context);
+            afterCheckFile(context);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the detectors run by this visitor
+     *
+     * @return the detectors
+     */
+    List<ResourceXmlDetector> getDetectors() {
+        return mDetectors;
+    }
+
+    /**
+     * Returns true if the files checked by this visitor can be streamed with
+     * the given parser rather than parsed into a DOM
+     *
+     * @param parser the parser to be used
+     * @return true if {@link #stream} can be used instead of {@link #parseFile}
+     *         and {@link #visit}
+     */
+    boolean canStream(IDomParser parser) {
+        return mAllStreamingDetectors && mHasStreamingDetectors
+                && parser instanceof IStreamingParser;
+    }
+
+    /**
+     * Notifies the detectors that the file is about to be checked, and then
+     * streams the file through the detectors without building a DOM. As with
+     * {@link #visit(Context)}, the detectors are <b>not</b> notified that the
+     * file has been checked. Reports an error if the file cannot be parsed.
+     *
+     * @param context the context for the file
+     * @param file the file to be checked
+     * @param parser the parser to use
+     * @return true if the file was checked, false if it contained parsing
+     *         errors
+     */
+    boolean stream(Context context, File file, IStreamingParser parser) {
+        assert ResourceXmlDetector.isXmlFile(file);
+
+        context.location = null;
+        context.element = null;
+        context.parser = parser;
+
+        for (ResourceXmlDetector check : mAllDetectors) {
+            check.beforeCheckFile(context);
+        }
+
+        // When profiling, the parser time includes the time spent in the
+        // detector callbacks since the two cannot be separated here
+        boolean parsed;
+        if (mParserStats != null) {
+            mParserStats.addFile();
+            long nanos = System.nanoTime();
+            long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+            try {
+                parsed = parser.parse(context, new StreamHandler(context));
+            } finally {
+                mParserStats.add(nanos, allocated);
+            }
+        } else {
+            parsed = parser.parse(context, new StreamHandler(context));
+        }
+        context.position = null;
+
+        if (!parsed) {
+            reportParseError(context, file);
+        }
+
+        return parsed;
+    }
+
+    /**
+     * Like {@link #parse(Context, File, IDomParser)}, but records the time
+     * spent parsing if this visitor is profiling
+     */
+    boolean parseFile(Context context, File file, IDomParser parser) {
+        if (mParserStats == null || context.document != null) {
+            return parse(context, file, parser);
+        }
+
+        mParserStats.addFile();
+        long nanos = System.nanoTime();
+        long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+        try {
+            return parse(context, file, parser);
+        } finally {
+            mParserStats.add(nanos, allocated);
+        }
+    }
+
+    /**
+     * Parses the given file into the {@link Context#document} of the context,
+     * unless it has already been parsed. Reports an error if the file cannot
+     * be parsed.
+     *
+     * @param context the context for the file
+     * @param file the file to be parsed
+     * @param parser the parser to use
+     * @return true if the document should be visited, false if it was
+     *         skipped because it was empty or contained parsing errors
+     */
+    static boolean parse(Context context, File file, IDomParser parser) {
         assert ResourceXmlDetector.isXmlFile(file);
 
         context.location = null;
-        context.parser = mParser;
+        context.parser = parser;
 
         if (context.document == null) {
-            context.document = mParser.parse(context);
+            context.document = parser.parse(context);
             if (context.document == null) {
-                context.toolContext.report(
-                        // Must provide an issue since API guarantees that the issue parameter
-                        // is valid
-                        Issue.create("dummy", "", "", "", 0, Severity.ERROR), //$NON-NLS-1$
-                        new Location(file, null, null),
-                        "Skipped file because it contains parsing errors");
-                return;
+                reportParseError(context, file);
+                return false;
             }
             if (context.document.getDocumentElement() == null) {
                 // Ignore empty documents
-                return;
+                return false;
             }
         }
 
+        return true;
+    }
+
+    private static void reportParseError(Context context, File file) {
+        context.toolContext.report(
+                // Must provide an issue since API guarantees that the issue parameter
+                // is valid
+                Issue.create("dummy", "", "", "", 0, Severity.ERROR), //$NON-NLS-1$
+                new Location(file, null, null),
+                "Skipped file because it contains parsing errors");
+    }
+
+    /**
+     * Notifies the detectors that the file is about to be checked, and then
+     * runs the detectors on the already parsed document. Does <b>not</b>
+     * notify the detectors that the file has been checked; that is done
+     * separately by {@link #afterCheckFile(Context)}.
+     *
+     * @param context the context for the file, which must already have been
+     *            parsed via {@link #parse(Context, File, IDomParser)}
+     */
+    void visit(Context context) {
         for (ResourceXmlDetector check : mAllDetectors) {
             check.beforeCheckFile(context);
         }
@@ -143,7 +335,14 @@ class XmlVisitor {
                 || mAllAttributeDetectors.size() > 0 || mAllElementDetectors.size() > 0) {
             visitElement(context, context.document.getDocumentElement());
         }
+    }
 
+    /**
+     * Notifies the detectors that the given file has been checked
+     *
+     * @param context the context for the file
+     */
+    void afterCheckFile(Context context) {
         for (ResourceXmlDetector check : mAllDetectors) {
             check.afterCheckFile(context);
         }
@@ -152,18 +351,27 @@ class XmlVisitor {
     private void visitElement(Context context, Element element) {
         context.element = element;
 
-        List<ResourceXmlDetector> elementChecks = mElementToCheck.get(element.getTagName());
+        String tag = element.getTagName();
+        List<ResourceXmlDetector> elementChecks = mElementToCheck.get(tag);
         if (elementChecks != null) {
             assert elementChecks instanceof RandomAccess;
             for (int i = 0, n = elementChecks.size(); i < n; i++) {
                 ResourceXmlDetector check = elementChecks.get(i);
-                check.visitElement(context, element);
+                if (mHasStreamingDetectors && check.isStreaming()) {
+                    check.visitStartElement(context, tag, getAttributes(element));
+                } else {
+                    check.visitElement(context, element);
+                }
             }
         }
         if (mAllElementDetectors.size() > 0) {
             for (int i = 0, n = mAllElementDetectors.size(); i < n; i++) {
                 ResourceXmlDetector check = mAllElementDetectors.get(i);
-                check.visitElement(context, element);
+                if (mHasStreamingDetectors && check.isStreaming()) {
+                    check.visitStartElement(context, tag, getAttributes(element));
+                } else {
+                    check.visitElement(context, element);
+                }
             }
         }
 
@@ -175,13 +383,13 @@ class XmlVisitor {
                 if (list != null) {
                     for (int j = 0, max = list.size(); j < max; j++) {
                         ResourceXmlDetector check = list.get(j);
-                        check.visitAttribute(context, attribute);
+                        visitAttribute(context, check, attribute);
                     }
                 }
                 if (mAllAttributeDetectors.size() > 0) {
                     for (int j = 0, max = mAllAttributeDetectors.size(); j < max; j++) {
                         ResourceXmlDetector check = mAllAttributeDetectors.get(j);
-                        check.visitAttribute(context, attribute);
+                        visitAttribute(context, check, attribute);
                     }
                 }
             }
@@ -197,16 +405,110 @@ class XmlVisitor {
         }
 
         // Post hooks
+        context.element = element;
         if (elementChecks != null) {
             for (int i = 0, n = elementChecks.size(); i < n; i++) {
                 ResourceXmlDetector check = elementChecks.get(i);
-                check.visitElementAfter(context, element);
+                if (mHasStreamingDetectors && check.isStreaming()) {
+                    check.visitEndElement(context, tag);
+                } else {
+                    check.visitElementAfter(context, element);
+                }
             }
         }
         if (mAllElementDetectors.size() > 0) {
             for (int i = 0, n = mAllElementDetectors.size(); i < n; i++) {
                 ResourceXmlDetector check = mAllElementDetectors.get(i);
-                check.visitElementAfter(context, element);
+                if (mHasStreamingDetectors && check.isStreaming()) {
+                    check.visitEndElement(context, tag);
+                } else {
+                    check.visitElementAfter(context, element);
+                }
+            }
+        }
+    }
+
+    private void visitAttribute(Context context, ResourceXmlDetector check, Attr attribute) {
+        if (mHasStreamingDetectors && check.isStreaming()) {
+            String uri = attribute.getNamespaceURI();
+            String name = attribute.getLocalName();
+            check.visitStreamingAttribute(context, uri != null ? uri : "", //$NON-NLS-1$
+                    name != null ? name : attribute.getName(), attribute.getValue());
+        } else {
+            check.visitAttribute(context, attribute);
+        }
+    }
+
+    private Attributes getAttributes(Element element) {
+        if (mElementAttributes == null) {
+            mElementAttributes = new ElementAttributes();
+        }
+        return mElementAttributes.reset(element);
+    }
+
+    /**
+     * Dispatches the elements read by an {@link IStreamingParser} to the
+     * detectors, in the same way as {@link XmlVisitor#visitElement} does for
+     * a DOM
+     */
+    private class StreamHandler implements IStreamingParser.ElementHandler {
+        private final Context mContext;
+        /** Positions of the start tags of the currently open elements */
+        private final List<Position> mPositions = new ArrayList<Position>();
+
+        StreamHandler(Context context) {
+            mContext = context;
+        }
+
+        public void startElement(String tag, Attributes attributes, Position position) {
+            Context context = mContext;
+            context.position = position;
+            mPositions.add(position);
+
+            List<ResourceXmlDetector> elementChecks = mElementToCheck.get(tag);
+            if (elementChecks != null) {
+                for (int i = 0, n = elementChecks.size(); i < n; i++) {
+                    elementChecks.get(i).visitStartElement(context, tag, attributes);
+                }
+            }
+            for (int i = 0, n = mAllElementDetectors.size(); i < n; i++) {
+                mAllElementDetectors.get(i).visitStartElement(context, tag, attributes);
+            }
+
+            if (mAttributeToCheck.size() > 0 || mAllAttributeDetectors.size() > 0) {
+                for (int i = 0, n = attributes.getLength(); i < n; i++) {
+                    String name = attributes.getLocalName(i);
+                    if (name == null || name.length() == 0) {
+                        name = attributes.getQName(i);
+                    }
+                    String uri = attributes.getURI(i);
+                    String value = attributes.getValue(i);
+                    List<ResourceXmlDetector> list = mAttributeToCheck.get(name);
+                    if (list != null) {
+                        for (int j = 0, max = list.size(); j < max; j++) {
+                            list.get(j).visitStreamingAttribute(context, uri, name, value);
+                        }
+                    }
+                    for (int j = 0, max = mAllAttributeDetectors.size(); j < max; j++) {
+                        mAllAttributeDetectors.get(j).visitStreamingAttribute(context, uri,
+                                name, value);
+                    }
+                }
+            }
+        }
+
+        public void endElement(String tag) {
+            Context context = mContext;
+            context.position = mPositions.remove(mPositions.size() - 1);
+
+            List<ResourceXmlDetector> elementChecks = mElementToCheck.get(tag);
+            if (elementChecks != null) {
+                for (int i = 0, n = elementChecks.size(); i < n; i++) {
+                    elementChecks.get(i).visitEndElement(context, tag);
+                }
+            }
+            for (int i = 0, n = mAllElementDetectors.size(); i < n; i++) {
+                mAllElementDetectors.get(i).visitEndElement(context, tag);
             }
         }
     }
@@ -48,6 +48,12 @@ public class Context {
     public Document document;
     public Location location;
     public Element element;
+    /**
+     * When the file is being streamed rather than parsed into a DOM (see
+     * {@link ResourceXmlDetector#isStreaming()}), the position of the start
+     * tag of the current element
+     */
+    public Position position;
     public IDomParser parser;
     private String contents;
     private Map<String, Object> properties;
@@ -72,6 +78,9 @@ public class Context {
         if (location == null && element != null && parser != null) {
             return getLocation(element);
         }
+        if (location == null && position != null) {
+            return new Location(file, position, null);
+        }
         return location;
     }
 
@@ -96,6 +96,58 @@ public abstract class Detector /*implements Comparable<Detector>*/ {
      */
     public abstract Scope getScope();
 
+    /**
+     * Returns true if this detector can check several files at the same time
+     * from different threads. Such a detector must keep its per-file state in
+     * the {@link Context} (for example via {@link Context#setProperty}) rather
+     * than in fields, since {@link #beforeCheckFile} and the visitor methods
+     * may be called concurrently for different files. {@link #afterCheckFile}
+     * is always called from a single thread, and in a deterministic file
+     * order, so it can safely merge the per-file state into project-wide
+     * state.
+     * <p>
+     * Detectors which return false are still run when lint is analyzing
+     * files concurrently, but all their callbacks are made from a single
+     * thread.
+     *
+     * @return true if this detector can check files concurrently
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Returns a summary of the state this detector has collected for the file
+     * that was just checked, which it needs later in {@link #afterCheckFile}
+     * or {@link #afterCheckProject}. This is used for incremental analysis:
+     * when a file has not changed since the previous run, its issues are
+     * replayed from a cache, and the summary is passed back to
+     * {@link #restoreFileSummary} instead of checking the file again.
+     * <p>
+     * This is called after {@link #afterCheckFile}. Detectors whose scope is
+     * wider than {@link Scope#SINGLE_FILE} must implement this method
+     * (returning an empty string if they have no per-file state), otherwise
+     * the files they apply to are never served from the cache.
+     *
+     * @param context the context for the file that was just checked
+     * @return a summary of the per-file state, or null if not supported
+     */
+    public String getFileSummary(Context context) {
+        return null;
+    }
+
+    /**
+     * Restores the per-file state previously returned by
+     * {@link #getFileSummary} into the given context. {@link #afterCheckFile}
+     * is called right afterwards, as if the file had just been checked.
+     *
+     * @param context the context for the unchanged file
+     * @param summary the summary returned by {@link #getFileSummary} when the
+     *            file was last checked
+     */
+    public void restoreFileSummary(Context context, String summary) {
+    }
+
     protected static final String CATEGORY_CORRECTNESS = "Correctness";
     protected static final String CATEGORY_PERFORMANCE = "Performance";
     protected static final String CATEGORY_USABILITY = "Usability";
@@ -23,6 +23,7 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -116,6 +117,70 @@ public abstract class ResourceXmlDetector extends Detector {
         throw new IllegalArgumentException(this.getClass() + " must override visitAttribute");
     }
 
+    /**
+     * Returns true if this detector can be run on a stream of parsing events
+     * rather than on a DOM. Streaming detectors implement
+     * {@link #visitStartElement}, {@link #visitEndElement} and
+     * {@link #visitStreamingAttribute} instead of {@link #visitElement},
+     * {@link #visitElementAfter} and {@link #visitAttribute}, and are
+     * dispatched to based on {@link #getApplicableElements()} and
+     * {@link #getApplicableAttributes()} in the same way. Streaming detectors
+     * cannot use {@link #visitDocument}, and must not look at
+     * {@link Context#document} or {@link Context#element}, which may be null;
+     * use {@link Context#getLocation(Context)} to obtain the location of the
+     * current element.
+     * <p>
+     * When all the detectors which apply to a file are streaming detectors,
+     * and the parser supports it, the file is never parsed into a DOM, which
+     * saves a lot of memory for large files. Otherwise the streaming callbacks
+     * are made from a traversal of the DOM.
+     *
+     * @return true if this detector only uses the streaming callbacks
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Visit the start tag of the given element. Only called on
+     * {@link #isStreaming() streaming} detectors.
+     *
+     * @param context information about the document being analyzed
+     * @param tag the tag name of the element
+     * @param attributes the attributes of the element; only valid during this
+     *            call
+     */
+    public void visitStartElement(Context context, String tag, Attributes attributes) {
+        // Only called if getApplicableElements() returned non-null
+        throw new IllegalArgumentException(this.getClass() + " must override visitStartElement");
+    }
+
+    /**
+     * Visit the end tag of the given element, after its children have been
+     * analyzed. Only called on {@link #isStreaming() streaming} detectors.
+     *
+     * @param context information about the document being analyzed
+     * @param tag the tag name of the element
+     */
+    public void visitEndElement(Context context, String tag) {
+        // Optional
+    }
+
+    /**
+     * Visit the given attribute of the current element. Only called on
+     * {@link #isStreaming() streaming} detectors.
+     *
+     * @param context information about the document being analyzed
+     * @param uri the namespace URI of the attribute, or an empty string
+     * @param name the local name of the attribute
+     * @param value the value of the attribute
+     */
+    public void visitStreamingAttribute(Context context, String uri, String name, String value) {
+        // Only called if getApplicableAttributes() returned non-null
+        throw new IllegalArgumentException(this.getClass()
+                + " must override visitStreamingAttribute");
+    }
+
     /**
      * Returns the list of elements that this detector wants to analyze. If non
      * null, this detector will be called (specifically, the
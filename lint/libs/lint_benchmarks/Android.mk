@@ -0,0 +1,21 @@
+# Copyright 2011 The Android Open Source Project
+#
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# Only compile source java files in this lib.
+LOCAL_SRC_FILES := $(call all-java-files-under, src)
+
+LOCAL_JAR_MANIFEST := etc/manifest.txt
+
+# If the dependency list is changed, etc/manifest.txt
+LOCAL_JAVA_LIBRARIES := \
+        common \
+	lint_api \
+	lint_checks \
+	lint
+
+LOCAL_MODULE := lint_benchmarks
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.api;
+
+import com.android.tools.lint.benchmarks.Benchmark;
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Benchmarks {@link XmlVisitor#visitFile} directly, without the folder
+ * traversal, caching and reporting done by {@link Lint}. It lives in the
+ * {@code api} package since the visitor is not public.
+ */
+public class XmlVisitorBenchmark implements Benchmark {
+    private final String mName;
+    private final ToolContext mToolContext;
+    private final List<ResourceXmlDetector> mDetectors;
+    private final List<File> mFiles;
+
+    /**
+     * Creates a new benchmark
+     *
+     * @param name the name of the benchmark
+     * @param toolContext the tool context to report to and get parsers from
+     * @param detectors the detectors to run
+     * @param files the files to visit on each iteration
+     */
+    public XmlVisitorBenchmark(String name, ToolContext toolContext,
+            List<ResourceXmlDetector> detectors, List<File> files) {
+        mName = name;
+        mToolContext = toolContext;
+        mDetectors = detectors;
+        mFiles = files;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int run() {
+        Context projectContext = new Context(mToolContext, null);
+        for (ResourceXmlDetector detector : mDetectors) {
+            detector.beforeCheckProject(projectContext);
+        }
+
+        XmlVisitor visitor = new XmlVisitor(mToolContext.getParser(), mDetectors);
+        for (File file : mFiles) {
+            visitor.visitFile(new Context(mToolContext, file), file);
+        }
+
+        for (ResourceXmlDetector detector : mDetectors) {
+            detector.afterCheckProject(projectContext);
+        }
+
+        return mFiles.size();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.benchmarks;
+
+/** A single benchmark run by {@link LintBenchmarks} */
+public interface Benchmark {
+    /**
+     * Returns the name of the benchmark, as shown in the report
+     *
+     * @return the name of the benchmark
+     */
+    String getName();
+
+    /**
+     * Runs one iteration of the benchmark on the calling thread
+     *
+     * @return the number of files processed by the iteration
+     * @throws Exception if the benchmark fails
+     */
+    int run() throws Exception;
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.benchmarks;
+
+import com.android.tools.lint.PositionXmlParser;
+import com.android.tools.lint.api.IDomParser;
+import com.android.tools.lint.api.ToolContext;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Severity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ToolContext} which enables all issues and only counts the reported
+ * issues, such that the benchmarks measure lint rather than the output
+ */
+class BenchmarkToolContext implements ToolContext {
+    private final AtomicInteger mReportCount = new AtomicInteger();
+
+    /** Returns the number of issues reported so far */
+    int getReportCount() {
+        return mReportCount.get();
+    }
+
+    public void report(Issue issue, Location location, String message) {
+        mReportCount.incrementAndGet();
+    }
+
+    public boolean isSuppressed(Issue issue, Location location, String message,
+            Severity severity) {
+        return false;
+    }
+
+    public void log(Throwable exception, String format, Object... args) {
+        if (format != null) {
+            System.err.println(String.format(format, args));
+        }
+        if (exception != null) {
+            exception.printStackTrace();
+        }
+    }
+
+    public IDomParser getParser() {
+        return new PositionXmlParser();
+    }
+
+    public boolean isEnabled(Issue issue) {
+        return true;
+    }
+
+    public Severity getSeverity(Issue issue) {
+        return issue.getDefaultSeverity();
+    }
+}
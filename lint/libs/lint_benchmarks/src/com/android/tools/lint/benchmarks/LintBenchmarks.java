@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.benchmarks;
+
+import com.android.resources.ResourceFolderType;
+import com.android.tools.lint.api.DetectorRegistry;
+import com.android.tools.lint.api.Lint;
+import com.android.tools.lint.api.LintProfiler;
+import com.android.tools.lint.api.XmlVisitorBenchmark;
+import com.android.tools.lint.checks.BuiltinDetectorRegistry;
+import com.android.tools.lint.checks.DuplicateIdDetector;
+import com.android.tools.lint.checks.TooManyViewsDetector;
+import com.android.tools.lint.checks.TranslationDetector;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.ResourceXmlDetector;
+import com.android.tools.lint.detector.api.Scope;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the throughput of lint on a generated {@link SyntheticProject}:
+ * the full {@link Lint#analyze} pipeline, the XML visitor on its own, and a
+ * few individual detectors. For each benchmark it reports the number of files
+ * checked per second and, where the JVM can measure it, the allocation rate.
+ * <p>
+ * Each benchmark is run for a number of warmup iterations, which are not
+ * measured, followed by the measured iterations. Allocations are measured on
+ * the benchmark thread only, so they are not reported for multi-threaded runs.
+ * <p>
+ * The project is generated into a temporary directory which is deleted when
+ * the benchmarks are done. Pass {@code --dir} to generate it into a directory
+ * of your choice instead; that directory is left in place.
+ */
+public class LintBenchmarks {
+    private static final int ERRNO_INVALIDARGS = -5;
+
+    private final SyntheticProject mProject = new SyntheticProject();
+    private final BenchmarkToolContext mToolContext = new BenchmarkToolContext();
+    private int mWarmupIterations = 5;
+    private int mIterations = 10;
+    private int mThreadCount = 1;
+    private String mFilter;
+    private File mDir;
+
+    /** Creates a benchmark driver */
+    public LintBenchmarks() {
+    }
+
+    /**
+     * Runs the benchmarks
+     *
+     * @param args program arguments
+     */
+    public static void main(String[] args) {
+        new LintBenchmarks().run(args);
+    }
+
+    private void run(String[] args) {
+        for (int index = 0; index < args.length; index++) {
+            String arg = args[index];
+            if (arg.equals("--help") || arg.equals("-h")) { //$NON-NLS-1$ //$NON-NLS-2$
+                printUsage();
+                System.exit(0);
+            } else if (arg.equals("--dir")) {               //$NON-NLS-1$
+                mDir = new File(getValue(args, index++));
+            } else if (arg.equals("--filter")) {            //$NON-NLS-1$
+                mFilter = getValue(args, index++);
+            } else if (arg.equals("--layouts")) {           //$NON-NLS-1$
+                mProject.setLayoutCount(getCount(args, index++, 1));
+            } else if (arg.equals("--depth")) {             //$NON-NLS-1$
+                mProject.setDepth(getCount(args, index++, 1));
+            } else if (arg.equals("--children")) {          //$NON-NLS-1$
+                mProject.setChildCount(getCount(args, index++, 1));
+            } else if (arg.equals("--locales")) {           //$NON-NLS-1$
+                mProject.setLocaleCount(getCount(args, index++, 0));
+            } else if (arg.equals("--strings")) {           //$NON-NLS-1$
+                mProject.setStringCount(getCount(args, index++, 1));
+            } else if (arg.equals("--duplicates")) {        //$NON-NLS-1$
+                mProject.setDuplicatePercent(getCount(args, index++, 0));
+            } else if (arg.equals("--warmup")) {            //$NON-NLS-1$
+                mWarmupIterations = getCount(args, index++, 0);
+            } else if (arg.equals("--iterations")) {        //$NON-NLS-1$
+                mIterations = getCount(args, index++, 1);
+            } else if (arg.equals("--threads")) {           //$NON-NLS-1$
+                mThreadCount = getCount(args, index++, 1);
+            } else {
+                System.err.println("Unknown argument " + arg);
+                printUsage();
+                System.exit(ERRNO_INVALIDARGS);
+            }
+        }
+
+        File dir = mDir;
+        boolean deleteDir = dir == null;
+        boolean failed = false;
+        try {
+            if (dir == null) {
+                dir = File.createTempFile("lintbench", null); //$NON-NLS-1$
+                dir.delete();
+            }
+            File res = mProject.generate(dir);
+            System.out.println("Generated project in " + dir.getPath());
+
+            List<Result> results = new ArrayList<Result>();
+            for (Benchmark benchmark : createBenchmarks(res)) {
+                if (mFilter == null || benchmark.getName().contains(mFilter)) {
+                    results.add(measure(benchmark));
+                }
+            }
+            printResults(results);
+        } catch (Exception e) {
+            e.printStackTrace();
+            failed = true;
+        } finally {
+            if (deleteDir && dir != null) {
+                deleteTree(dir);
+            }
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private List<Benchmark> createBenchmarks(File res) {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add(new LintBenchmark("Lint.analyze", new BuiltinDetectorRegistry(), //$NON-NLS-1$
+                res, 1));
+        if (mThreadCount > 1) {
+            benchmarks.add(new LintBenchmark(
+                    String.format("Lint.analyze (%1$d threads)", mThreadCount), //$NON-NLS-1$
+                    new BuiltinDetectorRegistry(), res, mThreadCount));
+        }
+
+        // The XML visitor on its own, with all the layout detectors
+        List<ResourceXmlDetector> layoutDetectors = new ArrayList<ResourceXmlDetector>();
+        for (Detector detector : new BuiltinDetectorRegistry().getDetectors()) {
+            if (detector instanceof ResourceXmlDetector
+                    && ((ResourceXmlDetector) detector).appliesTo(ResourceFolderType.LAYOUT)) {
+                layoutDetectors.add((ResourceXmlDetector) detector);
+            }
+        }
+        benchmarks.add(new XmlVisitorBenchmark("XmlVisitor.visitFile (layout)", //$NON-NLS-1$
+                mToolContext, layoutDetectors,
+                SyntheticProject.getFiles(res, ResourceFolderType.LAYOUT.getName())));
+
+        // Individual detectors
+        benchmarks.add(new LintBenchmark("TranslationDetector",                  //$NON-NLS-1$
+                new SingleDetectorRegistry(new TranslationDetector()), res, 1));
+        benchmarks.add(new LintBenchmark("DuplicateIdDetector",                  //$NON-NLS-1$
+                new SingleDetectorRegistry(new DuplicateIdDetector()), res, 1));
+        benchmarks.add(new LintBenchmark("TooManyViewsDetector",                 //$NON-NLS-1$
+                new SingleDetectorRegistry(new TooManyViewsDetector()), res, 1));
+
+        return benchmarks;
+    }
+
+    private Result measure(Benchmark benchmark) throws Exception {
+        System.out.println("Running " + benchmark.getName());
+        for (int i = 0; i < mWarmupIterations; i++) {
+            benchmark.run();
+        }
+        System.gc();
+
+        boolean measureAllocations = LintProfiler.isMeasuringAllocations()
+                && !(benchmark instanceof LintBenchmark
+                        && ((LintBenchmark) benchmark).mThreadCount > 1);
+        Result result = new Result(benchmark.getName(), measureAllocations);
+        for (int i = 0; i < mIterations; i++) {
+            long allocated = LintProfiler.getCurrentThreadAllocatedBytes();
+            long nanos = System.nanoTime();
+            int files = benchmark.run();
+            nanos = System.nanoTime() - nanos;
+            allocated = LintProfiler.getCurrentThreadAllocatedBytes() - allocated;
+            result.add(files, nanos, allocated);
+        }
+
+        return result;
+    }
+
+    private static void printResults(List<Result> results) {
+        String format = "%1$-36s %2$8s %3$10s %4$10s %5$12s %6$12s%n"; //$NON-NLS-1$
+        System.out.println();
+        System.out.printf(format, "Benchmark", "Files", "Files/s", "Best (ms)",
+                "Alloc (MB/s)", "Alloc (KB/f)");
+        for (Result result : results) {
+            double seconds = result.mNanos / 1e9;
+            System.out.printf(format, result.mName,
+                    Long.toString(result.mFiles / result.mIterations),
+                    String.format("%1$.1f", result.mFiles / seconds),          //$NON-NLS-1$
+                    String.format("%1$.2f", result.mBestNanos / 1e6),          //$NON-NLS-1$
+                    result.mMeasureAllocations
+                        ? String.format("%1$.1f", result.mAllocated / seconds / (1024 * 1024))
+                        : "?",                                                  //$NON-NLS-1$
+                    result.mMeasureAllocations && result.mFiles > 0
+                        ? Long.toString(result.mAllocated / result.mFiles / 1024)
+                        : "?");                                                 //$NON-NLS-1$
+        }
+    }
+
+    private static String getValue(String[] args, int index) {
+        if (index == args.length - 1) {
+            System.err.println("Missing value for " + args[index]);
+            System.exit(ERRNO_INVALIDARGS);
+        }
+        return args[index + 1];
+    }
+
+    private static int getCount(String[] args, int index, int min) {
+        String value = getValue(args, index);
+        int count;
+        try {
+            count = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            count = min - 1;
+        }
+        if (count < min) {
+            System.err.println("Invalid value \"" + value + "\" for " + args[index]);
+            System.exit(ERRNO_INVALIDARGS);
+        }
+        return count;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: lint_benchmarks [--dir dir] [--filter name] " +
+                "[--layouts n] [--depth n] [--children n] [--locales n] [--strings n] " +
+                "[--duplicates percent] [--warmup n] [--iterations n] [--threads n]");
+        System.err.println("The project is generated into a temporary directory which is " +
+                "deleted afterwards, unless --dir is given, in which case it is kept.");
+    }
+
+    /** Deletes the given file, or the given directory and everything in it */
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Runs {@link Lint#analyze} on the whole project */
+    private class LintBenchmark implements Benchmark {
+        private final String mName;
+        private final DetectorRegistry mRegistry;
+        private final File mRes;
+        private final int mThreadCount;
+        private int mFileCount = -1;
+
+        LintBenchmark(String name, DetectorRegistry registry, File res, int threadCount) {
+            mName = name;
+            mRegistry = registry;
+            mRes = res;
+            mThreadCount = threadCount;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int run() {
+            Lint lint = new Lint(mRegistry, mToolContext, Scope.PROJECT);
+            lint.setThreadCount(mThreadCount);
+            lint.analyze(Collections.singletonList(mRes));
+
+            if (mFileCount == -1) {
+                mFileCount = countFiles();
+            }
+            return mFileCount;
+        }
+
+        /** Counts the files in the folders that at least one of the detectors applies to */
+        private int countFiles() {
+            int count = 0;
+            File[] folders = mRes.listFiles();
+            if (folders != null) {
+                for (File folder : folders) {
+                    ResourceFolderType type = ResourceFolderType.getFolderType(folder.getName());
+                    if (type != null && appliesTo(type)) {
+                        count += SyntheticProject.getFiles(mRes, folder.getName()).size();
+                    }
+                }
+            }
+            return count;
+        }
+
+        private boolean appliesTo(ResourceFolderType type) {
+            for (Detector detector : mRegistry.getDetectors()) {
+                if (detector instanceof ResourceXmlDetector
+                        && ((ResourceXmlDetector) detector).appliesTo(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** A registry containing just a single detector */
+    private static class SingleDetectorRegistry extends DetectorRegistry {
+        private final List<Detector> mDetectors;
+
+        SingleDetectorRegistry(Detector detector) {
+            mDetectors = Collections.singletonList(detector);
+        }
+
+        @Override
+        public List<? extends Detector> getDetectors() {
+            return mDetectors;
+        }
+    }
+
+    /** The measurements for a single benchmark */
+    private static class Result {
+        private final String mName;
+        private final boolean mMeasureAllocations;
+        private int mIterations;
+        private long mFiles;
+        private long mNanos;
+        private long mBestNanos = Long.MAX_VALUE;
+        private long mAllocated;
+
+        Result(String name, boolean measureAllocations) {
+            mName = name;
+            mMeasureAllocations = measureAllocations;
+        }
+
+        void add(int files, long nanos, long allocated) {
+            mIterations++;
+            mFiles += files;
+            mNanos += nanos;
+            mBestNanos = Math.min(mBestNanos, nanos);
+            mAllocated += allocated;
+        }
+    }
+}
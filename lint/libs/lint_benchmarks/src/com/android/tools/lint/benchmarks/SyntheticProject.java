@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic Android resource tree for benchmarking lint. The tree
+ * contains layouts with deeply nested views (some of which reuse ids, and
+ * which include each other), and a default {@code values} folder plus a number
+ * of translated {@code values-xx} folders, each of which is missing a few of
+ * the strings.
+ * <p>
+ * The contents only depend on the configured sizes and seed, so runs with the
+ * same configuration are comparable.
+ */
+public class SyntheticProject {
+    private static final String HEADER =
+            "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n";                  //$NON-NLS-1$
+    private static final String ANDROID_NS =
+            "xmlns:android=\"http://schemas.android.com/apk/res/android\"";  //$NON-NLS-1$
+
+    private int mLayoutCount = 50;
+    private int mDepth = 8;
+    private int mChildCount = 3;
+    private int mLocaleCount = 20;
+    private int mStringCount = 200;
+    private int mDuplicatePercent = 5;
+    private long mSeed = 42;
+
+    /** Creates a new project description with the default sizes */
+    public SyntheticProject() {
+    }
+
+    /** Sets the number of layout files to generate */
+    public void setLayoutCount(int layoutCount) {
+        mLayoutCount = layoutCount;
+    }
+
+    /** Sets the nesting depth of the view hierarchy in each layout */
+    public void setDepth(int depth) {
+        mDepth = depth;
+    }
+
+    /** Sets the number of leaf views added at each level of each layout */
+    public void setChildCount(int childCount) {
+        mChildCount = childCount;
+    }
+
+    /** Sets the number of translated {@code values-xx} folders */
+    public void setLocaleCount(int localeCount) {
+        mLocaleCount = localeCount;
+    }
+
+    /** Sets the number of strings in the default {@code values} folder */
+    public void setStringCount(int stringCount) {
+        mStringCount = stringCount;
+    }
+
+    /** Sets the percentage of views which reuse an id already used in the layout */
+    public void setDuplicatePercent(int duplicatePercent) {
+        mDuplicatePercent = duplicatePercent;
+    }
+
+    /** Sets the seed for the random choices made while generating */
+    public void setSeed(long seed) {
+        mSeed = seed;
+    }
+
+    /**
+     * Writes the project into the given directory
+     *
+     * @param dir the directory to create the project in
+     * @return the {@code res} folder of the project
+     * @throws IOException if the files cannot be written
+     */
+    public File generate(File dir) throws IOException {
+        Random random = new Random(mSeed);
+        File res = new File(dir, "res"); //$NON-NLS-1$
+
+        File layoutDir = mkdirs(new File(res, "layout")); //$NON-NLS-1$
+        for (int i = 0; i < mLayoutCount; i++) {
+            write(new File(layoutDir, getLayoutName(i) + ".xml"), //$NON-NLS-1$
+                    createLayout(i, random));
+        }
+
+        write(new File(mkdirs(new File(res, "values")), "strings.xml"), //$NON-NLS-1$ //$NON-NLS-2$
+                createStrings(-1));
+        for (int locale = 0; locale < mLocaleCount; locale++) {
+            File values = mkdirs(new File(res, "values-" + getLanguage(locale))); //$NON-NLS-1$
+            write(new File(values, "strings.xml"), createStrings(locale)); //$NON-NLS-1$
+        }
+
+        return res;
+    }
+
+    /**
+     * Returns the files generated by {@link #generate(File)}, in the order
+     * lint visits them
+     *
+     * @param res the {@code res} folder returned by {@link #generate(File)}
+     * @param folderName the resource folder name, such as "layout"
+     * @return the XML files in the given folder
+     */
+    public static List<File> getFiles(File res, String folderName) {
+        List<File> files = new ArrayList<File>();
+        File[] children = new File(res, folderName).listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.getName().endsWith(".xml")) { //$NON-NLS-1$
+                    files.add(child);
+                }
+            }
+        }
+        return files;
+    }
+
+    private static String getLayoutName(int index) {
+        return "layout_" + index; //$NON-NLS-1$
+    }
+
+    /** Returns a two letter language code for the given locale index */
+    private static String getLanguage(int locale) {
+        return new String(new char[] {
+                (char) ('a' + (locale / 26) % 26), (char) ('a' + locale % 26) });
+    }
+
+    private String createLayout(int index, Random random) {
+        StringBuilder sb = new StringBuilder(mDepth * mChildCount * 200);
+        sb.append(HEADER);
+        int ids = 0;
+        for (int level = 0; level < mDepth; level++) {
+            indent(sb, level);
+            sb.append("<LinearLayout");                                       //$NON-NLS-1$
+            if (level == 0) {
+                sb.append(' ').append(ANDROID_NS);
+            }
+            sb.append(" android:layout_width=\"match_parent\"");              //$NON-NLS-1$
+            sb.append(" android:layout_height=\"wrap_content\"");             //$NON-NLS-1$
+            sb.append(" android:orientation=\"vertical\">\n");                //$NON-NLS-1$
+
+            for (int child = 0; child < mChildCount; child++) {
+                int id = ids > 0 && random.nextInt(100) < mDuplicatePercent
+                        ? random.nextInt(ids) : ids++;
+                indent(sb, level + 1);
+                if (child % 2 == 0) {
+                    sb.append("<TextView android:id=\"@+id/text_").append(id); //$NON-NLS-1$
+                    sb.append("\" android:text=\"Text ").append(id).append('"'); //$NON-NLS-1$
+                } else {
+                    sb.append("<ImageView android:id=\"@+id/image_").append(id); //$NON-NLS-1$
+                    sb.append("\" android:src=\"@drawable/icon\""); //$NON-NLS-1$
+                }
+                sb.append(" android:layout_width=\"0dp\"");                   //$NON-NLS-1$
+                sb.append(" android:layout_height=\"12px\"");                 //$NON-NLS-1$
+                sb.append(" android:layout_weight=\"1\" />\n");               //$NON-NLS-1$
+            }
+
+            if (level == mDepth - 1 && index + 1 < mLayoutCount) {
+                indent(sb, level + 1);
+                sb.append("<include layout=\"@layout/");                      //$NON-NLS-1$
+                sb.append(getLayoutName(index + 1)).append("\" />\n");        //$NON-NLS-1$
+            }
+        }
+        for (int level = mDepth - 1; level >= 0; level--) {
+            indent(sb, level);
+            sb.append("</LinearLayout>\n");                                   //$NON-NLS-1$
+        }
+
+        return sb.toString();
+    }
+
+    private String createStrings(int locale) {
+        StringBuilder sb = new StringBuilder(mStringCount * 60);
+        sb.append(HEADER);
+        sb.append("<resources>\n");                                           //$NON-NLS-1$
+        for (int i = 0; i < mStringCount; i++) {
+            // Each locale is missing a different subset of the strings
+            if (locale >= 0 && i % (locale + 7) == 0) {
+                continue;
+            }
+            sb.append("    <string name=\"string_").append(i).append("\">"); //$NON-NLS-1$ //$NON-NLS-2$
+            sb.append(locale >= 0 ? getLanguage(locale) : "default");         //$NON-NLS-1$
+            sb.append(' ').append(i).append("</string>\n");                   //$NON-NLS-1$
+        }
+        sb.append("</resources>\n");                                          //$NON-NLS-1$
+        return sb.toString();
+    }
+
+    private static void indent(StringBuilder sb, int level) {
+        for (int i = 0; i < level; i++) {
+            sb.append("    "); //$NON-NLS-1$
+        }
+    }
+
+    private static File mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir.getPath());
+        }
+        return dir;
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writer.write(contents);
+        } finally {
+            writer.close();
+        }
+    }
+}
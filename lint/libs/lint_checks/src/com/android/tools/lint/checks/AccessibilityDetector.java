@@ -65,6 +65,11 @@ public class AccessibilityDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(new String[] {
@@ -70,6 +70,11 @@ public class ChildCountDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(new String[] {
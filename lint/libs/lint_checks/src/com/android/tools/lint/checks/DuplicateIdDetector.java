@@ -30,6 +30,7 @@ import org.w3c.dom.Element;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,7 +44,11 @@ import java.util.Set;
  * Checks for duplicate ids within a layout and within an included layout
  */
 public class DuplicateIdDetector extends LayoutDetector {
-    private Set<String> mIds;
+    /** Key of the set of ids defined in the current file */
+    private static final String KEY_IDS = "DuplicateIds.ids"; //$NON-NLS-1$
+    /** Key of the list of layouts included from the current file */
+    private static final String KEY_INCLUDES = "DuplicateIds.includes"; //$NON-NLS-1$
+
     private Map<File, Set<String>> mFileToIds;
     private Map<File, List<String>> mIncludes;
 
@@ -84,6 +89,11 @@ public class DuplicateIdDetector extends LayoutDetector {
         return Scope.RESOURCES;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return Collections.singletonList(ATTR_ID);
@@ -96,15 +106,62 @@ public class DuplicateIdDetector extends LayoutDetector {
 
     @Override
     public void beforeCheckFile(Context context) {
-        mIds = new HashSet<String>();
+        context.setProperty(KEY_IDS, new HashSet<String>());
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public void afterCheckFile(Context context) {
-        // Store this layout's set of ids for full project analysis in afterCheckProject
-        mFileToIds.put(context.file, mIds);
+        // Store this layout's set of ids and includes for full project analysis
+        // in afterCheckProject
+        mFileToIds.put(context.file, (Set<String>) context.getProperty(KEY_IDS));
+
+        List<String> includes = (List<String>) context.getProperty(KEY_INCLUDES);
+        if (includes != null) {
+            mIncludes.put(context.file, includes);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public String getFileSummary(Context context) {
+        // The ids on the first line and the included layouts on the second line,
+        // both separated by commas
+        StringBuilder sb = new StringBuilder();
+        appendList(sb, (Set<String>) context.getProperty(KEY_IDS));
+        sb.append('\n');
+        appendList(sb, (List<String>) context.getProperty(KEY_INCLUDES));
+        return sb.toString();
+    }
 
-        mIds = null;
+    private static void appendList(StringBuilder sb, Collection<String> values) {
+        if (values != null) {
+            boolean first = true;
+            for (String value : values) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append(value);
+            }
+        }
+    }
+
+    @Override
+    public void restoreFileSummary(Context context, String summary) {
+        int newline = summary.indexOf('\n');
+        String ids = newline != -1 ? summary.substring(0, newline) : summary;
+        String includes = newline != -1 ? summary.substring(newline + 1) : ""; //$NON-NLS-1$
+
+        Set<String> idSet = new HashSet<String>();
+        if (ids.length() > 0) {
+            idSet.addAll(Arrays.asList(ids.split(","))); //$NON-NLS-1$
+        }
+        context.setProperty(KEY_IDS, idSet);
+        if (includes.length() > 0) {
+            context.setProperty(KEY_INCLUDES,
+                    new ArrayList<String>(Arrays.asList(includes.split(",")))); //$NON-NLS-1$
+        }
     }
 
     @Override
@@ -127,6 +184,7 @@ public class DuplicateIdDetector extends LayoutDetector {
         mIncludes = null;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public void visitElement(Context context, Element element) {
         // Record include graph such that we can look for inter-layout duplicates after the
@@ -136,10 +194,10 @@ public class DuplicateIdDetector extends LayoutDetector {
         if (layout.startsWith(VALUE_LAYOUT_PREFIX)) { // Ignore @android:layout/ layouts
             layout = layout.substring(VALUE_LAYOUT_PREFIX.length());
 
-            List<String> to = mIncludes.get(context.file);
+            List<String> to = (List<String>) context.getProperty(KEY_INCLUDES);
             if (to == null) {
                 to = new ArrayList<String>();
-                mIncludes.put(context.file, to);
+                context.setProperty(KEY_INCLUDES, to);
             }
             to.add(layout);
         }
@@ -373,16 +431,18 @@ public class DuplicateIdDetector extends LayoutDetector {
         return false;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public void visitAttribute(Context context, Attr attribute) {
         assert attribute.getLocalName().equals(ATTR_ID);
+        Set<String> ids = (Set<String>) context.getProperty(KEY_IDS);
         String id = attribute.getValue();
-        if (mIds.contains(id)) {
+        if (ids.contains(id)) {
             context.toolContext.report(ISSUE, context.getLocation(attribute),
                     String.format("Duplicate id %1$s, already defined earlier in this layout",
                             id));
         } else if (id.startsWith("@+id/")) { //$NON-NLS-1$
-            mIds.add(id);
+            ids.add(id);
         }
     }
 }
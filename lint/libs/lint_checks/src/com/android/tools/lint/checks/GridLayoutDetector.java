@@ -62,6 +62,11 @@ public class GridLayoutDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(new String[] {
@@ -68,6 +68,11 @@ public class HardcodedValuesDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableAttributes() {
         return Arrays.asList(new String[] {
@@ -64,6 +64,11 @@ public class InefficientWeightDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(LINEAR_LAYOUT);
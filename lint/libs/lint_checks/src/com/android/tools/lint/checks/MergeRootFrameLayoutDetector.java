@@ -59,6 +59,11 @@ public class MergeRootFrameLayoutDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visitDocument(Context context, Document document) {
         Element root = document.getDocumentElement();
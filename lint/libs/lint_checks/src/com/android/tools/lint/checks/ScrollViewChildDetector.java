@@ -64,6 +64,11 @@ public class ScrollViewChildDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(new String[] {
@@ -68,6 +68,11 @@ public class StateListDetector extends ResourceXmlDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void visitDocument(Context context, Document document) {
         // TODO: Look for views that don't specify
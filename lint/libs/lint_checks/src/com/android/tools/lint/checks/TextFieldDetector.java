@@ -66,6 +66,11 @@ public class TextFieldDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Collections.singletonList(EDIT_TEXT);
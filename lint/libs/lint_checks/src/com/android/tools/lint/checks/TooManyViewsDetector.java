@@ -84,9 +84,8 @@ public class TooManyViewsDetector extends LayoutDetector {
         MAX_DEPTH = maxDepth;
     }
 
-    private int mViewCount;
-    private int mDepth;
-    private boolean mWarnedAboutDepth;
+    /** Key of the {@link LayoutState} stored in the context of each file */
+    private static final String KEY_STATE = "TooManyViews.state"; //$NON-NLS-1$
 
     /** Constructs a new {@link TooManyViewsDetector} */
     public TooManyViewsDetector() {
@@ -107,10 +106,14 @@ public class TooManyViewsDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public void beforeCheckFile(Context context) {
-        mViewCount = mDepth = 0;
-        mWarnedAboutDepth = false;
+        context.setProperty(KEY_STATE, new LayoutState());
     }
 
     @Override
@@ -120,20 +123,21 @@ public class TooManyViewsDetector extends LayoutDetector {
 
     @Override
     public void visitElement(Context context, Element element) {
-        mViewCount++;
-        mDepth++;
+        LayoutState state = (LayoutState) context.getProperty(KEY_STATE);
+        state.mViewCount++;
+        state.mDepth++;
 
-        if (mDepth == MAX_DEPTH && !mWarnedAboutDepth) {
+        if (state.mDepth == MAX_DEPTH && !state.mWarnedAboutDepth) {
             // Have to record whether or not we've warned since we could have many siblings
             // at the max level and we'd warn for each one. No need to do the same thing
             // for the view count error since we'll only have view count exactly equal the
             // max just once.
-            mWarnedAboutDepth = true;
+            state.mWarnedAboutDepth = true;
             String msg = String.format("%1$s has more than %2$d levels, bad for performance",
                     context.file.getName(), MAX_DEPTH);
             context.toolContext.report(TOO_DEEP, context.getLocation(element), msg);
         }
-        if (mViewCount == MAX_VIEW_COUNT) {
+        if (state.mViewCount == MAX_VIEW_COUNT) {
             String msg = String.format("%1$s has more than %2$d views, bad for performance",
                     context.file.getName(), MAX_VIEW_COUNT);
             context.toolContext.report(TOO_MANY, context.getLocation(element), msg);
@@ -142,6 +146,14 @@ public class TooManyViewsDetector extends LayoutDetector {
 
     @Override
     public void visitElementAfter(Context context, Element element) {
-        mDepth--;
+        LayoutState state = (LayoutState) context.getProperty(KEY_STATE);
+        state.mDepth--;
+    }
+
+    /** Counters for the layout currently being checked */
+    private static class LayoutState {
+        private int mViewCount;
+        private int mDepth;
+        private boolean mWarnedAboutDepth;
     }
 }
@@ -25,8 +25,7 @@ import com.android.tools.lint.detector.api.Scope;
 import com.android.tools.lint.detector.api.Severity;
 import com.android.tools.lint.detector.api.Speed;
 
-import org.w3c.dom.Attr;
-import org.w3c.dom.Element;
+import org.xml.sax.Attributes;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -61,7 +60,9 @@ public class TranslationDetector extends ResourceXmlDetector {
             "one language should also be translated in all other languages.",
             CATEGORY_CORRECTNESS, 8, Severity.ERROR);
 
-    private Set<String> mNames;
+    /** Key of the set of string names defined in the current file */
+    private static final String KEY_NAMES = "IncompleteTranslation.names"; //$NON-NLS-1$
+
     private Map<File, Set<String>> mFileToNames;
 
     /** Constructs a new {@link TranslationDetector} */
@@ -88,6 +89,16 @@ public class TranslationDetector extends ResourceXmlDetector {
         return Scope.RESOURCES;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
     @Override
     public Collection<String> getApplicableElements() {
         return Arrays.asList(new String[] {
@@ -103,15 +114,38 @@ public class TranslationDetector extends ResourceXmlDetector {
 
     @Override
     public void beforeCheckFile(Context context) {
-        mNames = new HashSet<String>();
+        context.setProperty(KEY_NAMES, new HashSet<String>());
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public void afterCheckFile(Context context) {
         // Store this layout's set of ids for full project analysis in afterCheckProject
-        mFileToNames.put(context.file, mNames);
+        mFileToNames.put(context.file, (Set<String>) context.getProperty(KEY_NAMES));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public String getFileSummary(Context context) {
+        // One name per line
+        Set<String> names = (Set<String>) context.getProperty(KEY_NAMES);
+        StringBuilder sb = new StringBuilder(names.size() * 20);
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
 
-        mNames = null;
+    @Override
+    public void restoreFileSummary(Context context, String summary) {
+        Set<String> names = new HashSet<String>();
+        if (summary.length() > 0) {
+            names.addAll(Arrays.asList(summary.split("\n"))); //$NON-NLS-1$
+        }
+        context.setProperty(KEY_NAMES, names);
     }
 
     @Override
@@ -263,17 +297,16 @@ public class TranslationDetector extends ResourceXmlDetector {
         return sb.toString();
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public void visitElement(Context context, Element element) {
-        Attr attribute = element.getAttributeNode(ATTR_NAME);
-        if (attribute == null || attribute.getValue().length() == 0) {
-            context.toolContext.report(ISSUE, context.getLocation(element),
+    public void visitStartElement(Context context, String tag, Attributes attributes) {
+        String name = attributes.getValue(ATTR_NAME);
+        if (name == null || name.length() == 0) {
+            context.toolContext.report(ISSUE, context.getLocation(context),
                     "Missing name attribute in <string> declaration");
         } else {
-            String name = attribute.getValue();
-
-            Attr translatable = element.getAttributeNode(ATTR_TRANSLATABLE);
-            if (translatable != null && !Boolean.valueOf(translatable.getValue())) {
+            String translatable = attributes.getValue(ATTR_TRANSLATABLE);
+            if (translatable != null && !Boolean.valueOf(translatable)) {
                 return;
             }
 
@@ -287,7 +320,8 @@ public class TranslationDetector extends ResourceXmlDetector {
             //            name));
             //}
 
-            mNames.add(name);
+            Set<String> names = (Set<String>) context.getProperty(KEY_NAMES);
+            names.add(name);
 
             // TBD: Also make sure that the strings are not empty or placeholders?
         }
@@ -72,6 +72,11 @@ public class UselessViewDetector extends LayoutDetector {
         return Scope.SINGLE_FILE;
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     private static final List<String> CONTAINERS = new ArrayList<String>(20);
     static {
         CONTAINERS.add("android.gesture.GestureOverlayView"); //$NON-NLS-1$
@@ -20,6 +20,7 @@ import com.android.tools.lint.PositionXmlParser;
 import com.android.tools.lint.api.DetectorRegistry;
 import com.android.tools.lint.api.IDomParser;
 import com.android.tools.lint.api.Lint;
+import com.android.tools.lint.api.ResultCache;
 import com.android.tools.lint.api.ToolContext;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Issue;
@@ -39,6 +40,7 @@ import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -74,6 +76,45 @@ abstract class AbstractCheckTest extends TestCase implements ToolContext {
         return mOutput.toString();
     }
 
+    /**
+     * Like {@link #lint(String...)}, but copies the files into a private "res"
+     * folder and analyzes the whole folder using the given number of threads
+     */
+    protected String lintFolder(int threadCount, String... relativePaths) throws Exception {
+        return lintFolder(threadCount, null, relativePaths);
+    }
+
+    /** Creates a cache in the given file, for the detector under test */
+    protected ResultCache createCache(File cacheFile) {
+        return new ResultCache(cacheFile, new CustomDetectorRegistry());
+    }
+
+    /**
+     * Like {@link #lintFolder(int, String...)}, but uses the given cache
+     * for incremental analysis
+     */
+    protected String lintFolder(int threadCount, ResultCache cache, String... relativePaths)
+            throws Exception {
+        File res = new File(new File(getTempDir(), getName() + '_' + threadCount), "res");
+        for (String relativePath : relativePaths) {
+            File file = getTestfile(relativePath, res);
+            assertNotNull(file);
+        }
+
+        mOutput = new StringBuilder();
+        Lint analyzer = new Lint(new CustomDetectorRegistry(), this, Scope.PROJECT);
+        analyzer.setThreadCount(threadCount);
+        if (cache != null) {
+            analyzer.setCache(cache);
+        }
+        analyzer.analyze(Collections.singletonList(res));
+        if (mOutput.length() == 0) {
+            mOutput.append("No warnings.");
+        }
+
+        return mOutput.toString();
+    }
+
     public void report(Issue issue, Location location, String message) {
         if (mOutput.length() > 0) {
             mOutput.append('\n');
@@ -123,9 +164,8 @@ abstract class AbstractCheckTest extends TestCase implements ToolContext {
         return sTempDir;
     }
 
-    private File makeTestFile(String name, String relative,
+    private File makeTestFile(File dir, String name, String relative,
             String contents) throws IOException {
-        File dir = getTempDir();
         if (relative != null) {
             dir = new File(dir, relative);
             if (!dir.exists()) {
@@ -146,6 +186,10 @@ abstract class AbstractCheckTest extends TestCase implements ToolContext {
     }
 
     private File getTestfile(String relativePath) throws IOException {
+        return getTestfile(relativePath, getTempDir());
+    }
+
+    private File getTestfile(String relativePath, File targetDir) throws IOException {
         String path = "data" + File.separator + relativePath; //$NON-NLS-1$
         InputStream stream =
             AbstractCheckTest.class.getResourceAsStream(path);
@@ -161,7 +205,7 @@ abstract class AbstractCheckTest extends TestCase implements ToolContext {
             name = relativePath.substring(index + 1);
             relative = relativePath.substring(0, index);
         }
-        return makeTestFile(name, relative, xml);
+        return makeTestFile(targetDir, name, relative, xml);
     }
 
     private String readFile(Reader reader) throws IOException {
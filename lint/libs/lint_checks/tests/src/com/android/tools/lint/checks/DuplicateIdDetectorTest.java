@@ -16,8 +16,11 @@
 
 package com.android.tools.lint.checks;
 
+import com.android.tools.lint.api.ResultCache;
 import com.android.tools.lint.detector.api.Detector;
 
+import java.io.File;
+
 @SuppressWarnings("javadoc")
 public class DuplicateIdDetectorTest extends AbstractCheckTest {
     @Override
@@ -44,4 +47,38 @@ public class DuplicateIdDetectorTest extends AbstractCheckTest {
                         "layout/layout3.xml", "layout/layout4.xml"));
     }
 
+    public void testDuplicateChainsConcurrent() throws Exception {
+        String[] files = new String[] {
+                "layout/layout1.xml", "layout/layout2.xml",
+                "layout/layout3.xml", "layout/layout4.xml", "layout/duplicate.xml"
+        };
+        assertEquals(lintFolder(1, files), lintFolder(3, files));
+    }
+
+    public void testDuplicateChainsIncremental() throws Exception {
+        String[] files = new String[] {
+                "layout/layout1.xml", "layout/layout2.xml",
+                "layout/layout3.xml", "layout/layout4.xml", "layout/duplicate.xml"
+        };
+        File cache = File.createTempFile("lint", ".cache"); //$NON-NLS-1$ //$NON-NLS-2$
+        cache.delete();
+        try {
+            String expected = lintFolder(1, files);
+            ResultCache first = createCache(cache);
+            assertEquals(expected, lintFolder(1, first, files));
+            assertEquals(0, first.getHitCount());
+            assertTrue(cache.exists());
+            // Later runs are served from the cache: no file is checked again
+            ResultCache second = createCache(cache);
+            assertEquals(expected, lintFolder(1, second, files));
+            assertEquals(files.length, second.getHitCount());
+            // The concurrent run checks a folder of its own, which is cached by its first run
+            assertEquals(expected, lintFolder(2, createCache(cache), files));
+            ResultCache third = createCache(cache);
+            assertEquals(expected, lintFolder(2, third, files));
+            assertEquals(files.length, third.getHitCount());
+        } finally {
+            cache.delete();
+        }
+    }
 }
@@ -38,4 +38,13 @@ public class TooManyViewsDetectorTest extends AbstractCheckTest {
                         "performance",
                 lint("layout/too_deep.xml"));
     }
+
+    public void testConcurrent() throws Exception {
+        assertEquals(
+                "too_deep.xml:49: Warning: too_deep.xml has more than 10 levels, bad for " +
+                        "performance\n" +
+                "too_many.xml:403: Warning: too_many.xml has more than 80 views, bad for " +
+                        "performance",
+                lintFolder(4, "layout/too_many.xml", "layout/too_deep.xml"));
+    }
 }
@@ -46,6 +46,22 @@ public class TranslationDetectorTest extends AbstractCheckTest {
                  "values-nl-rNL/strings.xml"));
     }
 
+    public void testMissingName() throws Exception {
+        assertEquals(
+            "strings_noname.xml:5: Error: Missing name attribute in <string> declaration\n" +
+            "strings_noname.xml:6: Error: Missing name attribute in <string> declaration",
+
+            lint("values-nb/strings_noname.xml"));
+    }
+
+    public void testMissingNameConcurrent() throws Exception {
+        assertEquals(
+            "strings_noname.xml:5: Error: Missing name attribute in <string> declaration\n" +
+            "strings_noname.xml:6: Error: Missing name attribute in <string> declaration",
+
+            lintFolder(2, "values-nb/strings_noname.xml"));
+    }
+
     public void testPrintList() throws Exception {
         assertEquals("foo, bar, baz",
                 TranslationDetector.formatList(Arrays.asList("foo", "bar", "baz"), 3));
@@ -20,11 +20,13 @@ import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.RawImage;
+import com.android.ddmlib.RawImageConverter;
 import com.android.ddmlib.TimeoutException;
 import com.android.ddmlib.Log.ILogOutput;
 import com.android.ddmlib.Log.LogLevel;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 
@@ -211,23 +213,16 @@ public class Screenshot {
         if (rawImage == null)
             return;
 
-        if (landscape) {
-            rawImage = rawImage.getRotated();
-        }
+        int rotation = landscape ? 1 : 0;
 
-        // convert raw data to an Image
-        BufferedImage image = new BufferedImage(rawImage.width, rawImage.height,
+        // convert raw data to an Image, directly into its pixels.
+        BufferedImage image = new BufferedImage(
+                RawImageConverter.getRotatedWidth(rawImage, rotation),
+                RawImageConverter.getRotatedHeight(rawImage, rotation),
                 BufferedImage.TYPE_INT_ARGB);
-
-        int index = 0;
-        int IndexInc = rawImage.bpp >> 3;
-        for (int y = 0 ; y < rawImage.height ; y++) {
-            for (int x = 0 ; x < rawImage.width ; x++) {
-                int value = rawImage.getARGB(index);
-                index += IndexInc;
-                image.setRGB(x, y, value);
-            }
-        }
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        RawImageConverter.toARGB(rawImage, rotation, pixels,
+                Runtime.getRuntime().availableProcessors());
 
         if (!ImageIO.write(image, "png", new File(filepath))) {
             throw new IOException("Failed to find png writer");